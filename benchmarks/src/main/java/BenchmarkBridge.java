@@ -0,0 +1,68 @@
+import bench.DockSet;
+import bench.Fleet;
+import bench.Rebalancer;
+
+/**
+ * ValleyBikeSim lives in the default package, which classes in a named package cannot
+ * import, and JMH will not generate benchmarks for classes in the default package.
+ * This class sits in the default package next to the project's classes and hands them
+ * to the benchmarks behind interfaces from the bench package. Benchmarks look it up
+ * once during setup with reflection, so measured code makes plain interface calls
+ */
+public class BenchmarkBridge {
+
+    /**
+     * @param expectedBikes number of bikes the set should hold without growing
+     * @return a new, empty IntDockSet
+     */
+    public static DockSet intDockSet(int expectedBikes) {
+        final IntDockSet docks = new IntDockSet(expectedBikes);
+        return new DockSet() {
+            @Override
+            public boolean add(int bikeId) {
+                return docks.add(bikeId);
+            }
+
+            @Override
+            public boolean remove(int bikeId) {
+                return docks.remove(bikeId);
+            }
+
+            @Override
+            public boolean contains(int bikeId) {
+                return docks.contains(bikeId);
+            }
+
+            @Override
+            public int size() {
+                return docks.size();
+            }
+        };
+    }
+
+    /**
+     * @return a Rebalancer that runs RebalancePlanner, with the city block distance between
+     * stations as the cost of a move when positions are given
+     */
+    public static Rebalancer rebalancePlanner() {
+        return (stationIds, bikes, capacity, x, y) -> {
+            RebalancePlanner.TransferCost cost = null;
+            if (x != null) {
+                // station ids are 1 to n, so a station's position is at index id - 1
+                cost = (from, to) -> Math.abs(x[from - 1] - x[to - 1]) + Math.abs(y[from - 1] - y[to - 1]);
+            }
+            return RebalancePlanner.plan(stationIds, bikes, capacity, cost).bikesMoved;
+        };
+    }
+
+    /**
+     * @param stations number of stations
+     * @param bikes number of bikes
+     * @param rides number of returned rides
+     * @param customers number of customer accounts
+     * @return a synthetic fleet in a temporary SQLite database, already loaded into ValleyBikeSim
+     */
+    public static Fleet fleet(int stations, int bikes, int rides, int customers) {
+        return new SyntheticFleet(stations, bikes, rides, customers);
+    }
+}
@@ -0,0 +1,194 @@
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Measures how long it takes to read every row of a large Ride table into ride objects,
+ * first with ride ids and times stored as strings (schema version 7) and then after
+ * SchemaMigrator has stored them as 16 byte ids and epoch milliseconds
+ *
+ * Each read decodes the rows the way ValleyBikeSim.readRide does for that schema, and the
+ * table's size on disk is printed for both
+ *
+ * Usage: RideEncodingBenchmark [number of rides, default 1000000]
+ */
+public class RideEncodingBenchmark {
+
+    /** number of rides written per jdbc batch while filling the table */
+    private static final int INSERT_BATCH_SIZE = 10_000;
+
+    /** number of timed full reads before and after the migration */
+    private static final int READ_PASSES = 5;
+
+    /** the first ride starts here, and the rest within the following 30 days */
+    private static final Instant FIRST_RIDE = Instant.parse("2019-08-01T00:00:00Z");
+
+    public static void main(String[] args) throws Exception {
+        int rides = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        File dbFile = File.createTempFile("valleybike-bench", ".db");
+        dbFile.deleteOnExit();
+        ConnectionPool.configure("jdbc:sqlite:" + dbFile.getAbsolutePath(), 1);
+
+        try {
+            // start from the schema with string ids and times
+            SchemaMigrator.migrateTo(7);
+
+            System.out.println("Filling Ride with " + rides + " rows...");
+            fillRides(rides);
+            long bytesBefore = databaseBytes();
+            double[] before = timeReads(false);
+
+            long start = System.nanoTime();
+            if (!SchemaMigrator.migrate()) {
+                throw new IllegalStateException("migration failed");
+            }
+            double migrationMillis = (System.nanoTime() - start) / 1_000_000.0;
+
+            // the old table's pages are only given back to the file by a vacuum
+            try (PooledConnection pooled = ConnectionPool.getConnection();
+                 Statement stmt = pooled.createStatement()) {
+                stmt.executeUpdate("VACUUM");
+            }
+            long bytesAfter = databaseBytes();
+            double[] after = timeReads(true);
+
+            System.out.format("%nReading a %,d row Ride table into rides (%d full reads)%n", rides, READ_PASSES);
+            System.out.format("  %-28s%12s%12s%14s%n", "", "median ms", "max ms", "bytes / ride");
+            printRow("strings (version 7)", before, bytesBefore / (double) rides);
+            printRow("bytes + millis (v" + SchemaMigrator.latestVersion() + ")", after, bytesAfter / (double) rides);
+            System.out.format("  median speedup: %.1fx%n", median(before) / median(after));
+            System.out.format("  one-off migration time: %.1f ms%n", migrationMillis);
+        } finally {
+            ConnectionPool.closeAll();
+            dbFile.delete();
+        }
+    }
+
+    /**
+     * Inserts the given number of random returned rides in one transaction, with string ids and times
+     *
+     * @param rides number of rows to insert
+     */
+    private static void fillRides(int rides) throws SQLException, ClassNotFoundException {
+        Random random = new Random(42);
+
+        try (PooledConnection pooled = ConnectionPool.getConnection()) {
+            Connection conn = pooled.getConnection();
+            conn.setAutoCommit(false);
+
+            PreparedStatement pstmt = pooled.prepareStatement(
+                    "INSERT INTO Ride (ride_id, bike_id, username, is_returned, ride_length, start_time_stamp, " +
+                            "end_time_stamp, payment, station_to, station_from) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+
+            for (int i = 0; i < rides; i++) {
+                int minutes = 1 + random.nextInt(90);
+                Instant rideStart = FIRST_RIDE.plusSeconds(random.nextInt(30 * 24 * 60) * 60L);
+                pstmt.setString(1, new UUID(random.nextLong(), random.nextLong()).toString());
+                pstmt.setInt(2, random.nextInt(200));
+                pstmt.setString(3, "user" + random.nextInt(5_000));
+                pstmt.setInt(4, 1);
+                pstmt.setLong(5, minutes);
+                pstmt.setString(6, rideStart.toString());
+                pstmt.setString(7, rideStart.plusSeconds(minutes * 60L).toString());
+                pstmt.setDouble(8, 0);
+                pstmt.setInt(9, random.nextInt(30));
+                pstmt.setInt(10, random.nextInt(30));
+                pstmt.addBatch();
+
+                if ((i + 1) % INSERT_BATCH_SIZE == 0) {
+                    pstmt.executeBatch();
+                }
+            }
+            pstmt.executeBatch();
+            conn.commit();
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Reads every ride READ_PASSES times
+     *
+     * @param compact true to decode 16 byte ids and epoch milliseconds, false for strings
+     * @return time each full read took, in milliseconds
+     */
+    private static double[] timeReads(boolean compact) throws Exception {
+        double[] millis = new double[READ_PASSES];
+
+        try (PooledConnection pooled = ConnectionPool.getConnection();
+             Statement stmt = pooled.createStatement()) {
+            for (int pass = 0; pass < READ_PASSES; pass++) {
+                long start = System.nanoTime();
+                long checksum = 0;
+                try (ResultSet rs = stmt.executeQuery("SELECT * FROM Ride")) {
+                    while (rs.next()) {
+                        Ride ride = compact ? readCompactRide(rs) : readStringRide(rs);
+                        checksum += ride.getStartTimeStamp().getEpochSecond() + ride.getRideId().hashCode();
+                    }
+                }
+                millis[pass] = (System.nanoTime() - start) / 1_000_000.0;
+
+                // keeps the rides from being optimised away
+                if (checksum == 42) {
+                    System.out.println();
+                }
+            }
+        }
+        return millis;
+    }
+
+    private static Ride readStringRide(ResultSet rs) throws Exception {
+        Ride ride = new Ride(UUID.fromString(rs.getString("ride_id")), rs.getInt("bike_id"), rs.getString("username"),
+                rs.getInt("is_returned") == 1, Instant.parse(rs.getString("start_time_stamp")),
+                Instant.parse(rs.getString("end_time_stamp")), rs.getInt("station_from"), rs.getInt("station_to"));
+        ride.setRideLength(rs.getLong("ride_length"));
+        ride.setPayment(rs.getDouble("payment"));
+        return ride;
+    }
+
+    private static Ride readCompactRide(ResultSet rs) throws Exception {
+        Ride ride = new Ride(Ride.idFromBytes(rs.getBytes("ride_id")), rs.getInt("bike_id"), rs.getString("username"),
+                rs.getInt("is_returned") == 1, Instant.ofEpochMilli(rs.getLong("start_time_stamp")),
+                Instant.ofEpochMilli(rs.getLong("end_time_stamp")), rs.getInt("station_from"), rs.getInt("station_to"));
+        ride.setRideLength(rs.getLong("ride_length"));
+        ride.setPayment(rs.getDouble("payment"));
+        return ride;
+    }
+
+    /**
+     * @return size of the database file in use, from sqlite's page count
+     */
+    private static long databaseBytes() throws SQLException, ClassNotFoundException {
+        try (PooledConnection pooled = ConnectionPool.getConnection();
+             Statement stmt = pooled.createStatement()) {
+            long pages;
+            try (ResultSet rs = stmt.executeQuery("PRAGMA page_count")) {
+                pages = rs.next() ? rs.getLong(1) : 0;
+            }
+            try (ResultSet rs = stmt.executeQuery("PRAGMA page_size")) {
+                return rs.next() ? pages * rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    private static void printRow(String label, double[] millis, double bytesPerRide) {
+        double max = 0;
+        for (double m : millis) {
+            max = Math.max(max, m);
+        }
+        System.out.format("  %-28s%12.1f%12.1f%14.1f%n", label, median(millis), max, bytesPerRide);
+    }
+
+    private static double median(double[] millis) {
+        double[] sorted = millis.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,151 @@
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Measures how long a single ride update takes on a large Ride table,
+ * first on the original schema with no keys and then after SchemaMigrator
+ * has added the primary keys and indexes
+ * It stops at version 2, because later versions store ride ids as bytes instead of the strings it updates by
+ *
+ * Usage: SchemaMigrationBenchmark [number of rides, default 1000000]
+ */
+public class SchemaMigrationBenchmark {
+
+    /** number of rides written per jdbc batch while filling the table */
+    private static final int INSERT_BATCH_SIZE = 10_000;
+
+    /** number of timed updates before and after the migration */
+    private static final int UPDATE_SAMPLES = 50;
+
+    /** the same statement ValleyBikeSim uses to change a ride's length */
+    private static final String UPDATE_SQL = "UPDATE Ride SET ride_length = ? WHERE ride_id = ?";
+
+    public static void main(String[] args) throws Exception {
+        int rides = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        File dbFile = File.createTempFile("valleybike-bench", ".db");
+        dbFile.deleteOnExit();
+        ConnectionPool.configure("jdbc:sqlite:" + dbFile.getAbsolutePath(), 1);
+
+        try {
+            // start from the schema as it was before any keys were added
+            SchemaMigrator.migrateTo(1);
+
+            System.out.println("Filling Ride with " + rides + " rows...");
+            List<String> sampleIds = fillRides(rides);
+
+            double[] before = timeUpdates(sampleIds);
+
+            long start = System.nanoTime();
+            if (!SchemaMigrator.migrateTo(2)) {
+                throw new IllegalStateException("migration failed");
+            }
+            double migrationMillis = (System.nanoTime() - start) / 1_000_000.0;
+
+            double[] after = timeUpdates(sampleIds);
+
+            System.out.format("%nUpdate latency on a %,d row Ride table (%d updates by ride_id)%n", rides, UPDATE_SAMPLES);
+            System.out.format("  %-24s%12s%12s%12s%n", "", "median ms", "mean ms", "max ms");
+            printRow("no keys (version 1)", before);
+            printRow("keys + indexes (v2)", after);
+            System.out.format("  median speedup: %.1fx%n", median(before) / median(after));
+            System.out.format("  one-off migration time: %.1f ms%n", migrationMillis);
+        } finally {
+            ConnectionPool.closeAll();
+            dbFile.delete();
+        }
+    }
+
+    /**
+     * Inserts the given number of random rides in one transaction
+     *
+     * @param rides number of rows to insert
+     * @return ride ids spread evenly through the table, to update during timing
+     */
+    private static List<String> fillRides(int rides) throws SQLException, ClassNotFoundException {
+        Random random = new Random(42);
+        List<String> sampleIds = new ArrayList<>();
+        int sampleEvery = Math.max(1, rides / UPDATE_SAMPLES);
+
+        try (PooledConnection pooled = ConnectionPool.getConnection()) {
+            Connection conn = pooled.getConnection();
+            conn.setAutoCommit(false);
+
+            PreparedStatement pstmt = pooled.prepareStatement(
+                    "INSERT INTO Ride (ride_id, bike_id, username, is_returned, ride_length, start_time_stamp, " +
+                            "end_time_stamp, payment, station_to, station_from) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+
+            for (int i = 0; i < rides; i++) {
+                String rideId = new UUID(random.nextLong(), random.nextLong()).toString();
+                if (i % sampleEvery == 0 && sampleIds.size() < UPDATE_SAMPLES) {
+                    sampleIds.add(rideId);
+                }
+
+                pstmt.setString(1, rideId);
+                pstmt.setInt(2, random.nextInt(200));
+                pstmt.setString(3, "user" + random.nextInt(5_000));
+                pstmt.setInt(4, 1);
+                pstmt.setLong(5, random.nextInt(120));
+                pstmt.setString(6, "2019-08-20T10:00:00Z");
+                pstmt.setString(7, "2019-08-20T10:30:00Z");
+                pstmt.setDouble(8, 0);
+                pstmt.setInt(9, random.nextInt(30));
+                pstmt.setInt(10, random.nextInt(30));
+                pstmt.addBatch();
+
+                if ((i + 1) % INSERT_BATCH_SIZE == 0) {
+                    pstmt.executeBatch();
+                }
+            }
+            pstmt.executeBatch();
+            conn.commit();
+            conn.setAutoCommit(true);
+        }
+        return sampleIds;
+    }
+
+    /**
+     * Runs one autocommit update per sample id, the way ValleyBikeSim's update methods do
+     *
+     * @param rideIds rides to update
+     * @return time each update took, in milliseconds
+     */
+    private static double[] timeUpdates(List<String> rideIds) throws SQLException, ClassNotFoundException {
+        double[] millis = new double[rideIds.size()];
+
+        try (PooledConnection pooled = ConnectionPool.getConnection()) {
+            for (int i = 0; i < rideIds.size(); i++) {
+                long start = System.nanoTime();
+                PreparedStatement pstmt = pooled.prepareStatement(UPDATE_SQL);
+                pstmt.setLong(1, i);
+                pstmt.setString(2, rideIds.get(i));
+                pstmt.executeUpdate();
+                millis[i] = (System.nanoTime() - start) / 1_000_000.0;
+            }
+        }
+        return millis;
+    }
+
+    private static void printRow(String label, double[] millis) {
+        double max = 0;
+        double total = 0;
+        for (double m : millis) {
+            max = Math.max(max, m);
+            total += m;
+        }
+        System.out.format("  %-24s%12.3f%12.3f%12.3f%n", label, median(millis), total / millis.length, max);
+    }
+
+    private static double median(double[] millis) {
+        double[] sorted = millis.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,265 @@
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.ParseException;
+import java.time.Instant;
+import java.util.Random;
+import java.util.UUID;
+
+import bench.Fleet;
+
+/**
+ * Fills a temporary SQLite database with made-up stations, bikes, customers and rides,
+ * then loads it into ValleyBikeSim the way the program does at startup
+ *
+ * Every bike starts docked, spread evenly over the stations, and each station has room for
+ * twice its share of the bikes. Every ride has been returned, a third of the customers pay
+ * as they go and the rest are monthly or yearly members. The same sizes always give the same fleet
+ */
+class SyntheticFleet implements Fleet {
+
+    /** rows written per jdbc batch while filling the tables */
+    private static final int INSERT_BATCH_SIZE = 10_000;
+
+    /** first ride start time; rides are spread over the following 30 days */
+    private static final Instant FIRST_RIDE = Instant.parse("2019-08-01T10:00:00Z");
+
+    /** the database file; the ride archive sits next to it */
+    private final File dbFile;
+
+    /** number of stations */
+    private final int stations;
+
+    /** number of bikes */
+    private final int bikes;
+
+    /**
+     * Creates the database, fills it and loads every table
+     *
+     * @param stations number of stations
+     * @param bikes number of bikes
+     * @param rides number of returned rides
+     * @param customers number of customer accounts
+     */
+    SyntheticFleet(int stations, int bikes, int rides, int customers) {
+        this.stations = stations;
+        this.bikes = bikes;
+        try {
+            dbFile = File.createTempFile("valleybike-fleet", ".db");
+            ConnectionPool.configure("jdbc:sqlite:" + dbFile.getAbsolutePath(), 2);
+            if (!SchemaMigrator.migrate()) {
+                throw new IllegalStateException("migration failed");
+            }
+
+            try (PooledConnection pooled = ConnectionPool.getConnection()) {
+                Connection conn = pooled.getConnection();
+                conn.setAutoCommit(false);
+                Random random = new Random(42);
+                fillStationsAndBikes(conn);
+                fillCustomers(conn, customers, random);
+                fillRides(conn, rides, customers, random);
+                SchemaMigrator.rebuildCustomerRideStats(conn);
+                conn.commit();
+                conn.setAutoCommit(true);
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not build a fleet of " + stations + " stations", e);
+        }
+
+        load("Station");
+        load("Bike");
+        load("Customer_Account");
+        load("Ride");
+    }
+
+    private void fillStationsAndBikes(Connection conn) throws SQLException {
+        int capacity = Math.max(10, 2 * ((bikes + stations - 1) / stations));
+        try (PreparedStatement station = conn.prepareStatement("INSERT INTO Station(id, name, bikes, available_docks, " +
+                "req_mnt, capacity, kiosk, address) VALUES(?, ?, ?, ?, 0, ?, 1, ?)")) {
+            for (int id = 1; id <= stations; id++) {
+                // bikes are handed out in turn, so the first stations get one more when they do not divide evenly
+                int docked = bikes / stations + (id <= bikes % stations ? 1 : 0);
+                station.setInt(1, id);
+                station.setString(2, "Station " + id);
+                station.setInt(3, docked);
+                station.setInt(4, capacity - docked);
+                station.setInt(5, capacity);
+                station.setString(6, id + " Main St");
+                station.addBatch();
+            }
+            station.executeBatch();
+        }
+
+        try (PreparedStatement bike = conn.prepareStatement("INSERT INTO Bike(id, location, station_id, req_mnt, " +
+                "mnt_report) VALUES(?, 0, ?, 0, 'n')");
+             PreparedStatement dock = conn.prepareStatement("INSERT INTO Station_Dock(bike_id, station_id) VALUES(?, ?)")) {
+            for (int id = 1; id <= bikes; id++) {
+                int stationId = 1 + (id - 1) % stations;
+                bike.setInt(1, id);
+                bike.setInt(2, stationId);
+                bike.addBatch();
+                dock.setInt(1, id);
+                dock.setInt(2, stationId);
+                dock.addBatch();
+                if (id % INSERT_BATCH_SIZE == 0) {
+                    bike.executeBatch();
+                    dock.executeBatch();
+                }
+            }
+            bike.executeBatch();
+            dock.executeBatch();
+        }
+    }
+
+    private static void fillCustomers(Connection conn, int customers, Random random) throws SQLException {
+        try (PreparedStatement account = conn.prepareStatement("INSERT INTO Customer_Account(username, password, " +
+                "email_address, credit_card, balance, last_ride_is_returned, enabled) VALUES(?, ?, ?, ?, ?, 1, 1)");
+             PreparedStatement membership = conn.prepareStatement("INSERT INTO Membership(username, total_rides_left, " +
+                     "last_payment, membership_since, type) VALUES(?, ?, '2019-08-01', '2019-01-01', ?)")) {
+            for (int i = 0; i < customers; i++) {
+                String username = "rider" + i;
+                account.setString(1, username);
+                account.setString(2, "password" + i);
+                account.setString(3, username + "@valleybike.org");
+                account.setString(4, "4111111111111111");
+                account.setDouble(5, random.nextInt(5000) / 100.0);
+                account.addBatch();
+
+                // 1 is pay-as-you-go, 2 monthly and 3 yearly
+                int type = 1 + i % 3;
+                membership.setString(1, username);
+                membership.setInt(2, type == 1 ? 0 : random.nextInt(type == 2 ? 21 : 261));
+                membership.setInt(3, type);
+                membership.addBatch();
+
+                if ((i + 1) % INSERT_BATCH_SIZE == 0) {
+                    account.executeBatch();
+                    membership.executeBatch();
+                }
+            }
+            account.executeBatch();
+            membership.executeBatch();
+        }
+    }
+
+    private void fillRides(Connection conn, int rides, int customers, Random random) throws SQLException {
+        try (PreparedStatement ride = conn.prepareStatement("INSERT INTO Ride(ride_id, bike_id, username, is_returned, " +
+                "ride_length, start_time_stamp, end_time_stamp, payment, station_to, station_from) " +
+                "VALUES(?, ?, ?, 1, ?, ?, ?, ?, ?, ?)")) {
+            for (int i = 0; i < rides; i++) {
+                int minutes = 1 + random.nextInt(90);
+                Instant start = FIRST_RIDE.plusSeconds(random.nextInt(30 * 24 * 60) * 60L);
+                ride.setBytes(1, Ride.idToBytes(new UUID(random.nextLong(), random.nextLong())));
+                ride.setInt(2, 1 + random.nextInt(Math.max(1, bikes)));
+                ride.setString(3, customers == 0 ? null : "rider" + random.nextInt(customers));
+                ride.setLong(4, minutes);
+                ride.setLong(5, start.toEpochMilli());
+                ride.setLong(6, start.plusSeconds(minutes * 60L).toEpochMilli());
+                ride.setDouble(7, ValleyBikeSim.calculateRentalCharge(random.nextInt(2), minutes));
+                ride.setInt(8, 1 + random.nextInt(stations));
+                ride.setInt(9, 1 + random.nextInt(stations));
+                ride.addBatch();
+                if ((i + 1) % INSERT_BATCH_SIZE == 0) {
+                    ride.executeBatch();
+                }
+            }
+            ride.executeBatch();
+        }
+    }
+
+    @Override
+    public int moveStation(int bikeId) {
+        Bike bike = ValleyBikeSim.getBikeObj(bikeId);
+        int next = bike.getStation() % stations + 1;
+        try {
+            ValleyBikeSim.moveStation(bike, next);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+        return next;
+    }
+
+    @Override
+    public int undockAndDock(int stationId) {
+        Station station = ValleyBikeSim.getStationObj(stationId);
+        if (station.getBikes() == 0) {
+            return 0;
+        }
+        int bikeId = station.peekBike();
+        station.removeFromBikeList(bikeId);
+        station.addToBikeList(bikeId);
+        return bikeId;
+    }
+
+    @Override
+    public int[] bikeIds(int stationId) {
+        return ValleyBikeSim.getStationObj(stationId).getBikeIds();
+    }
+
+    @Override
+    public void unbalance(int bikesToMove) {
+        // take bikes from the last stations and fill the first ones, as far as they have room
+        int to = 1;
+        for (int from = stations; from > 0 && bikesToMove > 0; from--) {
+            Station giver = ValleyBikeSim.getStationObj(from);
+            while (giver.getBikes() > 0 && bikesToMove > 0 && to < from) {
+                Station taker = ValleyBikeSim.getStationObj(to);
+                if (taker.getAvailableDocks() <= 0) {
+                    to++;
+                    continue;
+                }
+                ValleyBikeSim.applyMoveStation(ValleyBikeSim.getBikeObj(giver.peekBike()), giver, taker, to);
+                bikesToMove--;
+            }
+        }
+    }
+
+    @Override
+    public void equalizeStations() {
+        try {
+            ValleyBikeSim.equalizeStations();
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public double rentalCharge(int ridesLeft, long rideLength) {
+        return ValleyBikeSim.calculateRentalCharge(ridesLeft, rideLength);
+    }
+
+    @Override
+    public int load(String table) {
+        try (PooledConnection pooled = ConnectionPool.getConnection();
+             Statement stmt = pooled.getConnection().createStatement()) {
+            switch (table) {
+                case "Station":
+                    return ValleyBikeSim.readStationData(stmt);
+                case "Bike":
+                    return ValleyBikeSim.readBikeData(stmt);
+                case "Customer_Account":
+                    return ValleyBikeSim.readCustomerAccountData(stmt);
+                case "Ride":
+                    // reading rides opens the ride archive, so close the one the last read opened
+                    ValleyBikeSim.closeRideArchive();
+                    return ValleyBikeSim.readRideData(stmt);
+                default:
+                    throw new IllegalArgumentException("No loader for table " + table);
+            }
+        } catch (SQLException | ClassNotFoundException | ParseException e) {
+            throw new IllegalStateException("Could not load " + table, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        ValleyBikeSim.closeRideArchive();
+        ConnectionPool.closeAll();
+        String path = dbFile.getAbsolutePath();
+        new File(path + ".rides").delete();
+        new File(path + ".ride-users").delete();
+        dbFile.delete();
+    }
+}
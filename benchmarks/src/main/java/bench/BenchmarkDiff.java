@@ -0,0 +1,120 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two JMH result files written with "-rf csv", for example from the last release and this one
+ *
+ * Each benchmark and parameter set in both files gets a line with the old score, the new score and
+ * the change. A change is only called slower or faster when the scores are further apart than their
+ * error margins added together
+ *
+ * Usage: java -cp target/benchmarks.jar bench.BenchmarkDiff old.csv new.csv
+ */
+public class BenchmarkDiff {
+
+    /**
+     * One row of a JMH csv file
+     */
+    private static final class Score {
+        final double score;
+        final double error;
+        final String unit;
+
+        Score(double score, double error, String unit) {
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: BenchmarkDiff old.csv new.csv");
+            return;
+        }
+        Map<String, Score> before = read(args[0]);
+        Map<String, Score> after = read(args[1]);
+
+        System.out.format("%-70s%14s%14s%10s%n", "Benchmark", "old", "new", "change");
+        for (Map.Entry<String, Score> entry : after.entrySet()) {
+            Score old = before.get(entry.getKey());
+            Score now = entry.getValue();
+            if (old == null) {
+                System.out.format("%-70s%14s%14.3f%10s  new%n", entry.getKey(), "", now.score, "");
+                continue;
+            }
+            double change = old.score == 0 ? 0 : 100 * (now.score - old.score) / old.score;
+
+            // lower is better for times per operation, higher is better for operations per time
+            boolean timePerOp = now.unit.endsWith("/op");
+            String verdict = "";
+            if (Math.abs(now.score - old.score) > old.error + now.error) {
+                verdict = (now.score > old.score) == timePerOp ? "  slower" : "  faster";
+            }
+            System.out.format("%-70s%14.3f%14.3f%9.1f%%%s%n", entry.getKey(), old.score, now.score, change, verdict);
+        }
+        for (String key : before.keySet()) {
+            if (!after.containsKey(key)) {
+                System.out.format("%-70s%14.3f%14s%10s  gone%n", key, before.get(key).score, "", "");
+            }
+        }
+    }
+
+    /**
+     * @param file path of a JMH csv result file
+     * @return score of each benchmark, keyed by its name and parameters
+     */
+    private static Map<String, Score> read(String file) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+        Map<String, Score> scores = new LinkedHashMap<>();
+        if (lines.isEmpty()) {
+            return scores;
+        }
+
+        List<String> header = split(lines.get(0));
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            List<String> cells = split(line);
+            StringBuilder key = new StringBuilder(cells.get(0)).append(' ').append(cells.get(1));
+            for (int i = 7; i < cells.size() && i < header.size(); i++) {
+                key.append(' ').append(header.get(i).replace("Param: ", "")).append('=').append(cells.get(i));
+            }
+            String error = cells.get(5);
+            scores.put(key.toString(), new Score(Double.parseDouble(cells.get(4)),
+                    error.isEmpty() || "NaN".equals(error) ? 0 : Double.parseDouble(error), cells.get(6)));
+        }
+        return scores;
+    }
+
+    /**
+     * Splits a csv line on commas outside double quotes and removes the quotes
+     */
+    private static List<String> split(String line) {
+        List<String> cells = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                cells.add(cell.toString());
+                cell.setLength(0);
+            } else {
+                cell.append(c);
+            }
+        }
+        cells.add(cell.toString());
+        return cells;
+    }
+}
@@ -0,0 +1,25 @@
+package bench;
+
+/**
+ * Calls the static factory methods of the default-package BenchmarkBridge class
+ */
+final class Bridge {
+
+    private Bridge() {
+    }
+
+    /**
+     * @param method name of the BenchmarkBridge factory method
+     * @param parameterTypes the method's parameter types
+     * @param args the arguments to pass
+     * @return whatever the factory method returns
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T call(String method, Class<?>[] parameterTypes, Object... args) {
+        try {
+            return (T) Class.forName("BenchmarkBridge").getMethod(method, parameterTypes).invoke(null, args);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not call BenchmarkBridge." + method, e);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package bench;
+
+/**
+ * The operations a station performs on its docked bikes, so different
+ * dock structures can be benchmarked side by side
+ */
+public interface DockSet {
+
+    boolean add(int bikeId);
+
+    boolean remove(int bikeId);
+
+    boolean contains(int bikeId);
+
+    int size();
+}
@@ -0,0 +1,61 @@
+package bench;
+
+/**
+ * A synthetic fleet loaded into ValleyBikeSim from a temporary SQLite database, so the
+ * domain operations can be benchmarked from the bench package
+ *
+ * Stations and bikes are numbered from 1
+ */
+public interface Fleet extends AutoCloseable {
+
+    /**
+     * Moves a bike to the next station through ValleyBikeSim.moveStation, which writes to the database
+     * @param bikeId the bike to move
+     * @return the station the bike moved to
+     */
+    int moveStation(int bikeId);
+
+    /**
+     * Takes a bike off its station with Station.removeFromBikeList and docks it again
+     * @param stationId the station
+     * @return the bike that was undocked and docked, or 0 if the station is empty
+     */
+    int undockAndDock(int stationId);
+
+    /**
+     * @param stationId the station
+     * @return the ids of the bikes docked at the station
+     */
+    int[] bikeIds(int stationId);
+
+    /**
+     * Moves bikes between stations in memory only, so equalizeStations has work to do
+     * @param bikes number of bikes to pile onto the first stations
+     */
+    void unbalance(int bikes);
+
+    /**
+     * Runs ValleyBikeSim.equalizeStations
+     */
+    void equalizeStations();
+
+    /**
+     * @param ridesLeft included rides left on the membership
+     * @param rideLength length of the ride in minutes
+     * @return what ValleyBikeSim.calculateRentalCharge charges
+     */
+    double rentalCharge(int ridesLeft, long rideLength);
+
+    /**
+     * Reads one table into ValleyBikeSim's maps with its readXxxData method
+     * @param table Station, Bike, Ride or Customer_Account
+     * @return number of rows read
+     */
+    int load(String table);
+
+    /**
+     * Closes the database and deletes its files
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,125 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times the domain operations the kiosk leans on, against a synthetic fleet in a temporary SQLite file
+ *
+ * moveStation and equalizeStations write to the database; removeFromBikeList, bikeIds and
+ * calculateRentalCharge only touch memory; the read benchmarks load a whole table the way
+ * the program does at startup. Change the fleet size from the command line, for example
+ * "-p stations=1000 -p bikes=20000", and write results to a file with "-rf json -rff results.json"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class FleetBenchmark {
+
+    @Param({"100"})
+    public int stations;
+
+    @Param({"2000"})
+    public int bikes;
+
+    @Param({"100000"})
+    public int rides;
+
+    @Param({"10000"})
+    public int customers;
+
+    private Fleet fleet;
+
+    private int nextBike;
+
+    private int nextStation;
+
+    private int nextRide;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fleet = Bridge.call("fleet", new Class<?>[]{int.class, int.class, int.class, int.class},
+                stations, bikes, rides, customers);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fleet.close();
+    }
+
+    /**
+     * Piles a tenth of the bikes onto the first stations before each equalizeStations call
+     */
+    @State(Scope.Thread)
+    public static class Unbalanced {
+        @Setup(Level.Invocation)
+        public void unbalance(FleetBenchmark benchmark) {
+            benchmark.fleet.unbalance(benchmark.bikes / 10);
+        }
+    }
+
+    @Benchmark
+    public int moveStation() {
+        nextBike = nextBike % bikes + 1;
+        return fleet.moveStation(nextBike);
+    }
+
+    @Benchmark
+    public int removeFromBikeList() {
+        nextStation = nextStation % stations + 1;
+        return fleet.undockAndDock(nextStation);
+    }
+
+    @Benchmark
+    public int[] bikeIds() {
+        nextStation = nextStation % stations + 1;
+        return fleet.bikeIds(nextStation);
+    }
+
+    @Benchmark
+    public void equalizeStations(Unbalanced unbalanced) {
+        fleet.equalizeStations();
+    }
+
+    @Benchmark
+    public double calculateRentalCharge() {
+        nextRide++;
+        return fleet.rentalCharge(nextRide & 1, nextRide % 120);
+    }
+
+    @Benchmark
+    public int readStationData() {
+        return fleet.load("Station");
+    }
+
+    @Benchmark
+    public int readBikeData() {
+        return fleet.load("Bike");
+    }
+
+    @Benchmark
+    public int readRideData() {
+        return fleet.load("Ride");
+    }
+
+    @Benchmark
+    public int readCustomerAccountData() {
+        return fleet.load("Customer_Account");
+    }
+}
@@ -0,0 +1,37 @@
+package bench;
+
+import java.util.LinkedList;
+
+/**
+ * The way Station kept its bikes before IntDockSet: a LinkedList of boxed ids,
+ * searched with indexOf on every removal
+ */
+public class LinkedListDockSet implements DockSet {
+
+    private final LinkedList<Integer> bikeList = new LinkedList<>();
+
+    @Override
+    public boolean add(int bikeId) {
+        return bikeList.add(bikeId);
+    }
+
+    @Override
+    public boolean remove(int bikeId) {
+        int bikeIndex = bikeList.indexOf(bikeId);
+        if (bikeIndex == -1) {
+            return false;
+        }
+        bikeList.remove(bikeIndex);
+        return true;
+    }
+
+    @Override
+    public boolean contains(int bikeId) {
+        return bikeList.contains(bikeId);
+    }
+
+    @Override
+    public int size() {
+        return bikeList.size();
+    }
+}
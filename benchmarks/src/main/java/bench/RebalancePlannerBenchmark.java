@@ -0,0 +1,80 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times how long RebalancePlanner takes to plan a rebalancing of 1000 to 10000 stations
+ *
+ * "uniform" is what equalizeStations runs, where every move costs the same. "distance" places
+ * the stations at random on a 10 km square and makes the cost of a move the city block distance,
+ * which is solved as a min-cost flow
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class RebalancePlannerBenchmark {
+
+    @Param({"1000", "5000", "10000"})
+    public int stations;
+
+    @Param({"uniform", "distance"})
+    public String costs;
+
+    private Rebalancer planner;
+
+    private int[] stationIds;
+
+    private int[] bikes;
+
+    private int[] capacity;
+
+    private int[] x;
+
+    private int[] y;
+
+    @Setup
+    public void setUp() {
+        planner = Bridge.call("rebalancePlanner", new Class<?>[0]);
+
+        // stations of 10 to 40 docks, each anywhere from empty to full
+        Random random = new Random(42);
+        stationIds = new int[stations];
+        bikes = new int[stations];
+        capacity = new int[stations];
+        for (int i = 0; i < stations; i++) {
+            stationIds[i] = i + 1;
+            capacity[i] = 10 + random.nextInt(31);
+            bikes[i] = random.nextInt(capacity[i] + 1);
+        }
+
+        if ("distance".equals(costs)) {
+            x = new int[stations];
+            y = new int[stations];
+            for (int i = 0; i < stations; i++) {
+                x[i] = random.nextInt(10000);
+                y[i] = random.nextInt(10000);
+            }
+        }
+    }
+
+    @Benchmark
+    public int plan() {
+        return planner.plan(stationIds, bikes, capacity, x, y);
+    }
+}
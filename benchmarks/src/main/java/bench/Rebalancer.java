@@ -0,0 +1,17 @@
+package bench;
+
+/**
+ * Plans a rebalancing of stations, so the planner can be benchmarked from the bench package
+ */
+public interface Rebalancer {
+
+    /**
+     * @param stationIds id of each station
+     * @param bikes bikes docked at each station
+     * @param capacity capacity of each station
+     * @param x east-west position of each station, or null if every move costs the same
+     * @param y north-south position of each station, or null if every move costs the same
+     * @return number of bikes the plan moves
+     */
+    int plan(int[] stationIds, int[] bikes, int[] capacity, int[] x, int[] y);
+}
@@ -0,0 +1,82 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares Station's IntDockSet with the LinkedList it replaced, for stations
+ * from a normal size up to thousands of docks
+ *
+ * contains is the check chooseRentBike makes on the bike a customer picks, and
+ * undockAndDock is one bike leaving a station and another arriving
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StationDockBenchmark {
+
+    /** number of random bike ids to cycle through, a power of two */
+    private static final int LOOKUPS = 4096;
+
+    @Param({"20", "1000", "5000"})
+    public int docks;
+
+    @Param({"LinkedList", "IntDockSet"})
+    public String structure;
+
+    private DockSet dockSet;
+
+    private int[] bikeIds;
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        dockSet = "LinkedList".equals(structure)
+                ? new LinkedListDockSet()
+                : Bridge.<DockSet>call("intDockSet", new Class<?>[]{int.class}, docks);
+
+        // bike ids are handed out in order, so a full station holds a run of ids
+        for (int bikeId = 1; bikeId <= docks; bikeId++) {
+            dockSet.add(bikeId);
+        }
+
+        Random random = new Random(42);
+        bikeIds = new int[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            bikeIds[i] = 1 + random.nextInt(docks);
+        }
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return dockSet.contains(nextBikeId());
+    }
+
+    @Benchmark
+    public boolean undockAndDock() {
+        int bikeId = nextBikeId();
+        dockSet.remove(bikeId);
+        return dockSet.add(bikeId);
+    }
+
+    private int nextBikeId() {
+        next = (next + 1) & (LOOKUPS - 1);
+        return bikeIds[next];
+    }
+}
@@ -0,0 +1,288 @@
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of long-lived connections to the ValleyBike sqlite database
+ * All persistence in ValleyBikeSim borrows a connection from here instead of
+ * opening a brand new one for every update
+ *
+ * Also keeps track of how long callers had to wait for a free connection
+ */
+class ConnectionPool {
+
+    /** url of the database every pooled connection points at */
+    private static String dbURL = "jdbc:sqlite:ValleyBike.db";
+
+    /** maximum number of connections the pool will open */
+    private static int maxConnections = 4;
+
+    /** how long a caller waits for a free connection before giving up */
+    private static final long BORROW_TIMEOUT_SECONDS = 30;
+
+    /** connections that are open and not currently borrowed */
+    private static BlockingQueue<PooledConnection> idleConnections = new ArrayBlockingQueue<>(maxConnections);
+
+    /** number of connections currently open, borrowed or idle */
+    private static final AtomicInteger openConnections = new AtomicInteger();
+
+    /** bumped by configure, so connections opened before it are closed when handed back instead of reused */
+    private static volatile int generation = 0;
+
+    /** set by closeAll, so connections still borrowed when the program exits are closed when handed back */
+    private static volatile boolean shutDown = false;
+
+    /** true once the sqlite driver class has been loaded */
+    private static volatile boolean driverLoaded = false;
+
+    /** total number of times a connection was borrowed */
+    private static final AtomicLong borrowCount = new AtomicLong();
+
+    /** number of borrows that found no idle connection and had to wait */
+    private static final AtomicLong waitCount = new AtomicLong();
+
+    /** total time spent waiting for a connection, in nanoseconds */
+    private static final AtomicLong totalWaitNanos = new AtomicLong();
+
+    /** longest single wait for a connection, in nanoseconds */
+    private static final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * Borrows a connection from the pool, opening a new one if the pool is not full yet
+     * and otherwise waiting for another caller to return theirs
+     * Use it in a try-with-resources block so it is always handed back
+     *
+     * @return a pooled connection to the database
+     * @throws SQLException for database access error or if no connection freed up in time
+     * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+     */
+    static PooledConnection getConnection() throws SQLException, ClassNotFoundException {
+        long start = System.nanoTime();
+        borrowCount.incrementAndGet();
+
+        // fast path: reuse a warm connection
+        PooledConnection conn = idleConnections.poll();
+
+        // if none are idle, open another one as long as we are under the limit
+        if (conn == null) {
+            conn = openIfUnderLimit();
+        }
+
+        // pool is full and busy, so wait for someone to give one back
+        if (conn == null) {
+            waitCount.incrementAndGet();
+            try {
+                conn = idleConnections.poll(BORROW_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            recordWait(System.nanoTime() - start);
+
+            if (conn == null) {
+                throw new SQLException("Timed out waiting for a database connection.");
+            }
+        }
+        conn.markBorrowed();
+        return conn;
+    }
+
+    /**
+     * Borrows a connection for a named database call, so PersistenceMetrics can time it
+     * The time from now until the connection is handed back, including any wait for a free
+     * connection, is recorded under the name
+     *
+     * Changes committed through an EventLog may not have reached the tables yet; calls that
+     * need them there should use getConnectionAfterLog instead
+     *
+     * @param operation name of the call, usually the ValleyBikeSim method making it
+     * @return a pooled connection to the database
+     * @throws SQLException for database access error or if no connection freed up in time
+     * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+     */
+    static PooledConnection getConnection(String operation) throws SQLException, ClassNotFoundException {
+        long start = PersistenceMetrics.start();
+        PooledConnection conn;
+        try {
+            conn = getConnection();
+        } catch (SQLException e) {
+            // the caller never gets a connection to hand back, so the wait is recorded here
+            PersistenceMetrics.record(operation, start);
+            throw e;
+        }
+        conn.startOperation(operation, start);
+        return conn;
+    }
+
+    /**
+     * Borrows a connection for a named database call once every change committed through the
+     * EventLog so far has reached the tables
+     * Used by writes that bypass the log, so they land after the logged changes that came before
+     * them, and by reads that must see changes already applied to the in-memory maps
+     *
+     * @param operation name of the call, usually the ValleyBikeSim method making it
+     * @return a pooled connection to the database
+     * @throws SQLException for database access error or if no connection freed up in time
+     * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+     */
+    static PooledConnection getConnectionAfterLog(String operation) throws SQLException, ClassNotFoundException {
+        EventLog.awaitCurrentApplied();
+        return getConnection(operation);
+    }
+
+    /**
+     * Hands a borrowed connection back to the pool
+     * Connections left mid-transaction are rolled back, and broken ones are dropped
+     *
+     * @param conn the connection being returned
+     */
+    static void release(PooledConnection conn) {
+        // opened before the pool was configured again, so it may point at the old database
+        // and was already left out of the new pool's open count
+        if (conn.getGeneration() != generation) {
+            conn.discard();
+            return;
+        }
+
+        if (conn.isUsable() && !shutDown) {
+            try {
+                // never let one caller's unfinished transaction leak into the next caller
+                if (!conn.getConnection().getAutoCommit()) {
+                    conn.getConnection().rollback();
+                    conn.getConnection().setAutoCommit(true);
+                }
+
+                if (idleConnections.offer(conn)) {
+                    return;
+                }
+            } catch (SQLException e) {
+                // fall through and throw the connection away
+            }
+        }
+
+        // connection is broken, the pool was resized or the pool is shut down, so close it for good
+        conn.discard();
+        openConnections.decrementAndGet();
+    }
+
+    /**
+     * Points the pool at a different database and changes how many connections it may open
+     * Any idle connections to the old database are closed, and connections still borrowed
+     * are closed when they are handed back
+     *
+     * @param url jdbc url of the database
+     * @param size maximum number of connections to keep open
+     */
+    static synchronized void configure(String url, int size) {
+        generation++;
+        closeAll();
+        shutDown = false;
+        dbURL = url;
+        maxConnections = size;
+        idleConnections = new ArrayBlockingQueue<>(size);
+        openConnections.set(0);
+    }
+
+    /**
+     * Closes every idle connection, for example when the program exits
+     * Connections still borrowed are closed when they are handed back, rather than pooled again
+     */
+    static void closeAll() {
+        shutDown = true;
+        PooledConnection conn;
+        while ((conn = idleConnections.poll()) != null) {
+            conn.discard();
+            openConnections.decrementAndGet();
+        }
+    }
+
+    /**
+     * This is the getter method for the url of the database the pool connects to
+     * @return the jdbc url
+     */
+    static String getDatabaseUrl() {
+        return dbURL;
+    }
+
+    /**
+     * Gets the path of the database file, which the ride archive, event log and snapshot are named after
+     * @return the path, or null if the database is in memory or the url does not name a file
+     */
+    static String getDatabaseFile() {
+        String url = dbURL;
+        String prefix = "jdbc:sqlite:";
+        if (!url.startsWith(prefix) || url.contains(":memory:") || url.length() == prefix.length()) {
+            return null;
+        }
+        return url.substring(prefix.length());
+    }
+
+    /**
+     * Formats the pool's wait-time metrics for display
+     * @return a summary of connections, borrows and time spent waiting
+     */
+    static String getStats() {
+        long borrows = borrowCount.get();
+        long waits = waitCount.get();
+        double averageWaitMillis = waits == 0 ? 0 : (totalWaitNanos.get() / (double) waits) / 1_000_000;
+
+        return String.format("Connection pool: %d/%d open, %d idle, %d borrows, %d waited " +
+                        "(avg wait %.3f ms, max wait %.3f ms)",
+                openConnections.get(), maxConnections, idleConnections.size(), borrows, waits,
+                averageWaitMillis, maxWaitNanos.get() / 1_000_000.0);
+    }
+
+    /**
+     * Opens a new connection if the pool has not reached its limit yet
+     * @return the new connection, or null if the pool is already full
+     * @throws SQLException for database access error
+     * @throws ClassNotFoundException if the sqlite driver is not on the classpath
+     */
+    private static PooledConnection openIfUnderLimit() throws SQLException, ClassNotFoundException {
+        // reserve a slot first so two callers cannot both open the last connection
+        int open = openConnections.get();
+        while (open < maxConnections) {
+            if (openConnections.compareAndSet(open, open + 1)) {
+                try {
+                    loadDriver();
+                    return new PooledConnection(DriverManager.getConnection(dbURL), generation);
+                } catch (SQLException | ClassNotFoundException e) {
+                    // give the slot back if we could not actually open the connection
+                    openConnections.decrementAndGet();
+                    throw e;
+                }
+            }
+            open = openConnections.get();
+        }
+        return null;
+    }
+
+    /**
+     * Loads the sqlite jdbc driver the first time a connection is opened
+     * @throws ClassNotFoundException if the sqlite driver is not on the classpath
+     */
+    private static void loadDriver() throws ClassNotFoundException {
+        if (!driverLoaded) {
+            //we are using a sqlite database
+            Class.forName("org.sqlite.JDBC");
+            driverLoaded = true;
+        }
+    }
+
+    /**
+     * Adds one wait to the running wait-time totals
+     * @param nanos how long the caller waited
+     */
+    private static void recordWait(long nanos) {
+        totalWaitNanos.addAndGet(nanos);
+
+        // keep the largest wait seen so far
+        long max = maxWaitNanos.get();
+        while (nanos > max && !maxWaitNanos.compareAndSet(max, nanos)) {
+            max = maxWaitNanos.get();
+        }
+    }
+}
@@ -1,4 +1,6 @@
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -16,15 +18,22 @@ public class CustomerAccount extends Account{
     /** This field is the running total of money customer has spent paying for rides */
     private double balance;
 
-    /** This field is the stack of ride ids for rides the user has taken */
+    /** This field is the list of ride ids for rides the user has taken, oldest first
+     * It is null until the ride history is first needed, see ValleyBikeSim.getRideIdList */
     private ArrayList<UUID> rideIdList;
 
+    /** This field is the ride id of the most recent ride taken by the user, or null if they have never ridden */
+    private UUID lastRideId;
+
     /** This field is true is user currently has bike rented, and false otherwise */
     private boolean lastRideIsReturned;
 
     /** This field is false if user deletes account */
     private boolean enabled;
 
+    /** This field is the user's totals over their returned rides, kept up to date as rides are returned */
+    private volatile CustomerRideStats rideStats = CustomerRideStats.EMPTY;
+
     /**
      * This is the constructor to create a new user account with balance = 0
      * @param username is the username input by the user
@@ -52,8 +61,9 @@ public class CustomerAccount extends Account{
      * @param creditCard is the credit card number input by the user
      * @param membership is the membership type that the customer is paying for
      * @param balance is the money that the customer has available in their account
+     * @param lastRideId is the id of the customer's most recent ride, or null if they have never ridden
      */
-    public CustomerAccount(String username, String password, String emailAddress, String creditCard, Membership membership, double balance, boolean lastRideIsReturned, boolean enabled, ArrayList<UUID> rideIdList) {
+    public CustomerAccount(String username, String password, String emailAddress, String creditCard, Membership membership, double balance, boolean lastRideIsReturned, boolean enabled, UUID lastRideId) {
         //username, password and email address same as super class
         super(username, password, emailAddress);
         this.creditCard = creditCard;
@@ -61,7 +71,9 @@ public class CustomerAccount extends Account{
         this.balance = balance;
         this.lastRideIsReturned = lastRideIsReturned;
         this.enabled = enabled;
-        this.rideIdList = rideIdList;
+        this.lastRideId = lastRideId;
+        // the ride history is read from the database the first time it is needed
+        this.rideIdList = null;
     }
 
     /**
@@ -114,10 +126,14 @@ public class CustomerAccount extends Account{
 
     /**
      * This method adds a new ride to the ride list associated with the customer account
+     * If the ride history has not been loaded yet it is left alone, since loading it will include the new ride
      * @param rideID is the ride id for the new ride taken by the user
      */
-    void addNewRide(UUID rideID){
-        this.rideIdList.add(rideID);
+    synchronized void addNewRide(UUID rideID){
+        this.lastRideId = rideID;
+        if (this.rideIdList != null) {
+            this.rideIdList.add(rideID);
+        }
     }
 
     /**
@@ -130,18 +146,43 @@ public class CustomerAccount extends Account{
 
     /**
      * This is the getter method for ride id list associated with the customer account
-     * @return the ride id list associated with the customer account
+     * Use ValleyBikeSim.getRideIdList to load the list from the database if it is not loaded yet
+     * @return a read-only copy of the ride id list associated with the customer account, or null if it has not been loaded
+     */
+    synchronized List<UUID> getRideIdList() {
+        return rideIdList == null ? null : Collections.unmodifiableList(new ArrayList<>(rideIdList));
+    }
+
+    /**
+     * This is the setter method for the ride id list, used once the history is read from the database
+     * @param rideIdList every ride the customer has taken, oldest first
+     */
+    synchronized void setRideIdList(ArrayList<UUID> rideIdList) {
+        this.rideIdList = rideIdList;
+    }
+
+    /**
+     * This is the getter method for the user's ride totals
+     * @return totals over the rides the user has returned
+     */
+    CustomerRideStats getRideStats() {
+        return rideStats;
+    }
+
+    /**
+     * This is the setter method for the user's ride totals
+     * @param rideStats the new totals
      */
-    ArrayList<UUID> getRideIdList() {
-        return rideIdList;
+    void setRideStats(CustomerRideStats rideStats) {
+        this.rideStats = rideStats;
     }
 
     /**
      * This is the getter method for the most recent ride taken by the user
      * @return the ride id of the most recent ride taken by the user
      */
-    UUID getLastRideId(){
-        return rideIdList.get(rideIdList.size()- 1);
+    synchronized UUID getLastRideId(){
+        return lastRideId;
     }
 
     /**
@@ -162,14 +203,6 @@ public class CustomerAccount extends Account{
         this.enabled = enabled;
     }
 
-    /**
-     * This method converts the ride id list to a string for the database
-     * @return the ride id string, where all the ride ids in the ride id list are seperated by a comma
-     */
-    public String getRideIdListToString(){
-        return rideIdList.toString().replaceAll("\\[", "").replaceAll("\\]","");
-    }
-
     /**
      * This is the setter method for whether the most recent ride has been returned
      * @param lastRideIsReturned true if ride returned, false otherwise
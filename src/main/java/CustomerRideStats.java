@@ -0,0 +1,117 @@
+import java.util.UUID;
+
+/**
+ * A customer's totals over their returned rides: how many, how long, how much they cost,
+ * the longest one and the latest one
+ *
+ * The totals are stored in the Customer_Ride_Stats table and updated as each ride is returned,
+ * so the ride statistics menus never have to look at the rides themselves.
+ * Objects are never changed; withRide returns the totals with one more ride added
+ */
+final class CustomerRideStats {
+
+    /** the totals of a customer who has not returned a ride yet */
+    static final CustomerRideStats EMPTY = new CustomerRideStats(0, 0, null, 0, 0, null);
+
+    /** number of returned rides */
+    private final int rideCount;
+
+    /** length of all returned rides added together, in minutes */
+    private final long totalMinutes;
+
+    /** id of the longest ride, or null if no ride has lasted a minute yet */
+    private final UUID longestRideId;
+
+    /** length of the longest ride, in minutes */
+    private final long longestRideMinutes;
+
+    /** amount charged for all returned rides */
+    private final double totalSpend;
+
+    /** id of the most recently returned ride, or null if there is none */
+    private final UUID lastRideId;
+
+    /**
+     * This is the constructor for totals read from the database
+     * @param rideCount number of returned rides
+     * @param totalMinutes length of all returned rides, in minutes
+     * @param longestRideId id of the longest ride, or null
+     * @param longestRideMinutes length of the longest ride, in minutes
+     * @param totalSpend amount charged for all returned rides
+     * @param lastRideId id of the most recently returned ride, or null
+     */
+    CustomerRideStats(int rideCount, long totalMinutes, UUID longestRideId, long longestRideMinutes,
+                      double totalSpend, UUID lastRideId) {
+        this.rideCount = rideCount;
+        this.totalMinutes = totalMinutes;
+        this.longestRideId = longestRideId;
+        this.longestRideMinutes = longestRideMinutes;
+        this.totalSpend = totalSpend;
+        this.lastRideId = lastRideId;
+    }
+
+    /**
+     * Adds a returned ride to the totals
+     * Like the old scan over the ride history, the first of several rides of the same length stays the longest
+     *
+     * @param rideId id of the ride
+     * @param minutes length of the ride in minutes
+     * @param payment amount charged for the ride
+     * @return the new totals
+     */
+    CustomerRideStats withRide(UUID rideId, long minutes, double payment) {
+        boolean longest = minutes > longestRideMinutes;
+        return new CustomerRideStats(rideCount + 1, totalMinutes + minutes,
+                longest ? rideId : longestRideId, longest ? minutes : longestRideMinutes,
+                totalSpend + payment, rideId);
+    }
+
+    /**
+     * @return number of returned rides
+     */
+    int getRideCount() {
+        return rideCount;
+    }
+
+    /**
+     * @return length of all returned rides added together, in minutes
+     */
+    long getTotalMinutes() {
+        return totalMinutes;
+    }
+
+    /**
+     * @return average length of a returned ride in whole minutes, or 0 if there are none
+     */
+    int getAverageMinutes() {
+        return rideCount == 0 ? 0 : (int) (totalMinutes / rideCount);
+    }
+
+    /**
+     * @return id of the longest ride, or null if no ride has lasted a minute yet
+     */
+    UUID getLongestRideId() {
+        return longestRideId;
+    }
+
+    /**
+     * @return length of the longest ride, in minutes
+     */
+    long getLongestRideMinutes() {
+        return longestRideMinutes;
+    }
+
+    /**
+     * @return amount charged for all returned rides
+     */
+    double getTotalSpend() {
+        return totalSpend;
+    }
+
+    /**
+     * @return id of the most recently returned ride, or null if there is none
+     */
+    UUID getLastRideId() {
+        return lastRideId;
+    }
+}
@@ -0,0 +1,225 @@
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Learns how many rides leave and arrive at each station in each hour of the day from the ride history,
+ * and uses it to decide how many bikes each station should have before the next few hours of demand
+ *
+ * Weekdays and weekends are learned separately, since the morning rush only happens on weekdays.
+ * A station's rate for an hour is the number of rides seen in that hour divided by the number of
+ * days of that kind the history covers
+ */
+class DemandForecaster {
+
+    /** hours in a day */
+    private static final int HOURS = 24;
+
+    /** one slot for each hour of a weekday, then one for each hour of a weekend day */
+    private static final int SLOTS = 2 * HOURS;
+
+    /** rides leaving each station, by slot */
+    private final Map<Integer, long[]> departures = new HashMap<>();
+
+    /** rides arriving at each station, by slot */
+    private final Map<Integer, long[]> arrivals = new HashMap<>();
+
+    /** first and last local day the history covers, or null before any ride is seen */
+    private LocalDate firstDay;
+    private LocalDate lastDay;
+
+    /**
+     * Counts a ride leaving a station
+     * Station 0 is where rented bikes are, not a real station, so it is not counted
+     *
+     * @param stationId the station
+     * @param when the time the ride started
+     */
+    void recordDeparture(int stationId, Instant when) {
+        record(departures, stationId, when);
+    }
+
+    /**
+     * Counts a ride arriving at a station
+     * @param stationId the station
+     * @param when the time the ride ended
+     */
+    void recordArrival(int stationId, Instant when) {
+        record(arrivals, stationId, when);
+    }
+
+    /**
+     * Counts where a ride started and, if it has been returned, where it ended
+     * @param ride the ride
+     */
+    void recordRide(Ride ride) {
+        recordDeparture(ride.getStationFrom(), ride.getStartTimeStamp());
+        if (ride.getIsReturned()) {
+            recordArrival(ride.getStationTo(), ride.getEndTimeStamp());
+        }
+    }
+
+    private synchronized void record(Map<Integer, long[]> counts, int stationId, Instant when) {
+        if (stationId == 0 || when == null) {
+            return;
+        }
+        ZonedDateTime local = when.atZone(RideCsvImporter.STATION_ZONE);
+        LocalDate day = local.toLocalDate();
+        if (firstDay == null || day.isBefore(firstDay)) {
+            firstDay = day;
+        }
+        if (lastDay == null || day.isAfter(lastDay)) {
+            lastDay = day;
+        }
+
+        long[] slots = counts.get(stationId);
+        if (slots == null) {
+            slots = new long[SLOTS];
+            counts.put(stationId, slots);
+        }
+        slots[slot(local)]++;
+    }
+
+    /**
+     * Expected number of rides leaving a station over the coming hours
+     *
+     * @param stationId the station
+     * @param from the time to start from; the hour it falls in is the first hour counted
+     * @param hours number of hours to look ahead
+     * @return expected departures
+     */
+    synchronized double expectedDepartures(int stationId, Instant from, int hours) {
+        return expected(departures.get(stationId), from, hours);
+    }
+
+    /**
+     * Expected number of rides arriving at a station over the coming hours
+     *
+     * @param stationId the station
+     * @param from the time to start from; the hour it falls in is the first hour counted
+     * @param hours number of hours to look ahead
+     * @return expected arrivals
+     */
+    synchronized double expectedArrivals(int stationId, Instant from, int hours) {
+        return expected(arrivals.get(stationId), from, hours);
+    }
+
+    private double expected(long[] slots, Instant from, int hours) {
+        if (slots == null || firstDay == null) {
+            return 0;
+        }
+        // count the weekdays and weekend days the history covers: two weekend days in every whole week, then the rest one by one
+        long days = ChronoUnit.DAYS.between(firstDay, lastDay) + 1;
+        long weekendDays = days / 7 * 2;
+        for (LocalDate day = firstDay.plusDays(days / 7 * 7); !day.isAfter(lastDay); day = day.plusDays(1)) {
+            if (isWeekend(day.getDayOfWeek())) {
+                weekendDays++;
+            }
+        }
+        long weekdays = days - weekendDays;
+
+        double total = 0;
+        ZonedDateTime hour = from.atZone(RideCsvImporter.STATION_ZONE).truncatedTo(ChronoUnit.HOURS);
+        for (int i = 0; i < hours; i++, hour = hour.plusHours(1)) {
+            int slot = slot(hour);
+            long daysOfKind = slot < HOURS ? weekdays : weekendDays;
+            if (daysOfKind > 0) {
+                total += slots[slot] / (double) daysOfKind;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Works out how many bikes each station should have so that it can cover the coming hours:
+     * the station's even share of the bikes, plus the rides expected to leave it, minus the rides
+     * expected to arrive, kept within its capacity and adjusted so the targets still add up to the bikes
+     *
+     * A station expecting more arrivals than departures is still left enough bikes for the departures,
+     * and one bike if it had a share at all, since the arrivals may come after the riders who want to leave
+     *
+     * @param stationIds id of each station
+     * @param bikes bikes docked at each station
+     * @param capacity capacity of each station
+     * @param now the time the bikes will be moved
+     * @param hours number of hours of demand to prepare for
+     * @return target number of bikes for each station
+     */
+    int[] targets(int[] stationIds, int[] bikes, int[] capacity, Instant now, int hours) {
+        int[] targets = RebalancePlanner.targets(bikes, capacity);
+        int stations = stationIds.length;
+
+        long goal = 0;
+        long sum = 0;
+        int[] floor = new int[stations];
+        double[] netOutflow = new double[stations];
+        for (int i = 0; i < stations; i++) {
+            goal += targets[i];
+            double departures = expectedDepartures(stationIds[i], now, hours);
+            netOutflow[i] = departures - expectedArrivals(stationIds[i], now, hours);
+            floor[i] = (int) Math.min(capacity[i], Math.max(Math.ceil(departures), targets[i] > 0 ? 1 : 0));
+            targets[i] = (int) Math.max(floor[i], Math.min(capacity[i], Math.round(targets[i] + netOutflow[i])));
+            sum += targets[i];
+        }
+
+        // stations expecting the most departures get spare bikes first and give them up last
+        Integer[] order = new Integer[stations];
+        for (int i = 0; i < stations; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> netOutflow[a] != netOutflow[b]
+                ? Double.compare(netOutflow[b], netOutflow[a])
+                : Integer.compare(a, b));
+
+        while (sum < goal) {
+            for (int i = 0; i < stations && sum < goal; i++) {
+                if (targets[order[i]] < capacity[order[i]]) {
+                    targets[order[i]]++;
+                    sum++;
+                }
+            }
+        }
+        // give bikes back down to the floors first, and below them only if there are not enough bikes for every floor
+        for (int pass = 0; pass < 2 && sum > goal; pass++) {
+            boolean gave = true;
+            while (gave && sum > goal) {
+                gave = false;
+                for (int i = stations - 1; i >= 0 && sum > goal; i--) {
+                    if (targets[order[i]] > (pass == 0 ? floor[order[i]] : 0)) {
+                        targets[order[i]]--;
+                        sum--;
+                        gave = true;
+                    }
+                }
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * Forgets the history, before the rides are loaded again
+     */
+    synchronized void clear() {
+        departures.clear();
+        arrivals.clear();
+        firstDay = null;
+        lastDay = null;
+    }
+
+    /**
+     * @param local a time at the stations
+     * @return the slot for its hour and kind of day
+     */
+    private static int slot(ZonedDateTime local) {
+        return (isWeekend(local.getDayOfWeek()) ? HOURS : 0) + local.getHour();
+    }
+
+    private static boolean isWeekend(DayOfWeek day) {
+        return day == DayOfWeek.SATURDAY || day == DayOfWeek.SUNDAY;
+    }
+}
@@ -0,0 +1,950 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file of every change made through a UnitOfWork, written before the change reaches the database
+ *
+ * Each entry is one event: its type, the business operation such as rentBike, returnBike, moveStation,
+ * addRide, updateRideIsReturned, updateBikeRqMnt or updateBalanceInDB, and the row changes that operation
+ * makes. A commit appends its event and waits until the event is on disk; a writer thread gathers every
+ * event appended while the last fsync was running and writes them with one fsync, so many sessions
+ * committing at once share the cost of one disk flush. Before writing a group the writer tries it on the
+ * database in a transaction that is rolled back, one savepoint per event, so an event the database would
+ * refuse fails its own commit and is never written
+ *
+ * A checkpoint thread then copies the events into the tables, many to a transaction, and stores the
+ * number of the last one copied in Event_Log_Checkpoint in the same transaction. The tables are the
+ * snapshot: at startup the events after the checkpoint are replayed into them before anything is read,
+ * so changes that were logged but had not reached the tables when the program stopped are not lost.
+ * Writes that bypass the log, and the few reads that must see every committed change, first wait for
+ * the events before them to be copied (see ConnectionPool.getConnectionAfterLog)
+ *
+ * The file sits next to the database as (database).events and is emptied whenever every event in it
+ * has been copied. Start the program with -Dvalleybike.eventlog=false to write straight to the tables
+ */
+class EventLog {
+
+    /** the event log the program is using, or null when writing straight to the database */
+    private static volatile EventLog current;
+
+    /** events copied to the database in one transaction, at most */
+    static final int MAX_BATCH = 1000;
+
+    /** how long the checkpoint thread waits for more events before copying the ones it has */
+    static final long CHECKPOINT_MILLIS = 200;
+
+    /** how long to wait before trying the database again after a failed copy */
+    static final long RETRY_MILLIS = 500;
+
+    /** times an event may fail on its own, while the database is otherwise working, before the log halts */
+    static final int MAX_ATTEMPTS = 5;
+
+    /** how long a database call waits for earlier events to reach the tables before going ahead anyway */
+    static final long FLUSH_TIMEOUT_MILLIS = 10_000;
+
+    /** size the file may grow to before it is emptied, once every event in it has been copied */
+    static final long ROLL_BYTES = 16L * 1024 * 1024;
+
+    /** longest entry that is believed when reading the file back; anything longer is a torn write */
+    private static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+
+    /** bytes before each entry's event: its length and checksum */
+    private static final int HEADER_BYTES = 8;
+
+    /** the types of value a row change can hold */
+    private static final byte NULL = 0, INT = 1, LONG = 2, DOUBLE = 3, BOOLEAN = 4, BYTES = 5, STRING = 6;
+
+    /**
+     * Where the events end up, normally the database
+     */
+    interface Sink {
+        /**
+         * @return number of the last event copied, 0 if none ever has been
+         * @throws SQLException for database access error
+         */
+        long lastApplied() throws SQLException;
+
+        /**
+         * Copies events in one transaction and records that every event up to throughSeq has been handled
+         * @param events the events, in order; may be empty when only checking that the database is working
+         * @param throughSeq number of the last event handled
+         * @throws SQLException for database access error, in which case none of the events were copied
+         */
+        void apply(List<Event> events, long throughSeq) throws SQLException;
+
+        /**
+         * Tries events on top of the ones not copied yet, without keeping any of them
+         * @param pending events already written, in order; some may have been copied since
+         * @param events the events to try, in order, each on top of the ones before it that were taken
+         * @return for each event, why it was refused, or null if it would be taken
+         * @throws SQLException for database access error, in which case no event was tried
+         */
+        SQLException[] check(List<Event> pending, List<Event> events) throws SQLException;
+    }
+
+    /**
+     * One business operation and the row changes it made
+     */
+    static final class Event {
+        private final long seq;
+        private final String type;
+        private final Map<String, List<Object[]>> updates;
+
+        /** the event as it is written to the file, without its number */
+        private final byte[] body;
+
+        /** set once the event is on disk */
+        private boolean durable;
+
+        /** set if the event could not be written */
+        private IOException error;
+
+        /** set if the database refused the event before it was written; it is never written or copied */
+        private SQLException refused;
+
+        /** failures while copying this event alone */
+        private int attempts;
+
+        private Event(long seq, String type, Map<String, List<Object[]>> updates, byte[] body) {
+            this.seq = seq;
+            this.type = type;
+            this.updates = updates;
+            this.body = body;
+        }
+
+        /**
+         * @return the event's number; numbers go up by one with each event
+         */
+        long getSeq() {
+            return seq;
+        }
+
+        /**
+         * @return the business operation, such as "rentBike"
+         */
+        String getType() {
+            return type;
+        }
+
+        /**
+         * @return the parameters of each row change, grouped by sql string in the order they run
+         */
+        Map<String, List<Object[]>> getUpdates() {
+            return updates;
+        }
+    }
+
+    private final Path file;
+    private final Sink sink;
+    private final Object lock = new Object();
+
+    /** events appended but not yet written, and events written but not yet copied */
+    private final ArrayDeque<Event> toWrite = new ArrayDeque<>();
+    private final ArrayDeque<Event> toApply = new ArrayDeque<>();
+
+    private FileChannel channel;
+    private Thread writer;
+    private Thread checkpointer;
+
+    /** number the next event gets */
+    private volatile long nextSeq = 1;
+
+    /** every event up to this number has been copied to the database */
+    private volatile long appliedSeq;
+
+    /** callers waiting for the events before them to be copied */
+    private int flushWaiters;
+
+    /** set once a write fails; from then on commits go straight to the database */
+    private IOException broken;
+
+    /**
+     * set once an event could not be copied while the database was otherwise working; the maps already
+     * hold that change and the tables never will, so from then on no changes are accepted at all
+     */
+    private SQLException halted;
+
+    private boolean closing;
+
+    /**
+     * @param file the log file; created if it does not exist
+     * @param sink where events are copied
+     */
+    EventLog(Path file, Sink sink) {
+        this.file = file;
+        this.sink = sink;
+    }
+
+    /**
+     * @return the event log the program is using, or null when commits write straight to the database
+     */
+    static EventLog current() {
+        return current;
+    }
+
+    /**
+     * Opens the event log next to the configured database and replays anything it holds that
+     * the tables do not have yet. Does nothing for an in-memory database
+     *
+     * @return number of events replayed, or -1 if commits will write straight to the database
+     */
+    static synchronized int start() {
+        if (current != null) {
+            return 0;
+        }
+        String database = ConnectionPool.getDatabaseFile();
+        if ("false".equals(System.getProperty("valleybike.eventlog")) || database == null) {
+            return -1;
+        }
+
+        Path path = Paths.get(database + ".events");
+        EventLog log = new EventLog(path, new DatabaseSink());
+        try {
+            int replayed = log.recover();
+            current = log;
+            return replayed;
+        } catch (IOException | SQLException e) {
+            PersistenceMetrics.recordError("EventLog.recover", e);
+            // keep the file for a person to look at, but never replay it over changes made after this
+            Path kept = Paths.get(path + ".unreplayed-" + Instant.now().toEpochMilli());
+            try {
+                if (Files.exists(path)) {
+                    Files.move(path, kept);
+                    System.out.println("Sorry, could not replay the event log. It has been kept as " + kept + ".");
+                }
+            } catch (IOException moveFailed) {
+                System.out.println("Sorry, could not replay or move the event log " + path + ".");
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Copies every logged event to the database and closes the event log, when the program shuts down
+     */
+    static synchronized void stop() {
+        EventLog log = current;
+        if (log != null) {
+            current = null;
+            log.close();
+        }
+    }
+
+    /**
+     * Waits until every event logged so far has reached the database, if an event log is open
+     * Called by ConnectionPool.getConnectionAfterLog, so direct writes land after the logged
+     * changes that came before them and reads that need them see every committed change
+     */
+    static void awaitCurrentApplied() throws SQLException {
+        EventLog log = current;
+        if (log == null) {
+            return;
+        }
+        SQLException reason = log.getHaltReason();
+        if (reason != null) {
+            throw new SQLException("A committed change could not be copied to the database", reason);
+        }
+        if (!log.awaitApplied(FLUSH_TIMEOUT_MILLIS)) {
+            PersistenceMetrics.recordError("EventLog.flush",
+                    new TimeoutException("Earlier changes had not reached the database after " + FLUSH_TIMEOUT_MILLIS + " ms"));
+        }
+    }
+
+    /**
+     * Replays the events the sink does not have yet, empties the file and starts the writer and checkpoint threads
+     *
+     * The file is read up to the first entry that is cut short or fails its checksum. Only the last group
+     * written can be half on disk, and none of the commits in it had been told they succeeded
+     *
+     * @return number of events replayed
+     * @throws IOException failure during reading, writing and searching file or directory operations
+     * @throws SQLException for database access error
+     */
+    int recover() throws IOException, SQLException {
+        long applied = sink.lastApplied();
+        long lastSeq = applied;
+        List<Event> unapplied = new ArrayList<>();
+
+        if (Files.exists(file)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                Event event;
+                while ((event = readEvent(in)) != null) {
+                    lastSeq = Math.max(lastSeq, event.seq);
+                    if (event.seq > applied) {
+                        unapplied.add(event);
+                    }
+                }
+            }
+        }
+
+        for (int from = 0; from < unapplied.size(); from += MAX_BATCH) {
+            List<Event> batch = unapplied.subList(from, Math.min(unapplied.size(), from + MAX_BATCH));
+            sink.apply(batch, batch.get(batch.size() - 1).seq);
+        }
+
+        // everything in the file is in the tables now, so start it afresh
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(0);
+        channel.force(true);
+        nextSeq = lastSeq + 1;
+        appliedSeq = lastSeq;
+
+        writer = new Thread(this::writeLoop, "event-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        checkpointer = new Thread(this::checkpointLoop, "event-log-checkpoint");
+        checkpointer.setDaemon(true);
+        checkpointer.start();
+        return unapplied.size();
+    }
+
+    /**
+     * @return false once a write has failed or the log is closing, so commits should go straight to the database
+     */
+    boolean isWritable() {
+        synchronized (lock) {
+            return broken == null && halted == null && !closing;
+        }
+    }
+
+    /**
+     * @return why the log stopped accepting changes, if an event could not be copied to a working database, or null
+     */
+    SQLException getHaltReason() {
+        synchronized (lock) {
+            return halted;
+        }
+    }
+
+    /**
+     * Appends an event and waits until it is on disk
+     *
+     * @param type the business operation, such as "rentBike"
+     * @param updates the operation's row changes, grouped by sql string in the order they run
+     * @throws IOException if the event could not be written or the database refused it; the change has not happened
+     */
+    void append(String type, Map<String, List<Object[]>> updates) throws IOException {
+        // the caller clears its own map after committing, so keep a copy
+        Map<String, List<Object[]>> copy = new LinkedHashMap<>(updates);
+        byte[] body = encode(type, copy);
+
+        Event event;
+        synchronized (lock) {
+            if (broken != null || halted != null || closing) {
+                throw new IOException("The event log is not accepting changes", broken != null ? broken : halted);
+            }
+            event = new Event(nextSeq++, type, copy, body);
+            toWrite.add(event);
+            lock.notifyAll();
+
+            boolean interrupted = false;
+            while (!event.durable && event.error == null && event.refused == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    // the write is already under way, so see it through
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (event.error != null) {
+            throw event.error;
+        }
+        if (event.refused != null) {
+            throw new IOException("The database refused the change", event.refused);
+        }
+    }
+
+    /**
+     * Waits until every event appended before this call has been copied to the database
+     *
+     * @param timeoutMillis longest time to wait
+     * @return false if the wait timed out
+     */
+    boolean awaitApplied(long timeoutMillis) {
+        long target = nextSeq - 1;
+        if (appliedSeq >= target) {
+            return true;
+        }
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (lock) {
+            flushWaiters++;
+            lock.notifyAll();
+            try {
+                // events that failed to write give their numbers back, so never wait past the last one handed out
+                while (appliedSeq < Math.min(target, nextSeq - 1)) {
+                    long left = deadline - System.currentTimeMillis();
+                    if (left <= 0 || halted != null || checkpointer == null || !checkpointer.isAlive()) {
+                        return false;
+                    }
+                    lock.wait(left);
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                flushWaiters--;
+            }
+        }
+    }
+
+    /**
+     * @return number of the last event copied to the database
+     */
+    long getAppliedSeq() {
+        return appliedSeq;
+    }
+
+    /**
+     * Copies every event to the database, stops both threads and closes the file
+     * The file is emptied if everything reached the database, and otherwise kept for the next start to replay
+     */
+    void close() {
+        boolean applied = awaitApplied(FLUSH_TIMEOUT_MILLIS);
+        synchronized (lock) {
+            closing = true;
+            lock.notifyAll();
+        }
+        try {
+            if (writer != null) {
+                writer.join();
+            }
+            if (checkpointer != null) {
+                checkpointer.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (channel != null) {
+            try {
+                if (applied) {
+                    channel.truncate(0);
+                }
+                channel.close();
+            } catch (IOException e) {
+                // the next start replays whatever is left
+            }
+        }
+    }
+
+    /**
+     * Writes each group of appended events with one fsync, until the log closes or a write fails
+     */
+    private void writeLoop() {
+        while (true) {
+            List<Event> batch;
+            synchronized (lock) {
+                while (toWrite.isEmpty() && !closing) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (toWrite.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<>(toWrite);
+                toWrite.clear();
+            }
+
+            // only the events the database would take are written
+            check(batch);
+            List<Event> accepted = new ArrayList<>(batch.size());
+            for (Event event : batch) {
+                if (event.refused == null) {
+                    accepted.add(event);
+                }
+            }
+
+            long start = PersistenceMetrics.start();
+            long position = -1;
+            try {
+                position = channel.position();
+                ByteBuffer[] buffers = new ByteBuffer[accepted.size() * 2];
+                for (int i = 0; i < accepted.size(); i++) {
+                    Event event = accepted.get(i);
+                    ByteBuffer seq = ByteBuffer.allocate(8).putLong(event.seq);
+                    CRC32 crc = new CRC32();
+                    crc.update(seq.array());
+                    crc.update(event.body);
+
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + 8);
+                    header.putInt(8 + event.body.length).putInt((int) crc.getValue()).putLong(event.seq).flip();
+                    buffers[2 * i] = header;
+                    buffers[2 * i + 1] = ByteBuffer.wrap(event.body);
+                }
+                if (!accepted.isEmpty()) {
+                    while (buffers[buffers.length - 1].hasRemaining()) {
+                        channel.write(buffers);
+                    }
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                PersistenceMetrics.recordError("EventLog.write", e);
+                fail(batch, position, e);
+                return;
+            } finally {
+                PersistenceMetrics.record("EventLog.write", start);
+            }
+
+            synchronized (lock) {
+                // refused events are queued too, so the checkpoint moves past their numbers
+                for (Event event : batch) {
+                    event.durable = event.refused == null;
+                    toApply.add(event);
+                }
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Tries a group of events on the database before it is written, and marks the ones the database refuses
+     * If the database cannot be reached the whole group is refused, as a direct write would have been
+     *
+     * @param batch the group about to be written
+     */
+    private void check(List<Event> batch) {
+        List<Event> pending = new ArrayList<>();
+        synchronized (lock) {
+            for (Event event : toApply) {
+                if (event.refused == null) {
+                    pending.add(event);
+                }
+            }
+        }
+
+        long start = PersistenceMetrics.start();
+        try {
+            SQLException[] refused = sink.check(pending, batch);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).refused = refused[i];
+            }
+        } catch (SQLException e) {
+            PersistenceMetrics.recordError("EventLog.check", e);
+            for (Event event : batch) {
+                event.refused = e;
+            }
+        } finally {
+            PersistenceMetrics.record("EventLog.check", start);
+        }
+    }
+
+    /**
+     * Gives up on a group that could not be written, along with anything appended since
+     * The part of the group that made it to the file is cut off, so it is never replayed
+     */
+    private void fail(List<Event> batch, long position, IOException e) {
+        synchronized (lock) {
+            broken = e;
+            if (position >= 0) {
+                try {
+                    channel.truncate(position);
+                } catch (IOException ignored) {
+                    // a half-written entry fails its checksum and is ignored on replay
+                }
+            }
+            for (Event event : batch) {
+                event.error = e;
+            }
+            for (Event event : toWrite) {
+                event.error = e;
+            }
+            toWrite.clear();
+            nextSeq = batch.get(0).seq;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Copies written events to the database in batches until the log closes
+     */
+    private void checkpointLoop() {
+        // after a failed batch, events are copied one at a time until the one at fault is found
+        boolean oneAtATime = false;
+
+        while (true) {
+            List<Event> batch = new ArrayList<>();
+            List<Event> events = new ArrayList<>();
+            synchronized (lock) {
+                try {
+                    while (toApply.isEmpty() && !(closing && toWrite.isEmpty() && !writer.isAlive())) {
+                        lock.wait(CHECKPOINT_MILLIS);
+                    }
+                    if (toApply.isEmpty()) {
+                        return;
+                    }
+
+                    // let more events gather unless someone is waiting for them
+                    long deadline = System.currentTimeMillis() + CHECKPOINT_MILLIS;
+                    while (flushWaiters == 0 && !closing && toApply.size() < MAX_BATCH) {
+                        long left = deadline - System.currentTimeMillis();
+                        if (left <= 0) {
+                            break;
+                        }
+                        lock.wait(left);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                int size = oneAtATime ? 1 : Math.min(MAX_BATCH, toApply.size());
+                for (Event event : toApply) {
+                    if (batch.size() == size) {
+                        break;
+                    }
+                    batch.add(event);
+                    if (event.refused == null) {
+                        events.add(event);
+                    }
+                }
+            }
+
+            Event last = batch.get(batch.size() - 1);
+            try {
+                sink.apply(events, last.seq);
+                oneAtATime = false;
+                applied(batch.size(), last.seq);
+            } catch (SQLException e) {
+                PersistenceMetrics.recordError("EventLog.apply", e);
+                if (batch.size() > 1) {
+                    oneAtATime = true;
+                    continue;
+                }
+                if (haltIfAtFault(last, e)) {
+                    // the events are kept in the file for a person to look at before the next start
+                    return;
+                }
+                synchronized (lock) {
+                    if (closing) {
+                        // the next start replays what is left
+                        return;
+                    }
+                    try {
+                        lock.wait(RETRY_MILLIS);
+                    } catch (InterruptedException interrupted) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Decides whether an event that failed on its own is at fault, rather than the database being unavailable,
+     * and halts the log once it has failed MAX_ATTEMPTS times
+     *
+     * Events are tried on the database before they are written, so this only happens if the tables changed
+     * underneath the log after the event was tried. The event's changes are already in the maps and its
+     * commit was reported as done, so it cannot be dropped without the maps and the tables disagreeing.
+     * Instead every later change is refused until a person has looked at the event, which stays in the file
+     *
+     * @param event the event that failed
+     * @param cause why it failed
+     * @return true if the log has halted
+     */
+    private boolean haltIfAtFault(Event event, SQLException cause) {
+        try {
+            // the database is working if it takes the checkpoint without the event
+            sink.apply(Collections.<Event>emptyList(), event.seq - 1);
+        } catch (SQLException e) {
+            return false;
+        }
+        if (++event.attempts < MAX_ATTEMPTS) {
+            return false;
+        }
+
+        synchronized (lock) {
+            halted = cause;
+            lock.notifyAll();
+        }
+        PersistenceMetrics.recordError("EventLog.halt", cause);
+        System.out.println("Sorry, change " + event.seq + " (" + event.type + ") could not be written to the database: "
+                + cause.getMessage() + ". ValleyBike will not accept any more changes until it is restarted; "
+                + "the change is kept in the event log.");
+        return true;
+    }
+
+    /**
+     * Removes copied events from the queue, and empties the file once every event in it has been copied
+     */
+    private void applied(int count, long throughSeq) {
+        synchronized (lock) {
+            for (int i = 0; i < count; i++) {
+                toApply.poll();
+            }
+            appliedSeq = throughSeq;
+            lock.notifyAll();
+
+            // nothing is being written while every numbered event has been copied and none are waiting
+            if (appliedSeq == nextSeq - 1 && toWrite.isEmpty() && broken == null) {
+                try {
+                    if (channel.size() >= ROLL_BYTES) {
+                        channel.truncate(0);
+                        channel.force(true);
+                    }
+                } catch (IOException e) {
+                    PersistenceMetrics.recordError("EventLog.roll", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes an event's type and row changes as bytes
+     */
+    private static byte[] encode(String type, Map<String, List<Object[]>> updates) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, type);
+        out.writeInt(updates.size());
+        for (Map.Entry<String, List<Object[]>> entry : updates.entrySet()) {
+            writeString(out, entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (Object[] params : entry.getValue()) {
+                out.writeInt(params.length);
+                for (Object param : params) {
+                    writeParam(out, param);
+                }
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads the next entry of the file
+     * @return the event, or null at the end of the file or at an entry that is cut short or damaged
+     */
+    private static Event readEvent(DataInputStream in) throws IOException {
+        byte[] record;
+        int checksum;
+        try {
+            int length = in.readInt();
+            checksum = in.readInt();
+            if (length < 8 || length > MAX_RECORD_BYTES) {
+                return null;
+            }
+            record = new byte[length];
+            in.readFully(record);
+        } catch (EOFException e) {
+            return null;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+
+        DataInputStream event = new DataInputStream(new ByteArrayInputStream(record));
+        long seq = event.readLong();
+        String type = readString(event);
+        int statements = event.readInt();
+        Map<String, List<Object[]>> updates = new LinkedHashMap<>();
+        for (int i = 0; i < statements; i++) {
+            String sql = readString(event);
+            int rows = event.readInt();
+            List<Object[]> batch = new ArrayList<>(rows);
+            for (int row = 0; row < rows; row++) {
+                Object[] params = new Object[event.readInt()];
+                for (int p = 0; p < params.length; p++) {
+                    params[p] = readParam(event);
+                }
+                batch.add(params);
+            }
+            updates.put(sql, batch);
+        }
+        return new Event(seq, type, updates, null);
+    }
+
+    private static void writeParam(DataOutputStream out, Object param) throws IOException {
+        if (param == null) {
+            out.writeByte(NULL);
+        } else if (param instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) param);
+        } else if (param instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) param);
+        } else if (param instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) param);
+        } else if (param instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) param);
+        } else if (param instanceof byte[]) {
+            out.writeByte(BYTES);
+            out.writeInt(((byte[]) param).length);
+            out.write((byte[]) param);
+        } else {
+            // UnitOfWork binds anything else as its string
+            out.writeByte(STRING);
+            writeString(out, param.toString());
+        }
+    }
+
+    private static Object readParam(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case INT:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case BOOLEAN:
+                return in.readBoolean();
+            case BYTES:
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return bytes;
+            case STRING:
+                return readString(in);
+            default:
+                throw new IOException("Unknown value type " + tag + " in the event log");
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copies events into the tables with the rest of the program's connections
+     */
+    static final class DatabaseSink implements Sink {
+
+        private static final String SAVE_CHECKPOINT_SQL = "INSERT OR REPLACE INTO Event_Log_Checkpoint(id, seq) VALUES(1, ?)";
+
+        @Override
+        public long lastApplied() throws SQLException {
+            try (PooledConnection pooled = ConnectionPool.getConnection()) {
+                return readCheckpoint(pooled);
+            } catch (ClassNotFoundException e) {
+                throw new SQLException("No database driver", e);
+            }
+        }
+
+        /**
+         * Runs each event in a transaction that is always rolled back, one savepoint per event
+         * Synchronized with apply, so no events are copied between reading the checkpoint and trying them
+         */
+        @Override
+        public synchronized SQLException[] check(List<Event> pending, List<Event> events) throws SQLException {
+            try (PooledConnection conn = ConnectionPool.getConnection()) {
+                Connection connection = conn.getConnection();
+                connection.setAutoCommit(false);
+                try {
+                    // the tables as they will be once the events already written are copied
+                    long applied = readCheckpoint(conn);
+                    for (Event event : pending) {
+                        if (event.seq > applied) {
+                            UnitOfWork.executeBatches(conn, event.updates);
+                        }
+                    }
+
+                    SQLException[] refused = new SQLException[events.size()];
+                    for (int i = 0; i < events.size(); i++) {
+                        Savepoint savepoint = connection.setSavepoint();
+                        try {
+                            UnitOfWork.executeBatches(conn, events.get(i).updates);
+                            connection.releaseSavepoint(savepoint);
+                        } catch (SQLException e) {
+                            connection.rollback(savepoint);
+                            refused[i] = e;
+                        }
+                    }
+                    return refused;
+                } finally {
+                    // nothing is kept; the checkpoint thread copies the events once they are on disk
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+            } catch (ClassNotFoundException e) {
+                throw new SQLException("No database driver", e);
+            }
+        }
+
+        @Override
+        public synchronized void apply(List<Event> events, long throughSeq) throws SQLException {
+            long start = PersistenceMetrics.start();
+            // a plain connection, since the named ones wait for this very copy to finish
+            try (PooledConnection conn = ConnectionPool.getConnection()) {
+                Connection connection = conn.getConnection();
+                connection.setAutoCommit(false);
+                try {
+                    for (Event event : events) {
+                        UnitOfWork.executeBatches(conn, event.updates);
+                    }
+                    PreparedStatement pstmt = conn.prepareStatement(SAVE_CHECKPOINT_SQL);
+                    pstmt.setLong(1, throughSeq);
+                    pstmt.executeUpdate();
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } catch (ClassNotFoundException e) {
+                throw new SQLException("No database driver", e);
+            } finally {
+                PersistenceMetrics.record("EventLog.apply", start);
+            }
+        }
+
+        /**
+         * @return number of the last event copied, 0 if none ever has been
+         */
+        private static long readCheckpoint(PooledConnection conn) throws SQLException {
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT seq FROM Event_Log_Checkpoint WHERE id = 1")) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running totals for the admin dashboard: customer accounts, maintenance requests,
+ * station capacity, bikes and bikes out with customers
+ *
+ * Each total is changed by the code that changes the data behind it, right after the change
+ * is saved, so reading a total never touches the database or loops over the maps.
+ * reconcile compares the totals with counts taken from the database and fixes any that have drifted
+ */
+class FleetMetrics {
+
+    /**
+     * The totals that are kept
+     */
+    enum Total {
+        /** rows in Customer_Account, disabled accounts included */
+        CUSTOMERS,
+        /** sum of req_mnt over every station */
+        MAINTENANCE_REQUESTS,
+        /** sum of capacity over every station */
+        STATION_CAPACITY,
+        /** rows in Bike */
+        BIKES,
+        /** bikes at station 0, out with customers */
+        BIKES_RENTED
+    }
+
+    /** the value of each total, indexed by Total.ordinal() */
+    private final AtomicLong[] totals = new AtomicLong[Total.values().length];
+
+    /** the difference each total had from the database at the last check, 0 if it matched */
+    private final long[] lastDrift = new long[totals.length];
+
+    /** the value each total had at the last check */
+    private final long[] lastSeen = new long[totals.length];
+
+    /** number of totals corrected by reconcile so far */
+    private final AtomicLong corrections = new AtomicLong();
+
+    FleetMetrics() {
+        for (int i = 0; i < totals.length; i++) {
+            totals[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * This is the getter method for one total
+     * @param total the total to read
+     * @return its current value
+     */
+    long get(Total total) {
+        return totals[total.ordinal()].get();
+    }
+
+    /**
+     * Adds to a total, after the change it stands for has been saved
+     * @param total the total to change
+     * @param delta amount to add, negative to subtract
+     */
+    void add(Total total, long delta) {
+        if (delta != 0) {
+            totals[total.ordinal()].addAndGet(delta);
+        }
+    }
+
+    /**
+     * Sets every total at once, after the data has been loaded from the database
+     * @param values the value of each total, in the order of Total
+     */
+    synchronized void reset(long... values) {
+        for (int i = 0; i < totals.length; i++) {
+            totals[i].set(values[i]);
+            lastDrift[i] = 0;
+        }
+    }
+
+    /**
+     * Compares the totals with values counted from the database and corrects the ones that are off
+     *
+     * The database is counted while other sessions keep working, so a total can look off for a
+     * moment when a change has been saved but not yet added. A total is only corrected when it
+     * is off by the same amount at two checks in a row without having changed in between
+     *
+     * @param actual the value of each total counted from the database, in the order of Total
+     * @return number of totals corrected
+     */
+    synchronized int reconcile(long... actual) {
+        int corrected = 0;
+        for (Total total : Total.values()) {
+            int i = total.ordinal();
+            long seen = totals[i].get();
+            long drift = actual[i] - seen;
+
+            if (drift != 0 && drift == lastDrift[i] && seen == lastSeen[i]
+                    && totals[i].compareAndSet(seen, actual[i])) {
+                System.out.println("Fleet metrics: corrected " + total + " from " + seen + " to " + actual[i] + ".");
+                corrections.incrementAndGet();
+                corrected++;
+                drift = 0;
+            }
+            lastDrift[i] = drift;
+            lastSeen[i] = totals[i].get();
+        }
+        return corrected;
+    }
+
+    /**
+     * This is the getter method for the number of corrections made
+     * @return number of totals reconcile has corrected
+     */
+    long getCorrections() {
+        return corrections.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("customers %d, maintenance requests %d, station capacity %d, bikes %d (%d rented), corrections %d",
+                get(Total.CUSTOMERS), get(Total.MAINTENANCE_REQUESTS), get(Total.STATION_CAPACITY),
+                get(Total.BIKES), get(Total.BIKES_RENTED), getCorrections());
+    }
+}
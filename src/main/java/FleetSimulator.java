@@ -0,0 +1,530 @@
+import java.io.IOException;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Simulates a day (or more) of riders renting and returning bikes, without the kiosk or the database,
+ * for sizing stations and for checking how code changes hold up under load
+ *
+ * Every replica builds its own stations, bikes and customers from the real model classes and rents,
+ * returns and charges through the same in-memory steps ValleyBikeSim runs once a transaction commits.
+ * Riders turn up at each station at random, at a rate that follows the hour of the day, and ride to
+ * a random other station. A rider who finds no bike leaves (a stockout); a rider who finds no free
+ * dock rides on to the next station (a dock-full event). Replicas run in parallel, one per core by
+ * default, each with its own seed, and the report adds them up
+ *
+ * Arrival rates come either from a synthetic weekday profile or from ride data csv files, through
+ * DemandForecaster, so a recorded day can be replayed at any scale
+ */
+class FleetSimulator {
+
+    /** minutes in an hour */
+    private static final int MINUTES_PER_HOUR = 60;
+
+    /** minutes it takes to ride on to the next station when a station is full */
+    private static final double NEXT_STATION_MINUTES = 5;
+
+    /** how busy each hour of a synthetic weekday is, as a share of the busiest hour */
+    private static final double[] WEEKDAY_PROFILE = {
+            0.05, 0.02, 0.01, 0.01, 0.02, 0.10, 0.35, 0.85, 1.00, 0.60, 0.45, 0.50,
+            0.60, 0.55, 0.50, 0.55, 0.75, 0.95, 0.80, 0.55, 0.40, 0.30, 0.20, 0.10};
+
+    /** first simulated minute, a Monday morning at the stations */
+    private static final Instant START = LocalDate.of(2019, 8, 19).atStartOfDay(RideCsvImporter.STATION_ZONE).toInstant();
+
+    /**
+     * What to simulate
+     */
+    static final class Config {
+        /** number of stations */
+        int stations = 100;
+
+        /** docks at each station */
+        int capacity = 20;
+
+        /** share of the docks holding a bike at the start */
+        double fill = 0.6;
+
+        /** customers who may ride, each with at most one bike out */
+        int customers = 20_000;
+
+        /** riders arriving at each station in the busiest hour, for the synthetic profile */
+        double peakRidersPerStationHour = 12;
+
+        /** average ride length in minutes */
+        double meanRideMinutes = 18;
+
+        /** hours to simulate */
+        int hours = 24;
+
+        /** hours between rebalances, or 0 for none */
+        int rebalanceHours = 0;
+
+        /** number of replicas */
+        int replicas = Runtime.getRuntime().availableProcessors();
+
+        /** seed of the first replica; the others use the following seeds */
+        long seed = 223;
+
+        /** learned departure and arrival rates to replay instead of the synthetic profile, or null */
+        DemandForecaster demand;
+
+        /** station ids the learned rates belong to, in the order they are simulated */
+        int[] demandStationIds;
+    }
+
+    /**
+     * Counts from one or more replicas
+     */
+    static final class Result {
+        /** riders who turned up at a station */
+        long riders;
+
+        /** rides taken */
+        long rides;
+
+        /** riders who found no bike */
+        long stockouts;
+
+        /** riders who found no customer account free, because every customer already had a bike */
+        long noCustomer;
+
+        /** returns that found the station full */
+        long dockFullEvents;
+
+        /** bikes moved by rebalancing */
+        long bikesMoved;
+
+        /** minutes ridden */
+        long rideMinutes;
+
+        /** money charged for rides */
+        double revenue;
+
+        /** bikes at stations or out with riders at the end, to check none were lost */
+        long bikesAtEnd;
+
+        /** bikes at the start */
+        long bikesAtStart;
+
+        /** simulated station-hours */
+        long stationHours;
+
+        /** wall clock time the replicas took, in nanoseconds */
+        long wallNanos;
+
+        void add(Result other) {
+            riders += other.riders;
+            rides += other.rides;
+            stockouts += other.stockouts;
+            noCustomer += other.noCustomer;
+            dockFullEvents += other.dockFullEvents;
+            bikesMoved += other.bikesMoved;
+            rideMinutes += other.rideMinutes;
+            revenue += other.revenue;
+            bikesAtEnd += other.bikesAtEnd;
+            bikesAtStart += other.bikesAtStart;
+            stationHours += other.stationHours;
+        }
+
+        /**
+         * @return rides simulated per wall clock minute
+         */
+        double getRidesPerMinute() {
+            return wallNanos == 0 ? 0 : rides * 60e9 / wallNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,d riders, %,d rides (%,.0f rides per minute of wall time)%n" +
+                            "%,d stockouts (%.2f%% of riders), %,d dock-full events (%.2f%% of rides), " +
+                            "%,d riders with no free account%n" +
+                            "%,d bikes moved by rebalancing, %,d minutes ridden, $%,.2f charged",
+                    riders, rides, getRidesPerMinute(),
+                    stockouts, riders == 0 ? 0 : 100.0 * stockouts / riders,
+                    dockFullEvents, rides == 0 ? 0 : 100.0 * dockFullEvents / rides, noCustomer,
+                    bikesMoved, rideMinutes, revenue);
+        }
+    }
+
+    /**
+     * Something that happens at a point in simulated time
+     */
+    private static final class Event implements Comparable<Event> {
+        /** minutes since the start */
+        final double minute;
+
+        /** station a rider turns up at, or a ride is heading to */
+        final int station;
+
+        /** the ride being returned, or null if a rider is turning up to rent */
+        final Ride ride;
+
+        /** the customer on the ride */
+        final int customer;
+
+        Event(double minute, int station, Ride ride, int customer) {
+            this.minute = minute;
+            this.station = station;
+            this.ride = ride;
+            this.customer = customer;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            return Double.compare(minute, other.minute);
+        }
+    }
+
+    /**
+     * Runs the replicas in parallel and adds up their results
+     *
+     * @param config what to simulate
+     * @return the results of every replica added up
+     * @throws InterruptedException if interrupted while waiting for the replicas
+     */
+    static Result run(Config config) throws InterruptedException {
+        int threads = Math.min(config.replicas, Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads), task -> {
+            Thread thread = new Thread(task, "fleet-simulator");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long start = System.nanoTime();
+        Result total = new Result();
+        try {
+            List<Future<Result>> replicas = new ArrayList<>();
+            for (int i = 0; i < config.replicas; i++) {
+                final long seed = config.seed + i;
+                replicas.add(pool.submit(() -> runReplica(config, seed)));
+            }
+            for (Future<Result> replica : replicas) {
+                total.add(replica.get());
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Simulation replica failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        total.wallNanos = System.nanoTime() - start;
+        return total;
+    }
+
+    /**
+     * Runs one replica on the calling thread
+     *
+     * @param config what to simulate
+     * @param seed seed for this replica's random numbers
+     * @return this replica's counts
+     * @throws ParseException if a ride cannot be created
+     */
+    static Result runReplica(Config config, long seed) throws ParseException {
+        SplittableRandom random = new SplittableRandom(seed);
+        Result result = new Result();
+        int stationCount = config.demand == null ? config.stations : config.demandStationIds.length;
+
+        // stations are numbered from 1, since station 0 stands for bikes out with customers
+        int[] stationIds = new int[stationCount];
+        Station[] stations = new Station[stationCount + 1];
+        int[] capacity = new int[stationCount];
+        for (int s = 1; s <= stationCount; s++) {
+            stationIds[s - 1] = config.demand == null ? s : config.demandStationIds[s - 1];
+            stations[s] = new Station("Station " + stationIds[s - 1], 0, config.capacity, false, "");
+            capacity[s - 1] = config.capacity;
+        }
+
+        int bikeCount = (int) Math.round(stationCount * config.capacity * config.fill);
+        Bike[] bikes = new Bike[bikeCount + 1];
+        for (int id = 1; id <= bikeCount; id++) {
+            int s = 1 + (id - 1) % stationCount;
+            bikes[id] = new Bike(id, 0, s, "0", "n");
+            stations[s].addToBikeList(id);
+        }
+        result.bikesAtStart = bikeCount;
+
+        // a third each of pay-as-you-go, monthly and yearly members
+        CustomerAccount[] customers = new CustomerAccount[config.customers];
+        int[] freeCustomers = new int[config.customers];
+        for (int c = 0; c < config.customers; c++) {
+            Membership membership = c % 3 == 0 ? new PayAsYouGoMembership()
+                    : c % 3 == 1 ? new MonthlyMembership() : new YearlyMembership();
+            customers[c] = new CustomerAccount("rider" + c, "", "", "", membership, 0, true, true, null);
+            freeCustomers[c] = c;
+        }
+        int free = config.customers;
+
+        PriorityQueue<Event> events = new PriorityQueue<>();
+        double end = config.hours * MINUTES_PER_HOUR;
+        for (int s = 1; s <= stationCount; s++) {
+            double next = nextArrival(config, stationIds[s - 1], 0, end, random);
+            if (next < end) {
+                events.add(new Event(next, s, null, -1));
+            }
+        }
+        double nextRebalance = config.rebalanceHours > 0 ? config.rebalanceHours * MINUTES_PER_HOUR : Double.MAX_VALUE;
+
+        while (!events.isEmpty()) {
+            Event event = events.poll();
+            while (event.minute >= nextRebalance) {
+                result.bikesMoved += rebalance(stations, bikes, stationIds, capacity);
+                nextRebalance += config.rebalanceHours * MINUTES_PER_HOUR;
+            }
+            Station station = stations[event.station];
+
+            if (event.ride == null) {
+                // a rider turns up; the next one at this station is scheduled first
+                double next = nextArrival(config, stationIds[event.station - 1], event.minute, end, random);
+                if (next < end) {
+                    events.add(new Event(next, event.station, null, -1));
+                }
+                result.riders++;
+
+                if (station.getBikes() == 0) {
+                    result.stockouts++;
+                    continue;
+                }
+                if (free == 0) {
+                    result.noCustomer++;
+                    continue;
+                }
+                int pick = random.nextInt(free);
+                int customerIndex = freeCustomers[pick];
+                freeCustomers[pick] = freeCustomers[--free];
+                CustomerAccount customer = customers[customerIndex];
+
+                Bike bike = bikes[station.peekBike()];
+                Instant startTime = at(event.minute);
+                Ride ride = new Ride(new UUID(random.nextLong(), random.nextLong()), bike.getId(),
+                        customer.getUsername(), false, startTime, null, event.station, 0);
+
+                // the same steps a committed rental takes
+                ValleyBikeSim.applyMoveStation(bike, station, null, 0);
+                customer.addNewRide(ride.getRideId());
+                customer.setLastRideIsReturned(false);
+
+                int to = destination(config, stationIds, event.station, event.minute, random);
+                double length = -config.meanRideMinutes * Math.log(1 - random.nextDouble());
+                events.add(new Event(event.minute + Math.max(1, length), to, ride, customerIndex));
+            } else {
+                if (station.getAvailableDocks() <= 0) {
+                    // ride on to the next station
+                    result.dockFullEvents++;
+                    int next = event.station % stationCount + 1;
+                    events.add(new Event(event.minute + NEXT_STATION_MINUTES, next, event.ride, event.customer));
+                    continue;
+                }
+                Ride ride = event.ride;
+                CustomerAccount customer = customers[event.customer];
+                Instant endTime = at(event.minute);
+                long rideLength = Duration.between(ride.getStartTimeStamp(), endTime).toMinutes();
+
+                // the same steps a committed return takes
+                ValleyBikeSim.applyMoveStation(bikes[ride.getBikeId()], null, station, event.station);
+                ValleyBikeSim.applyCloseRide(ride, endTime, event.station, rideLength);
+                int ridesLeft = customer.getMembership().getTotalRidesLeft();
+                double paymentDue = ValleyBikeSim.calculateRentalCharge(ridesLeft, rideLength);
+                ValleyBikeSim.applyRentalCharge(customer, ride, ridesLeft, paymentDue);
+                customer.setRideStats(customer.getRideStats().withRide(ride.getRideId(), rideLength, paymentDue));
+                customer.setLastRideIsReturned(true);
+                freeCustomers[free++] = event.customer;
+
+                result.rides++;
+                result.rideMinutes += rideLength;
+                result.revenue += paymentDue;
+            }
+        }
+
+        for (int s = 1; s <= stationCount; s++) {
+            result.bikesAtEnd += stations[s].getBikes();
+        }
+        for (int id = 1; id <= bikeCount; id++) {
+            if (bikes[id].getStation() == 0) {
+                result.bikesAtEnd++;
+            }
+        }
+        result.stationHours = (long) stationCount * config.hours;
+        return result;
+    }
+
+    /**
+     * Picks when the next rider turns up at a station
+     * Within an hour riders arrive at a steady rate, so when the next arrival would fall in a later hour
+     * the draw starts again from the top of that hour at its own rate
+     *
+     * @return minutes since the start, or at least the end if nobody else turns up
+     */
+    private static double nextArrival(Config config, int stationId, double minute, double end, SplittableRandom random) {
+        while (minute < end) {
+            int hour = (int) (minute / MINUTES_PER_HOUR);
+            double hourEnd = (hour + 1) * MINUTES_PER_HOUR;
+            double perMinute = ridersPerHour(config, stationId, hour) / MINUTES_PER_HOUR;
+            if (perMinute > 0) {
+                double next = minute - Math.log(1 - random.nextDouble()) / perMinute;
+                if (next < hourEnd) {
+                    return next;
+                }
+            }
+            minute = hourEnd;
+        }
+        return end;
+    }
+
+    /**
+     * @return riders expected at a station in an hour since the start
+     */
+    private static double ridersPerHour(Config config, int stationId, int hour) {
+        if (config.demand == null) {
+            return config.peakRidersPerStationHour * WEEKDAY_PROFILE[hour % WEEKDAY_PROFILE.length];
+        }
+        return config.demand.expectedDepartures(stationId, at(hour * MINUTES_PER_HOUR), 1);
+    }
+
+    /**
+     * Picks where a ride goes: any other station for the synthetic profile, or in proportion
+     * to the arrivals learned for that hour when replaying
+     *
+     * @return index of the station, counting from 1
+     */
+    private static int destination(Config config, int[] stationIds, int from, double minute, SplittableRandom random) {
+        int stationCount = stationIds.length;
+        if (config.demand != null) {
+            Instant hour = at(minute);
+            double total = 0;
+            double[] weights = new double[stationCount];
+            for (int s = 0; s < stationCount; s++) {
+                weights[s] = config.demand.expectedArrivals(stationIds[s], hour, 1);
+                total += weights[s];
+            }
+            if (total > 0) {
+                double pick = random.nextDouble() * total;
+                for (int s = 0; s < stationCount; s++) {
+                    pick -= weights[s];
+                    if (pick < 0) {
+                        return s + 1;
+                    }
+                }
+            }
+        }
+        if (stationCount == 1) {
+            return from;
+        }
+        int to = 1 + random.nextInt(stationCount - 1);
+        return to >= from ? to + 1 : to;
+    }
+
+    /**
+     * Evens out the stations with the same planner the live system uses
+     *
+     * @return bikes moved
+     */
+    private static int rebalance(Station[] stations, Bike[] bikes, int[] stationIds, int[] capacity) {
+        int stationCount = stationIds.length;
+        int[] docked = new int[stationCount];
+        int[] index = new int[stationCount];
+        for (int s = 0; s < stationCount; s++) {
+            docked[s] = stations[s + 1].getBikes();
+            index[s] = s + 1;
+        }
+
+        // plan on the simulated station numbers, so transfers can be applied directly
+        RebalancePlanner.Plan plan = RebalancePlanner.plan(index, docked, capacity, null);
+        for (RebalancePlanner.Transfer transfer : plan.transfers) {
+            Station from = stations[transfer.fromStation];
+            Station to = stations[transfer.toStation];
+            for (int i = 0; i < transfer.bikes; i++) {
+                ValleyBikeSim.applyMoveStation(bikes[from.peekBike()], from, to, transfer.toStation);
+            }
+        }
+        return plan.bikesMoved;
+    }
+
+    /**
+     * @return the instant a number of minutes after the start
+     */
+    private static Instant at(double minute) {
+        return START.plusMillis((long) (minute * 60_000));
+    }
+
+    /**
+     * Runs the simulator from the command line and prints the report
+     *
+     * Options: --stations N, --capacity N, --fill F, --customers N, --peak R (riders per station in the
+     * busiest hour), --ride M (average ride minutes), --hours H, --rebalance H (hours between
+     * rebalances), --replicas N and --seed S. Ride data csv files given after the options are
+     * replayed instead of the synthetic profile, with --scale K multiplying their rates
+     *
+     * @param args options, then optional ride data csv files
+     * @throws IOException failure during reading, writing and searching file or directory operations
+     * @throws InterruptedException if interrupted while waiting for the replicas
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Config config = new Config();
+        int scale = 1;
+
+        int arg = 0;
+        for (; arg + 1 < args.length && args[arg].startsWith("--"); arg += 2) {
+            String value = args[arg + 1];
+            switch (args[arg]) {
+                case "--stations": config.stations = Integer.parseInt(value); break;
+                case "--capacity": config.capacity = Integer.parseInt(value); break;
+                case "--fill": config.fill = Double.parseDouble(value); break;
+                case "--customers": config.customers = Integer.parseInt(value); break;
+                case "--peak": config.peakRidersPerStationHour = Double.parseDouble(value); break;
+                case "--ride": config.meanRideMinutes = Double.parseDouble(value); break;
+                case "--hours": config.hours = Integer.parseInt(value); break;
+                case "--rebalance": config.rebalanceHours = Integer.parseInt(value); break;
+                case "--replicas": config.replicas = Integer.parseInt(value); break;
+                case "--seed": config.seed = Long.parseLong(value); break;
+                case "--scale": scale = Integer.parseInt(value); break;
+                default:
+                    System.out.println("Unknown option " + args[arg]);
+                    return;
+            }
+        }
+
+        if (arg < args.length) {
+            List<Ride> rides = new ArrayList<>();
+            for (; arg < args.length; arg++) {
+                ForecastReplay.readRides(args[arg], rides);
+            }
+            config.demand = new DemandForecaster();
+            TreeSet<Integer> stationIds = new TreeSet<>();
+            for (Ride ride : rides) {
+                // each ride counts scale times, so a small sample can stand for a busier day
+                for (int i = 0; i < scale; i++) {
+                    config.demand.recordRide(ride);
+                }
+                stationIds.add(ride.getStationFrom());
+                stationIds.add(ride.getStationTo());
+            }
+            config.demandStationIds = new int[stationIds.size()];
+            int i = 0;
+            for (int stationId : stationIds) {
+                config.demandStationIds[i++] = stationId;
+            }
+            System.out.format("Replaying %d rides at %d stations, %d times over%n", rides.size(), stationIds.size(), scale);
+        }
+
+        System.out.format("Simulating %d hours at %d stations of %d docks, %d replicas on %d cores%n",
+                config.hours, config.demand == null ? config.stations : config.demandStationIds.length,
+                config.capacity, config.replicas, Runtime.getRuntime().availableProcessors());
+        Result result = run(config);
+        System.out.println(result);
+        if (result.bikesAtEnd != result.bikesAtStart) {
+            System.out.println("Sorry, the simulation lost track of " + (result.bikesAtStart - result.bikesAtEnd) + " bikes.");
+        }
+    }
+}
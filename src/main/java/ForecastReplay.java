@@ -0,0 +1,280 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Scores the demand forecast offline by replaying ride data csv files against two ways of rebalancing
+ *
+ * Each day in the files is replayed on its own, with the forecast learned from every other day.
+ * Both replays start the day with every station at its even share of the bikes and rebalance every
+ * few hours; the baseline rebalances back to even shares, the forecast replay rebalances to
+ * DemandForecaster's targets. A ride that finds its station empty is lost, and the report shows the
+ * minutes stations spent empty and the rides lost each way
+ *
+ * Run it with the csv files, for example
+ * "java ForecastReplay data-files/sample-ride-data-0820.csv data-files/sample-ride-data-0821.csv".
+ * Options before the files: --capacity N (docks at each station, default 15), --fill F (share of
+ * the docks holding bikes, default 0.5) and --every H (hours between rebalances, default 2, which
+ * is also how far ahead the forecast looks)
+ */
+class ForecastReplay {
+
+    /** docks at each station, since the ride files do not say */
+    private static final int DEFAULT_CAPACITY = 15;
+
+    /** share of all docks that hold a bike */
+    private static final double DEFAULT_FILL = 0.5;
+
+    /** hours between rebalances */
+    private static final int DEFAULT_EVERY_HOURS = 2;
+
+    /** header every ride data file starts with, after an optional byte order mark */
+    private static final String HEADER = "User,From,To,Start,End";
+
+    /**
+     * What happened in one replayed day
+     */
+    static final class Score {
+        /** minutes stations spent with no bikes, added up over every station */
+        long emptyStationMinutes;
+
+        /** rides that found their station empty */
+        int lostRides;
+
+        /** returns that found their station full */
+        int fullStationReturns;
+
+        /** bikes moved by rebalancing */
+        int bikesMoved;
+    }
+
+    /**
+     * Replays every day in the files and prints the scores
+     *
+     * @param args options, then paths of the csv files
+     * @throws IOException failure during reading, writing and searching file or directory operations
+     */
+    public static void main(String[] args) throws IOException {
+        int capacity = DEFAULT_CAPACITY;
+        double fill = DEFAULT_FILL;
+        int everyHours = DEFAULT_EVERY_HOURS;
+
+        int arg = 0;
+        for (; arg + 1 < args.length && args[arg].startsWith("--"); arg += 2) {
+            if ("--capacity".equals(args[arg])) {
+                capacity = Integer.parseInt(args[arg + 1]);
+            } else if ("--fill".equals(args[arg])) {
+                fill = Double.parseDouble(args[arg + 1]);
+            } else if ("--every".equals(args[arg])) {
+                everyHours = Integer.parseInt(args[arg + 1]);
+            } else {
+                System.out.println("Unknown option " + args[arg]);
+                return;
+            }
+        }
+        if (arg == args.length) {
+            System.out.println("Please give the ride data csv files to replay.");
+            return;
+        }
+
+        List<Ride> rides = new ArrayList<>();
+        for (; arg < args.length; arg++) {
+            readRides(args[arg], rides);
+        }
+
+        // group the rides by the local day they start on
+        Map<LocalDate, List<Ride>> days = new TreeMap<>();
+        TreeSet<Integer> stations = new TreeSet<>();
+        for (Ride ride : rides) {
+            LocalDate day = ride.getStartTimeStamp().atZone(RideCsvImporter.STATION_ZONE).toLocalDate();
+            days.computeIfAbsent(day, d -> new ArrayList<>()).add(ride);
+            stations.add(ride.getStationFrom());
+            stations.add(ride.getStationTo());
+        }
+        if (days.size() < 2) {
+            System.out.println("Please give at least two days of rides, so one can be forecast from the others.");
+            return;
+        }
+
+        System.out.format("%d rides over %d days at %d stations of %d docks, rebalancing every %d hours\n",
+                rides.size(), days.size(), stations.size(), capacity, everyHours);
+        System.out.format("%-12s%8s%12s%12s%10s%10s%10s%10s\n", "Day", "Rides", "Empty min", "Empty min",
+                "Lost", "Lost", "Moved", "Moved");
+        System.out.format("%-12s%8s%12s%12s%10s%10s%10s%10s\n", "", "", "baseline", "forecast",
+                "baseline", "forecast", "baseline", "forecast");
+
+        long baselineEmpty = 0;
+        long forecastEmpty = 0;
+        for (Map.Entry<LocalDate, List<Ride>> day : days.entrySet()) {
+            DemandForecaster forecaster = new DemandForecaster();
+            for (Map.Entry<LocalDate, List<Ride>> other : days.entrySet()) {
+                if (!other.getKey().equals(day.getKey())) {
+                    for (Ride ride : other.getValue()) {
+                        forecaster.recordRide(ride);
+                    }
+                }
+            }
+
+            Score baseline = replay(day.getKey(), day.getValue(), stations, capacity, fill, everyHours, null);
+            Score forecast = replay(day.getKey(), day.getValue(), stations, capacity, fill, everyHours, forecaster);
+            baselineEmpty += baseline.emptyStationMinutes;
+            forecastEmpty += forecast.emptyStationMinutes;
+
+            System.out.format("%-12s%8d%12d%12d%10d%10d%10d%10d\n", day.getKey(), day.getValue().size(),
+                    baseline.emptyStationMinutes, forecast.emptyStationMinutes,
+                    baseline.lostRides, forecast.lostRides, baseline.bikesMoved, forecast.bikesMoved);
+        }
+        System.out.println("Empty station minutes avoided by the forecast: " + (baselineEmpty - forecastEmpty));
+    }
+
+    /**
+     * Replays one day of rides
+     *
+     * @param day the day being replayed
+     * @param rides the day's rides
+     * @param stationIds every station
+     * @param capacity docks at each station
+     * @param fill share of the docks holding bikes
+     * @param everyHours hours between rebalances
+     * @param forecaster the forecast to rebalance with, or null to rebalance to even shares
+     * @return the day's score
+     */
+    static Score replay(LocalDate day, List<Ride> rides, TreeSet<Integer> stationIds, int capacity, double fill,
+                        int everyHours, DemandForecaster forecaster) {
+        int stations = stationIds.size();
+        int[] ids = new int[stations];
+        int[] capacities = new int[stations];
+        Map<Integer, Integer> index = new TreeMap<>();
+        int i = 0;
+        for (int stationId : stationIds) {
+            ids[i] = stationId;
+            capacities[i] = capacity;
+            index.put(stationId, i++);
+        }
+
+        // every station starts at an even share of the bikes
+        int[] bikes = new int[stations];
+        bikes[0] = (int) Math.round(stations * capacity * fill);
+        bikes = RebalancePlanner.targets(bikes, capacities);
+
+        // departures, arrivals and rebalances in time order; at the same instant bikes leave before they arrive
+        List<Object[]> events = new ArrayList<>();
+        for (Ride ride : rides) {
+            events.add(new Object[]{ride.getStartTimeStamp(), 1, ride});
+            events.add(new Object[]{ride.getEndTimeStamp(), 2, ride});
+        }
+        Instant start = day.atStartOfDay(RideCsvImporter.STATION_ZONE).toInstant();
+        Instant end = day.plusDays(1).atStartOfDay(RideCsvImporter.STATION_ZONE).toInstant();
+        for (Instant time = start; time.isBefore(end); time = time.plus(Duration.ofHours(everyHours))) {
+            events.add(new Object[]{time, 0, null});
+        }
+        events.sort(Comparator.<Object[], Instant>comparing(event -> (Instant) event[0])
+                .thenComparing(event -> (Integer) event[1]));
+
+        Score score = new Score();
+        Instant[] emptySince = new Instant[stations];
+        List<Ride> lost = new ArrayList<>();
+        for (int s = 0; s < stations; s++) {
+            emptySince[s] = bikes[s] == 0 ? start : null;
+        }
+
+        for (Object[] event : events) {
+            Instant time = (Instant) event[0];
+            int kind = (Integer) event[1];
+            Ride ride = (Ride) event[2];
+
+            if (kind == 0) {
+                int[] targets = forecaster == null
+                        ? RebalancePlanner.targets(bikes, capacities)
+                        : forecaster.targets(ids, bikes, capacities, time, everyHours);
+                RebalancePlanner.Plan plan = RebalancePlanner.planTo(ids, bikes, targets, null);
+                for (RebalancePlanner.Transfer transfer : plan.transfers) {
+                    bikes[index.get(transfer.fromStation)] -= transfer.bikes;
+                    bikes[index.get(transfer.toStation)] += transfer.bikes;
+                }
+                score.bikesMoved += plan.bikesMoved;
+            } else if (kind == 1) {
+                int from = index.get(ride.getStationFrom());
+                if (bikes[from] == 0) {
+                    score.lostRides++;
+                    lost.add(ride);
+                    continue;
+                }
+                bikes[from]--;
+            } else {
+                if (lost.remove(ride)) {
+                    continue;
+                }
+                int to = index.get(ride.getStationTo());
+                if (bikes[to] >= capacities[to]) {
+                    // the rider finds another dock nearby; the bike is counted here all the same
+                    score.fullStationReturns++;
+                }
+                bikes[to]++;
+            }
+
+            // keep track of when each station ran out and how long it stayed out
+            for (int s = 0; s < stations; s++) {
+                if (bikes[s] == 0 && emptySince[s] == null) {
+                    emptySince[s] = time;
+                } else if (bikes[s] > 0 && emptySince[s] != null) {
+                    score.emptyStationMinutes += emptyMinutes(emptySince[s], time, end);
+                    emptySince[s] = null;
+                }
+            }
+        }
+        for (int s = 0; s < stations; s++) {
+            if (emptySince[s] != null) {
+                score.emptyStationMinutes += emptyMinutes(emptySince[s], end, end);
+            }
+        }
+        return score;
+    }
+
+    /**
+     * @return minutes from one time to another, counting only the part before the end of the day
+     */
+    private static long emptyMinutes(Instant from, Instant to, Instant endOfDay) {
+        Instant until = to.isAfter(endOfDay) ? endOfDay : to;
+        return from.isBefore(until) ? Duration.between(from, until).toMinutes() : 0;
+    }
+
+    /**
+     * Reads every ride in a csv file, skipping rows that cannot be read
+     * @param file path of the csv file
+     * @param rides list to add the rides to
+     * @throws IOException failure during reading, writing and searching file or directory operations
+     */
+    static void readRides(String file, List<Ride> rides) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null || !line.replace("\uFEFF", "").trim().equals(HEADER)) {
+                System.out.println("Sorry, " + file + " does not start with the header " + HEADER + ".");
+                return;
+            }
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    rides.add(RideCsvImporter.parseRide(line));
+                } catch (ParseException | DateTimeParseException | IllegalArgumentException e) {
+                    // bad rows are reported by RideCsvImporter; the replay just leaves them out
+                }
+            }
+        }
+    }
+}
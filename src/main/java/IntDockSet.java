@@ -0,0 +1,205 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Set of bike ids docked at a station
+ *
+ * Bike ids are stored as plain ints in an open-addressing hash table with linear probing,
+ * so checking, adding and removing a bike are O(1) and docking or undocking a bike never
+ * allocates unless the table has to grow. Removal shifts later entries back into the gap
+ * instead of leaving tombstones, so lookups stay short however many bikes come and go
+ */
+class IntDockSet {
+
+    /** marks an unused slot; this value cannot be stored as a bike id */
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    /** the hash table, always a power of two long and at most half full */
+    private int[] slots;
+
+    /** slots.length - 1, used to wrap indexes around the table */
+    private int mask;
+
+    /** number of bike ids in the set */
+    private int size;
+
+    /**
+     * Constructor to create an empty set sized so it will not need to grow
+     * until more than the expected number of bikes are docked
+     * @param expectedBikes number of bikes the set should hold without resizing, usually the station capacity
+     */
+    IntDockSet(int expectedBikes) {
+        int tableSize = 4;
+        while (tableSize < expectedBikes * 2) {
+            tableSize <<= 1;
+        }
+        slots = new int[tableSize];
+        Arrays.fill(slots, EMPTY);
+        mask = tableSize - 1;
+    }
+
+    /**
+     * Adds a bike id to the set
+     * @param bikeId the bike to add
+     * @return true if the bike was not already in the set
+     */
+    boolean add(int bikeId) {
+        if (bikeId == EMPTY) {
+            throw new IllegalArgumentException("Bike id " + bikeId + " cannot be docked.");
+        }
+
+        int i = home(bikeId);
+        while (slots[i] != EMPTY) {
+            if (slots[i] == bikeId) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        slots[i] = bikeId;
+        size++;
+
+        // keep the table at most half full so probe runs stay short
+        if (size * 2 > slots.length) {
+            grow();
+        }
+        return true;
+    }
+
+    /**
+     * Removes a bike id from the set
+     * @param bikeId the bike to remove
+     * @return true if the bike was in the set
+     */
+    boolean remove(int bikeId) {
+        int gap = indexOf(bikeId);
+        if (gap == -1) {
+            return false;
+        }
+
+        // walk the rest of the probe run and pull back any entry that could live in the gap
+        int i = gap;
+        while (true) {
+            i = (i + 1) & mask;
+            int id = slots[i];
+            if (id == EMPTY) {
+                break;
+            }
+
+            // the entry may move back if its home slot is not between the gap and where it sits now
+            if (((i - home(id)) & mask) >= ((i - gap) & mask)) {
+                slots[gap] = id;
+                gap = i;
+            }
+        }
+        slots[gap] = EMPTY;
+        size--;
+        return true;
+    }
+
+    /**
+     * Checks whether a bike id is in the set
+     * @param bikeId the bike to look for
+     * @return true if the bike is in the set
+     */
+    boolean contains(int bikeId) {
+        return indexOf(bikeId) != -1;
+    }
+
+    /**
+     * This is the getter method for the number of bikes in the set
+     * @return the number of bike ids stored
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether the set has no bikes
+     * @return true if the set is empty
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns one of the bike ids in the set without removing it
+     * @return a bike id in the set
+     * @throws NoSuchElementException if the set is empty
+     */
+    int peek() {
+        if (size > 0) {
+            for (int id : slots) {
+                if (id != EMPTY) {
+                    return id;
+                }
+            }
+        }
+        throw new NoSuchElementException("No bikes are docked.");
+    }
+
+    /**
+     * Copies the bike ids into a new array, in no particular order
+     * @return every bike id in the set
+     */
+    int[] toArray() {
+        int[] bikeIds = new int[size];
+        int count = 0;
+        for (int id : slots) {
+            if (id != EMPTY) {
+                bikeIds[count++] = id;
+            }
+        }
+        return bikeIds;
+    }
+
+    /**
+     * Finds the slot holding a bike id
+     * @param bikeId the bike to look for
+     * @return index of the bike's slot, or -1 if it is not in the set
+     */
+    private int indexOf(int bikeId) {
+        if (bikeId == EMPTY) {
+            return -1;
+        }
+
+        int i = home(bikeId);
+        while (slots[i] != EMPTY) {
+            if (slots[i] == bikeId) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Picks the slot a bike id should be stored in if there are no collisions
+     * Sequential bike ids are spread out so they do not all land in one probe run
+     * @param bikeId the bike id
+     * @return index of the bike's home slot
+     */
+    private int home(int bikeId) {
+        int hash = bikeId * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Doubles the size of the table and re-inserts every bike id
+     */
+    private void grow() {
+        int[] oldSlots = slots;
+        slots = new int[oldSlots.length * 2];
+        Arrays.fill(slots, EMPTY);
+        mask = slots.length - 1;
+
+        for (int id : oldSlots) {
+            if (id != EMPTY) {
+                int i = home(id);
+                while (slots[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                slots[i] = id;
+            }
+        }
+    }
+}
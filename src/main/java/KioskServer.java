@@ -0,0 +1,119 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves the ValleyBike menus to many kiosk terminals from one program
+ *
+ * Every TCP connection gets its own session (input, output and menu path) and its own
+ * thread, and all of the sessions share the one set of stations, bikes, rides and accounts
+ * that ValleyBikeSim loaded. Connect with a plain terminal client, for example
+ * "nc localhost 4223"
+ *
+ * Sessions run on virtual threads when the JVM has them (Java 21 and later), so thousands of
+ * mostly idle terminals are cheap. On older JVMs each session gets a pooled platform thread
+ */
+public class KioskServer {
+
+    /** port the server listens on unless one is given on the command line */
+    private static final int DEFAULT_PORT = 4223;
+
+    /** number of sessions currently connected */
+    private static final AtomicInteger openSessions = new AtomicInteger();
+
+    /**
+     * Loads the data and accepts kiosk connections until the program is stopped
+     *
+     * @param args optional port number to listen on
+     * @throws Exception if the data cannot be loaded or the port cannot be opened
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+
+        if (!ValleyBikeSim.loadData()) {
+            ConnectionPool.closeAll();
+            return;
+        }
+
+        // from here on, anything printed goes to the screen of whichever session printed it
+        PrintStream console = KioskSession.current().getOut();
+        System.setOut(new SessionPrintStream(console));
+
+        ExecutorService sessions = newSessionExecutor();
+        // only listen on this machine; kiosks reach it through a local socket or an ssh tunnel
+        try (ServerSocket server = new ServerSocket(port, 0, InetAddress.getLoopbackAddress())) {
+            console.println("ValleyBike kiosk server listening on port " + port);
+
+            while (true) {
+                final Socket socket = server.accept();
+                sessions.execute(() -> runSession(socket));
+            }
+        } finally {
+            sessions.shutdownNow();
+            ValleyBikeSim.stopMembershipRenewals();
+            ValleyBikeSim.stopFleetMetricsCheck();
+            ValleyBikeSim.stopRebalancing();
+            EventLog.stop();
+            ValleyBikeSim.stopSnapshots();
+            PersistenceMetrics.stopDumping();
+            ValleyBikeSim.closeRideArchive();
+            ConnectionPool.closeAll();
+        }
+    }
+
+    /**
+     * Runs the menus for one kiosk connection until the user exits or disconnects
+     * @param socket the kiosk's connection
+     */
+    private static void runSession(Socket socket) {
+        openSessions.incrementAndGet();
+        try (Socket connection = socket;
+             PrintStream out = new PrintStream(connection.getOutputStream(), true, "UTF-8")) {
+            KioskSession.attach(new KioskSession(connection.getInputStream(), out));
+
+            System.out.print("Welcome to ValleyBike Share! ");
+            ValleyBikeController.run();
+        } catch (NoSuchElementException | IllegalStateException e) {
+            // the user closed their terminal
+        } catch (Exception e) {
+            KioskSession.detach();
+            System.out.println("Kiosk session ended unexpectedly: " + e);
+        } finally {
+            KioskSession.detach();
+            openSessions.decrementAndGet();
+        }
+    }
+
+    /**
+     * This is the getter method for the number of connected kiosk sessions
+     * @return number of sessions currently open
+     */
+    static int getOpenSessions() {
+        return openSessions.get();
+    }
+
+    /**
+     * Creates the executor that runs sessions: one virtual thread per session if the JVM supports
+     * them, otherwise a cached pool of daemon platform threads
+     * @return executor for sessions
+     */
+    private static ExecutorService newSessionExecutor() {
+        try {
+            // looked up by name so the project still builds for Java 8
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "kiosk-session-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -0,0 +1,76 @@
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Scanner;
+
+/**
+ * The state of one person using ValleyBike at one terminal: where their input comes from
+ * and where their output goes
+ *
+ * The menus in ValleyBikeController always use the session of the thread they run on, so
+ * the console and every kiosk connection can run the same menus at the same time
+ * without seeing each other's input or output
+ */
+class KioskSession {
+
+    /** the session used by threads that have not been given one, which is the local console */
+    private static final KioskSession console = new KioskSession(System.in, System.out);
+
+    /** the session of each thread */
+    private static final ThreadLocal<KioskSession> current = new ThreadLocal<>();
+
+    /** reads the user's input */
+    private final Scanner input;
+
+    /** writes to the user's screen */
+    private final PrintStream out;
+
+    /**
+     * Constructor creates a session for a terminal
+     * @param in the user's input
+     * @param out the user's output
+     */
+    KioskSession(InputStream in, PrintStream out) {
+        this.input = new Scanner(in);
+        this.out = out;
+    }
+
+    /**
+     * This is the getter method for the session of the calling thread
+     * @return the thread's session, or the console session if it has none
+     */
+    static KioskSession current() {
+        KioskSession session = current.get();
+        return session == null ? console : session;
+    }
+
+    /**
+     * Makes a session the current session of the calling thread
+     * @param session the session the thread will serve
+     */
+    static void attach(KioskSession session) {
+        current.set(session);
+    }
+
+    /**
+     * Stops the calling thread from serving a session, so it goes back to the console session
+     */
+    static void detach() {
+        current.remove();
+    }
+
+    /**
+     * This is the getter method for the session's input
+     * @return scanner over what the user types
+     */
+    Scanner getInput() {
+        return input;
+    }
+
+    /**
+     * This is the getter method for the session's output
+     * @return stream to the user's screen
+     */
+    PrintStream getOut() {
+        return out;
+    }
+}
@@ -0,0 +1,136 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts latencies in buckets that grow with the value, like an HDR histogram, so percentiles
+ * are within about 3% of the true value from a few nanoseconds up to hours
+ *
+ * Values below 64 get a bucket each. Above that, every power of two is split into 32 equal buckets,
+ * so a value's bucket is found from its highest set bit and the five bits after it. Recording is one
+ * atomic increment and never locks, so many threads can record into the same histogram at once
+ */
+class LatencyHistogram {
+
+    /** buckets in each power of two, and the number of bits after the highest one used to pick a bucket */
+    private static final int SUB_BUCKETS = 32;
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /** enough buckets for any positive long */
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+    /** number of values recorded in each bucket */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /** number of values recorded */
+    private final LongAdder count = new LongAdder();
+
+    /** sum of the values recorded */
+    private final LongAdder total = new LongAdder();
+
+    /** largest value recorded */
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records one value
+     * @param value the latency, in nanoseconds; negative values count as 0
+     */
+    void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucket(value));
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * @param value a value
+     * @return the bucket it is counted in
+     */
+    static int bucket(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * @param bucket a bucket
+     * @return the largest value counted in the bucket
+     */
+    static long highestValue(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * @return number of values recorded
+     */
+    long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return average of the values recorded, or 0 if there are none
+     */
+    double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : total.sum() / (double) n;
+    }
+
+    /**
+     * @return largest value recorded, or 0 if there are none
+     */
+    long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Finds the value below which a share of the recorded values fall
+     * Values recorded while this runs may or may not be counted
+     *
+     * @param percentile share of the values, from 0 to 100
+     * @return the highest value in the bucket holding that percentile, or 0 if nothing has been recorded
+     */
+    long getPercentile(double percentile) {
+        long n = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Forgets every value recorded
+     * Values recorded while this runs may survive it
+     */
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+}
@@ -0,0 +1,380 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A binary copy of the station, bike, customer account and internal account maps, so a restart reads
+ * one file instead of parsing every row of those tables
+ *
+ * The file is read by mapping it into memory and decoding it front to back; ids, dates and numbers are
+ * stored as fixed-size binary values, so nothing is parsed from text. It records the schema version it
+ * was written under and the Change_Log high-water mark read while the maps were copied. On startup
+ * the rows listed in Change_Log after that mark are read from the database on top of the snapshot
+ *
+ * The file ends with a checksum of everything before it and is written to a temporary file that replaces
+ * the old one in one step, so a crash while writing leaves the previous snapshot in place
+ */
+class MapSnapshot {
+
+    /** "VBSN", the first four bytes of every snapshot */
+    private static final int MAGIC = 0x5642534E;
+
+    /** version of the file layout, bumped whenever the layout changes */
+    private static final int FORMAT_VERSION = 1;
+
+    /** written for a date that is not set */
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    /** schema version of the database the snapshot was taken from */
+    final int schemaVersion;
+
+    /** largest Change_Log sequence number the snapshot includes */
+    final long highWaterMark;
+
+    final Map<Integer, Station> stations;
+    final Map<Integer, Bike> bikes;
+    final Map<String, CustomerAccount> customers;
+    final Map<String, InternalAccount> internalAccounts;
+
+    private MapSnapshot(int schemaVersion, long highWaterMark, Map<Integer, Station> stations, Map<Integer, Bike> bikes,
+                        Map<String, CustomerAccount> customers, Map<String, InternalAccount> internalAccounts) {
+        this.schemaVersion = schemaVersion;
+        this.highWaterMark = highWaterMark;
+        this.stations = stations;
+        this.bikes = bikes;
+        this.customers = customers;
+        this.internalAccounts = internalAccounts;
+    }
+
+    /**
+     * Writes the maps to a snapshot file, replacing any snapshot already there
+     *
+     * @param file where to write
+     * @param schemaVersion schema version of the database the maps were loaded from
+     * @param highWaterMark largest Change_Log sequence number the maps include
+     * @param stations the stations, by id
+     * @param bikes the bikes, by id
+     * @param customers the customer accounts, by username
+     * @param internalAccounts the internal accounts, by username
+     * @throws IOException failure during reading, writing and searching file or directory operations
+     */
+    static void write(Path file, int schemaVersion, long highWaterMark, Map<Integer, Station> stations,
+                      Map<Integer, Bike> bikes, Map<String, CustomerAccount> customers,
+                      Map<String, InternalAccount> internalAccounts) throws IOException {
+        write(file, encode(schemaVersion, highWaterMark, stations, bikes, customers, internalAccounts));
+    }
+
+    /**
+     * Copies the maps into the bytes of a snapshot file, so the caller can hold its locks only while
+     * the maps are copied and not while the file is written
+     *
+     * @param schemaVersion schema version of the database the maps were loaded from
+     * @param highWaterMark largest Change_Log sequence number the maps include
+     * @param stations the stations, by id
+     * @param bikes the bikes, by id
+     * @param customers the customer accounts, by username
+     * @param internalAccounts the internal accounts, by username
+     * @return the snapshot, ending with its checksum
+     * @throws IOException failure during reading, writing and searching file or directory operations
+     */
+    static byte[] encode(int schemaVersion, long highWaterMark, Map<Integer, Station> stations,
+                         Map<Integer, Bike> bikes, Map<String, CustomerAccount> customers,
+                         Map<String, InternalAccount> internalAccounts) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+        CheckedOutputStream checked = new CheckedOutputStream(bytes, new CRC32());
+        DataOutputStream out = new DataOutputStream(checked);
+
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(schemaVersion);
+        out.writeLong(highWaterMark);
+
+        // each map is copied before it is written, so its count matches the entries that follow
+        writeStations(out, stations);
+        writeBikes(out, bikes);
+        writeCustomers(out, customers);
+        writeInternalAccounts(out, internalAccounts);
+        out.flush();
+
+        // the checksum itself is not part of what it covers
+        new DataOutputStream(bytes).writeInt((int) checked.getChecksum().getValue());
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes an encoded snapshot to a file, replacing any snapshot already there
+     *
+     * @param file where to write
+     * @param snapshot the bytes from encode
+     * @throws IOException failure during reading, writing and searching file or directory operations
+     */
+    static void write(Path file, byte[] snapshot) throws IOException {
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), "valleybike-snapshot", ".tmp");
+        try {
+            try (FileOutputStream raw = new FileOutputStream(temp.toFile())) {
+                raw.write(snapshot);
+                raw.getFD().sync();
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Reads a snapshot file
+     *
+     * @param file the snapshot
+     * @return the snapshot, or null if there is no file
+     * @throws IOException if the file cannot be read, fails its checksum or was written in another layout
+     */
+    static MapSnapshot read(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // one sequential pass over the mapped file, with no copying into java buffers
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (in.limit() < 24) {
+            throw new IOException("Snapshot " + file + " is too short");
+        }
+
+        ByteBuffer body = in.duplicate();
+        body.limit(in.limit() - 4);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if ((int) crc.getValue() != in.getInt(in.limit() - 4)) {
+            throw new IOException("Snapshot " + file + " fails its checksum");
+        }
+
+        in.limit(in.limit() - 4);
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) {
+                throw new IOException("Snapshot " + file + " is not in a layout this version can read");
+            }
+            int schemaVersion = in.getInt();
+            long highWaterMark = in.getLong();
+            Map<Integer, Station> stations = readStations(in);
+            Map<Integer, Bike> bikes = readBikes(in);
+            Map<String, CustomerAccount> customers = readCustomers(in);
+            Map<String, InternalAccount> internalAccounts = readInternalAccounts(in);
+            return new MapSnapshot(schemaVersion, highWaterMark, stations, bikes, customers, internalAccounts);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Snapshot " + file + " ends early", e);
+        }
+    }
+
+    private static void writeStations(DataOutputStream out, Map<Integer, Station> stations) throws IOException {
+        Map<Integer, Station> copy = new LinkedHashMap<>(stations);
+        out.writeInt(copy.size());
+        for (Map.Entry<Integer, Station> entry : copy.entrySet()) {
+            Station station = entry.getValue();
+            out.writeInt(entry.getKey());
+            writeString(out, station.getStationName());
+            out.writeInt(station.getMaintenanceRequest());
+            out.writeInt(station.getCapacity());
+            out.writeBoolean(station.getKioskBoolean());
+            writeString(out, station.getAddress());
+            int[] bikeIds = station.getBikeIds();
+            out.writeInt(bikeIds.length);
+            for (int bikeId : bikeIds) {
+                out.writeInt(bikeId);
+            }
+        }
+    }
+
+    private static Map<Integer, Station> readStations(ByteBuffer in) {
+        int count = in.getInt();
+        Map<Integer, Station> stations = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            int id = in.getInt();
+            String name = readString(in);
+            int reqMnt = in.getInt();
+            int capacity = in.getInt();
+            boolean kiosk = in.get() != 0;
+            String address = readString(in);
+            Station station = new Station(name, reqMnt, capacity, kiosk, address);
+            int docked = in.getInt();
+            for (int b = 0; b < docked; b++) {
+                station.addToBikeList(in.getInt());
+            }
+            stations.put(id, station);
+        }
+        return stations;
+    }
+
+    private static void writeBikes(DataOutputStream out, Map<Integer, Bike> bikes) throws IOException {
+        Map<Integer, Bike> copy = new LinkedHashMap<>(bikes);
+        out.writeInt(copy.size());
+        for (Bike bike : copy.values()) {
+            out.writeInt(bike.getId());
+            out.writeInt(bike.getBikeLocation());
+            out.writeInt(bike.getStation());
+            out.writeBoolean(bike.getMnt());
+            writeString(out, bike.getMntReport());
+        }
+    }
+
+    private static Map<Integer, Bike> readBikes(ByteBuffer in) {
+        int count = in.getInt();
+        Map<Integer, Bike> bikes = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            int id = in.getInt();
+            int location = in.getInt();
+            int stationId = in.getInt();
+            String maintenance = in.get() != 0 ? "y" : "n";
+            bikes.put(id, new Bike(id, location, stationId, maintenance, readString(in)));
+        }
+        return bikes;
+    }
+
+    private static void writeCustomers(DataOutputStream out, Map<String, CustomerAccount> customers) throws IOException {
+        Map<String, CustomerAccount> copy = new LinkedHashMap<>(customers);
+        out.writeInt(copy.size());
+        for (CustomerAccount customer : copy.values()) {
+            writeString(out, customer.getUsername());
+            writeString(out, customer.getPassword());
+            writeString(out, customer.getEmailAddress());
+            writeString(out, customer.getCreditCard());
+            out.writeDouble(customer.getBalance());
+            out.writeBoolean(customer.getIsReturned());
+            out.writeBoolean(customer.isEnabled());
+            writeUuid(out, customer.getLastRideId());
+
+            Membership membership = customer.getMembership();
+            out.writeInt(membership == null ? 0 : membership.getMembershipInt());
+            if (membership != null) {
+                out.writeInt(membership.getTotalRidesLeft());
+                writeDate(out, membership.getLastPayment());
+                writeDate(out, membership.getMemberSince());
+            }
+
+            CustomerRideStats stats = customer.getRideStats();
+            out.writeInt(stats.getRideCount());
+            out.writeLong(stats.getTotalMinutes());
+            writeUuid(out, stats.getLongestRideId());
+            out.writeLong(stats.getLongestRideMinutes());
+            out.writeDouble(stats.getTotalSpend());
+            writeUuid(out, stats.getLastRideId());
+        }
+    }
+
+    private static Map<String, CustomerAccount> readCustomers(ByteBuffer in) {
+        int count = in.getInt();
+        Map<String, CustomerAccount> customers = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String username = readString(in);
+            String password = readString(in);
+            String emailAddress = readString(in);
+            String creditCard = readString(in);
+            double balance = in.getDouble();
+            boolean lastRideIsReturned = in.get() != 0;
+            boolean enabled = in.get() != 0;
+            UUID lastRideId = readUuid(in);
+
+            int type = in.getInt();
+            Membership membership = null;
+            if (type != 0) {
+                int ridesLeft = in.getInt();
+                LocalDate lastPayment = readDate(in);
+                LocalDate memberSince = readDate(in);
+                membership = ValleyBikeSim.checkMembershipType(type, ridesLeft, lastPayment, memberSince);
+            }
+
+            int rideCount = in.getInt();
+            long totalMinutes = in.getLong();
+            UUID longestRideId = readUuid(in);
+            long longestRideMinutes = in.getLong();
+            double totalSpend = in.getDouble();
+            UUID statsLastRideId = readUuid(in);
+
+            CustomerAccount customer = new CustomerAccount(username, password, emailAddress, creditCard, membership,
+                    balance, lastRideIsReturned, enabled, lastRideId);
+            customer.setRideStats(rideCount == 0 ? CustomerRideStats.EMPTY : new CustomerRideStats(rideCount,
+                    totalMinutes, longestRideId, longestRideMinutes, totalSpend, statsLastRideId));
+            customers.put(username, customer);
+        }
+        return customers;
+    }
+
+    private static void writeInternalAccounts(DataOutputStream out, Map<String, InternalAccount> accounts) throws IOException {
+        Map<String, InternalAccount> copy = new LinkedHashMap<>(accounts);
+        out.writeInt(copy.size());
+        for (InternalAccount account : copy.values()) {
+            writeString(out, account.getUsername());
+            writeString(out, account.getPassword());
+            writeString(out, account.getEmailAddress());
+        }
+    }
+
+    private static Map<String, InternalAccount> readInternalAccounts(ByteBuffer in) {
+        int count = in.getInt();
+        Map<String, InternalAccount> accounts = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String username = readString(in);
+            String password = readString(in);
+            String emailAddress = readString(in);
+            accounts.put(username, new InternalAccount(username, password, emailAddress));
+        }
+        return accounts;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeUuid(DataOutputStream out, UUID id) throws IOException {
+        out.writeBoolean(id != null);
+        if (id != null) {
+            out.writeLong(id.getMostSignificantBits());
+            out.writeLong(id.getLeastSignificantBits());
+        }
+    }
+
+    private static UUID readUuid(ByteBuffer in) {
+        return in.get() == 0 ? null : new UUID(in.getLong(), in.getLong());
+    }
+
+    private static void writeDate(DataOutputStream out, LocalDate date) throws IOException {
+        out.writeLong(date == null ? NO_DATE : date.toEpochDay());
+    }
+
+    private static LocalDate readDate(ByteBuffer in) {
+        long day = in.getLong();
+        return day == NO_DATE ? null : LocalDate.ofEpochDay(day);
+    }
+}
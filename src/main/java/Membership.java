@@ -94,10 +94,19 @@ public abstract class Membership {
     }
 
     /**
-     * check whether a new payment is due
-     * @return the default which is false
+     * check whether a new payment is due today
+     * @return true if the membership should be renewed
      */
     public boolean checkPaymentDue(){
+        return checkPaymentDue(LocalDate.now());
+    }
+
+    /**
+     * check whether a new payment is due on a given day
+     * @param today the day to check
+     * @return the default which is false
+     */
+    boolean checkPaymentDue(LocalDate today){
         return false;
     }
 
@@ -0,0 +1,324 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Renews the monthly and yearly memberships that are due, once a day
+ *
+ * The due memberships are found with the Membership(type, last_payment) index instead of checking every
+ * customer. They are split into chunks of CHUNK_SIZE usernames, in username order. Cards are checked for
+ * several chunks at a time, and each chunk's renewals are then committed in order in one transaction.
+ * That transaction also records the chunk's last username in Membership_Renewal_Checkpoint, so a run
+ * stopped part way resumes after the last chunk it committed, and a finished run is not repeated that day
+ *
+ * A renewal refills the membership's included rides and sets its last payment to today. A membership
+ * whose card is declined becomes pay-as-you-go, as it did before
+ *
+ * A membership the database says is due but whose account is not loaded, or whose loaded membership is not due,
+ * is left alone and reported. The checkpoint then stays before the first one left, and the day's run is not marked
+ * finished, so the next check tries those customers again; the ones renewed meanwhile are no longer due
+ */
+class MembershipRenewal {
+
+    /** usernames renewed in one transaction */
+    static final int CHUNK_SIZE = 500;
+
+    /** number of chunks whose cards are checked at the same time */
+    private static final int RENEWAL_THREADS = 4;
+
+    /** sql for finding the memberships due for renewal after a username, in username order */
+    private static final String DUE_MEMBERSHIPS_SQL = "SELECT username FROM Membership " +
+            "WHERE ((type = 2 AND last_payment <= ?) OR (type = 3 AND last_payment <= ?)) AND username > ? " +
+            "ORDER BY username";
+
+    /** sql for saving how far the day's run has got */
+    private static final String SAVE_CHECKPOINT_SQL = "INSERT OR REPLACE INTO Membership_Renewal_Checkpoint" +
+            "(id, run_date, last_username, finished) VALUES(1, ?, ?, ?)";
+
+    /** held while a run is in progress, so a run started while another is still going does nothing */
+    private static final ReentrantLock running = new ReentrantLock();
+
+    /** the last day a run finished, so later calls that day do not read the checkpoint again */
+    private static volatile LocalDate finishedOn;
+
+    /**
+     * What a run decided for one due membership
+     */
+    private static final class Renewal {
+        /** username of the customer */
+        private final String username;
+
+        /** the membership that was due, or null if the customer was left for a later check */
+        private final Membership membership;
+
+        /** true if the card was charged, false to switch the customer to pay-as-you-go */
+        private final boolean charged;
+
+        Renewal(String username, Membership membership, boolean charged) {
+            this.username = username;
+            this.membership = membership;
+            this.charged = charged;
+        }
+    }
+
+    /**
+     * Renews the memberships due on a day, unless that day's run has already finished or is already running
+     *
+     * @param today the day to renew for
+     * @return number of memberships renewed or switched to pay-as-you-go, or -1 if a chunk could not be saved
+     * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+     */
+    static int runOnce(LocalDate today) throws ClassNotFoundException {
+        if (today.equals(finishedOn) || !running.tryLock()) {
+            return 0;
+        }
+        try {
+            return run(today);
+        } finally {
+            running.unlock();
+        }
+    }
+
+    /**
+     * Renews the memberships due on a day, starting after the checkpoint if that day's run was stopped part way
+     *
+     * @param today the day to renew for
+     * @return number of memberships renewed or switched to pay-as-you-go, or -1 if a chunk could not be saved
+     * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+     */
+    private static int run(LocalDate today) throws ClassNotFoundException {
+        String after;
+        List<String> due;
+        try {
+            after = readCheckpoint(today);
+            if (after == null) {
+                finishedOn = today;
+                return 0;
+            }
+            due = readDueUsernames(today, after);
+        } catch (SQLException e) {
+            PersistenceMetrics.recordError("renewMemberships", e);
+            System.out.println("Sorry, could not check for memberships to renew at this time.");
+            return -1;
+        }
+
+        List<List<String>> chunks = new ArrayList<>();
+        for (int i = 0; i < due.size(); i += CHUNK_SIZE) {
+            chunks.add(due.subList(i, Math.min(due.size(), i + CHUNK_SIZE)));
+        }
+
+        // nothing is due, but the day's run still counts as finished
+        if (chunks.isEmpty()) {
+            UnitOfWork unitOfWork = new UnitOfWork("renewMemberships");
+            unitOfWork.addUpdate(SAVE_CHECKPOINT_SQL, today.toString(), null, true);
+            if (!unitOfWork.commit()) {
+                System.out.println("Sorry, could not renew memberships at this time.");
+                return -1;
+            }
+            finishedOn = today;
+            return 0;
+        }
+
+        // cards are checked for several chunks at a time; the chunks are still committed in order
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(RENEWAL_THREADS, chunks.size()));
+        int renewed = 0;
+        try {
+            List<Future<List<Renewal>>> decisions = new ArrayList<>();
+            for (final List<String> chunk : chunks) {
+                decisions.add(executor.submit(() -> decide(chunk, today)));
+            }
+
+            // the checkpoint never moves past a customer who was left for a later check
+            String resumeAfter = after;
+            int left = 0;
+            for (int i = 0; i < chunks.size(); i++) {
+                List<Renewal> renewals = decisions.get(i).get();
+                for (Renewal renewal : renewals) {
+                    if (renewal.membership == null) {
+                        left++;
+                    } else if (left == 0) {
+                        resumeAfter = renewal.username;
+                    }
+                }
+
+                boolean finished = i == chunks.size() - 1 && left == 0;
+                int saved = commitChunk(renewals, today, resumeAfter, finished);
+                if (saved < 0) {
+                    System.out.println("Sorry, could not renew memberships at this time.");
+                    return -1;
+                }
+                renewed += saved;
+            }
+
+            if (left > 0) {
+                PersistenceMetrics.recordError("renewMemberships",
+                        new IllegalStateException(left + " due memberships were not loaded or not due in memory"));
+                System.out.println("Sorry, " + left + " memberships due for renewal could not be renewed now "
+                        + "and will be tried again at the next check.");
+                return renewed;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        finishedOn = today;
+        return renewed;
+    }
+
+    /**
+     * Reads where the day's run should start
+     *
+     * @param today the day being renewed
+     * @return the username to start after, "" to start from the beginning, or null if the day's run has finished
+     * @throws SQLException for database access error
+     * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+     */
+    private static String readCheckpoint(LocalDate today) throws SQLException, ClassNotFoundException {
+        try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("renewMemberships")) {
+            PreparedStatement pstmt = conn.prepareStatement(
+                    "SELECT last_username, finished FROM Membership_Renewal_Checkpoint WHERE id = 1 AND run_date = ?");
+            pstmt.setString(1, today.toString());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return "";
+                }
+                String lastUsername = rs.getString("last_username");
+                return rs.getInt("finished") == 1 ? null : lastUsername == null ? "" : lastUsername;
+            }
+        }
+    }
+
+    /**
+     * Finds the monthly and yearly memberships due on a day, using the Membership(type, last_payment) index
+     * Dates are stored as yyyy-MM-dd, so comparing them as text compares the days
+     *
+     * @param today the day being renewed
+     * @param after only usernames after this one are returned
+     * @return the usernames, in order
+     * @throws SQLException for database access error
+     * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+     */
+    private static List<String> readDueUsernames(LocalDate today, String after) throws SQLException, ClassNotFoundException {
+        try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("renewMemberships")) {
+            PreparedStatement pstmt = conn.prepareStatement(DUE_MEMBERSHIPS_SQL);
+            pstmt.setString(1, today.minusDays(MonthlyMembership.RENEWAL_DAYS).toString());
+            pstmt.setString(2, today.minusDays(YearlyMembership.RENEWAL_DAYS).toString());
+            pstmt.setString(3, after);
+
+            List<String> usernames = new ArrayList<>();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    usernames.add(rs.getString("username"));
+                }
+            }
+            return usernames;
+        }
+    }
+
+    /**
+     * Charges the card of each customer in a chunk whose membership is due
+     * The card check prints nothing, because no one at the kiosk is waiting on these customers
+     *
+     * @param chunk usernames found to be due
+     * @param today the day being renewed
+     * @return what to do for each username, in chunk order; a null membership means it was left for a later check
+     */
+    private static List<Renewal> decide(List<String> chunk, LocalDate today) {
+        List<Renewal> renewals = new ArrayList<>();
+        for (String username : chunk) {
+            CustomerAccount customer = ValleyBikeSim.getCustomerObj(username);
+            Membership membership = customer == null ? null : customer.getMembership();
+            if (membership == null || !membership.checkPaymentDue(today)) {
+                // the database says it is due but the account in memory does not agree
+                renewals.add(new Renewal(username, null, false));
+                continue;
+            }
+
+            boolean charged = ValleyBikeController.isValidCreditCard(customer.getCreditCard(), false);
+            renewals.add(new Renewal(username, membership, charged));
+
+            //ASSUMPTION: In a real system, here emails would be sent out to all members whose memberships
+            // have just been renewed, or switched to pay-as-you-go because their card was declined
+        }
+        return renewals;
+    }
+
+    /**
+     * Saves a chunk's renewals and the checkpoint in one transaction, then applies them in memory
+     * The chunk's accounts are locked while it commits, so a rental being charged at the same time
+     * cannot undo a refill
+     *
+     * @param renewals what to do for each due membership
+     * @param today the day being renewed
+     * @param lastUsername the username the next run should start after, for the checkpoint
+     * @param last true if this is the day's last chunk and no customer was left for a later check
+     * @return number of memberships saved, or -1 if the transaction failed
+     * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+     */
+    @SuppressWarnings("try")
+    private static int commitChunk(List<Renewal> renewals, final LocalDate today, String lastUsername, boolean last)
+            throws ClassNotFoundException {
+        // customers left for a later check are not locked or changed
+        List<Renewal> decided = new ArrayList<>();
+        for (Renewal renewal : renewals) {
+            if (renewal.membership != null) {
+                decided.add(renewal);
+            }
+        }
+        renewals = decided;
+
+        Object[] usernames = new Object[renewals.size()];
+        for (int i = 0; i < usernames.length; i++) {
+            usernames[i] = renewals.get(i).username;
+        }
+
+        try (StripedLocks.Held held = ValleyBikeSim.lockAccounts(usernames)) {
+            UnitOfWork unitOfWork = new UnitOfWork("renewMemberships");
+            int saved = 0;
+            for (Renewal renewal : renewals) {
+                final CustomerAccount customer = ValleyBikeSim.getCustomerObj(renewal.username);
+                final Membership membership = renewal.membership;
+
+                // the customer changed membership while the cards were being checked
+                if (customer == null || customer.getMembership() != membership) {
+                    continue;
+                }
+
+                if (renewal.charged) {
+                    // a new membership of the same type comes with the rides that are included each period
+                    final int includedRides = ValleyBikeSim.checkMembershipType(membership.getMembershipInt()).getTotalRidesLeft();
+                    unitOfWork.addUpdate("UPDATE Membership SET total_rides_left = ?, last_payment = ? WHERE username = ?",
+                            includedRides, today.toString(), renewal.username);
+                    unitOfWork.afterCommit(() -> {
+                        membership.setTotalRidesLeft(includedRides);
+                        membership.setLastPayment(today);
+                    });
+                } else {
+                    //if credit card cannot be charged, reset membership to pay-as-you-go
+                    final Membership payAsYouGo = ValleyBikeSim.checkMembershipType(1, 0, today, today);
+                    unitOfWork.addUpdate("UPDATE Membership SET type = ?, total_rides_left = ?, last_payment = ?, " +
+                                    "membership_since = ? WHERE username = ?",
+                            1, 0, today.toString(), today.toString(), renewal.username);
+                    unitOfWork.afterCommit(() -> customer.setMembership(payAsYouGo));
+                }
+                saved++;
+            }
+
+            unitOfWork.addUpdate(SAVE_CHECKPOINT_SQL, today.toString(), lastUsername, last);
+            return unitOfWork.commit() ? saved : -1;
+        }
+    }
+}
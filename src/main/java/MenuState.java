@@ -0,0 +1,151 @@
+/**
+ * The menu a session is on, and whose accounts that menu is working with
+ *
+ * Each menu in ValleyBikeController shows itself once and returns the state to show next,
+ * so the controller's loop moves from menu to menu without the call stack growing
+ */
+final class MenuState {
+
+    /**
+     * The menus of the program
+     */
+    enum Menu {
+        /** create account, log in or exit */
+        INITIAL,
+        /** choose an account type, then enter username and password */
+        LOG_IN,
+        /** home menu of a logged in customer */
+        CUSTOMER_HOME,
+        /** edit a customer account, by the customer or by an internal account */
+        EDIT_CUSTOMER,
+        /** home menu of a logged in internal account */
+        INTERNAL_HOME,
+        /** edit the logged in internal account */
+        EDIT_INTERNAL,
+        /** internal account picks a customer to look at */
+        FIND_CUSTOMER,
+        /** internal account views or edits one customer */
+        CUSTOMER_RECORD,
+        /** the user has left; the loop stops */
+        EXIT
+    }
+
+    /** the state every session starts in */
+    private static final MenuState INITIAL = new MenuState(Menu.INITIAL, null, null);
+
+    /** the state that ends the session */
+    private static final MenuState EXIT = new MenuState(Menu.EXIT, null, null);
+
+    /** the menu to show */
+    private final Menu menu;
+
+    /** username of the logged in account, if there is one */
+    private final String username;
+
+    /** username of the customer an internal account is working on, if there is one */
+    private final String customerUsername;
+
+    private MenuState(Menu menu, String username, String customerUsername) {
+        this.menu = menu;
+        this.username = username;
+        this.customerUsername = customerUsername;
+    }
+
+    /**
+     * @return the state for the initial menu
+     */
+    static MenuState initial() {
+        return INITIAL;
+    }
+
+    /**
+     * @return the state that ends the session
+     */
+    static MenuState exit() {
+        return EXIT;
+    }
+
+    /**
+     * @return the state for the log in menu
+     */
+    static MenuState logIn() {
+        return new MenuState(Menu.LOG_IN, null, null);
+    }
+
+    /**
+     * @param username the logged in customer
+     * @return the state for the customer's home menu
+     */
+    static MenuState customerHome(String username) {
+        return new MenuState(Menu.CUSTOMER_HOME, username, null);
+    }
+
+    /**
+     * @param username the customer account being edited
+     * @param master the internal account doing the editing, or null if the customer is editing their own account
+     * @return the state for the edit customer account menu
+     */
+    static MenuState editCustomer(String username, String master) {
+        // the logged in account is the master when there is one
+        return master == null
+                ? new MenuState(Menu.EDIT_CUSTOMER, username, null)
+                : new MenuState(Menu.EDIT_CUSTOMER, master, username);
+    }
+
+    /**
+     * @param username the logged in internal account
+     * @return the state for the internal account's home menu
+     */
+    static MenuState internalHome(String username) {
+        return new MenuState(Menu.INTERNAL_HOME, username, null);
+    }
+
+    /**
+     * @param username the logged in internal account
+     * @return the state for the edit internal account menu
+     */
+    static MenuState editInternal(String username) {
+        return new MenuState(Menu.EDIT_INTERNAL, username, null);
+    }
+
+    /**
+     * @param username the logged in internal account
+     * @return the state for choosing a customer to view
+     */
+    static MenuState findCustomer(String username) {
+        return new MenuState(Menu.FIND_CUSTOMER, username, null);
+    }
+
+    /**
+     * @param username the logged in internal account
+     * @param customerUsername the customer being viewed
+     * @return the state for viewing and editing one customer
+     */
+    static MenuState customerRecord(String username, String customerUsername) {
+        return new MenuState(Menu.CUSTOMER_RECORD, username, customerUsername);
+    }
+
+    /**
+     * This is the getter method for the menu to show
+     * @return the menu
+     */
+    Menu getMenu() {
+        return menu;
+    }
+
+    /**
+     * This is the getter method for the logged in account
+     * @return username of the logged in account, or null on the initial and log in menus
+     */
+    String getUsername() {
+        return username;
+    }
+
+    /**
+     * This is the getter method for the customer an internal account is working on
+     * @return the customer's username, or null if the logged in account is working on its own account
+     */
+    String getCustomerUsername() {
+        return customerUsername;
+    }
+}
@@ -1,5 +1,5 @@
 import java.time.LocalDate;
-import java.time.Period;
+import java.time.temporal.ChronoUnit;
 
 /**
  * Class representing a monthly ValleyBike membership
@@ -9,6 +9,9 @@ public class MonthlyMembership extends Membership{
     /** rides that come included in membership each month */
     private final int maxRides = 20;
 
+    /** days after the last payment that the membership renews */
+    static final int RENEWAL_DAYS = 30;
+
     /**
      * constructor uses abstract class constructor
      */
@@ -19,14 +22,12 @@ public class MonthlyMembership extends Membership{
 
     /**
      * checks whether it is time to renew the monthly membership
-     * @return true if it has been 30+ days since last payment, false if less
+     * @param today the day to check
+     * @return true if it has been 30+ days since last payment, false if less or if it has never been paid
      */
-    public boolean checkPaymentDue(){
-        LocalDate now = LocalDate.now();
-        //get length of time between last payment and now
-        Period period = Period.between(now, super.getLastPayment());
-        int diff = period.getDays();
-        return (diff >= 30);
+    boolean checkPaymentDue(LocalDate today){
+        //get number of days between last payment and today
+        return super.getLastPayment() != null && ChronoUnit.DAYS.between(super.getLastPayment(), today) >= RENEWAL_DAYS;
     }
 
     /**
@@ -0,0 +1,269 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Times every database call ValleyBikeSim makes, by method name, and counts the ones that fail
+ *
+ * Calls borrow their connection with ConnectionPool.getConnection(name) or commit a UnitOfWork
+ * created with a name; the time from borrowing to handing the connection back goes into that
+ * name's LatencyHistogram. The catch blocks that used to only print "Sorry, could not ..." also
+ * record the SQLException, so its message is kept instead of being lost
+ *
+ * Each name shows up in JMX as ValleyBikeSim:type=Persistence,name=(the name), the performance
+ * stats menu prints them, and a background thread writes them to a tab-separated file every minute.
+ * Recording costs two System.nanoTime calls and a few atomic increments, well under a microsecond.
+ * Start the program with -Dvalleybike.metrics=false to turn the timing off, and with
+ * -Dvalleybike.metrics.file=(path) to write the file somewhere other than persistence-metrics.tsv
+ */
+class PersistenceMetrics {
+
+    /** whether calls are timed; errors are counted either way */
+    private static volatile boolean enabled = !"false".equals(System.getProperty("valleybike.metrics"));
+
+    /** where the dump file is written */
+    static final Path DUMP_FILE = Paths.get(System.getProperty("valleybike.metrics.file", "persistence-metrics.tsv"));
+
+    /** minutes between dumps */
+    static final int DUMP_MINUTES = 1;
+
+    /** each operation's latencies and errors, by name */
+    private static final Map<String, Operation> operations = new ConcurrentHashMap<>();
+
+    /** writes the dump file on a daemon thread, or null when not dumping */
+    private static ScheduledExecutorService dumper;
+
+    /**
+     * The latencies and errors of one named database call
+     */
+    static final class Operation implements PersistenceOperationMXBean {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+        private volatile String lastError;
+
+        @Override
+        public long getCount() {
+            return latency.getCount();
+        }
+
+        @Override
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        @Override
+        public double getErrorRate() {
+            long count = latency.getCount();
+            return count == 0 ? 0 : Math.min(1, errors.sum() / (double) count);
+        }
+
+        @Override
+        public double getMeanMicros() {
+            return latency.getMean() / 1000;
+        }
+
+        @Override
+        public double getP50Micros() {
+            return latency.getPercentile(50) / 1000.0;
+        }
+
+        @Override
+        public double getP90Micros() {
+            return latency.getPercentile(90) / 1000.0;
+        }
+
+        @Override
+        public double getP99Micros() {
+            return latency.getPercentile(99) / 1000.0;
+        }
+
+        @Override
+        public double getP999Micros() {
+            return latency.getPercentile(99.9) / 1000.0;
+        }
+
+        @Override
+        public double getMaxMicros() {
+            return latency.getMax() / 1000.0;
+        }
+
+        @Override
+        public String getLastError() {
+            return lastError;
+        }
+
+        @Override
+        public void reset() {
+            latency.reset();
+            errors.reset();
+            lastError = null;
+        }
+    }
+
+    /**
+     * @return the time a call starts, to pass to record, or 0 when timing is off
+     */
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records how long a call took
+     * @param operation name of the call, usually the ValleyBikeSim method
+     * @param startNanos what start returned when the call began
+     */
+    static void record(String operation, long startNanos) {
+        if (startNanos != 0) {
+            operation(operation).latency.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Records that a call failed
+     * @param operation name of the call
+     * @param e the database error
+     */
+    static void recordError(String operation, Exception e) {
+        Operation op = operation(operation);
+        op.errors.increment();
+        op.lastError = e.getClass().getSimpleName() + ": " + e.getMessage();
+    }
+
+    /**
+     * @param name name of a call
+     * @return its latencies and errors, created and registered with JMX on first use
+     */
+    static Operation operation(String name) {
+        Operation op = operations.get(name);
+        if (op == null) {
+            op = operations.computeIfAbsent(name, key -> {
+                Operation created = new Operation();
+                register(key, created);
+                return created;
+            });
+        }
+        return op;
+    }
+
+    private static void register(String name, Operation op) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("ValleyBikeSim:type=Persistence,name=" + ObjectName.quote(name));
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(op, objectName);
+            }
+        } catch (JMException | SecurityException e) {
+            // the numbers are still in the stats menu and the dump file
+        }
+    }
+
+    /**
+     * @param on true to time calls, false to only count errors
+     */
+    static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * Forgets every call counted so far
+     */
+    static void reset() {
+        for (Operation op : operations.values()) {
+            op.reset();
+        }
+    }
+
+    /**
+     * @return one line per call that has been made, slowest 99th percentile first
+     */
+    static List<String> report() {
+        List<Map.Entry<String, Operation>> entries = new ArrayList<>(operations.entrySet());
+        Collections.sort(entries, (a, b) -> Double.compare(b.getValue().getP99Micros(), a.getValue().getP99Micros()));
+
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, Operation> entry : entries) {
+            Operation op = entry.getValue();
+            lines.add(String.format("%-36s %8d calls %5d errors  p50 %9.1f us  p99 %9.1f us  max %9.1f us",
+                    entry.getKey(), op.getCount(), op.getErrors(), op.getP50Micros(), op.getP99Micros(), op.getMaxMicros()));
+        }
+        return lines;
+    }
+
+    /**
+     * Writes every call's numbers to a tab-separated file, replacing it in one step so readers never see half a file
+     *
+     * @param file where to write
+     * @throws IOException failure during reading, writing and searching file or directory operations
+     */
+    static void dump(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, "persistence-metrics", ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write("# " + Instant.now() + "\n");
+            writer.write("operation\tcount\terrors\terror_rate\tmean_us\tp50_us\tp90_us\tp99_us\tp999_us\tmax_us\tlast_error\n");
+            for (Map.Entry<String, Operation> entry : operations.entrySet()) {
+                Operation op = entry.getValue();
+                writer.write(String.format("%s\t%d\t%d\t%.4f\t%.1f\t%.1f\t%.1f\t%.1f\t%.1f\t%.1f\t%s%n",
+                        entry.getKey(), op.getCount(), op.getErrors(), op.getErrorRate(), op.getMeanMicros(),
+                        op.getP50Micros(), op.getP90Micros(), op.getP99Micros(), op.getP999Micros(), op.getMaxMicros(),
+                        op.getLastError() == null ? "" : op.getLastError().replace('\t', ' ').replace('\n', ' ')));
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Starts writing the dump file every DUMP_MINUTES on a daemon thread
+     */
+    static synchronized void startDumping() {
+        if (dumper != null) {
+            return;
+        }
+        dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "persistence-metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleWithFixedDelay(() -> {
+            try {
+                dump(DUMP_FILE);
+            } catch (IOException e) {
+                // try again next time; the numbers are still in memory
+            }
+        }, DUMP_MINUTES, DUMP_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Stops the periodic dump and writes the file one last time
+     */
+    static synchronized void stopDumping() {
+        if (dumper == null) {
+            return;
+        }
+        dumper.shutdownNow();
+        dumper = null;
+        try {
+            dump(DUMP_FILE);
+        } catch (IOException e) {
+            // nothing more to do on the way out
+        }
+    }
+}
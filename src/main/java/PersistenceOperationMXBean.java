@@ -0,0 +1,39 @@
+/**
+ * Latency and errors of one kind of database call, as seen through JMX
+ * Registered as ValleyBikeSim:type=Persistence,name=(the method name) the first time the call is made
+ */
+public interface PersistenceOperationMXBean {
+
+    /** @return number of calls */
+    long getCount();
+
+    /** @return number of calls that failed with a database error */
+    long getErrors();
+
+    /** @return share of calls that failed, from 0 to 1 */
+    double getErrorRate();
+
+    /** @return average call time in microseconds */
+    double getMeanMicros();
+
+    /** @return median call time in microseconds */
+    double getP50Micros();
+
+    /** @return 90th percentile call time in microseconds */
+    double getP90Micros();
+
+    /** @return 99th percentile call time in microseconds */
+    double getP99Micros();
+
+    /** @return 99.9th percentile call time in microseconds */
+    double getP999Micros();
+
+    /** @return longest call time in microseconds */
+    double getMaxMicros();
+
+    /** @return message of the last database error, or null if there has not been one */
+    String getLastError();
+
+    /** Forgets the calls and errors counted so far */
+    void reset();
+}
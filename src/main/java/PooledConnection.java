@@ -0,0 +1,163 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A long-lived database connection handed out by the connection pool
+ * Keeps every prepared statement it has compiled so the same sql string
+ * is only ever prepared once per connection
+ *
+ * Closing a pooled connection returns it to the pool instead of closing it
+ */
+class PooledConnection implements AutoCloseable {
+
+    /** the underlying jdbc connection */
+    private final Connection connection;
+
+    /** the pool configuration this connection was opened under */
+    private final int generation;
+
+    /** prepared statements already compiled on this connection, keyed by their sql string */
+    private final Map<String, PreparedStatement> statementCache = new HashMap<>();
+
+    /** name of the call that borrowed this connection, or null if it was borrowed without one */
+    private String operation;
+
+    /** when that call started, from PersistenceMetrics.start */
+    private long operationStart;
+
+    /** true from when the pool hands the connection out until it is first closed */
+    private final AtomicBoolean borrowed = new AtomicBoolean();
+
+    /**
+     * Constructor wraps an open jdbc connection
+     * @param connection the jdbc connection to wrap
+     * @param generation the pool configuration it was opened under
+     */
+    PooledConnection(Connection connection, int generation) {
+        this.connection = connection;
+        this.generation = generation;
+    }
+
+    /**
+     * This is the getter method for the pool configuration the connection was opened under
+     * @return the pool's generation when the connection was opened
+     */
+    int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns the cached prepared statement for this sql string, compiling it on first use
+     * The statement is owned by the connection, so callers must not close it
+     *
+     * @param sql the sql string to prepare
+     * @return a prepared statement with its parameters cleared
+     * @throws SQLException for database access error
+     */
+    PreparedStatement prepareStatement(String sql) throws SQLException {
+        PreparedStatement pstmt = statementCache.get(sql);
+
+        // compile the statement if we have not seen this sql string before
+        if (pstmt == null || pstmt.isClosed()) {
+            pstmt = connection.prepareStatement(sql);
+            statementCache.put(sql, pstmt);
+        } else {
+            // reuse the warm statement but forget the last call's parameters
+            pstmt.clearParameters();
+        }
+        return pstmt;
+    }
+
+    /**
+     * Creates a plain statement for one-off queries
+     * Unlike prepared statements these are not cached, so the caller should close it
+     *
+     * @return a new statement on this connection
+     * @throws SQLException for database access error
+     */
+    Statement createStatement() throws SQLException {
+        return connection.createStatement();
+    }
+
+    /**
+     * This is the getter method for the underlying jdbc connection
+     * @return the jdbc connection, used for transaction control
+     */
+    Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Checks whether the underlying connection can still be used
+     * @return true if the connection is open
+     */
+    boolean isUsable() {
+        try {
+            return !connection.isClosed();
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Marks the connection as handed out, so the next close returns it to the pool
+     */
+    void markBorrowed() {
+        borrowed.set(true);
+    }
+
+    /**
+     * Remembers which call borrowed this connection, so the call is timed when the connection is handed back
+     * @param operation name of the call
+     * @param startNanos what PersistenceMetrics.start returned when the call began
+     */
+    void startOperation(String operation, long startNanos) {
+        this.operation = operation;
+        this.operationStart = startNanos;
+    }
+
+    /**
+     * Returns this connection to the pool so the next caller can reuse it
+     * Closing it again does nothing, so it can never be in the pool twice
+     */
+    @Override
+    public void close() {
+        if (!borrowed.compareAndSet(true, false)) {
+            return;
+        }
+        String finished = operation;
+        long start = operationStart;
+        operation = null;
+        ConnectionPool.release(this);
+
+        if (finished != null) {
+            PersistenceMetrics.record(finished, start);
+        }
+    }
+
+    /**
+     * Really closes the cached statements and the underlying connection
+     * Only the pool calls this, when it shuts down or drops a broken connection
+     */
+    void discard() {
+        for (PreparedStatement pstmt : statementCache.values()) {
+            try {
+                pstmt.close();
+            } catch (SQLException ignored) {
+                // the connection is going away anyway
+            }
+        }
+        statementCache.clear();
+
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+            // nothing left to clean up
+        }
+    }
+}
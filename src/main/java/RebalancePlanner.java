@@ -0,0 +1,657 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Works out which bikes to move between stations so that every station is filled to the same
+ * share of its capacity, moving as few bikes as possible
+ *
+ * Each station gets a target number of bikes in proportion to its capacity. Stations above their
+ * target supply bikes and stations below it take them, which makes rebalancing a transportation
+ * problem: every surplus bike is moved exactly once, so no plan moves fewer bikes. When moving a
+ * bike between two stations has a cost (such as the distance between them) the planner solves it
+ * as a min-cost flow and returns the cheapest plan
+ */
+class RebalancePlanner {
+
+    /**
+     * The cost of moving one bike from one station to another, such as the distance between them
+     * Costs must not be negative
+     */
+    interface TransferCost {
+        /**
+         * @param fromStation id of the station the bike leaves
+         * @param toStation id of the station the bike goes to
+         * @return cost of moving one bike
+         */
+        long cost(int fromStation, int toStation);
+    }
+
+    /**
+     * Moving some bikes from one station to another
+     */
+    static final class Transfer {
+        /** id of the station the bikes leave */
+        final int fromStation;
+
+        /** id of the station the bikes go to */
+        final int toStation;
+
+        /** number of bikes moved */
+        final int bikes;
+
+        Transfer(int fromStation, int toStation, int bikes) {
+            this.fromStation = fromStation;
+            this.toStation = toStation;
+            this.bikes = bikes;
+        }
+
+        @Override
+        public String toString() {
+            return bikes + " from " + fromStation + " to " + toStation;
+        }
+    }
+
+    /**
+     * A rebalancing plan: the transfers to make and what they add up to
+     */
+    static final class Plan {
+        /** the transfers, by station the bikes leave */
+        final List<Transfer> transfers;
+
+        /** number of bikes moved */
+        final int bikesMoved;
+
+        /** sum of the cost of every bike moved, or the number of bikes moved when there are no costs */
+        final long totalCost;
+
+        Plan(List<Transfer> transfers, int bikesMoved, long totalCost) {
+            this.transfers = Collections.unmodifiableList(transfers);
+            this.bikesMoved = bikesMoved;
+            this.totalCost = totalCost;
+        }
+    }
+
+    /**
+     * number of cheapest stations each supplying station is joined to directly when the flow network is built;
+     * any other station it would be cheaper to send bikes to is joined once a solved network shows it
+     */
+    static final int CANDIDATES = 16;
+
+    /** capacity of edges that should never limit the flow */
+    private static final int UNLIMITED = Integer.MAX_VALUE / 2;
+
+    /** distance to nodes Dijkstra has not reached */
+    private static final long UNREACHED = Long.MAX_VALUE / 4;
+
+    private RebalancePlanner() {
+    }
+
+    /**
+     * Works out how many bikes each station should have: the same share of its capacity everywhere,
+     * rounded so the targets still add up to the number of bikes
+     *
+     * @param bikes bikes docked at each station
+     * @param capacity capacity of each station
+     * @return target number of bikes for each station, never more than its capacity
+     */
+    static int[] targets(int[] bikes, int[] capacity) {
+        int stations = bikes.length;
+        long totalBikes = 0;
+        long totalCapacity = 0;
+        for (int i = 0; i < stations; i++) {
+            totalBikes += bikes[i];
+            totalCapacity += capacity[i];
+        }
+
+        int[] targets = new int[stations];
+        if (totalCapacity == 0) {
+            return bikes.clone();
+        }
+
+        // everyone gets the whole part of their share, and the bikes left over go to the largest remainders
+        long assigned = 0;
+        long[] remainders = new long[stations];
+        for (int i = 0; i < stations; i++) {
+            long share = capacity[i] * Math.min(totalBikes, totalCapacity);
+            targets[i] = (int) (share / totalCapacity);
+            remainders[i] = share % totalCapacity;
+            assigned += targets[i];
+        }
+
+        Integer[] order = new Integer[stations];
+        for (int i = 0; i < stations; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> remainders[a] != remainders[b]
+                ? Long.compare(remainders[b], remainders[a])
+                : Integer.compare(a, b));
+
+        long leftOver = Math.min(totalBikes, totalCapacity) - assigned;
+        for (int i = 0; i < leftOver; i++) {
+            targets[order[i]]++;
+        }
+        return targets;
+    }
+
+    /**
+     * Plans the transfers that bring every station to its target
+     *
+     * @param stationIds id of each station
+     * @param bikes bikes docked at each station
+     * @param capacity capacity of each station
+     * @param cost cost of moving a bike between two stations, or null if every move costs the same
+     * @return the plan, with no transfers if the stations are already balanced
+     */
+    static Plan plan(int[] stationIds, int[] bikes, int[] capacity, TransferCost cost) {
+        return planTo(stationIds, bikes, targets(bikes, capacity), cost);
+    }
+
+    /**
+     * Plans the transfers that bring every station to a given number of bikes
+     * The targets must add up to the same number of bikes the stations have now, as far as the bikes fit
+     *
+     * @param stationIds id of each station
+     * @param bikes bikes docked at each station
+     * @param targets number of bikes each station should end up with
+     * @param cost cost of moving a bike between two stations, or null if every move costs the same
+     * @return the plan, with no transfers if every station already has its target
+     */
+    static Plan planTo(int[] stationIds, int[] bikes, int[] targets, TransferCost cost) {
+        // split the stations into those with bikes to spare and those that need them
+        int[] suppliers = new int[stationIds.length];
+        int[] supply = new int[stationIds.length];
+        int[] takers = new int[stationIds.length];
+        int[] demand = new int[stationIds.length];
+        int supplierCount = 0;
+        int takerCount = 0;
+        for (int i = 0; i < stationIds.length; i++) {
+            int difference = bikes[i] - targets[i];
+            if (difference > 0) {
+                suppliers[supplierCount] = stationIds[i];
+                supply[supplierCount++] = difference;
+            } else if (difference < 0) {
+                takers[takerCount] = stationIds[i];
+                demand[takerCount++] = -difference;
+            }
+        }
+
+        if (supplierCount == 0) {
+            return new Plan(new ArrayList<Transfer>(), 0, 0);
+        }
+        if (cost == null) {
+            return pairInOrder(suppliers, supply, supplierCount, takers, demand, takerCount, null);
+        }
+        return new FlowNetwork(suppliers, supply, supplierCount, takers, demand, takerCount, cost).solve();
+    }
+
+    /**
+     * Pairs supplying stations with taking stations in order, moving as many bikes as both can
+     * When every move costs the same this is already the cheapest plan, since each surplus bike moves once
+     *
+     * @param suppliers ids of stations with bikes to spare
+     * @param supply bikes each can give
+     * @param supplierCount number of suppliers
+     * @param takers ids of stations that need bikes
+     * @param demand bikes each needs
+     * @param takerCount number of takers
+     * @param cost cost of each move, or null to count bikes moved
+     * @return the plan
+     */
+    private static Plan pairInOrder(int[] suppliers, int[] supply, int supplierCount,
+                                    int[] takers, int[] demand, int takerCount, TransferCost cost) {
+        List<Transfer> transfers = new ArrayList<>();
+        int bikesMoved = 0;
+        long totalCost = 0;
+
+        int taker = 0;
+        int stillNeeded = takerCount > 0 ? demand[0] : 0;
+        for (int supplier = 0; supplier < supplierCount && taker < takerCount; supplier++) {
+            int toGive = supply[supplier];
+            while (toGive > 0 && taker < takerCount) {
+                int moved = Math.min(toGive, stillNeeded);
+                transfers.add(new Transfer(suppliers[supplier], takers[taker], moved));
+                bikesMoved += moved;
+                totalCost += cost == null ? moved : moved * cost.cost(suppliers[supplier], takers[taker]);
+
+                toGive -= moved;
+                stillNeeded -= moved;
+                if (stillNeeded == 0 && ++taker < takerCount) {
+                    stillNeeded = demand[taker];
+                }
+            }
+        }
+        return new Plan(transfers, bikesMoved, totalCost);
+    }
+
+    /**
+     * The transportation problem as a flow network: a source feeds each supplying station its surplus,
+     * each supplier is joined to its CANDIDATES cheapest taking stations, and each taker drains its
+     * demand to a sink. Every supplier can also reach every taker through a fallback node at the price
+     * of its most expensive transfer, so a plan always exists even when the candidate lists miss
+     *
+     * Solved with the primal-dual method: Dijkstra on reduced costs finds the cheapest way to the sink,
+     * then a blocking flow pushes as many bikes as possible along every path of that cost at once.
+     * The node potentials left at the end price every pair the network does not join: if none has a
+     * negative reduced cost no direct transfer could lower the cost, so the plan is the cheapest.
+     * Otherwise those pairs are joined and the network is solved again
+     */
+    private static final class FlowNetwork {
+        private final int[] suppliers;
+        private final int supplierCount;
+        private final int[] takers;
+        private final int takerCount;
+        private final TransferCost cost;
+
+        /** node numbers: source, sink, fallback, then suppliers, then takers */
+        private static final int SOURCE = 0;
+        private static final int SINK = 1;
+        private static final int FALLBACK = 2;
+        private final int nodes;
+
+        /** edges in pairs, so edge e ^ 1 is the reverse of edge e */
+        private int[] edgeTo;
+        private int[] edgeCapacity;
+        private int[] edgeStartCapacity;
+        private long[] edgeCost;
+        private int[] edgeNext;
+        private int edges;
+        private final int[] firstEdge;
+
+        private final long[] potential;
+        private final long[] distance;
+        private final int[] level;
+        private final int[] nextEdge;
+
+        FlowNetwork(int[] suppliers, int[] supply, int supplierCount,
+                    int[] takers, int[] demand, int takerCount, TransferCost cost) {
+            this.suppliers = suppliers;
+            this.supplierCount = supplierCount;
+            this.takers = takers;
+            this.takerCount = takerCount;
+            this.cost = cost;
+            this.nodes = 3 + supplierCount + takerCount;
+
+            int candidates = Math.min(CANDIDATES, takerCount);
+            int edgeGuess = 2 * (2 * supplierCount + 2 * takerCount + supplierCount * candidates);
+            edgeTo = new int[edgeGuess];
+            edgeCapacity = new int[edgeGuess];
+            edgeStartCapacity = new int[edgeGuess];
+            edgeCost = new long[edgeGuess];
+            edgeNext = new int[edgeGuess];
+            firstEdge = new int[nodes];
+            Arrays.fill(firstEdge, -1);
+
+            potential = new long[nodes];
+            distance = new long[nodes];
+            level = new int[nodes];
+            nextEdge = new int[nodes];
+
+            for (int t = 0; t < takerCount; t++) {
+                addEdge(takerNode(t), SINK, demand[t], 0);
+                addEdge(FALLBACK, takerNode(t), UNLIMITED, 0);
+            }
+
+            // keep each supplier's cheapest takers in a max-heap, so the most expensive of them is on top
+            int[] heapTaker = new int[candidates];
+            long[] heapCost = new long[candidates];
+            for (int s = 0; s < supplierCount; s++) {
+                addEdge(SOURCE, supplierNode(s), supply[s], 0);
+
+                int heapSize = 0;
+                long mostExpensive = 0;
+                for (int t = 0; t < takerCount; t++) {
+                    long c = cost.cost(suppliers[s], takers[t]);
+                    mostExpensive = Math.max(mostExpensive, c);
+                    if (heapSize < candidates) {
+                        heapTaker[heapSize] = t;
+                        heapCost[heapSize] = c;
+                        siftUp(heapTaker, heapCost, heapSize++);
+                    } else if (c < heapCost[0]) {
+                        heapTaker[0] = t;
+                        heapCost[0] = c;
+                        siftDown(heapTaker, heapCost, heapSize);
+                    }
+                }
+                for (int i = 0; i < heapSize; i++) {
+                    addEdge(supplierNode(s), takerNode(heapTaker[i]), UNLIMITED, heapCost[i]);
+                }
+                addEdge(supplierNode(s), FALLBACK, supply[s], mostExpensive);
+            }
+        }
+
+        private int supplierNode(int s) {
+            return 3 + s;
+        }
+
+        private int takerNode(int t) {
+            return 3 + supplierCount + t;
+        }
+
+        private void addEdge(int from, int to, int capacity, long edgeCostValue) {
+            if (edges + 2 > edgeTo.length) {
+                int size = edgeTo.length * 2 + 2;
+                edgeTo = Arrays.copyOf(edgeTo, size);
+                edgeCapacity = Arrays.copyOf(edgeCapacity, size);
+                edgeStartCapacity = Arrays.copyOf(edgeStartCapacity, size);
+                edgeCost = Arrays.copyOf(edgeCost, size);
+                edgeNext = Arrays.copyOf(edgeNext, size);
+            }
+            link(from, to, capacity, edgeCostValue);
+            link(to, from, 0, -edgeCostValue);
+        }
+
+        private void link(int from, int to, int capacity, long edgeCostValue) {
+            edgeTo[edges] = to;
+            edgeCapacity[edges] = capacity;
+            edgeStartCapacity[edges] = capacity;
+            edgeCost[edges] = edgeCostValue;
+            edgeNext[edges] = firstEdge[from];
+            firstEdge[from] = edges++;
+        }
+
+        /**
+         * Runs the primal-dual method until every surplus bike has a destination, joins any pair that would
+         * lower the cost and starts again, until no pair would; then reads the plan off the flow
+         * Every round joins at least one new pair, so this ends
+         * @return the cheapest plan
+         */
+        Plan solve() {
+            while (true) {
+                while (shortestPaths()) {
+                    while (levelGraph()) {
+                        System.arraycopy(firstEdge, 0, nextEdge, 0, nodes);
+                        while (pushFlow() > 0) {
+                            // keep pushing until the level graph is blocked
+                        }
+                    }
+                }
+                if (!joinUnderpricedPairs()) {
+                    return readPlan();
+                }
+
+                // start again from no flow, where every edge has a reduced cost of at least 0
+                System.arraycopy(edgeStartCapacity, 0, edgeCapacity, 0, edges);
+                Arrays.fill(potential, 0);
+            }
+        }
+
+        /**
+         * Prices every supplier and taker the network does not join directly, using the potentials of the
+         * solved network, and joins the ones with a negative reduced cost
+         * @return false if there were none, meaning the flow is already the cheapest
+         */
+        private boolean joinUnderpricedPairs() {
+            boolean joined = false;
+            int[] joinedTo = new int[takerCount];
+            for (int s = 0; s < supplierCount; s++) {
+                int node = supplierNode(s);
+                for (int e = firstEdge[node]; e != -1; e = edgeNext[e]) {
+                    int t = edgeTo[e] - 3 - supplierCount;
+                    if ((e & 1) == 0 && t >= 0) {
+                        joinedTo[t] = s + 1;
+                    }
+                }
+                for (int t = 0; t < takerCount; t++) {
+                    if (joinedTo[t] == s + 1) {
+                        continue;
+                    }
+                    long c = cost.cost(suppliers[s], takers[t]);
+                    if (c + potential[node] - potential[takerNode(t)] < 0) {
+                        addEdge(node, takerNode(t), UNLIMITED, c);
+                        joined = true;
+                    }
+                }
+            }
+            return joined;
+        }
+
+        /**
+         * Dijkstra from the source on reduced costs, then folds the distances into the node potentials
+         * so that every edge on a cheapest path has a reduced cost of 0
+         * @return false if the sink can no longer be reached, meaning every surplus bike has been placed
+         */
+        private boolean shortestPaths() {
+            Arrays.fill(distance, UNREACHED);
+            distance[SOURCE] = 0;
+
+            long[] heapDistance = new long[Math.max(16, nodes)];
+            int[] heapNode = new int[heapDistance.length];
+            int heapSize = 0;
+            heapDistance[heapSize] = 0;
+            heapNode[heapSize++] = SOURCE;
+
+            while (heapSize > 0) {
+                long d = heapDistance[0];
+                int node = heapNode[0];
+                heapSize--;
+                heapDistance[0] = heapDistance[heapSize];
+                heapNode[0] = heapNode[heapSize];
+                siftDownMin(heapNode, heapDistance, heapSize);
+                if (d > distance[node]) {
+                    continue;
+                }
+                if (node == SINK) {
+                    // nodes further away than the sink keep their potentials capped at its distance anyway
+                    break;
+                }
+
+                for (int e = firstEdge[node]; e != -1; e = edgeNext[e]) {
+                    if (edgeCapacity[e] == 0) {
+                        continue;
+                    }
+                    int to = edgeTo[e];
+                    long next = d + edgeCost[e] + potential[node] - potential[to];
+                    if (next < distance[to]) {
+                        distance[to] = next;
+                        if (heapSize == heapDistance.length) {
+                            heapDistance = Arrays.copyOf(heapDistance, heapSize * 2);
+                            heapNode = Arrays.copyOf(heapNode, heapSize * 2);
+                        }
+                        heapDistance[heapSize] = next;
+                        heapNode[heapSize] = to;
+                        siftUpMin(heapNode, heapDistance, heapSize++);
+                    }
+                }
+            }
+
+            if (distance[SINK] == UNREACHED) {
+                return false;
+            }
+            for (int node = 0; node < nodes; node++) {
+                potential[node] += Math.min(distance[node], distance[SINK]);
+            }
+            return true;
+        }
+
+        /**
+         * Breadth first search over residual edges with a reduced cost of 0
+         * @return true if the sink can be reached along them
+         */
+        private boolean levelGraph() {
+            Arrays.fill(level, -1);
+            int[] queue = new int[nodes];
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = SOURCE;
+            level[SOURCE] = 0;
+            while (head < tail) {
+                int node = queue[head++];
+                for (int e = firstEdge[node]; e != -1; e = edgeNext[e]) {
+                    int to = edgeTo[e];
+                    if (level[to] < 0 && isAdmissible(node, e)) {
+                        level[to] = level[node] + 1;
+                        queue[tail++] = to;
+                    }
+                }
+            }
+            return level[SINK] >= 0;
+        }
+
+        private boolean isAdmissible(int from, int e) {
+            return edgeCapacity[e] > 0 && edgeCost[e] + potential[from] - potential[edgeTo[e]] == 0;
+        }
+
+        /**
+         * Finds one path from source to sink in the level graph and pushes as much flow along it as it takes
+         * Written with an explicit stack, since paths can alternate between suppliers and takers many times
+         * @return bikes pushed, 0 if the level graph is blocked
+         */
+        private int pushFlow() {
+            int[] pathEdge = new int[nodes];
+            int depth = 0;
+            int node = SOURCE;
+
+            while (true) {
+                if (node == SINK) {
+                    int pushed = UNLIMITED;
+                    for (int i = 0; i < depth; i++) {
+                        pushed = Math.min(pushed, edgeCapacity[pathEdge[i]]);
+                    }
+                    for (int i = 0; i < depth; i++) {
+                        edgeCapacity[pathEdge[i]] -= pushed;
+                        edgeCapacity[pathEdge[i] ^ 1] += pushed;
+                    }
+                    return pushed;
+                }
+
+                // move forward along the next usable edge out of this node
+                int e = nextEdge[node];
+                while (e != -1 && !(level[edgeTo[e]] == level[node] + 1 && isAdmissible(node, e))) {
+                    e = edgeNext[e];
+                }
+                nextEdge[node] = e;
+
+                if (e != -1) {
+                    pathEdge[depth++] = e;
+                    node = edgeTo[e];
+                } else {
+                    // dead end: never come back here in this phase, and step back one edge
+                    level[node] = -1;
+                    if (depth == 0) {
+                        return 0;
+                    }
+                    int back = pathEdge[--depth];
+                    node = edgeTo[back ^ 1];
+                    nextEdge[node] = edgeNext[back];
+                }
+            }
+        }
+
+        /**
+         * Turns the flow into transfers: flow on a direct edge is one transfer, and bikes that went through
+         * the fallback node are paired up in order between the suppliers and takers that used it
+         * @return the plan
+         */
+        private Plan readPlan() {
+            List<Transfer> transfers = new ArrayList<>();
+            int bikesMoved = 0;
+            long totalCost = 0;
+
+            int[] viaFallback = new int[supplierCount];
+            int[] fromFallback = new int[takerCount];
+            int[] suppliersViaFallback = new int[supplierCount];
+            int[] takersFromFallback = new int[takerCount];
+            int fallbackSuppliers = 0;
+            int fallbackTakers = 0;
+
+            for (int s = 0; s < supplierCount; s++) {
+                for (int e = firstEdge[supplierNode(s)]; e != -1; e = edgeNext[e]) {
+                    // forward edges are the even ones; the flow on an edge is what its reverse can give back
+                    int flow = edgeCapacity[e ^ 1];
+                    if ((e & 1) == 1 || flow == 0) {
+                        continue;
+                    }
+                    int to = edgeTo[e];
+                    if (to == FALLBACK) {
+                        suppliersViaFallback[fallbackSuppliers] = suppliers[s];
+                        viaFallback[fallbackSuppliers++] = flow;
+                    } else {
+                        int t = to - 3 - supplierCount;
+                        transfers.add(new Transfer(suppliers[s], takers[t], flow));
+                        bikesMoved += flow;
+                        totalCost += flow * edgeCost[e];
+                    }
+                }
+            }
+
+            for (int e = firstEdge[FALLBACK]; e != -1; e = edgeNext[e]) {
+                int flow = edgeCapacity[e ^ 1];
+                if ((e & 1) == 0 && flow > 0) {
+                    int t = edgeTo[e] - 3 - supplierCount;
+                    takersFromFallback[fallbackTakers] = takers[t];
+                    fromFallback[fallbackTakers++] = flow;
+                }
+            }
+
+            Plan fallback = pairInOrder(suppliersViaFallback, viaFallback, fallbackSuppliers,
+                    takersFromFallback, fromFallback, fallbackTakers, cost);
+            transfers.addAll(fallback.transfers);
+            return new Plan(transfers, bikesMoved + fallback.bikesMoved, totalCost + fallback.totalCost);
+        }
+
+        private static void siftUp(int[] node, long[] key, int i) {
+            while (i > 0 && key[(i - 1) / 2] < key[i]) {
+                swap(node, key, i, (i - 1) / 2);
+                i = (i - 1) / 2;
+            }
+        }
+
+        private static void siftDown(int[] node, long[] key, int size) {
+            int i = 0;
+            while (true) {
+                int largest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < size && key[left] > key[largest]) {
+                    largest = left;
+                }
+                if (right < size && key[right] > key[largest]) {
+                    largest = right;
+                }
+                if (largest == i) {
+                    return;
+                }
+                swap(node, key, i, largest);
+                i = largest;
+            }
+        }
+
+        private static void siftUpMin(int[] node, long[] key, int i) {
+            while (i > 0 && key[(i - 1) / 2] > key[i]) {
+                swap(node, key, i, (i - 1) / 2);
+                i = (i - 1) / 2;
+            }
+        }
+
+        private static void siftDownMin(int[] node, long[] key, int size) {
+            int i = 0;
+            while (true) {
+                int smallest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < size && key[left] < key[smallest]) {
+                    smallest = left;
+                }
+                if (right < size && key[right] < key[smallest]) {
+                    smallest = right;
+                }
+                if (smallest == i) {
+                    return;
+                }
+                swap(node, key, i, smallest);
+                i = smallest;
+            }
+        }
+
+        private static void swap(int[] node, long[] key, int a, int b) {
+            int n = node[a];
+            node[a] = node[b];
+            node[b] = n;
+            long k = key[a];
+            key[a] = key[b];
+            key[b] = k;
+        }
+    }
+}
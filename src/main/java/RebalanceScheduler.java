@@ -0,0 +1,155 @@
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs station rebalancing in the background, so a customer renting or returning a bike never waits for it
+ *
+ * A station that runs low on bikes or docks asks for a rebalance and carries on. The first request starts
+ * a short window, and every request that arrives before the window closes is folded into the same run,
+ * so a burst of rentals across many stations costs one rebalance instead of one each
+ */
+class RebalanceScheduler {
+
+    /** the rebalance to run */
+    private final Runnable rebalance;
+
+    /** how long to wait after the first request before running, in milliseconds */
+    private final long windowMillis;
+
+    /** stations that asked for a rebalance since the last run started */
+    private final Set<Integer> waitingStations = ConcurrentHashMap.newKeySet();
+
+    /** true while a run is scheduled but has not started yet */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /** runs the rebalances one at a time on a daemon thread, created on the first request */
+    private ScheduledExecutorService executor;
+
+    /** number of requests received */
+    private final AtomicLong requests = new AtomicLong();
+
+    /** number of rebalances run */
+    private final AtomicLong runs = new AtomicLong();
+
+    /** time spent rebalancing, in nanoseconds */
+    private final AtomicLong totalRunNanos = new AtomicLong();
+
+    /** time the last rebalance took, in nanoseconds */
+    private final AtomicLong lastRunNanos = new AtomicLong();
+
+    /**
+     * @param rebalance the rebalance to run
+     * @param windowMillis how long requests are collected before one rebalance runs for all of them
+     */
+    RebalanceScheduler(Runnable rebalance, long windowMillis) {
+        this.rebalance = rebalance;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Asks for a rebalance and returns straight away
+     * @param stationId the station that is almost empty or almost full
+     */
+    void request(int stationId) {
+        requests.incrementAndGet();
+        waitingStations.add(stationId);
+
+        // only the first request in a window schedules a run; the rest ride along with it
+        if (scheduled.compareAndSet(false, true)) {
+            executor().schedule(this::run, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Asks for a rebalance at a fixed rate as well, for rebalancing ahead of demand rather than in reaction to it
+     * These requests count as coming from station 0
+     *
+     * @param periodMillis time between requests, in milliseconds
+     */
+    void requestEvery(long periodMillis) {
+        executor().scheduleAtFixedRate(() -> request(0), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs one rebalance for every station that asked since the last one
+     */
+    private void run() {
+        // requests from here on start a new window, since this run may not see their stations' latest counts
+        scheduled.set(false);
+        if (waitingStations.isEmpty()) {
+            return;
+        }
+        waitingStations.clear();
+
+        long start = System.nanoTime();
+        try {
+            rebalance.run();
+        } catch (RuntimeException e) {
+            System.out.println("Sorry, could not rebalance the stations: " + e);
+        } finally {
+            long nanos = System.nanoTime() - start;
+            lastRunNanos.set(nanos);
+            totalRunNanos.addAndGet(nanos);
+            runs.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the executor, creating it if this is the first request
+     */
+    private synchronized ScheduledExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "station-rebalancer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Stops the background thread; requests still waiting and fixed rate requests are dropped
+     */
+    synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        scheduled.set(false);
+    }
+
+    /**
+     * This is the getter method for the queue depth
+     * @return number of stations waiting for the next rebalance
+     */
+    int getWaitingStations() {
+        return waitingStations.size();
+    }
+
+    /**
+     * This is the getter method for the number of rebalances run
+     * @return number of rebalances run
+     */
+    long getRuns() {
+        return runs.get();
+    }
+
+    /**
+     * @return a one line summary of the requests, runs and run times
+     */
+    String getStats() {
+        long runCount = runs.get();
+        double averageRunMillis = runCount == 0 ? 0 : (totalRunNanos.get() / (double) runCount) / 1_000_000;
+
+        return String.format("Rebalancing: %d stations waiting, %d requests, %d runs " +
+                        "(avg run %.3f ms, last run %.3f ms)",
+                waitingStations.size(), requests.get(), runCount,
+                averageRunMillis, lastRunNanos.get() / 1_000_000.0);
+    }
+}
@@ -1,3 +1,4 @@
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.time.Duration;
 import java.time.Instant;
@@ -83,6 +84,28 @@ public class Ride {
         return this.rideId;
     }
 
+    /**
+     * packs a ride id into the 16 bytes stored in the Ride table's ride_id column
+     * @param id the ride id
+     * @return the id's most significant bits followed by its least significant bits
+     */
+    static byte[] idToBytes(UUID id) {
+        return ByteBuffer.allocate(16).putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits()).array();
+    }
+
+    /**
+     * unpacks a ride id read from the Ride table's ride_id column
+     * @param bytes the 16 bytes written by idToBytes, or null
+     * @return the ride id, or null if bytes is null
+     */
+    static UUID idFromBytes(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
     /**
      * sets the bike id of ride
      */
@@ -0,0 +1,488 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Keeps closed rides in a compact, append-only, memory-mapped file instead of as Ride objects on the heap
+ *
+ * The file is a 16 byte header (magic, version, ride count) followed by blocks of BLOCK_RIDES rides.
+ * Inside a block each column is stored together: ride ids, bike ids, username codes, start and end
+ * times in epoch seconds, stations, payments and ride lengths. Scanning a few columns, such as
+ * the stations and times for the station usage counters, only touches those columns' pages
+ *
+ * Usernames are stored once each in a separate dictionary file and rides refer to them by code,
+ * so renaming a customer only appends one dictionary record
+ *
+ * The database stays the record of every ride. The archive is rebuilt from it whenever the two
+ * disagree on the number of closed rides, so it is never forced to disk after each append
+ *
+ * One mapping is limited to 2 GB, which holds about 35 million rides
+ */
+class RideArchive {
+
+    /** marks the start of a ride archive file ("VBRA") */
+    private static final int MAGIC = 0x56425241;
+
+    /** layout version of the file */
+    private static final int VERSION = 1;
+
+    /** bytes before the first block: magic, version and the ride count */
+    private static final int HEADER_BYTES = 16;
+
+    /** position of the ride count in the header */
+    private static final int COUNT_OFFSET = 8;
+
+    /** number of rides in each block */
+    static final int BLOCK_RIDES = 1024;
+
+    /** start of each column within a block */
+    private static final int ID_COLUMN = 0;
+    private static final int BIKE_COLUMN = ID_COLUMN + 16 * BLOCK_RIDES;
+    private static final int USER_COLUMN = BIKE_COLUMN + 4 * BLOCK_RIDES;
+    private static final int START_COLUMN = USER_COLUMN + 4 * BLOCK_RIDES;
+    private static final int END_COLUMN = START_COLUMN + 8 * BLOCK_RIDES;
+    private static final int FROM_COLUMN = END_COLUMN + 8 * BLOCK_RIDES;
+    private static final int TO_COLUMN = FROM_COLUMN + 4 * BLOCK_RIDES;
+    private static final int PAYMENT_COLUMN = TO_COLUMN + 4 * BLOCK_RIDES;
+    private static final int LENGTH_COLUMN = PAYMENT_COLUMN + 8 * BLOCK_RIDES;
+
+    /** size of one block in bytes */
+    private static final int BLOCK_BYTES = LENGTH_COLUMN + 4 * BLOCK_RIDES;
+
+    /** the ride file */
+    private final FileChannel channel;
+
+    /** the username dictionary file */
+    private final Path usersFile;
+
+    /** appends records to the username dictionary */
+    private DataOutputStream usersOut;
+
+    /** the whole ride file mapped into memory; replaced by a larger mapping when the file grows */
+    private volatile MappedByteBuffer map;
+
+    /** number of rides in the archive; rides below this position are complete and never change */
+    private volatile int count;
+
+    /** number of blocks the current mapping holds */
+    private int blocks;
+
+    /** username of each code */
+    private final List<String> usernames = new ArrayList<>();
+
+    /** code of each username */
+    private final Map<String, Integer> userCodes = new HashMap<>();
+
+    /** open-addressing index from ride id to position + 1; 0 marks an empty slot */
+    private int[] index = new int[16];
+
+    /**
+     * Constructor opens the archive files
+     * @param channel the open ride file
+     * @param usersFile the username dictionary file
+     */
+    private RideArchive(FileChannel channel, Path usersFile) {
+        this.channel = channel;
+        this.usersFile = usersFile;
+    }
+
+    /**
+     * Opens an archive, creating its files if they do not exist
+     * A file that is not a ride archive, or was cut short, is emptied so it can be rebuilt
+     *
+     * @param ridesFile the ride file
+     * @param usersFile the username dictionary file
+     * @return the open archive
+     * @throws IOException failure during reading, writing and searching file or directory operations
+     */
+    static RideArchive open(Path ridesFile, Path usersFile) throws IOException {
+        FileChannel channel = FileChannel.open(ridesFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        RideArchive archive = new RideArchive(channel, usersFile);
+        try {
+            archive.load();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return archive;
+    }
+
+    /**
+     * Maps the ride file, reads the dictionary and indexes the ride ids
+     * @throws IOException failure during reading, writing and searching file or directory operations
+     */
+    private void load() throws IOException {
+        long size = channel.size();
+        int storedBlocks = (int) Math.max(0, (size - HEADER_BYTES) / BLOCK_BYTES);
+        mapBlocks(Math.max(1, storedBlocks));
+
+        int storedCount = map.getInt(0) == MAGIC && map.getInt(4) == VERSION ? (int) map.getLong(COUNT_OFFSET) : -1;
+        boolean readable = storedCount >= 0 && storedCount <= (long) storedBlocks * BLOCK_RIDES
+                && readUsernames(storedCount);
+        if (!readable) {
+            clear();
+            return;
+        }
+
+        count = storedCount;
+        index = new int[tableSizeFor(count)];
+        for (int position = 0; position < count; position++) {
+            indexPosition(position);
+        }
+        usersOut = openUsersOut(true);
+    }
+
+    /**
+     * Empties the archive so it can be filled again from the database
+     * @throws IOException failure during reading, writing and searching file or directory operations
+     */
+    synchronized void clear() throws IOException {
+        if (usersOut != null) {
+            usersOut.close();
+        }
+        usersOut = openUsersOut(false);
+        usernames.clear();
+        userCodes.clear();
+
+        // the blocks already in the file are reused rather than truncated, since the file is mapped
+        map.putInt(0, MAGIC);
+        map.putInt(4, VERSION);
+        map.putLong(COUNT_OFFSET, 0);
+        count = 0;
+        index = new int[16];
+    }
+
+    /**
+     * This is the getter method for the number of archived rides
+     * @return number of rides in the archive
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Adds a closed ride to the end of the archive
+     * A ride that is already archived is left as it is
+     *
+     * @param ride the returned ride
+     * @throws IOException failure during reading, writing and searching file or directory operations
+     */
+    synchronized void append(Ride ride) throws IOException {
+        if (findPosition(ride.getRideId()) >= 0) {
+            return;
+        }
+
+        int position = count;
+        if (position == blocks * BLOCK_RIDES) {
+            // double the file so appends stay cheap as the archive grows
+            mapBlocks(blocks * 2);
+        }
+
+        MappedByteBuffer buffer = map;
+        buffer.putLong(columnOffset(position, ID_COLUMN, 16), ride.getRideId().getMostSignificantBits());
+        buffer.putLong(columnOffset(position, ID_COLUMN, 16) + 8, ride.getRideId().getLeastSignificantBits());
+        buffer.putInt(columnOffset(position, BIKE_COLUMN, 4), ride.getBikeId());
+        buffer.putInt(columnOffset(position, USER_COLUMN, 4), userCode(ride.getUsername()));
+        buffer.putLong(columnOffset(position, START_COLUMN, 8), ride.getStartTimeStamp().getEpochSecond());
+        buffer.putLong(columnOffset(position, END_COLUMN, 8), ride.getEndTimeStamp().getEpochSecond());
+        buffer.putInt(columnOffset(position, FROM_COLUMN, 4), ride.getStationFrom());
+        buffer.putInt(columnOffset(position, TO_COLUMN, 4), ride.getStationTo());
+        buffer.putDouble(columnOffset(position, PAYMENT_COLUMN, 8), ride.getPayment());
+        buffer.putInt(columnOffset(position, LENGTH_COLUMN, 4), (int) ride.getRideLength());
+
+        // the new count is written last, so a ride is only counted once all of its columns are in place
+        buffer.putLong(COUNT_OFFSET, position + 1);
+        count = position + 1;
+
+        if ((position + 1) * 2 > index.length) {
+            growIndex();
+        } else {
+            indexPosition(position);
+        }
+    }
+
+    /**
+     * Finds an archived ride by its id
+     * @param rideId id of the ride
+     * @return a new Ride object with the archived values, or null if the ride is not archived
+     */
+    synchronized Ride find(UUID rideId) {
+        int position = findPosition(rideId);
+        return position < 0 ? null : readRide(position);
+    }
+
+    /**
+     * Gives every archived ride of a customer a new username
+     * @param username the old username
+     * @param newUsername the new username
+     * @throws IOException failure during reading, writing and searching file or directory operations
+     */
+    synchronized void renameUser(String username, String newUsername) throws IOException {
+        Integer code = userCodes.remove(username);
+        if (code == null) {
+            return;
+        }
+        writeUsername(code, newUsername);
+        usernames.set(code, newUsername);
+        userCodes.put(newUsername, code);
+    }
+
+    /**
+     * Counts where and when every archived ride started and ended
+     * Reads only the station and time columns
+     *
+     * @param counters the station counters to add the rides to
+     */
+    void countStationVisits(StationUsageCounters counters) {
+        // rides below this count never change, so they can be read without holding the lock
+        int rides = count;
+        MappedByteBuffer buffer = map;
+        for (int position = 0; position < rides; position++) {
+            counters.recordVisit(buffer.getInt(columnOffset(position, FROM_COLUMN, 4)),
+                    Instant.ofEpochSecond(buffer.getLong(columnOffset(position, START_COLUMN, 8))));
+            counters.recordVisit(buffer.getInt(columnOffset(position, TO_COLUMN, 4)),
+                    Instant.ofEpochSecond(buffer.getLong(columnOffset(position, END_COLUMN, 8))));
+        }
+    }
+
+    /**
+     * Adds where and when every archived ride started and ended to a demand forecast
+     * Reads only the station and time columns
+     *
+     * @param forecaster the forecast to add the rides to
+     */
+    void learnDemand(DemandForecaster forecaster) {
+        int rides = count;
+        MappedByteBuffer buffer = map;
+        for (int position = 0; position < rides; position++) {
+            forecaster.recordDeparture(buffer.getInt(columnOffset(position, FROM_COLUMN, 4)),
+                    Instant.ofEpochSecond(buffer.getLong(columnOffset(position, START_COLUMN, 8))));
+            forecaster.recordArrival(buffer.getInt(columnOffset(position, TO_COLUMN, 4)),
+                    Instant.ofEpochSecond(buffer.getLong(columnOffset(position, END_COLUMN, 8))));
+        }
+    }
+
+    /**
+     * Saves the mapped rides to disk and closes the files
+     * @throws IOException failure during reading, writing and searching file or directory operations
+     */
+    synchronized void close() throws IOException {
+        map.force();
+        if (usersOut != null) {
+            usersOut.close();
+        }
+        channel.close();
+    }
+
+    /**
+     * Builds a Ride from one archived row
+     * @param position the ride's position in the archive
+     * @return the ride
+     */
+    private Ride readRide(int position) {
+        MappedByteBuffer buffer = map;
+        UUID rideId = new UUID(buffer.getLong(columnOffset(position, ID_COLUMN, 16)),
+                buffer.getLong(columnOffset(position, ID_COLUMN, 16) + 8));
+        try {
+            Ride ride = new Ride(rideId,
+                    buffer.getInt(columnOffset(position, BIKE_COLUMN, 4)),
+                    usernames.get(buffer.getInt(columnOffset(position, USER_COLUMN, 4))),
+                    true,
+                    Instant.ofEpochSecond(buffer.getLong(columnOffset(position, START_COLUMN, 8))),
+                    Instant.ofEpochSecond(buffer.getLong(columnOffset(position, END_COLUMN, 8))),
+                    buffer.getInt(columnOffset(position, FROM_COLUMN, 4)),
+                    buffer.getInt(columnOffset(position, TO_COLUMN, 4)));
+            ride.setPayment(buffer.getDouble(columnOffset(position, PAYMENT_COLUMN, 8)));
+            ride.setRideLength(buffer.getInt(columnOffset(position, LENGTH_COLUMN, 4)));
+            return ride;
+        } catch (ParseException e) {
+            throw new IllegalStateException("Could not read archived ride " + rideId, e);
+        }
+    }
+
+    /**
+     * Works out where one ride's value for a column is in the file
+     * @param position the ride's position in the archive
+     * @param column start of the column within a block
+     * @param width bytes per value in the column
+     * @return byte offset in the file
+     */
+    private static int columnOffset(int position, int column, int width) {
+        return HEADER_BYTES + (position / BLOCK_RIDES) * BLOCK_BYTES + column + (position % BLOCK_RIDES) * width;
+    }
+
+    /**
+     * Maps the ride file with room for a number of blocks, growing the file if needed
+     * @param blockCount number of blocks to map
+     * @throws IOException failure during reading, writing and searching file or directory operations
+     */
+    private void mapBlocks(int blockCount) throws IOException {
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) blockCount * BLOCK_BYTES);
+        blocks = blockCount;
+    }
+
+    /**
+     * Finds the position of a ride in the archive
+     * @param rideId id of the ride
+     * @return its position, or -1 if it is not archived
+     */
+    private int findPosition(UUID rideId) {
+        int mask = index.length - 1;
+        for (int slot = hash(rideId.getMostSignificantBits(), rideId.getLeastSignificantBits()) & mask;
+             index[slot] != 0; slot = (slot + 1) & mask) {
+            int position = index[slot] - 1;
+            int offset = columnOffset(position, ID_COLUMN, 16);
+            if (map.getLong(offset) == rideId.getMostSignificantBits()
+                    && map.getLong(offset + 8) == rideId.getLeastSignificantBits()) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds an archived ride to the id index
+     * @param position the ride's position in the archive
+     */
+    private void indexPosition(int position) {
+        int offset = columnOffset(position, ID_COLUMN, 16);
+        int mask = index.length - 1;
+        int slot = hash(map.getLong(offset), map.getLong(offset + 8)) & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = position + 1;
+    }
+
+    /**
+     * Doubles the id index and indexes every archived ride again
+     */
+    private void growIndex() {
+        index = new int[index.length * 2];
+        for (int position = 0; position < count; position++) {
+            indexPosition(position);
+        }
+    }
+
+    /**
+     * Picks a power of two index size that keeps the index at most half full
+     * @param rides number of rides to index
+     * @return the index size
+     */
+    private static int tableSizeFor(int rides) {
+        int size = 16;
+        while (size < rides * 2) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * Spreads a ride id's bits over an int
+     * @param mostSignificantBits high half of the id
+     * @param leastSignificantBits low half of the id
+     * @return hash of the id
+     */
+    private static int hash(long mostSignificantBits, long leastSignificantBits) {
+        long bits = mostSignificantBits ^ leastSignificantBits;
+        int hash = (int) (bits ^ (bits >>> 32)) * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Looks up a username's code, adding it to the dictionary if it is new
+     * @param username the username
+     * @return its code
+     * @throws IOException failure during reading, writing and searching file or directory operations
+     */
+    private int userCode(String username) throws IOException {
+        Integer code = userCodes.get(username);
+        if (code == null) {
+            code = usernames.size();
+            writeUsername(code, username);
+            usernames.add(username);
+            userCodes.put(username, code);
+        }
+        return code;
+    }
+
+    /**
+     * Appends a dictionary record; a later record for the same code replaces an earlier one
+     * @param code the username's code
+     * @param username the username
+     * @throws IOException failure during reading, writing and searching file or directory operations
+     */
+    private void writeUsername(int code, String username) throws IOException {
+        usersOut.writeInt(code);
+        usersOut.writeUTF(username);
+        usersOut.flush();
+    }
+
+    /**
+     * Reads the username dictionary
+     * @param rides number of rides in the ride file
+     * @return false if the dictionary is damaged and the archive has to be rebuilt
+     * @throws IOException failure during reading, writing and searching file or directory operations
+     */
+    private boolean readUsernames(int rides) throws IOException {
+        usernames.clear();
+        userCodes.clear();
+        if (!Files.exists(usersFile)) {
+            return rides == 0;
+        }
+
+        try (InputStream file = Files.newInputStream(usersFile);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file))) {
+            while (true) {
+                int code;
+                try {
+                    code = in.readInt();
+                } catch (EOFException e) {
+                    return true;
+                }
+                String username = in.readUTF();
+                if (code < usernames.size()) {
+                    // a rename
+                    userCodes.remove(usernames.get(code));
+                    usernames.set(code, username);
+                } else if (code == usernames.size()) {
+                    usernames.add(username);
+                } else {
+                    return false;
+                }
+                userCodes.put(username, code);
+            }
+        } catch (EOFException e) {
+            // the last record was cut short
+            return false;
+        }
+    }
+
+    /**
+     * Opens the username dictionary for writing
+     * @param append true to add to the existing records, false to start an empty dictionary
+     * @return stream that appends dictionary records
+     * @throws IOException failure during reading, writing and searching file or directory operations
+     */
+    private DataOutputStream openUsersOut(boolean append) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(usersFile.toFile(), append)));
+    }
+}
@@ -0,0 +1,259 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.UUID;
+
+/**
+ * Loads historical rides from ride data csv files (User,From,To,Start,End) into the Ride table
+ *
+ * Files are read one line at a time and written in transactions of BATCH_SIZE rows, so memory
+ * use stays the same however large the file is. Each ride's id is made from the row itself,
+ * so importing the same file twice does not add its rides twice
+ *
+ * Run it with the csv files to import, for example
+ * "java RideCsvImporter data-files/sample-ride-data-0820.csv data-files/sample-ride-data-0821.csv".
+ * Imported rides are added to the ride archive the next time ValleyBikeSim starts, and every
+ * customer's ride totals are worked out again once the files are in
+ */
+class RideCsvImporter {
+
+    /** number of rows written in each transaction */
+    static final int BATCH_SIZE = 10000;
+
+    /** most bad rows to print for each file; the rest are only counted */
+    private static final int MAX_REPORTED_ERRORS = 10;
+
+    /** the header every ride data file starts with */
+    private static final String HEADER = "User,From,To,Start,End";
+
+    /** byte order mark that spreadsheet programs put at the start of utf-8 files */
+    private static final char BOM = '\uFEFF';
+
+    /** timestamps in the files have no padding, for example "2019-08-20 11:9:00" */
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-M-d H:m[:s]");
+
+    /** the files record local time at the stations */
+    static final ZoneId STATION_ZONE = ZoneId.of("America/New_York");
+
+    /**
+     * sql for adding an imported ride, skipping rides that are already in the table
+     */
+    private static final String IMPORT_RIDE_SQL = "INSERT OR IGNORE INTO Ride(ride_id, bike_id, username, is_returned, " +
+            "ride_length, start_time_stamp, end_time_stamp, payment, station_to, station_from) " +
+            "VALUES(?,?,?,?,?,?,?,?,?,?)";
+
+    /**
+     * Imports every file given on the command line
+     *
+     * @param args paths of the csv files to import
+     * @throws IOException failure during reading, writing and searching file or directory operations
+     * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+     */
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        if (args.length == 0) {
+            System.out.println("Please give the ride data csv files to import.");
+            return;
+        }
+
+        // the Ride table must have its current columns before rows are added to it
+        if (!SchemaMigrator.migrate()) {
+            return;
+        }
+
+        try {
+            long imported = 0;
+            for (String file : args) {
+                long rows = importFile(file);
+                if (rows < 0) {
+                    break;
+                }
+                imported += rows;
+            }
+
+            // imported rides skip returnBike, so the customers' ride totals are worked out again from the Ride table
+            if (imported > 0) {
+                rebuildRideStats();
+            }
+        } finally {
+            ConnectionPool.closeAll();
+        }
+    }
+
+    /**
+     * Works out every customer's ride totals again, including the rides just imported
+     * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+     */
+    private static void rebuildRideStats() throws ClassNotFoundException {
+        try (PooledConnection pooled = ConnectionPool.getConnection()) {
+            Connection conn = pooled.getConnection();
+            conn.setAutoCommit(false);
+            try {
+                SchemaMigrator.rebuildCustomerRideStats(conn);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.out.println("Sorry, could not update customer ride totals in the database at this time.");
+        }
+    }
+
+    /**
+     * Imports one csv file and prints how many rows were imported and how fast
+     *
+     * @param file path of the csv file
+     * @return number of rides imported, or -1 if the database would not accept a batch
+     * @throws IOException failure during reading, writing and searching file or directory operations
+     * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+     */
+    static long importFile(String file) throws IOException, ClassNotFoundException {
+        long start = System.nanoTime();
+        long imported = 0;
+        long skipped = 0;
+        long lineNumber = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            lineNumber++;
+            if (line == null || !HEADER.equals(stripBom(line).trim())) {
+                System.out.println("Sorry, " + file + " does not start with the header " + HEADER + ".");
+                return 0;
+            }
+
+            UnitOfWork batch = new UnitOfWork();
+            int batchRows = 0;
+
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+
+                Ride ride;
+                try {
+                    ride = parseRide(line);
+                } catch (ParseException | DateTimeParseException | IllegalArgumentException e) {
+                    skipped++;
+                    if (skipped <= MAX_REPORTED_ERRORS) {
+                        System.out.println("Skipping line " + lineNumber + " of " + file + ": " + e.getMessage());
+                    }
+                    continue;
+                }
+
+                stageRide(batch, ride);
+                batchRows++;
+
+                // write a full batch and start the next one, so only one batch is ever held in memory
+                if (batchRows == BATCH_SIZE) {
+                    if (!batch.commit()) {
+                        System.out.println("Sorry, could not import rides into database near line " + lineNumber + " of " + file + ".");
+                        return -1;
+                    }
+                    imported += batchRows;
+                    batchRows = 0;
+                }
+            }
+
+            if (batchRows > 0) {
+                if (!batch.commit()) {
+                    System.out.println("Sorry, could not import rides into database near line " + lineNumber + " of " + file + ".");
+                    return -1;
+                }
+                imported += batchRows;
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        System.out.format("Imported %d rides from %s in %.2f s (%.0f rows/sec), skipped %d bad rows\n",
+                imported, file, seconds, imported / Math.max(seconds, 1e-9), skipped);
+        return imported;
+    }
+
+    /**
+     * Turns one csv row into a returned ride
+     * The files have no bike ids or payments, so imported rides use bike 0 and a payment of 0
+     *
+     * @param line a row of the form User,From,To,Start,End
+     * @return the ride the row describes
+     * @throws ParseException fail to parse a String that is ought to have a special format
+     */
+    static Ride parseRide(String line) throws ParseException {
+        String[] fields = stripBom(line).split(",", -1);
+        if (fields.length != 5) {
+            throw new IllegalArgumentException("expected 5 fields but found " + fields.length);
+        }
+
+        String username = fields[0].trim();
+        int stationFrom = Integer.parseInt(fields[1].trim());
+        int stationTo = Integer.parseInt(fields[2].trim());
+        Instant startTimeStamp = parseTimestamp(fields[3]);
+        Instant endTimeStamp = parseTimestamp(fields[4]);
+
+        // the same row always gets the same id, which is what lets a file be imported again safely
+        UUID rideId = UUID.nameUUIDFromBytes(("csv:" + username + "," + stationFrom + "," + stationTo + ","
+                + startTimeStamp + "," + endTimeStamp).getBytes(StandardCharsets.UTF_8));
+
+        Ride ride = new Ride(rideId, 0, username, true, startTimeStamp, endTimeStamp, stationFrom, stationTo);
+        ride.setPayment(0);
+        return ride;
+    }
+
+    /**
+     * Parses a timestamp from the ride files, such as "2019-08-20 11:9:00", as station local time
+     * Rides that end after midnight are sometimes written as hour 24 of the day they started,
+     * such as "2019-08-20 24:20:00", which is read as 0:20 the next day
+     *
+     * @param timestamp the timestamp text
+     * @return the instant it describes
+     */
+    static Instant parseTimestamp(String timestamp) {
+        String text = timestamp.trim();
+        int space = text.indexOf(' ');
+        if (space > 0 && text.startsWith("24:", space + 1)) {
+            LocalDateTime sameDay = LocalDateTime.parse(text.substring(0, space + 1) + "0" + text.substring(space + 3), TIMESTAMP);
+            return sameDay.plusDays(1).atZone(STATION_ZONE).toInstant();
+        }
+        return LocalDateTime.parse(text, TIMESTAMP).atZone(STATION_ZONE).toInstant();
+    }
+
+    /**
+     * Adds a ride's insert to a batch, with columns in the same order as ValleyBikeSim's ride inserts
+     * @param batch the batch being filled
+     * @param ride the ride to insert
+     */
+    private static void stageRide(UnitOfWork batch, Ride ride) {
+        batch.addUpdate(IMPORT_RIDE_SQL,
+                Ride.idToBytes(ride.getRideId()),
+                ride.getBikeId(),
+                ride.getUsername(),
+                ride.getIsReturned(),
+                ride.getRideLength(),
+                ride.getStartTimeStamp().toEpochMilli(),
+                ride.getEndTimeStamp().toEpochMilli(),
+                ride.getPayment(),
+                ride.getStationTo(),
+                ride.getStationFrom());
+    }
+
+    /**
+     * Removes a byte order mark from the start of a line
+     * @param line a line of the file
+     * @return the line without the mark
+     */
+    private static String stripBom(String line) {
+        return !line.isEmpty() && line.charAt(0) == BOM ? line.substring(1) : line;
+    }
+}
@@ -0,0 +1,526 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Brings the ValleyBike database schema up to date at startup
+ *
+ * Every schema change is a numbered migration. The database remembers the number of the
+ * last migration it received in sqlite's user_version header, so each migration runs
+ * exactly once, in order, and each one runs in its own transaction so a failed
+ * migration leaves the database as it was
+ */
+class SchemaMigrator {
+
+    /**
+     * One numbered change to the schema
+     */
+    interface Migration {
+        /**
+         * Applies the change using a connection that is already inside a transaction
+         * @param conn connection to the database being migrated
+         * @throws SQLException for database access error
+         */
+        void apply(Connection conn) throws SQLException;
+    }
+
+    /** the first schema version with Event_Log_Checkpoint, so the first that can have an EventLog to replay */
+    static final int EVENT_LOG_VERSION = 6;
+
+    /** number of rows copied per jdbc batch when a migration rewrites a table row by row */
+    private static final int COPY_BATCH_SIZE = 10_000;
+
+    /** migrations in the order they must run; migration n is at index n - 1 */
+    private static final List<Migration> migrations = new ArrayList<>();
+
+    /** short description of each migration, for the startup message */
+    private static final List<String> descriptions = new ArrayList<>();
+
+    static {
+        // 1: the tables as the project originally created them, so an empty database file can be set up from scratch
+        addMigration("create original tables",
+                "CREATE TABLE IF NOT EXISTS Bike(id int, location int, station_id int, req_mnt int, mnt_report varchar(255))",
+                "CREATE TABLE IF NOT EXISTS Station(id int, name varchar(255), bikes int, available_docks int, req_mnt int, " +
+                        "capacity int, kiosk int, address varchar(255), bike_string nvarchar)",
+                "CREATE TABLE IF NOT EXISTS Internal_Account(username nvarchar(255), password nvarchar(255), email_address nvarchar(255))",
+                "CREATE TABLE IF NOT EXISTS Ride(ride_id nvarchar(360), bike_id int, username nvarchar(255), is_returned int, " +
+                        "ride_length bigint, start_time_stamp nvarchar(360), end_time_stamp nvarchar(360), payment float, " +
+                        "station_to int, station_from int)",
+                "CREATE TABLE IF NOT EXISTS Membership(username nvarchar(255), total_rides_left int, last_payment nvarchar, " +
+                        "membership_since nvarchar, type int)",
+                "CREATE TABLE IF NOT EXISTS Customer_Account(username nvarchar(255), password nvarchar(255), " +
+                        "email_address nvarchar(255), credit_card nvarchar(255),  balance double, last_ride_is_returned int, " +
+                        "enabled int, ride_id_string nvarchar)");
+
+        // 2: primary keys on every table so updates by id or username are index lookups instead of table scans,
+        // plus indexes for the ride columns we search by
+        // sqlite cannot add a primary key to an existing table, so each table is rebuilt and its rows copied over
+        addMigration("add primary keys and ride indexes",
+                "CREATE TABLE Bike_new(id INTEGER PRIMARY KEY, location int, station_id int, req_mnt int, mnt_report varchar(255))",
+                "INSERT INTO Bike_new SELECT id, location, station_id, req_mnt, mnt_report FROM Bike",
+                "DROP TABLE Bike",
+                "ALTER TABLE Bike_new RENAME TO Bike",
+
+                "CREATE TABLE Station_new(id INTEGER PRIMARY KEY, name varchar(255), bikes int, available_docks int, " +
+                        "req_mnt int, capacity int, kiosk int, address varchar(255), bike_string nvarchar)",
+                "INSERT INTO Station_new SELECT id, name, bikes, available_docks, req_mnt, capacity, kiosk, address, " +
+                        "bike_string FROM Station",
+                "DROP TABLE Station",
+                "ALTER TABLE Station_new RENAME TO Station",
+
+                "CREATE TABLE Internal_Account_new(username nvarchar(255) PRIMARY KEY, password nvarchar(255), " +
+                        "email_address nvarchar(255))",
+                "INSERT INTO Internal_Account_new SELECT username, password, email_address FROM Internal_Account",
+                "DROP TABLE Internal_Account",
+                "ALTER TABLE Internal_Account_new RENAME TO Internal_Account",
+
+                "CREATE TABLE Ride_new(ride_id nvarchar(360) PRIMARY KEY, bike_id int, username nvarchar(255), " +
+                        "is_returned int, ride_length bigint, start_time_stamp nvarchar(360), end_time_stamp nvarchar(360), " +
+                        "payment float, station_to int, station_from int)",
+                "INSERT INTO Ride_new SELECT ride_id, bike_id, username, is_returned, ride_length, start_time_stamp, " +
+                        "end_time_stamp, payment, station_to, station_from FROM Ride",
+                "DROP TABLE Ride",
+                "ALTER TABLE Ride_new RENAME TO Ride",
+                "CREATE INDEX Ride_username ON Ride(username)",
+                "CREATE INDEX Ride_bike_id ON Ride(bike_id)",
+                "CREATE INDEX Ride_start_time_stamp ON Ride(start_time_stamp)",
+
+                // the primary key is also the index on Membership(username)
+                "CREATE TABLE Membership_new(username nvarchar(255) PRIMARY KEY, total_rides_left int, " +
+                        "last_payment nvarchar, membership_since nvarchar, type int)",
+                "INSERT INTO Membership_new SELECT username, total_rides_left, last_payment, membership_since, type " +
+                        "FROM Membership",
+                "DROP TABLE Membership",
+                "ALTER TABLE Membership_new RENAME TO Membership",
+
+                "CREATE TABLE Customer_Account_new(username nvarchar(255) PRIMARY KEY, password nvarchar(255), " +
+                        "email_address nvarchar(255), credit_card nvarchar(255), balance double, " +
+                        "last_ride_is_returned int, enabled int, ride_id_string nvarchar)",
+                "INSERT INTO Customer_Account_new SELECT username, password, email_address, credit_card, balance, " +
+                        "last_ride_is_returned, enabled, ride_id_string FROM Customer_Account",
+                "DROP TABLE Customer_Account",
+                "ALTER TABLE Customer_Account_new RENAME TO Customer_Account");
+
+        // 3: a customer's ride history is the Ride rows with their username, so the comma-joined
+        // Customer_Account.ride_id_string column is folded into Ride and dropped
+        addMigration("store ride history by Ride.username", SchemaMigrator::dropRideIdString);
+
+        // 4: each docked bike becomes one Station_Dock row, so docking or undocking a bike writes one row
+        // instead of rewriting the comma-joined Station.bike_string column
+        addMigration("store docked bikes in Station_Dock", SchemaMigrator::moveBikeStringsToStationDock);
+
+        // 5: each customer's ride count, minutes, longest ride, spend and last ride, kept up to date as rides
+        // are returned so the ride statistics menus do not read the customer's whole ride history
+        addMigration("add Customer_Ride_Stats", conn -> {
+            executeAll(conn,
+                    "CREATE TABLE Customer_Ride_Stats(username nvarchar(255) PRIMARY KEY, ride_count int, " +
+                            "total_minutes bigint, longest_ride_id nvarchar(360), longest_ride_minutes bigint, " +
+                            "total_spend double, last_ride_id nvarchar(360))");
+            rebuildCustomerRideStats(conn);
+        });
+
+        // 6: the number of the last EventLog entry copied into the tables, so a restart knows which entries to replay
+        // (EVENT_LOG_VERSION); entries are replayed before any later migration runs, under the schema they were logged in
+        addMigration("add Event_Log_Checkpoint",
+                "CREATE TABLE Event_Log_Checkpoint(id INTEGER PRIMARY KEY, seq bigint)");
+
+        // 7: the stations, docks, bikes and accounts changed since a MapSnapshot was taken, so a restart
+        // only reads those rows instead of every table
+        addMigration("add Change_Log", SchemaMigrator::addChangeLog);
+
+        // 8: ride ids are stored as 16 bytes and ride times as epoch milliseconds instead of strings, so a ride row
+        // is about a third of the size and reading one needs no UUID.fromString or Instant.parse
+        addMigration("store ride ids and times as numbers", SchemaMigrator::compactRideColumns);
+
+        // 9: an index to find the monthly and yearly memberships due for renewal, and how far the day's
+        // renewal run got, so a run stopped part way picks up where it left off
+        addMigration("add membership renewal index and checkpoint",
+                "CREATE INDEX Membership_type_last_payment ON Membership(type, last_payment)",
+                "CREATE TABLE Membership_Renewal_Checkpoint(id INTEGER PRIMARY KEY, run_date nvarchar, " +
+                        "last_username nvarchar(255), finished int)");
+    }
+
+    /**
+     * Runs every migration the database has not had yet
+     *
+     * @return false if a migration failed, in which case the database keeps its last good schema
+     * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+     */
+    static boolean migrate() throws ClassNotFoundException {
+        return migrateTo(latestVersion());
+    }
+
+    /**
+     * Runs the migrations needed to bring the database up to a given version
+     *
+     * @param targetVersion the schema version to stop at
+     * @return false if a migration failed, in which case the database keeps its last good schema
+     * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+     */
+    static boolean migrateTo(int targetVersion) throws ClassNotFoundException {
+        try (PooledConnection pooled = ConnectionPool.getConnection()) {
+            Connection conn = pooled.getConnection();
+            int version = currentVersion(conn);
+
+            while (version < targetVersion) {
+                int next = version + 1;
+                System.out.println("Updating database schema to version " + next + ": " + descriptions.get(next - 1));
+
+                // each migration and its version bump commit together or not at all
+                conn.setAutoCommit(false);
+                try {
+                    migrations.get(next - 1).apply(conn);
+                    try (Statement stmt = conn.createStatement()) {
+                        stmt.executeUpdate("PRAGMA user_version = " + next);
+                    }
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    System.out.println("Sorry, could not update the database schema to version " + next + ": " + e.getMessage());
+                    return false;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+                version = next;
+            }
+            return true;
+        } catch (SQLException e) {
+            System.out.println("Sorry, could not check the database schema version.");
+            return false;
+        }
+    }
+
+    /**
+     * This is the getter method for the newest schema version this code knows about
+     * @return number of the last migration
+     */
+    static int latestVersion() {
+        return migrations.size();
+    }
+
+    /**
+     * Reads the schema version stored in the database header
+     *
+     * @return the number of the last migration applied, 0 for a database that has never been migrated
+     * @throws SQLException for database access error
+     * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+     */
+    static int currentVersion() throws SQLException, ClassNotFoundException {
+        try (PooledConnection pooled = ConnectionPool.getConnection()) {
+            return currentVersion(pooled.getConnection());
+        }
+    }
+
+    /**
+     * Reads the schema version stored in the database header
+     *
+     * @param conn connection to the database
+     * @return the number of the last migration applied, 0 for a database that has never been migrated
+     * @throws SQLException for database access error
+     */
+    static int currentVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Makes sure every ride listed in a customer's ride_id_string belongs to that customer in the Ride table,
+     * then rebuilds Customer_Account without the ride_id_string column
+     *
+     * @param conn connection to the database being migrated
+     * @throws SQLException for database access error
+     */
+    private static void dropRideIdString(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             PreparedStatement pstmt = conn.prepareStatement(
+                     "UPDATE Ride SET username = ? WHERE ride_id = ? AND (username IS NULL OR username <> ?)")) {
+            try (ResultSet rs = stmt.executeQuery("SELECT username, ride_id_string FROM Customer_Account " +
+                    "WHERE ride_id_string IS NOT NULL AND ride_id_string <> ''")) {
+                while (rs.next()) {
+                    String username = rs.getString("username");
+                    for (String rideId : rs.getString("ride_id_string").split(",")) {
+                        pstmt.setString(1, username);
+                        pstmt.setString(2, rideId.trim());
+                        pstmt.setString(3, username);
+                        pstmt.addBatch();
+                    }
+                }
+            }
+            pstmt.executeBatch();
+        }
+
+        executeAll(conn,
+                "CREATE TABLE Customer_Account_new(username nvarchar(255) PRIMARY KEY, password nvarchar(255), " +
+                        "email_address nvarchar(255), credit_card nvarchar(255), balance double, " +
+                        "last_ride_is_returned int, enabled int)",
+                "INSERT INTO Customer_Account_new SELECT username, password, email_address, credit_card, balance, " +
+                        "last_ride_is_returned, enabled FROM Customer_Account",
+                "DROP TABLE Customer_Account",
+                "ALTER TABLE Customer_Account_new RENAME TO Customer_Account");
+    }
+
+    /**
+     * Creates the Station_Dock table, fills it from every station's bike_string,
+     * then rebuilds Station without the bike_string column
+     *
+     * @param conn connection to the database being migrated
+     * @throws SQLException for database access error
+     */
+    private static void moveBikeStringsToStationDock(Connection conn) throws SQLException {
+        // bike_id is the key because a bike can only be docked at one station at a time
+        executeAll(conn,
+                "CREATE TABLE Station_Dock(bike_id INTEGER PRIMARY KEY, station_id int NOT NULL)",
+                "CREATE INDEX Station_Dock_station_id ON Station_Dock(station_id)");
+
+        try (Statement stmt = conn.createStatement();
+             PreparedStatement pstmt = conn.prepareStatement(
+                     "INSERT OR REPLACE INTO Station_Dock(bike_id, station_id) VALUES(?, ?)")) {
+            try (ResultSet rs = stmt.executeQuery("SELECT id, bike_string FROM Station " +
+                    "WHERE bike_string IS NOT NULL AND bike_string <> ''")) {
+                while (rs.next()) {
+                    int stationId = rs.getInt("id");
+                    for (String bikeId : rs.getString("bike_string").split(",")) {
+                        if (!bikeId.trim().isEmpty()) {
+                            pstmt.setInt(1, Integer.parseInt(bikeId.trim()));
+                            pstmt.setInt(2, stationId);
+                            pstmt.addBatch();
+                        }
+                    }
+                }
+            }
+            pstmt.executeBatch();
+        }
+
+        executeAll(conn,
+                "CREATE TABLE Station_new(id INTEGER PRIMARY KEY, name varchar(255), bikes int, available_docks int, " +
+                        "req_mnt int, capacity int, kiosk int, address varchar(255))",
+                "INSERT INTO Station_new SELECT id, name, bikes, available_docks, req_mnt, capacity, kiosk, address " +
+                        "FROM Station",
+                "DROP TABLE Station",
+                "ALTER TABLE Station_new RENAME TO Station");
+    }
+
+    /**
+     * Works out every customer's Customer_Ride_Stats row again from their returned rides
+     * Used when the table is first created and after rides are imported straight into the Ride table
+     *
+     * @param conn connection to the database
+     * @throws SQLException for database access error
+     */
+    static void rebuildCustomerRideStats(Connection conn) throws SQLException {
+        // the longest ride is the first of the longest, and rides of 0 minutes never count as the longest
+        executeAll(conn,
+                "DELETE FROM Customer_Ride_Stats",
+                "INSERT INTO Customer_Ride_Stats(username, ride_count, total_minutes, longest_ride_id, " +
+                        "longest_ride_minutes, total_spend, last_ride_id) " +
+                        "SELECT r.username, COUNT(*), COALESCE(SUM(r.ride_length), 0), " +
+                        "(SELECT l.ride_id FROM Ride l WHERE l.username = r.username AND l.is_returned = 1 " +
+                        "AND l.ride_length > 0 ORDER BY l.ride_length DESC, l.rowid LIMIT 1), " +
+                        "COALESCE(MAX(CASE WHEN r.ride_length > 0 THEN r.ride_length END), 0), COALESCE(SUM(r.payment), 0), " +
+                        "(SELECT l.ride_id FROM Ride l WHERE l.username = r.username AND l.is_returned = 1 " +
+                        "ORDER BY l.rowid DESC LIMIT 1) " +
+                        "FROM Ride r WHERE r.is_returned = 1 AND r.username IS NOT NULL GROUP BY r.username");
+    }
+
+    /**
+     * Creates Change_Log and the triggers that fill it
+     *
+     * Each changed row has one Change_Log row, keyed by the table it is read back from and its id or
+     * username, whose seq is set past every other seq each time the row changes. So the table never
+     * holds more rows than the tables it follows, and the rows changed since any point are those
+     * with a larger seq. Rides are not followed, apart from a new ride changing its customer's latest ride
+     *
+     * @param conn connection to the database being migrated
+     * @throws SQLException for database access error
+     */
+    private static void addChangeLog(Connection conn) throws SQLException {
+        List<String> statements = new ArrayList<>();
+        statements.add("CREATE TABLE Change_Log(table_name nvarchar(64), row_key nvarchar(255), seq bigint, " +
+                "PRIMARY KEY(table_name, row_key))");
+        statements.add("CREATE INDEX Change_Log_seq ON Change_Log(seq)");
+
+        // each table, the table its changes are read back from, and the column naming the row
+        String[][] followed = {
+                {"Station", "Station", "id"},
+                {"Station_Dock", "Station_Dock", "bike_id"},
+                {"Bike", "Bike", "id"},
+                {"Customer_Account", "Customer_Account", "username"},
+                {"Membership", "Customer_Account", "username"},
+                {"Customer_Ride_Stats", "Customer_Account", "username"},
+                {"Internal_Account", "Internal_Account", "username"}};
+        for (String[] table : followed) {
+            statements.add(changeTrigger(table[0], "INSERT", table[1], "NEW." + table[2]));
+            // an update can change the key itself, so both the old and the new row are read back
+            statements.add(changeTrigger(table[0], "UPDATE", table[1], "OLD." + table[2], "NEW." + table[2]));
+            statements.add(changeTrigger(table[0], "DELETE", table[1], "OLD." + table[2]));
+        }
+        statements.add(changeTrigger("Ride", "INSERT", "Customer_Account", "NEW.username"));
+
+        executeAll(conn, statements.toArray(new String[0]));
+    }
+
+    /**
+     * Rebuilds Ride with blob ride ids and bigint epoch millisecond times, then converts the ride ids
+     * kept in Customer_Ride_Stats the same way
+     * Rows are streamed and copied in batches with the same rowids, so the order rides were added in is kept
+     *
+     * @param conn connection to the database being migrated
+     * @throws SQLException for database access error, or a ride id or time that cannot be parsed
+     */
+    private static void compactRideColumns(Connection conn) throws SQLException {
+        executeAll(conn,
+                "CREATE TABLE Ride_new(ride_id blob PRIMARY KEY, bike_id int, username nvarchar(255), is_returned int, " +
+                        "ride_length bigint, start_time_stamp bigint, end_time_stamp bigint, payment float, " +
+                        "station_to int, station_from int)");
+
+        try (Statement stmt = conn.createStatement();
+             PreparedStatement pstmt = conn.prepareStatement("INSERT INTO Ride_new(rowid, ride_id, bike_id, username, " +
+                     "is_returned, ride_length, start_time_stamp, end_time_stamp, payment, station_to, station_from) " +
+                     "VALUES(?,?,?,?,?,?,?,?,?,?,?)")) {
+            try (ResultSet rs = stmt.executeQuery("SELECT rowid, * FROM Ride ORDER BY rowid")) {
+                int batched = 0;
+                while (rs.next()) {
+                    pstmt.setLong(1, rs.getLong(1));
+                    pstmt.setBytes(2, rideIdBytes(rs.getString("ride_id")));
+                    pstmt.setObject(3, rs.getObject("bike_id"));
+                    pstmt.setString(4, rs.getString("username"));
+                    pstmt.setObject(5, rs.getObject("is_returned"));
+                    pstmt.setObject(6, rs.getObject("ride_length"));
+                    setEpochMillis(pstmt, 7, rs.getString("start_time_stamp"));
+                    setEpochMillis(pstmt, 8, rs.getString("end_time_stamp"));
+                    pstmt.setObject(9, rs.getObject("payment"));
+                    pstmt.setObject(10, rs.getObject("station_to"));
+                    pstmt.setObject(11, rs.getObject("station_from"));
+                    pstmt.addBatch();
+                    if (++batched % COPY_BATCH_SIZE == 0) {
+                        pstmt.executeBatch();
+                    }
+                }
+            }
+            pstmt.executeBatch();
+        }
+
+        // dropping Ride also drops its indexes and its Change_Log trigger, so they are made again
+        executeAll(conn,
+                "DROP TABLE Ride",
+                "ALTER TABLE Ride_new RENAME TO Ride",
+                "CREATE INDEX Ride_username ON Ride(username)",
+                "CREATE INDEX Ride_bike_id ON Ride(bike_id)",
+                "CREATE INDEX Ride_start_time_stamp ON Ride(start_time_stamp)",
+                changeTrigger("Ride", "INSERT", "Customer_Account", "NEW.username"));
+
+        // the stats columns keep their declared type; sqlite stores a blob as it is given whatever the column type
+        try (Statement stmt = conn.createStatement();
+             PreparedStatement pstmt = conn.prepareStatement(
+                     "UPDATE Customer_Ride_Stats SET longest_ride_id = ?, last_ride_id = ? WHERE username = ?")) {
+            try (ResultSet rs = stmt.executeQuery("SELECT username, longest_ride_id, last_ride_id FROM Customer_Ride_Stats")) {
+                while (rs.next()) {
+                    pstmt.setBytes(1, rideIdBytes(rs.getString("longest_ride_id")));
+                    pstmt.setBytes(2, rideIdBytes(rs.getString("last_ride_id")));
+                    pstmt.setString(3, rs.getString("username"));
+                    pstmt.addBatch();
+                }
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    /**
+     * @param rideId a ride id as it was stored before migration 8, or null
+     * @return the id as 16 bytes, or null
+     * @throws SQLException if the id is not a UUID
+     */
+    private static byte[] rideIdBytes(String rideId) throws SQLException {
+        try {
+            return rideId == null ? null : Ride.idToBytes(UUID.fromString(rideId));
+        } catch (IllegalArgumentException e) {
+            throw new SQLException("ride id " + rideId + " is not a UUID", e);
+        }
+    }
+
+    /**
+     * Binds a ride time stored before migration 8 as its epoch milliseconds
+     *
+     * @param pstmt statement to bind it to
+     * @param index parameter index
+     * @param timeStamp the time as written by Instant.toString, or null
+     * @throws SQLException if the time cannot be parsed
+     */
+    private static void setEpochMillis(PreparedStatement pstmt, int index, String timeStamp) throws SQLException {
+        if (timeStamp == null) {
+            pstmt.setNull(index, Types.BIGINT);
+            return;
+        }
+        try {
+            pstmt.setLong(index, Instant.parse(timeStamp).toEpochMilli());
+        } catch (DateTimeException e) {
+            throw new SQLException("ride time " + timeStamp + " is not an ISO instant", e);
+        }
+    }
+
+    /**
+     * Builds a trigger that records changed rows in Change_Log
+     *
+     * @param table the table the trigger is on
+     * @param event INSERT, UPDATE or DELETE
+     * @param logAs the table the changed row is read back from
+     * @param keys the OLD or NEW columns naming the changed rows; null keys are not recorded
+     * @return the CREATE TRIGGER statement
+     */
+    private static String changeTrigger(String table, String event, String logAs, String... keys) {
+        StringBuilder sql = new StringBuilder("CREATE TRIGGER ").append(table).append("_changed_")
+                .append(event.toLowerCase()).append(" AFTER ").append(event).append(" ON ").append(table).append(" BEGIN ");
+        for (String key : keys) {
+            sql.append("INSERT OR REPLACE INTO Change_Log(table_name, row_key, seq) SELECT '").append(logAs).append("', ")
+                    .append(key).append(", (SELECT COALESCE(MAX(seq), 0) + 1 FROM Change_Log) WHERE ")
+                    .append(key).append(" IS NOT NULL; ");
+        }
+        return sql.append("END").toString();
+    }
+
+    /**
+     * Runs sql statements one after another on a connection
+     *
+     * @param conn connection to run them on
+     * @param statements the sql to run, in order
+     * @throws SQLException for database access error
+     */
+    private static void executeAll(Connection conn, String... statements) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            for (String sql : statements) {
+                stmt.executeUpdate(sql);
+            }
+        }
+    }
+
+    /**
+     * Adds a migration that is made up of plain sql statements
+     *
+     * @param description what the migration changes
+     * @param statements the sql to run, in order
+     */
+    private static void addMigration(String description, final String... statements) {
+        addMigration(description, conn -> executeAll(conn, statements));
+    }
+
+    /**
+     * Adds a migration to the end of the list
+     *
+     * @param description what the migration changes
+     * @param migration the change itself
+     */
+    private static void addMigration(String description, Migration migration) {
+        descriptions.add(description);
+        migrations.add(migration);
+    }
+}
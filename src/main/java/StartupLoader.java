@@ -0,0 +1,179 @@
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads every table from the database into the in-memory maps at startup
+ * Tables that do not depend on each other are read at the same time, each on its
+ * own pooled read connection, and the time each table took is printed so we can
+ * keep track of how long a cold start takes
+ */
+class StartupLoader {
+
+    /** number of tables read at the same time */
+    private static final int LOADER_THREADS = 4;
+
+    /**
+     * Reads one table into its in-memory map
+     */
+    interface TableReader {
+        /**
+         * @param stmt statement on the connection to read with
+         * @return number of rows read
+         * @throws SQLException for database access error
+         * @throws ParseException fail to parse a String that is ought to have a special format
+         */
+        int read(Statement stmt) throws SQLException, ParseException;
+    }
+
+    /**
+     * How long one table took to load
+     */
+    private static class TableTiming {
+        /** name of the table or tables read */
+        private final String table;
+
+        /** number of rows read */
+        private final int rows;
+
+        /** time the read took, in nanoseconds */
+        private final long nanos;
+
+        TableTiming(String table, int rows, long nanos) {
+            this.table = table;
+            this.rows = rows;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * Reads all of the tables into ValleyBikeSim's maps and prints a timing report
+     * Each table fills a different map, so the reads can safely run in parallel
+     * When a saved snapshot can be used, it replaces the station, bike and account reads
+     *
+     * @throws SQLException for database access error
+     * @throws ParseException fail to parse a String that is ought to have a special format
+     * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+     * @throws InterruptedException when a thread that is sleeping, waiting, or is occupied is interrupted
+     */
+    static void loadAll() throws SQLException, ParseException, ClassNotFoundException, InterruptedException {
+        Map<String, TableReader> tables = new LinkedHashMap<>();
+        tables.put("Customer_Account + Membership", timed("readCustomerAccountData", ValleyBikeSim::readCustomerAccountData));
+        tables.put("Internal_Account", timed("readInternalAccountData", ValleyBikeSim::readInternalAccountData));
+        tables.put("Station", timed("readStationData", ValleyBikeSim::readStationData));
+        tables.put("Bike", timed("readBikeData", ValleyBikeSim::readBikeData));
+
+        long start = System.nanoTime();
+        List<Future<TableTiming>> futures = new ArrayList<>();
+        List<TableTiming> timings = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(LOADER_THREADS);
+
+        try {
+            // rides are never in the snapshot, so start reading them while it is tried
+            futures.add(executor.submit(() -> loadTable("Ride", timed("readRideData", ValleyBikeSim::readRideData))));
+
+            TableTiming snapshot = loadTable("Snapshot + changes since", timed("readSnapshotData", ValleyBikeSim::readSnapshotData));
+            if (snapshot.rows >= 0) {
+                timings.add(snapshot);
+                tables.clear();
+            }
+
+            // start every other table read
+            for (Map.Entry<String, TableReader> table : tables.entrySet()) {
+                final String name = table.getKey();
+                final TableReader reader = table.getValue();
+                futures.add(executor.submit(() -> loadTable(name, reader)));
+            }
+
+            // wait for all of them, passing on the first failure
+            for (Future<TableTiming> future : futures) {
+                timings.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            rethrow(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        printReport(timings, System.nanoTime() - start);
+    }
+
+    /**
+     * Wraps a table reader so PersistenceMetrics times it and counts its errors under the reader's method name
+     *
+     * @param operation name of the ValleyBikeSim method that reads the table
+     * @param reader reads the table into its map
+     * @return the same reader, timed
+     */
+    private static TableReader timed(String operation, TableReader reader) {
+        return stmt -> {
+            long start = PersistenceMetrics.start();
+            try {
+                return reader.read(stmt);
+            } catch (SQLException e) {
+                PersistenceMetrics.recordError(operation, e);
+                throw e;
+            } finally {
+                PersistenceMetrics.record(operation, start);
+            }
+        };
+    }
+
+    /**
+     * Reads one table on its own pooled connection and times it
+     *
+     * @param name name of the table, for the report
+     * @param reader reads the table into its map
+     * @return how long the read took
+     * @throws SQLException for database access error
+     * @throws ParseException fail to parse a String that is ought to have a special format
+     * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+     */
+    private static TableTiming loadTable(String name, TableReader reader) throws SQLException, ParseException, ClassNotFoundException {
+        long start = System.nanoTime();
+        try (PooledConnection conn = ConnectionPool.getConnection();
+             Statement stmt = conn.createStatement()) {
+            int rows = reader.read(stmt);
+            return new TableTiming(name, rows, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Prints how long each table took to load and the total wall clock time
+     *
+     * @param timings time taken by each table
+     * @param totalNanos wall clock time for the whole load
+     */
+    private static void printReport(List<TableTiming> timings, long totalNanos) {
+        System.out.println("Startup load times:");
+        for (TableTiming timing : timings) {
+            System.out.format("  %-32s%10d rows%12.1f ms\n", timing.table, timing.rows, timing.nanos / 1_000_000.0);
+        }
+        System.out.format("  %-32s%15s%12.1f ms\n", "Total (wall clock)", "", totalNanos / 1_000_000.0);
+    }
+
+    /**
+     * Throws the exception that made a table read fail
+     *
+     * @param cause the exception thrown inside the loader thread
+     * @throws SQLException for database access error
+     * @throws ParseException fail to parse a String that is ought to have a special format
+     * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+     */
+    private static void rethrow(Throwable cause) throws SQLException, ParseException, ClassNotFoundException {
+        if (cause instanceof SQLException) throw (SQLException) cause;
+        if (cause instanceof ParseException) throw (ParseException) cause;
+        if (cause instanceof ClassNotFoundException) throw (ClassNotFoundException) cause;
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        throw new SQLException(cause);
+    }
+}
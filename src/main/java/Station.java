@@ -1,5 +1,3 @@
-import java.util.*;
-
 /**
  * station class represents a station in the system
  */
@@ -20,8 +18,8 @@ public class Station {
     /** address of the station */
     private String address;
 
-    /** list of bike ids associated with station */
-    private LinkedList<Integer> bikeList;
+    /** ids of the bikes docked at station; only used while holding this station's monitor */
+    private final IntDockSet bikeList;
 
     /**
      * Constructor to create a new station object that has no bikes
@@ -42,28 +40,7 @@ public class Station {
         this.capacity = capacityValue;
         this.kioskBoolean = kioskBoolean;
         this.address = address1;
-        this.bikeList = new LinkedList<>();
-    }
-
-    /**
-     * Constructor to create a new station object that has bikes
-     * @param nameValue name of station
-     * @param maintenanceRequestValue number of maintenance requests
-     * @param capacityValue the station capacity
-     * @param kioskBoolean true if station has kiosk
-     * @param address1 station address
-     * @param bikeList list of bikes at station
-     */
-    Station(String nameValue,
-            Integer maintenanceRequestValue,
-            Integer capacityValue,
-            Boolean kioskBoolean, String address1, LinkedList<Integer> bikeList) {
-        this.name = nameValue;
-        this.maintenanceRequest = maintenanceRequestValue;
-        this.capacity = capacityValue;
-        this.kioskBoolean = kioskBoolean;
-        this.address = address1;
-        this.bikeList = bikeList;
+        this.bikeList = new IntDockSet(capacityValue);
     }
 
     /**
@@ -76,14 +53,14 @@ public class Station {
     /**
      * returns number of bikes at station
      */
-    int getBikes() {
+    synchronized int getBikes() {
         return bikeList.size();
     }
 
     /**
      * calculates number of available docks
      */
-    int getAvailableDocks() {
+    synchronized int getAvailableDocks() {
         return (this.capacity - bikeList.size());
     }
 
@@ -123,41 +100,46 @@ public class Station {
     }
 
     /**
-     * returns list of bikes at station
+     * returns the ids of the bikes at station, in no particular order
+     * the array is a copy, so changing it does not change the station
      */
-    LinkedList<Integer> getBikeList() {
-        return bikeList;
+    synchronized int[] getBikeIds() {
+        return bikeList.toArray();
     }
 
     /**
-     * adds a bike to the bike list at station
+     * checks whether a bike is docked at station
+     * @param bikeId bike to look for
+     * @return true if the bike is at this station
      */
-    void addToBikeList(int bikeId) {
-        bikeList.add(bikeId);
+    synchronized boolean containsBike(int bikeId) {
+        return bikeList.contains(bikeId);
     }
 
     /**
-     * removes a bike from bike list at station
-     * @param bike bike to be removed from station
-     * @return boolean representing whether operation was successful
+     * returns one of the bikes at station without removing it
+     * @return id of a bike docked at station
+     * @throws java.util.NoSuchElementException if the station has no bikes
      */
-    boolean removeFromBikeList(int bike) {
-        // find index of bike ID in our linked list
-        int bikeIndex = bikeList.indexOf(bike);
-
-        // if our bike list doesn't contain this bike, return false
-        if (bikeIndex == -1) { return false; }
+    synchronized int peekBike() {
+        return bikeList.peek();
+    }
 
-        // remove bike from list and return true
-        bikeList.remove(bikeIndex);
-        return true;
+    /**
+     * adds a bike to the bike list at station
+     */
+    synchronized void addToBikeList(int bikeId) {
+        bikeList.add(bikeId);
     }
 
     /**
-     * returns the bike list converted to a printable string
+     * removes a bike from bike list at station
+     * @param bike bike to be removed from station
+     * @return boolean representing whether operation was successful
      */
-    public String getBikeListToString(){
-        return bikeList.toString().replaceAll("\\[", "").replaceAll("\\]","").replaceAll(" ", "");
+    synchronized boolean removeFromBikeList(int bike) {
+        // false if our bike list doesn't contain this bike
+        return bikeList.remove(bike);
     }
 
 }
\ No newline at end of file
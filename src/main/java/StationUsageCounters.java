@@ -0,0 +1,271 @@
+import java.time.Instant;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Counts how many rides start or end at each station, kept up to date as rides are added and returned
+ *
+ * Each station keeps an all-time count and a ring of hourly counts covering the last 30 days, plus a running
+ * total for each window. When the clock moves into a new hour, the hour leaving each window is taken off the
+ * totals of just the stations that had rides in it. Every window also keeps its stations ordered busiest
+ * first, so the top K stations are the first K of that order and a query never looks at the other stations
+ */
+class StationUsageCounters {
+
+    /**
+     * The spans of time the counters can report on
+     * Windows are whole hours, so "last hour" is the current clock hour and the one before it is not included
+     */
+    enum Window {
+        /** the current hour */
+        HOUR(1),
+        /** the last 24 hours */
+        DAY(24),
+        /** the last 30 days */
+        MONTH(24 * 30),
+        /** every ride ever counted */
+        ALL_TIME(0);
+
+        /** number of hourly buckets in the window, or 0 for all time */
+        private final int hours;
+
+        Window(int hours) {
+            this.hours = hours;
+        }
+    }
+
+    /** number of hourly buckets kept for each station, enough for the longest window */
+    private static final int RING_HOURS = Window.MONTH.hours;
+
+    /** the windows made of hourly buckets, whose totals change as hours leave them */
+    private static final Window[] HOURLY_WINDOWS = {Window.HOUR, Window.DAY, Window.MONTH};
+
+    /** counters for each station id */
+    private final Map<Integer, StationCounter> stations = new HashMap<>();
+
+    /** for each window, the stations with rides in it, busiest first and then by station id */
+    private final Map<Window, TreeSet<StationCounter>> ranked = new EnumMap<>(Window.class);
+
+    /** the stations with rides in each hour of the ring, indexed like the stations' buckets */
+    private final List<Set<StationCounter>> stationsByHour = new ArrayList<>(RING_HOURS);
+
+    /** the hour number each entry of stationsByHour is for */
+    private final long[] ringHour = new long[RING_HOURS];
+
+    /** the hour the window totals are counted up to, or Long.MIN_VALUE before anything is counted */
+    private long clockHour = Long.MIN_VALUE;
+
+    /**
+     * The counts for one station
+     */
+    private static class StationCounter {
+        /** the station's id */
+        private final int id;
+
+        /** rides in each window, indexed by the window's ordinal; ALL_TIME counts every ride ever */
+        private final long[] totals = new long[Window.values().length];
+
+        /** rides in each hour, indexed by hour number modulo RING_HOURS */
+        private final int[] hourly = new int[RING_HOURS];
+
+        /** the hour number each bucket is counting; a bucket holding an older hour is stale */
+        private final long[] bucketHour = new long[RING_HOURS];
+
+        StationCounter(int id) {
+            this.id = id;
+            Arrays.fill(bucketHour, Long.MIN_VALUE);
+        }
+    }
+
+    /**
+     * Constructor sets up the ordered index for each window
+     */
+    StationUsageCounters() {
+        for (final Window window : Window.values()) {
+            final int w = window.ordinal();
+            ranked.put(window, new TreeSet<>((a, b) -> a.totals[w] != b.totals[w]
+                    ? Long.compare(b.totals[w], a.totals[w])
+                    : Integer.compare(a.id, b.id)));
+        }
+        for (int i = 0; i < RING_HOURS; i++) {
+            stationsByHour.add(new HashSet<>());
+        }
+        Arrays.fill(ringHour, Long.MIN_VALUE);
+    }
+
+    /**
+     * Counts a ride starting or ending at a station
+     * Station 0 is where rented bikes are, not a real station, so it is not counted
+     *
+     * @param stationId the station
+     * @param when the time the ride started or ended there
+     */
+    void recordVisit(int stationId, Instant when) {
+        if (stationId == 0 || when == null) {
+            return;
+        }
+        record(stationId, hourOf(when), hourOf(Instant.now()));
+    }
+
+    /**
+     * Counts one ride at a station
+     * @param stationId the station
+     * @param hour hour number of the ride
+     * @param currentHour the hour it is now
+     */
+    private synchronized void record(int stationId, long hour, long currentHour) {
+        advanceTo(currentHour);
+        StationCounter station = stations.get(stationId);
+        if (station == null) {
+            station = new StationCounter(stationId);
+            stations.put(stationId, station);
+        }
+        add(station, Window.ALL_TIME, 1);
+
+        if (hour <= clockHour - RING_HOURS || hour > clockHour) {
+            // too old for any window, or a clock in the future
+            return;
+        }
+
+        // a bucket still holding an older hour was already taken off every window when that hour left
+        int bucket = (int) Math.floorMod(hour, (long) RING_HOURS);
+        if (station.bucketHour[bucket] != hour) {
+            station.bucketHour[bucket] = hour;
+            station.hourly[bucket] = 0;
+            if (ringHour[bucket] != hour) {
+                ringHour[bucket] = hour;
+                stationsByHour.get(bucket).clear();
+            }
+            stationsByHour.get(bucket).add(station);
+        }
+        station.hourly[bucket]++;
+
+        for (Window window : HOURLY_WINDOWS) {
+            if (hour > clockHour - window.hours) {
+                add(station, window, 1);
+            }
+        }
+    }
+
+    /**
+     * Moves the window totals forward to a new hour, taking each hour that leaves a window
+     * off the totals of the stations that had rides in it
+     *
+     * @param currentHour the hour it is now; an earlier hour leaves the totals where they are
+     */
+    private void advanceTo(long currentHour) {
+        if (clockHour == Long.MIN_VALUE || currentHour - clockHour >= RING_HOURS) {
+            // nothing counted yet, or every hour in the ring has left every window
+            if (clockHour != Long.MIN_VALUE) {
+                for (Window window : HOURLY_WINDOWS) {
+                    for (StationCounter station : ranked.get(window)) {
+                        station.totals[window.ordinal()] = 0;
+                    }
+                    ranked.get(window).clear();
+                }
+            }
+            clockHour = currentHour;
+            return;
+        }
+
+        for (long hour = clockHour + 1; hour <= currentHour; hour++) {
+            for (Window window : HOURLY_WINDOWS) {
+                long leaving = hour - window.hours;
+                int bucket = (int) Math.floorMod(leaving, (long) RING_HOURS);
+                if (ringHour[bucket] != leaving) {
+                    continue;
+                }
+                for (StationCounter station : stationsByHour.get(bucket)) {
+                    if (station.bucketHour[bucket] == leaving) {
+                        add(station, window, -station.hourly[bucket]);
+                    }
+                }
+            }
+        }
+        clockHour = Math.max(clockHour, currentHour);
+    }
+
+    /**
+     * Changes a station's total in one window and keeps the window's order up to date
+     * @param station the station
+     * @param window the window
+     * @param delta rides to add, or take off if negative
+     */
+    private void add(StationCounter station, Window window, long delta) {
+        TreeSet<StationCounter> order = ranked.get(window);
+        int w = window.ordinal();
+        // the order depends on the total, so the station is taken out while it changes
+        if (station.totals[w] > 0) {
+            order.remove(station);
+        }
+        station.totals[w] += delta;
+        if (station.totals[w] > 0) {
+            order.add(station);
+        }
+    }
+
+    /**
+     * Counts both ends of a ride: where it started and, if it has been returned, where it ended
+     * @param ride the ride
+     */
+    void recordRide(Ride ride) {
+        recordVisit(ride.getStationFrom(), ride.getStartTimeStamp());
+        if (ride.getIsReturned()) {
+            recordVisit(ride.getStationTo(), ride.getEndTimeStamp());
+        }
+    }
+
+    /**
+     * Finds the stations used by the most rides in a window
+     * Only the first k stations of the window's order are looked at
+     *
+     * @param k number of stations to return
+     * @param window the span of time
+     * @param now the time the window ends; a time before the latest ride counted is taken as that ride's hour
+     * @return up to k entries of station id and ride count, busiest first; stations with no rides are left out
+     */
+    synchronized List<Map.Entry<Integer, Long>> topStations(int k, Window window, Instant now) {
+        advanceTo(hourOf(now));
+
+        List<Map.Entry<Integer, Long>> result = new ArrayList<>(Math.max(0, k));
+        for (StationCounter station : ranked.get(window)) {
+            if (result.size() >= k) {
+                break;
+            }
+            result.add(new AbstractMap.SimpleImmutableEntry<>(station.id, station.totals[window.ordinal()]));
+        }
+        return result;
+    }
+
+    /**
+     * Forgets every count, before the rides are loaded again
+     */
+    synchronized void clear() {
+        stations.clear();
+        for (TreeSet<StationCounter> order : ranked.values()) {
+            order.clear();
+        }
+        for (Set<StationCounter> hour : stationsByHour) {
+            hour.clear();
+        }
+        Arrays.fill(ringHour, Long.MIN_VALUE);
+        clockHour = Long.MIN_VALUE;
+    }
+
+    /**
+     * Works out which hour since 1970 a time falls in
+     * @param when the time
+     * @return the hour number
+     */
+    private static long hourOf(Instant when) {
+        return Math.floorDiv(when.getEpochSecond(), 3600L);
+    }
+}
@@ -0,0 +1,113 @@
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks shared out between keys such as station ids or usernames
+ *
+ * Each key always maps to the same lock (its stripe), so two sessions working on the
+ * same station wait for each other while sessions on different stations usually do not.
+ * Locking several keys at once always takes their stripes in index order, which means
+ * two sessions can never each hold a lock the other is waiting for
+ *
+ * The locks are reentrant, so code that already holds a stripe can call a method that
+ * locks it again
+ */
+class StripedLocks {
+
+    /**
+     * The locks taken by one call to lock(), released by close()
+     * Use it in a try-with-resources block so the locks are always released, and mark the
+     * method @SuppressWarnings("try") since the block never refers to it
+     */
+    interface Held extends AutoCloseable {
+        /**
+         * Releases the locks, in the reverse of the order they were taken
+         */
+        @Override
+        void close();
+    }
+
+    /** the locks; the array length is a power of two */
+    private final ReentrantLock[] stripes;
+
+    /**
+     * Constructor creates the locks
+     * @param minimumStripes the least number of locks to create, rounded up to a power of two
+     */
+    StripedLocks(int minimumStripes) {
+        int count = 1;
+        while (count < minimumStripes) {
+            count <<= 1;
+        }
+        stripes = new ReentrantLock[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Locks the stripes for every given key, waiting until they are all free
+     * Null keys are skipped
+     *
+     * @param keys the keys to lock
+     * @return the held locks, to be closed when the caller is finished
+     */
+    Held lock(Object... keys) {
+        int[] indexes = new int[keys.length];
+        int count = 0;
+        for (Object key : keys) {
+            if (key != null) {
+                indexes[count++] = stripeIndex(key);
+            }
+        }
+
+        // always take stripes from lowest to highest index, once each
+        Arrays.sort(indexes, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || indexes[unique - 1] != indexes[i]) {
+                indexes[unique++] = indexes[i];
+            }
+        }
+        return lockIndexes(Arrays.copyOf(indexes, unique));
+    }
+
+    /**
+     * Locks every stripe, for work that reads or changes everything the locks protect
+     * @return the held locks, to be closed when the caller is finished
+     */
+    Held lockAll() {
+        int[] indexes = new int[stripes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = i;
+        }
+        return lockIndexes(indexes);
+    }
+
+    /**
+     * Locks the given stripes in the order given
+     * @param indexes stripe indexes, sorted with no repeats
+     * @return the held locks
+     */
+    private Held lockIndexes(final int[] indexes) {
+        for (int i = 0; i < indexes.length; i++) {
+            stripes[indexes[i]].lock();
+        }
+        return () -> {
+            for (int i = indexes.length - 1; i >= 0; i--) {
+                stripes[indexes[i]].unlock();
+            }
+        };
+    }
+
+    /**
+     * Picks the stripe a key belongs to
+     * @param key the key
+     * @return index of the key's lock
+     */
+    private int stripeIndex(Object key) {
+        // spread the hash so keys that differ only in their high bits land on different stripes
+        int hash = key.hashCode() * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (stripes.length - 1);
+    }
+}
@@ -0,0 +1,190 @@
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects all of the row changes that make up one business operation,
+ * such as renting or returning a bike, and writes them to the database
+ * in a single transaction
+ *
+ * Updates that share the same sql string are sent together as one jdbc batch,
+ * so one rental costs one commit instead of one commit per updated field
+ *
+ * Statements sharing a sql string run in the order they were added, and the different
+ * sql strings run in the order each was first added. Changes to the in-memory maps are
+ * registered with afterCommit() and only applied once the database has accepted the whole unit
+ */
+class UnitOfWork {
+
+    /** parameters for each pending update, grouped by sql string in the order each string was first used */
+    private final Map<String, List<Object[]>> pendingUpdates = new LinkedHashMap<>();
+
+    /** in-memory changes to apply once the transaction commits */
+    private final List<Runnable> afterCommitActions = new ArrayList<>();
+
+    /** name the commit is timed under in PersistenceMetrics */
+    private final String operation;
+
+    /**
+     * Creates a unit of work whose commit is timed as "UnitOfWork"
+     */
+    UnitOfWork() {
+        this("UnitOfWork");
+    }
+
+    /**
+     * @param operation name the commit is timed under, usually the business operation such as "rentBike"
+     */
+    UnitOfWork(String operation) {
+        this.operation = operation;
+    }
+
+    /**
+     * Adds a row change to this unit of work
+     * @param sql the insert, update or delete statement
+     * @param params values for the statement's '?' placeholders, in order
+     */
+    void addUpdate(String sql, Object... params) {
+        List<Object[]> batch = pendingUpdates.get(sql);
+        if (batch == null) {
+            batch = new ArrayList<>();
+            pendingUpdates.put(sql, batch);
+        }
+        batch.add(params);
+    }
+
+    /**
+     * Registers a change to the in-memory data that should only happen if the database write succeeds
+     * @param action the change to apply after commit
+     */
+    void afterCommit(Runnable action) {
+        afterCommitActions.add(action);
+    }
+
+    /**
+     * Checks whether anything has been added to this unit of work
+     * @return true if there are no pending updates
+     */
+    boolean isEmpty() {
+        return pendingUpdates.isEmpty();
+    }
+
+    /**
+     * Writes every pending update in one transaction, then applies the in-memory changes
+     * If any statement fails the whole transaction is rolled back and nothing is applied
+     *
+     * While an EventLog is open the updates are appended to it as one event instead, and the
+     * in-memory changes are applied as soon as the event is on disk; the log copies the event
+     * to the tables shortly afterwards
+     *
+     * @return false if database updating failed
+     * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+     */
+    boolean commit() throws ClassNotFoundException {
+        if (!pendingUpdates.isEmpty()) {
+            EventLog log = EventLog.current();
+            if (log != null && log.getHaltReason() != null) {
+                // a change reported as done never reached the tables, so nothing more is written until that is sorted out
+                PersistenceMetrics.recordError(operation, log.getHaltReason());
+                return false;
+            }
+            if (log != null && log.isWritable()) {
+                long start = PersistenceMetrics.start();
+                try {
+                    log.append(operation, pendingUpdates);
+                } catch (IOException e) {
+                    PersistenceMetrics.recordError(operation, e);
+                    return false;
+                } finally {
+                    PersistenceMetrics.record(operation, start);
+                }
+            } else {
+                // the log may have stopped accepting changes with some still to copy, so land after those
+                try (PooledConnection conn = ConnectionPool.getConnectionAfterLog(operation)) {
+                    Connection connection = conn.getConnection();
+                    connection.setAutoCommit(false);
+
+                    try {
+                        executeBatches(conn, pendingUpdates);
+
+                        // one commit for the whole business operation
+                        connection.commit();
+                    } catch (SQLException e) {
+                        connection.rollback();
+                        throw e;
+                    } finally {
+                        connection.setAutoCommit(true);
+                    }
+                } catch (SQLException e) {
+                    PersistenceMetrics.recordError(operation, e);
+                    return false;
+                }
+            }
+        }
+
+        // database accepted everything, so now it is safe to change the maps
+        for (Runnable action : afterCommitActions) {
+            action.run();
+        }
+
+        pendingUpdates.clear();
+        afterCommitActions.clear();
+        return true;
+    }
+
+    /**
+     * Runs row changes on a connection, sending each sql string's rows as one batch
+     * The caller owns the transaction
+     *
+     * @param conn connection to run them on
+     * @param updates parameters for each row change, grouped by sql string in the order they should run
+     * @throws SQLException for database access error
+     */
+    static void executeBatches(PooledConnection conn, Map<String, List<Object[]>> updates) throws SQLException {
+        for (Map.Entry<String, List<Object[]>> entry : updates.entrySet()) {
+            PreparedStatement pstmt = conn.prepareStatement(entry.getKey());
+            pstmt.clearBatch();
+            for (Object[] params : entry.getValue()) {
+                bind(pstmt, params);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    /**
+     * Sets a statement's parameters from plain java values
+     * @param pstmt statement to fill in
+     * @param params values for the statement's placeholders
+     * @throws SQLException for database access error
+     */
+    private static void bind(PreparedStatement pstmt, Object[] params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            Object param = params[i];
+            int index = i + 1;
+
+            if (param == null) {
+                pstmt.setNull(index, Types.NULL);
+            } else if (param instanceof Integer) {
+                pstmt.setInt(index, (Integer) param);
+            } else if (param instanceof Long) {
+                pstmt.setLong(index, (Long) param);
+            } else if (param instanceof Double) {
+                pstmt.setDouble(index, (Double) param);
+            } else if (param instanceof Boolean) {
+                // the database stores booleans as 0 or 1
+                pstmt.setInt(index, (Boolean) param ? 1 : 0);
+            } else if (param instanceof byte[]) {
+                pstmt.setBytes(index, (byte[]) param);
+            } else {
+                pstmt.setString(index, param.toString());
+            }
+        }
+    }
+}
@@ -10,16 +10,80 @@ import java.util.regex.Pattern;
 /** this is the controller in our MVC */
 public abstract class ValleyBikeController {
 
-    /** initialize input of type scanner */
-    private static Scanner input = new Scanner(System.in);
+    /** number of stations listed when viewing the most popular stations */
+    private static final int MOST_POPULAR_STATIONS = 5;
 
-    /** initialize stack that remembers menu path to assist in back-tracking */
-    private static Deque<Integer> menuPath = new ArrayDeque<>();
+    /**
+     * input of type scanner for the session this thread is serving
+     * each kiosk connection has its own, the console uses System.in
+     */
+    private static Scanner input() {
+        return KioskSession.current().getInput();
+    }
+
+    /**
+     * Runs the menus for the calling thread's session until the user exits
+     * Each menu shows itself once and returns the next state, so the session can
+     * go through any number of menus without the stack growing
+     *
+     * @throws IOException failure during reading, writing and searching file or directory operations
+     * @throws ParseException fail to parse a String that is ought to have a special format
+     * @throws InterruptedException when a thread that is sleeping, waiting, or is occupied is interrupted
+     * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+     * @throws NoSuchAlgorithmException when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws SQLException for database access error
+     */
+    static void run() throws IOException, ParseException, InterruptedException, ClassNotFoundException, NoSuchAlgorithmException, SQLException {
+        MenuState state = MenuState.initial();
+        while (state.getMenu() != MenuState.Menu.EXIT) {
+            state = showMenu(state);
+        }
+    }
+
+    /**
+     * Shows the menu for a state and lets the user make one choice
+     *
+     * @param state the menu to show and the accounts it works with
+     * @return the state to show next
+     * @throws IOException failure during reading, writing and searching file or directory operations
+     * @throws ParseException fail to parse a String that is ought to have a special format
+     * @throws InterruptedException when a thread that is sleeping, waiting, or is occupied is interrupted
+     * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+     * @throws NoSuchAlgorithmException when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws SQLException for database access error
+     */
+    static MenuState showMenu(MenuState state) throws IOException, ParseException, InterruptedException, ClassNotFoundException, NoSuchAlgorithmException, SQLException {
+        switch (state.getMenu()) {
+            case INITIAL:
+                return initialMenu();
+            case LOG_IN:
+                return logIn();
+            case CUSTOMER_HOME:
+                return customerAccountHome(state.getUsername());
+            case EDIT_CUSTOMER:
+                // a customer editing their own account has no master
+                if (state.getCustomerUsername() == null) {
+                    return editCustomerAccount(state.getUsername(), null);
+                }
+                return editCustomerAccount(state.getCustomerUsername(), state.getUsername());
+            case INTERNAL_HOME:
+                return internalAccountHome(state.getUsername());
+            case EDIT_INTERNAL:
+                return editInternalAccount(state.getUsername());
+            case FIND_CUSTOMER:
+                return findCustomer(state.getUsername());
+            case CUSTOMER_RECORD:
+                return editCustomerMenu(state.getUsername(), state.getCustomerUsername());
+            default:
+                return MenuState.exit();
+        }
+    }
 
     /**
      * Basic option menu that shows at start of program and when no one is logged in
      * Allows user to create a new account or log in or exit
      *
+     * @return the next menu to show
      * @throws IOException failure during reading, writing and searching file or directory operations
      * @throws ParseException fail to parse a String that is ought to have a special format
      * @throws InterruptedException when a thread that is sleeping, waiting, or is occupied is interrupted
@@ -27,10 +91,7 @@ public abstract class ValleyBikeController {
      * @throws NoSuchAlgorithmException when a particular cryptographic algorithm is requested but is not available in the environment.
      * @throws SQLException for database access error
      */
-    static void initialMenu() throws IOException, ParseException, InterruptedException, ClassNotFoundException, NoSuchAlgorithmException, SQLException {
-        //check whether it's time to renew customer's memberships
-        ValleyBikeSim.checkMembershipRenewalTime();
-
+    private static MenuState initialMenu() throws IOException, ParseException, InterruptedException, ClassNotFoundException, NoSuchAlgorithmException, SQLException {
         System.out.print("Please choose from one of the following menu options:\n"
                 + "1: Create Customer Account\t"
                 + "2: Log In\t"
@@ -38,28 +99,22 @@ public abstract class ValleyBikeController {
 
         //prompt the user to pick an int option
         int num = getResponse("Please enter your selection (0-2):");
-        input.nextLine();
+        input().nextLine();
 
         switch(num) {
             case 1:
                 //create a new customer account
-                createCustomerAccount();
-                break;
+                return createCustomerAccount();
             case 2:
                 //log in to existing customer or internal account
-                logIn();
-                break;
+                return MenuState.logIn();
             case 0:
-                //exit program
-                input.close();
-                System.exit(0);
-                break;
+                //exit program, or for a kiosk user, end their own session
+                return MenuState.exit();
             default:
                 System.out.println("That is an invalid option. Please try again.");
-                initialMenu();
+                return MenuState.initial();
         }
-        //if function call finished and returned to this page, keep calling menu
-        initialMenu();
     }
 
     /**
@@ -67,6 +122,7 @@ public abstract class ValleyBikeController {
      * Calls method to add the new customer account to customer account map
      * Leads to customer account home after successful log in
      *
+     * @return the customer's home menu, or the initial menu if creation was canceled
      * @throws IOException add customer account and user account home methods throw IOException
      * @throws ParseException add customer account and user account home methods throw ParseException
      * @throws InterruptedException when a thread that is sleeping, waiting, or is occupied is interrupted
@@ -74,7 +130,7 @@ public abstract class ValleyBikeController {
      * @throws NoSuchAlgorithmException when a particular cryptographic algorithm is requested but is not available in the environment.
      * @throws SQLException for database access error
      */
-    private static void createCustomerAccount() throws IOException, ParseException, InterruptedException, ClassNotFoundException, NoSuchAlgorithmException, SQLException {
+    private static MenuState createCustomerAccount() throws IOException, ParseException, InterruptedException, ClassNotFoundException, NoSuchAlgorithmException, SQLException {
         //Assumption: a new internal account cannot be created by a user who is not logged into an internal account
         //i.e. only internal staff can create new internal accounts
 
@@ -83,36 +139,38 @@ public abstract class ValleyBikeController {
         String username = enterUsername(1); // 1 specifies a customer username; this is used for validation
         if (Objects.equals(username, "0")){
             System.out.println("Account creation canceled.");
-            initialMenu();
+            return MenuState.initial();
         }
         // get password from user
         String password = enterPassword();
         if (Objects.equals(password, "0")){
             System.out.println("Account creation canceled.");
-            initialMenu();
+            return MenuState.initial();
         }
         // get email from user
         String emailAddress = enterEmail();
         if (Objects.equals(emailAddress, "0")){
             System.out.println("Account creation canceled.");
-            initialMenu();
+            return MenuState.initial();
         }
         // get credit card from user
         String creditCard = enterCreditCard();
         if (Objects.equals(creditCard, "0")){
             System.out.println("Account creation canceled.");
-            initialMenu();
+            return MenuState.initial();
         }
         // get membership type from user
         int membership = enterMembership();
         if (membership==0){
             System.out.println("Account creation canceled.");
-            initialMenu();
+            return MenuState.initial();
         }
 
         //once all the required fields have been inputted by user and verified, create new customer account
         //Assumption: initially the balance in customer account is always 0
-        ValleyBikeSim.createCustomerAccount(username, password, emailAddress, creditCard, membership);
+        if (!ValleyBikeSim.createCustomerAccount(username, password, emailAddress, creditCard, membership)) {
+            return MenuState.initial();
+        }
 
         //Let the user know the account has been successfully created
         System.out.println("Customer account successfully created!");
@@ -131,12 +189,13 @@ public abstract class ValleyBikeController {
 
         //instead of returning to previous menu,
         // we move these new customers to their home menu
-        customerAccountHome(username);
+        return MenuState.customerHome(username);
     }
 
     /**
      * This is the log in menu that allows the user to log in to either customer or internal account
      *
+     * @return the home menu of the account logged in to, or the initial menu if log in was canceled
      * @throws IOException customer log in and internal log in methods in model throw IOException
      * @throws ParseException customer log in and internal log in methods in model throw ParseException
      * @throws InterruptedException when a thread that is sleeping, waiting, or is occupied is interrupted
@@ -144,7 +203,7 @@ public abstract class ValleyBikeController {
      * @throws NoSuchAlgorithmException when a particular cryptographic algorithm is requested but is not available in the environment.
      * @throws SQLException for database access error
      */
-    private static void logIn() throws IOException, ParseException, InterruptedException, ClassNotFoundException, NoSuchAlgorithmException, SQLException {
+    private static MenuState logIn() throws IOException, ParseException, InterruptedException, ClassNotFoundException, NoSuchAlgorithmException, SQLException {
         //prompt the user to choose which kind of account they want to log into
         System.out.println("Please choose from one of the following menu options:\n" +
                 "1: Log in to customer account\t" +
@@ -153,19 +212,19 @@ public abstract class ValleyBikeController {
 
         //get and validate user response
         int logIn = getResponseBetween(0,2,"Please enter your selection (0-2):");
-        input.nextLine();
+        input().nextLine();
 
         //if user wants to log out take them back to initial menu
-        if (logIn == 0){ return; }
+        if (logIn == 0){ return MenuState.initial(); }
 
         //prompt the user to input their username
         System.out.println("Please enter your username or '0' to cancel:");
-        String username = input.nextLine();
+        String username = input().nextLine();
 
         //if user wants to log out take them back to initial menu
         if (username.contentEquals("0")) {
             System.out.println("Login canceled.");
-            return; }
+            return MenuState.initial(); }
 
         // if logging into a customer account (logIn == 1), check that the customer account map contains the username
         // if logging into an internal account (logIn == 2), check that the internal account map contains the username
@@ -173,22 +232,22 @@ public abstract class ValleyBikeController {
                 (logIn == 2 && !ValleyBikeSim.accountMapsContain(username, 2)) ){
             System.out.println("Username does not exist. Please try again.");
             System.out.println("Enter your username or '0' to cancel:");
-            username = input.nextLine();
+            username = input().nextLine();
 
             //if user wants to log out take them back to initial menu
             if (username.contentEquals("0")){
                 System.out.println("Login canceled.");
-                return; }
+                return MenuState.initial(); }
         }
 
         //prompt the user to input their password
         System.out.println("Please enter your password or '0' to cancel:");
-        String password = input.nextLine();
+        String password = input().nextLine();
 
         //if user wants to log out take them back to initial menu
         if (password.contentEquals("0")){
             System.out.println("Login canceled.");
-            return; }
+            return MenuState.initial(); }
 
         // if logging into a customer account (logIn == 1), check that password matches customer account
         // if logging into an internal account (logIn == 2), check that password matches internal account
@@ -196,35 +255,30 @@ public abstract class ValleyBikeController {
                 ((logIn == 2) && (!password.equals(ValleyBikeSim.getInternalObj(username).getPassword()))) ) {
             System.out.println("Invalid password. Please try again.");
             System.out.println("Please enter your password or '0' to cancel:");
-            password = input.nextLine();
+            password = input().nextLine();
 
             //if user wants to log out take them back to initial menu
             if (password.contentEquals("0")){
                 System.out.println("Login canceled.");
-                return; }
+                return MenuState.initial(); }
         }
 
         // once valid username and password are obtained, print greeting and bring them to home menu
         System.out.println("\nWelcome back, " + username + "!");
 
-        switch (logIn){
-            case 1:
-                //if they want to log in to customer account
-                customerAccountHome(username);
-                break;
-            case 2:
-                //if they want to log in to internal account
-                internalAccountHome(username);
-                break;
+        if (logIn == 1){
+            //if they want to log in to customer account
+            return MenuState.customerHome(username);
         }
-        //if function call finished and returned to this page, keep calling menu again until 'return to menu' called
-        logIn();
+        //if they want to log in to internal account
+        return MenuState.internalHome(username);
     }
 
     /**
      * Standard menu page for a customer account after logging in
      *
      * @param username unique username associated with the customer account
+     * @return the next menu to show
      * @throws IOException editCustomerAccount, viewStationList, recordRide, reportProblem, initialMenu, viewBikeList throw IOException
      * @throws ParseException editCustomerAccount, viewStationList, recordRide, reportProblem, initialMenu, viewBikeList throw ParseException
      * @throws InterruptedException when a thread that is sleeping, waiting, or is occupied is interrupted
@@ -232,7 +286,7 @@ public abstract class ValleyBikeController {
      * @throws NoSuchAlgorithmException when a particular cryptographic algorithm is requested but is not available in the environment.
      * @throws SQLException for database access error
      */
-    static void customerAccountHome(String username) throws IOException, ParseException, InterruptedException, ClassNotFoundException, NoSuchAlgorithmException, SQLException {
+    private static MenuState customerAccountHome(String username) throws IOException, ParseException, InterruptedException, ClassNotFoundException, NoSuchAlgorithmException, SQLException {
 
         //checks whether user has a rental, and if so whether it exceeds 24 hours
         ValleyBikeSim.checkBikeRented(username);
@@ -263,16 +317,13 @@ public abstract class ValleyBikeController {
         //get and validate user response
         int num = getResponseBetween(0,10,"Please enter your selection (0-10):");
 
-        // int num = input.nextInt();
+        // int num = input().nextInt();
         switch(num) {
             case 1:
-                // save customer home menu index in case we need to return
-                menuPath.push(2);
                 //print current account info
                 viewCustomerAccount(username);
                 //edit account info
-                editCustomerAccount(username, null);
-                break;
+                return MenuState.editCustomer(username, null);
             case 2:
                 //view account balance
                 System.out.println("Your account balance is "+ ValleyBikeSim.viewAccountBalance(username));
@@ -321,19 +372,16 @@ public abstract class ValleyBikeController {
                 //disable your customer
                 //username, password and email address are set to hashcodes and enabled boolean is set to false
                 ValleyBikeSim.disableCustomerAccount(username);
-                initialMenu();
-                break;
+                return MenuState.initial();
             case 0:
                 //return to homepage to log out
-                initialMenu();
-                break;
+                return MenuState.initial();
             default:
                 System.out.println("That is not a valid input. Please try again.");
-                customerAccountHome(username);
                 break;
         }
-        //if function call finished and returned to this page, keep calling menu again until log out/exit
-        customerAccountHome(username);
+        //stay on this menu until log out/exit
+        return MenuState.customerHome(username);
     }
 
     /**
@@ -349,7 +397,7 @@ public abstract class ValleyBikeController {
         // Assumption: a new internal account cannot be created by a user who is not logged into an internal account
         // i.e. only internal staff can create new internal accounts
 
-        input.nextLine();
+        input().nextLine();
         //each field has its own method which calls itself until a valid input is entered
         String newUsername = enterUsername(2); //2 specifies an internal account for validation
         if (Objects.equals(newUsername, "0")){ // check for cancel key
@@ -371,7 +419,9 @@ public abstract class ValleyBikeController {
 
         // create new internal account object from inputs
         InternalAccount internalAccount = new InternalAccount(newUsername, password, emailAddress);
-        ValleyBikeSim.addInternalAccount(internalAccount, newUsername);
+        if (!ValleyBikeSim.addInternalAccount(internalAccount, newUsername)){
+            return;
+        }
 
         // Let the user know the account has been successfully created
         System.out.println("Internal account successfully created!");
@@ -409,6 +459,7 @@ public abstract class ValleyBikeController {
      * @param master if an internal account is editing a user account, this string
      *               is the internal account username; if customer is accessing
      *               their own account, this string is null
+     * @return the next menu to show
      * @throws ParseException fail to parse a String that is ought to have a special format
      * @throws InterruptedException when a thread that is sleeping, waiting, or is occupied is interrupted
      * @throws IOException failure during reading, writing and searching file or directory operations
@@ -416,7 +467,10 @@ public abstract class ValleyBikeController {
      * @throws NoSuchAlgorithmException when a particular cryptographic algorithm is requested but is not available in the environment.
      * @throws SQLException for database access error
      */
-    private static void editCustomerAccount(String username, String master) throws ParseException, InterruptedException, IOException, ClassNotFoundException, NoSuchAlgorithmException, SQLException {
+    private static MenuState editCustomerAccount(String username, String master) throws ParseException, InterruptedException, IOException, ClassNotFoundException, NoSuchAlgorithmException, SQLException {
+        // the menu this one was opened from: the customer's home, or the customer's record for an internal account
+        MenuState lastMenu = master == null ? MenuState.customerHome(username) : MenuState.customerRecord(master, username);
+
         //prompt user to choose which field they want to edit
         System.out.println("\nPlease choose from one of the following menu options:\n" +
                 "1: Edit username\t" +
@@ -428,14 +482,14 @@ public abstract class ValleyBikeController {
 
         //get and validate user response
         int edit = getResponseBetween(0,5, "Please enter your selection (0-5):");
-        input.nextLine();
+        input().nextLine();
         switch (edit){
             case 1:
                 //edit username
                 String newUsername = enterUsername(1); // 1 specifies a customer account for validation
                 if (! Objects.equals(newUsername, "0")) { // check for cancel key
                     if(!ValleyBikeSim.updateCustomerUsername(username, newUsername)){
-                        customerAccountHome(username);
+                        return lastMenu;
                     }
                     System.out.println("Your username has been successfully updated to " + newUsername);
                     username = newUsername;
@@ -449,7 +503,7 @@ public abstract class ValleyBikeController {
                 String newPassword = enterPassword();
                 if (! Objects.equals(newPassword, "0")){ //check for cancel key
                     if(!ValleyBikeSim.updateCustomerPassword(username, newPassword)){
-                        customerAccountHome(username);
+                        return lastMenu;
                     }
                     System.out.println("Your password has been successfully updated to " + newPassword);
                 }
@@ -462,7 +516,7 @@ public abstract class ValleyBikeController {
                 String newEmail = enterEmail();
                 if (! Objects.equals(newEmail, "0")){ //check for cancel key
                     if(!ValleyBikeSim.updateCustomerEmailAddress(username, newEmail)){
-                        customerAccountHome(username);
+                        return lastMenu;
                     }
                     System.out.println("Your email address has been successfully updated to " + newEmail);
                 }
@@ -476,7 +530,7 @@ public abstract class ValleyBikeController {
 
                 if (! Objects.equals(newCreditCard, "0")){ //check for cancel key
                     if(!ValleyBikeSim.updateCustomerCreditCard(username, newCreditCard)){
-                        customerAccountHome(username);
+                        return lastMenu;
                     }
                 }
                 else { // if 0 was entered, cancel and return to menu
@@ -503,7 +557,7 @@ public abstract class ValleyBikeController {
                     } else {
                         //if credit card is valid, switch memberships
                         if(!ValleyBikeSim.updateCustomerMembership(username, newMembership)){
-                            customerAccountHome(username);
+                            return lastMenu;
                         }
                     }
                 }
@@ -512,27 +566,26 @@ public abstract class ValleyBikeController {
                 //go to update membership directly
                 if (newMembership == 1){
                     if(!ValleyBikeSim.updateCustomerMembership(username, newMembership)){
-                        customerAccountHome(username);
+                        return lastMenu;
                     }
                 }
                 break;
             case 0:
-                // if there is a master string, we are returning to an internal account, so we will use the master username
-                // else, we are returning to a customer account, so we will use the customer username
-                if (master == null){
-                returnToLastMenu(username);}
-                else returnToLastMenu(master);
+                // if there is a master string, we are returning to an internal account's view of this customer
+                // else, we are returning to the customer's own home menu
+                return lastMenu;
             default:
                 //if none of the other options, must not be valid
                 System.out.println("That is not a valid input. Please try again.");
         }
-        //if function call finished and returned to this page, keep calling edit account again until 'return to menu' is chosen
-        editCustomerAccount(username, master);
+        //stay on edit account until 'return to menu' is chosen
+        return MenuState.editCustomer(username, master);
     }
 
     /**
      * Edit information of an internal account
      * @param username username of the account that will be edited
+     * @return the next menu to show
      * @throws ParseException fail to parse a String that is ought to have a special format
      * @throws InterruptedException when a thread that is sleeping, waiting, or is occupied is interrupted
      * @throws IOException failure during reading, writing and searching file or directory operations
@@ -540,7 +593,7 @@ public abstract class ValleyBikeController {
      * @throws NoSuchAlgorithmException when a particular cryptographic algorithm is requested but is not available in the environment.
      * @throws SQLException for database access error
      */
-    private static void editInternalAccount(String username) throws ClassNotFoundException, InterruptedException, SQLException, NoSuchAlgorithmException, ParseException, IOException {
+    private static MenuState editInternalAccount(String username) throws ClassNotFoundException, InterruptedException, SQLException, NoSuchAlgorithmException, ParseException, IOException {
         //prompt user to choose which they want to edit
         System.out.println("\nPlease choose from one of the following menu options:\n" +
                 "1: Edit username\t" +
@@ -550,15 +603,17 @@ public abstract class ValleyBikeController {
 
         //enter selection from menu
         int edit = getResponseBetween(0, 3, "Please enter your selection (0-5):");
-        input.nextLine();
+        input().nextLine();
         switch (edit){
             case 1:
                 //edit username
                 String newUsername = enterUsername(2); // 2 specifies an internal account for validation
                 if (! Objects.equals(newUsername, "0")) {
                     if(!ValleyBikeSim.updateInternalUsername(username, newUsername)){
-                        internalAccountHome(username);
+                        return MenuState.internalHome(username);
                     }
+                    // keep editing the account under its new name
+                    username = newUsername;
                 }
                 else {
                     System.out.println("Account revision canceled.");
@@ -569,7 +624,7 @@ public abstract class ValleyBikeController {
                 String newPassword = enterPassword();
                 if (! Objects.equals(newPassword, "0")) {
                     if(!ValleyBikeSim.updateInternalPassword(username, newPassword)){
-                        internalAccountHome(username);
+                        return MenuState.internalHome(username);
                     }
                 }
                 else {
@@ -581,7 +636,7 @@ public abstract class ValleyBikeController {
                 String newEmail = enterEmail();
                 if (! Objects.equals(newEmail, "0")) {
                     if(!ValleyBikeSim.updateInternalEmailAddress(username, newEmail)){
-                        internalAccountHome(username);
+                        return MenuState.internalHome(username);
                     }
                 }
                 else {
@@ -589,14 +644,14 @@ public abstract class ValleyBikeController {
                 }
                 break;
             case 0:
-                return;
+                return MenuState.internalHome(username);
             default:
                 //if none of of other options, must not be valid
                 System.out.println("That is not a valid input. Please try again.");
         }
 
-        //if function call finished and returned to this page, keep calling home again until 'return to menu' is chosen
-        editInternalAccount(username);
+        //stay on edit account until 'return to menu' is chosen
+        return MenuState.editInternal(username);
     }
 
     /**
@@ -636,9 +691,6 @@ public abstract class ValleyBikeController {
         //get bike object inputted
         Bike someBike = ValleyBikeSim.getBikeObj(bikeID);
 
-        //move bike to "checked-out" station (0)
-        ValleyBikeSim.moveStation(someBike, 0); // move bike to station '0' <- our "non-station" ID
-
         //create new ride id to then create new ride
         UUID rideId = UUID.randomUUID();
         Instant timeStamp = Instant.now();
@@ -652,28 +704,10 @@ public abstract class ValleyBikeController {
                 statId,
                 0);
 
-        // add ride to map as well as database
-        if(!ValleyBikeSim.addRide(ride)){
-            //System.out.println("FAIL");
-            customerAccountHome(username);
-        }
-
-        // update the ride length as well, which is set to the length
-        // from the time it was rented to now if the ride was not returned
-        if(!ValleyBikeSim.updateRideLength(rideId, ride.getRideLength())){
-            customerAccountHome(username);
-        }
-
-        // Add ride to customer account
-        // assume username is always valid
-
-        CustomerAccount customer = ValleyBikeSim.getCustomerObj(username); // get customer account object
-        if(!ValleyBikeSim.updateRideIdList(username, rideId)){
-            customerAccountHome(username);
-        }
-
-        if(!ValleyBikeSim.updateCustomerLastRideisReturned(username, false)){
-            customerAccountHome(username);
+        // move bike to station '0' <- our "non-station" ID, add the ride to map as well as database
+        // and add it to the customer account, all in one go
+        if(!ValleyBikeSim.rentBike(username, someBike, ride)){
+            return;
         }
 
         // now bike is fully rented
@@ -683,12 +717,12 @@ public abstract class ValleyBikeController {
 
         // equalize stations if there's one bike or less left at station after bike is rented
         // notify maintenance worker to redistribute bikes
-        // right now this work is automated by the equalizeStations() function
+        // right now this work is automated by equalizeStations(), which runs in the background
         if (stationFrom.getBikes() <= 1){
             System.out.println("This station is almost empty!");
             System.out.println("Notifying maintenance worker to resolve this...");
-            ValleyBikeSim.equalizeStations();
-            System.out.println("The bikes have now been redistributed between the stations.");
+            ValleyBikeSim.requestRebalance(statId);
+            System.out.println("The bikes will be redistributed between the stations shortly.");
             System.out.println();
         }
         System.out.println("All done renting!");
@@ -706,11 +740,12 @@ public abstract class ValleyBikeController {
         System.out.println("Here's a list of bike IDs at Station #" + statId);
         System.out.format("%-10s\n", "Bike ID");
 
-        // Get list iterator of bikes at station
-        LinkedList<Integer> bikeList = stationFrom.getBikeList();
+        // Get bikes at station, sorted so the list is easy to read
+        int[] bikeIds = stationFrom.getBikeIds();
+        Arrays.sort(bikeIds);
 
         // Print bikes at station
-        for (int bikeInt : bikeList) {
+        for (int bikeInt : bikeIds) {
             System.out.format("%-10s\n", bikeInt);
         }
 
@@ -720,7 +755,7 @@ public abstract class ValleyBikeController {
 
         //Bike someBike = ValleyBikeSim.getBikeObj(bikeID); // get bike object or null from bike ID
 
-        while (!bikeList.contains(bikeID) && (!Objects.equals(bikeID, 0))){
+        while (!stationFrom.containsBike(bikeID) && (!Objects.equals(bikeID, 0))){
             System.out.println("The bike ID entered is not at this station.");
             bikeID = getResponse("Please enter the ID number of the bike you" +
                     " would like to rent ('##') or '0' to return to menu: ");
@@ -764,8 +799,8 @@ public abstract class ValleyBikeController {
                 System.out.println("The station entered does not have any bikes.\n" +
                         "We are notifying maintenance worker to resolve this, but in the meantime please " +
                         "choose another station");
-                //mock notification to maintenance worker who immediately goes and equalizes stations
-                ValleyBikeSim.equalizeStations();
+                //mock notification to maintenance worker, who equalizes the stations in the background
+                ValleyBikeSim.requestRebalance(statId);
             }
             //because station not valid, have user re-input and then validate
             statId = getResponse("Please pick a station to rent a bike from.\n" +
@@ -823,36 +858,12 @@ public abstract class ValleyBikeController {
             stationTo = ValleyBikeSim.getStationObj(statId);
         }
 
-        // set the station to for the ride
-        rideObj.setStationTo(statId);
-
         // get rented bike
         int bikeId = rideObj.getBikeId(); //get bike ID from ride
-        Bike someBike = ValleyBikeSim.getBikeObj(bikeId); //get bike object from ID
-
-        // move bike to new station
-        ValleyBikeSim.moveStation(someBike, statId);
 
-        // update ride to be returned and set its end time stamp
-        if(!ValleyBikeSim.updateRideIsReturned(lastRideId, true)){
-            customerAccountHome(username);
-        }
-
-        // update the time stamp it was returned in database
-        if(!ValleyBikeSim.updateRideEndTimeStamp(lastRideId, Instant.now())){
-            customerAccountHome(username);
-        }
-
-        // update the ride length in database
-        if(!ValleyBikeSim.updateRideLength(lastRideId, rideObj.getRideLength())){
-            customerAccountHome(username);
-        }
-
-        ValleyBikeSim.updateRideStationTo(lastRideId, statId);
-
-        // set the same in customer account
-        if(!ValleyBikeSim.updateCustomerLastRideisReturned(username, true)){
-            customerAccountHome(username);
+        // move bike to new station, close the ride and charge the customer
+        if(!ValleyBikeSim.returnBike(username, rideObj, statId, Instant.now())){
+            return;
         }
 
         System.out.println("Bike #" + bikeId + " has been returned to station #" + statId + ".");
@@ -862,79 +873,18 @@ public abstract class ValleyBikeController {
         if (stationTo.getAvailableDocks() <= 1){
             // if there's 1 available docks or less at station after bike is returned
             // notify maintenance worker to redistribute bikes
-            // right now this work is automated by the equalizeStations() function
+            // right now this work is automated by equalizeStations(), which runs in the background
             System.out.println("We see that the station is now almost full!");
             System.out.println("We are notifying maintenance worker to resolve this.");
-            //mock call to maintenance worker who immediately equalizes stations
-            ValleyBikeSim.equalizeStations();
+            //mock call to maintenance worker, who equalizes the stations in the background
+            ValleyBikeSim.requestRebalance(statId);
             System.out.println();
         }
 
-        calculateRentalCharge(username, rideObj, lastRideId);
+        //inform customer of the charge
+        System.out.println("You have been charged $" + rideObj.getPayment() + " for your ride." );
 
         System.out.println("You're all done! Thank you for returning this bike.");
-        // take user back to their account home
-        customerAccountHome(username);
-    }
-
-    /**
-     * helper method for bike return that calculates cost of rental and charges customer
-     * The credit card was validated when rental was made, so it does not need to be validated again
-     * @param username username of account that made the rental
-     * @param rideObj ride object that represents the ride information
-     * @param lastRideId id of the ride object
-     * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
-     */
-    private static void calculateRentalCharge(String username, Ride rideObj, UUID lastRideId) throws ClassNotFoundException, InterruptedException, SQLException, NoSuchAlgorithmException, ParseException, IOException {
-        //check how many included rides remain in account to determine how to charge for rental
-        int ridesLeft = ValleyBikeSim.viewMembershipType(username).getTotalRidesLeft();
-        long rideLength = rideObj.getRideLength();
-        double paymentDue = 0.00;
-        //if pay-as-you-go or no free rides remaining on membership, charge by time
-        if (ridesLeft == 0) {
-            //card was already validated before bike rented to ensure they can pay for the rental
-            //ride cost is 15c per minute
-            paymentDue = rideLength * .15;
-            //update balance to add new ride payment
-            double balance = ValleyBikeSim.getCustomerObj(username).getBalance();
-            //TODO update balance in database
-            ValleyBikeSim.getCustomerObj(username).setBalance(balance + paymentDue);
-            //update ride payment in ride object
-            ValleyBikeSim.updateBalanceInDB(username, balance + paymentDue);
-
-            if(!ValleyBikeSim.updateRidePayment(lastRideId, paymentDue)){
-                customerAccountHome(username);
-            }
-
-        } else {
-            //otherwise decrement rides remaining in membership
-            ValleyBikeSim.viewMembershipType(username).setTotalRidesLeft(ridesLeft - 1);
-
-            //TODO decrement rides remaining in membership database
-            ValleyBikeSim.updateMembershipRidesLeft(username, ridesLeft - 1);
-
-            //calculate whether there is an overtime charge (for a ride longer than 1hr)
-
-            if (rideLength > 60L) {
-                long paymentLength = rideLength - 60L;
-                //ride cost is 15c per minute after 1st hour
-                paymentDue = paymentLength * .15;
-                //update balance to add new ride payment
-                double balance = ValleyBikeSim.getCustomerObj(username).getBalance();
-                //TODO update balance in database
-                ValleyBikeSim.getCustomerObj(username).setBalance(balance + paymentDue);
-                ValleyBikeSim.updateBalanceInDB(username, balance);
-            } else {
-                //ride is free if under 1hr
-                paymentDue = 0L;
-
-                if(!ValleyBikeSim.updateRidePayment(lastRideId, 0.00)){
-                    customerAccountHome(username);
-                }
-            }
-        }
-        //inform customer of the charge
-        System.out.println("You have been charged $" + paymentDue + " for your ride." );
     }
 
     /**
@@ -960,7 +910,7 @@ public abstract class ValleyBikeController {
             } // if user entered 0, return to menu
         }
 
-        input.nextLine();
+        input().nextLine();
         // prompt user for report detailing what's wrong (limits report to 50 characters)
         String mntReport = getUserString(50, "Please tell us what is wrong with this bike or enter '0' to cancel:");
 
@@ -978,12 +928,12 @@ public abstract class ValleyBikeController {
 
         // set bike's maintenance report and maintenance to true
         if(!ValleyBikeSim.updateBikeRqMnt(bikeId, true, mntReport)){
-            customerAccountHome(username);
+            return;
         }
 
         // bike is now out of commission until fixed
         if(!ValleyBikeSim.updateBikeLocation(bikeId, 1)){
-            customerAccountHome(username);
+            return;
         }
 
         // if the station is not live with customer
@@ -991,7 +941,7 @@ public abstract class ValleyBikeController {
             // increase maintenance requests for the station
             Station statObj = ValleyBikeSim.getStationObj(bike.getStation());
             if(!ValleyBikeSim.updateStationMntRqsts(bike.getStation(), statObj.getMaintenanceRequest()+1)){
-                customerAccountHome(username);
+                return;
             }
         }
 
@@ -1002,6 +952,7 @@ public abstract class ValleyBikeController {
     /**
      * Main menu for internal accounts
      * @param username username of internal account
+     * @return the next menu to show
      * @throws IOException addStation, addBike, equalizeStations and initialMenu throw IOException
      * @throws ParseException addStation, addBike, equalizeStations and initialMenu throw ParseException
      * @throws InterruptedException when a thread that is sleeping, waiting, or is occupied is interrupted
@@ -1009,7 +960,7 @@ public abstract class ValleyBikeController {
      * @throws NoSuchAlgorithmException when a particular cryptographic algorithm is requested but is not available in the environment.
      * @throws SQLException for database access error
      */
-    static void internalAccountHome(String username) throws IOException, ParseException, InterruptedException, ClassNotFoundException, NoSuchAlgorithmException, SQLException {
+    private static MenuState internalAccountHome(String username) throws IOException, ParseException, InterruptedException, ClassNotFoundException, NoSuchAlgorithmException, SQLException {
         //prompt user to pick option from main internal menu
         System.out.print("Please choose from the following:\n"
                 + "1: Create new internal account \t"
@@ -1023,11 +974,12 @@ public abstract class ValleyBikeController {
                 + "9: Equalize stations \t"
                 + "10: View total number of users\n"
                 + "11: View total number of maintenance requests \t"
-                + "12: View most popular station \t"
+                + "12: View most popular stations \t"
+                + "13: View performance stats \t"
                 + "0: Log out\n");
 
         //get and validate user response
-        int num = getResponseBetween(0,12, "Please enter your selection (0-12):");
+        int num = getResponseBetween(0,13, "Please enter your selection (0-13):");
 
 
         switch(num) {
@@ -1037,14 +989,10 @@ public abstract class ValleyBikeController {
                 break;
             case 2:
                 //edit this internal account
-                editInternalAccount(username);
-                break;
+                return MenuState.editInternal(username);
             case 3:
-                input.nextLine();
-                menuPath.push(3); // add this menu to stack in case we want to return
-                findCustomer(username);
-                menuPath.pop();
-                break;
+                input().nextLine();
+                return MenuState.findCustomer(username);
             case 4:
                 //add station to station list
                 addStation();
@@ -1080,28 +1028,55 @@ public abstract class ValleyBikeController {
                 System.out.println("The total number of maintenance requests currently from all stations is " + ValleyBikeSim.viewTotalMaintenanceRequests());
                 break;
             case 12:
-                //view most popular station based on ride data
-                if (ValleyBikeSim.viewMostPopularStation() == null){
-                    //if no rides have been taken, ride data is empty and therefore there is no most popular station
-                    System.out.println("No rides have been taken yet, so there is no most popular station.");
-                } else {
-                    System.out.println("The most popular station is " + ValleyBikeSim.viewMostPopularStation().getKey());
-                }
+                //view most popular stations based on ride data
+                viewMostPopularStations();
+                break;
+            case 13:
+                //view database connection pool and other performance metrics
+                ValleyBikeSim.viewPerformanceStats();
                 break;
             case 0:
                 //go to initial menu to log out
-                initialMenu();
-                break;
+                return MenuState.initial();
+        }
+        //stay on the internal account menu until log out
+        return MenuState.internalHome(username);
+    }
+
+    /**
+     * Asks which span of time to look at, then prints the stations with the most rides in it
+     */
+    private static void viewMostPopularStations() {
+        System.out.println("Which rides would you like to include?\n" +
+                "1: Last hour\t" +
+                "2: Last day\t" +
+                "3: Last month\t" +
+                "4: All time\t" +
+                "0: Cancel");
+        int choice = getResponseBetween(0, 4, "Please enter your selection (0-4):");
+        if (choice == 0) {
+            return;
+        }
+        StationUsageCounters.Window window = StationUsageCounters.Window.values()[choice - 1];
+
+        List<Map.Entry<Integer, Long>> topStations = ValleyBikeSim.viewMostPopularStations(window, MOST_POPULAR_STATIONS);
+        if (topStations.isEmpty()) {
+            //if no rides have been taken, there is no most popular station
+            System.out.println("No rides have been taken in that time, so there is no most popular station.");
+            return;
+        }
+
+        System.out.format("%-12s%-10s\n", "Station ID", "Rides");
+        for (Map.Entry<Integer, Long> station : topStations) {
+            System.out.format("%-12d%-10d\n", station.getKey(), station.getValue());
         }
-        //if function call finishes and returns to internal account menu
-        //call account menu again
-        internalAccountHome(username);
     }
 
     /**
      * Prints list of current usernames and prompts user to input valid username to view/edit;
      * then gives internal user menu options for view and editing account
      * @param username unique username associated with the customer account
+     * @return the chosen customer's menu, or the internal account home if canceled
      * @throws IOException failure during reading, writing and searching file or directory operations
      * @throws ParseException fail to parse a String that is ought to have a special format
      * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
@@ -1109,18 +1084,18 @@ public abstract class ValleyBikeController {
      * @throws NoSuchAlgorithmException when a particular cryptographic algorithm is requested but is not available in the environment.
      * @throws SQLException for database access error
      */
-    private static void findCustomer(String username) throws IOException, ParseException, ClassNotFoundException, InterruptedException, NoSuchAlgorithmException, SQLException {
+    private static MenuState findCustomer(String username) throws IOException, ParseException, ClassNotFoundException, InterruptedException, NoSuchAlgorithmException, SQLException {
         // view all customers' usernames
         ValleyBikeSim.viewAllCustomers();
 
         // ask user to input customer username
-        // input.nextLine();
+        // input().nextLine();
         System.out.println("Please enter a customer's username to view their account or '0' to cancel:");
-        String customerUsername = input.nextLine();
+        String customerUsername = input().nextLine();
 
         // check for '0' input and return to previous menu
         if (Objects.equals(customerUsername, "0")) {
-            internalAccountHome(username);
+            return MenuState.internalHome(username);
         }
 
         // keep asking for input if it isn't a valid customer username
@@ -1129,18 +1104,17 @@ public abstract class ValleyBikeController {
 
             // ask user to input customer username
             System.out.println("Please enter a customer's username to view their account or '0' to cancel:");
-            customerUsername = input.nextLine();
+            customerUsername = input().nextLine();
 
             // check for '0' input and return to previous menu
             if (customerUsername.contentEquals("0")) {
-                internalAccountHome(username);
+                return MenuState.internalHome(username);
             }
         }
         //view customer account info (sensitive information is censored)
         viewCustomerAccount(customerUsername);
 
-        menuPath.push(4);
-        editCustomerMenu(username, customerUsername);
+        return MenuState.customerRecord(username, customerUsername);
     }
 
     /**
@@ -1148,6 +1122,7 @@ public abstract class ValleyBikeController {
      * then gives internal user menu options for view and editing account
      * @param username is the username for the internal account user
      * @param customerUsername is the customer username that the internal account is trying to access
+     * @return the next menu to show
      * @throws IOException failure during reading, writing and searching file or directory operations
      * @throws ParseException fail to parse a String that is ought to have a special format
      * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
@@ -1155,7 +1130,7 @@ public abstract class ValleyBikeController {
      * @throws NoSuchAlgorithmException when a particular cryptographic algorithm is requested but is not available in the environment.
      * @throws SQLException for database access error
      */
-        private static void editCustomerMenu(String username, String customerUsername) throws InterruptedException, ParseException, NoSuchAlgorithmException, IOException, SQLException, ClassNotFoundException {
+        private static MenuState editCustomerMenu(String username, String customerUsername) throws InterruptedException, ParseException, NoSuchAlgorithmException, IOException, SQLException, ClassNotFoundException {
             //get customer object
             CustomerAccount customer = ValleyBikeSim.getCustomerObj(customerUsername);
 
@@ -1172,8 +1147,7 @@ public abstract class ValleyBikeController {
             switch(num) {
                 case 1:
                     //edit customer account
-                    editCustomerAccount(customerUsername, username);
-                    break;
+                    return MenuState.editCustomer(customerUsername, username);
                 case 2:
                     //view customer balance
                     System.out.println("Account balance for " + customerUsername + " is "+ ValleyBikeSim.viewAccountBalance(customerUsername));
@@ -1183,19 +1157,20 @@ public abstract class ValleyBikeController {
                     viewCustomerInfo(customer);
                     break;
                 case 0:
-                    input.nextLine();
-                    findCustomer(username);
+                    input().nextLine();
+                    return MenuState.findCustomer(username);
             }
             //if we get through the switch, revisit the beginning of menu
-            editCustomerMenu(username, customerUsername);
+            return MenuState.customerRecord(username, customerUsername);
         }
 
     /**
      * view rides specified customer has taken
      * @param customer customer whose rides will be displayed
+     * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
      */
-    private static void viewCustomerInfo(CustomerAccount customer){
-        ArrayList<UUID> rideList = customer.getRideIdList();
+    private static void viewCustomerInfo(CustomerAccount customer) throws ClassNotFoundException {
+        List<UUID> rideList = ValleyBikeSim.getRideIdList(customer.getUsername());
 
         //display rides the selected user has taken
         if(rideList.size() > 0){
@@ -1259,7 +1234,7 @@ public abstract class ValleyBikeController {
         }
 
         // prompt user for station name
-        input.nextLine();
+        input().nextLine();
         String name = getUserString(20, "Please enter station name or '0' to cancel: ");
 
         //check for 0 input and return
@@ -1292,7 +1267,7 @@ public abstract class ValleyBikeController {
         }
 
         // prompt for the station's address
-        input.nextLine();
+        input().nextLine();
         String address = getUserString(50, "Please enter station address or '0' to cancel: ");
 
         // check for cancel key '0' and return
@@ -1429,12 +1404,12 @@ public abstract class ValleyBikeController {
         System.out.println(request);
 
         // loop while it's not an int
-        while (!input.hasNextInt()){ //keep requesting new input until valid int
+        while (!input().hasNextInt()){ //keep requesting new input until valid int
             System.out.println("That is not a valid number. Please try again.");
             System.out.println(request);
-            input.next();
+            input().next();
         }
-        return input.nextInt();
+        return input().nextInt();
     }
 
     /**
@@ -1463,7 +1438,7 @@ public abstract class ValleyBikeController {
      */
     public static String getUserString(int a, String request){
         System.out.println(request);
-        String response = input.nextLine();
+        String response = input().nextLine();
         int stringLen = response.length();
         while((stringLen > a)||(stringLen==0)){ //keep requesting new input until one in specified range is entered
             if (stringLen==0){
@@ -1474,7 +1449,7 @@ public abstract class ValleyBikeController {
                         "with a string that is " + a + " characters long or less.");
             }
             System.out.println(request);
-            response = input.nextLine();
+            response = input().nextLine();
             stringLen = response.length();
         }
         return response;
@@ -1492,7 +1467,7 @@ public abstract class ValleyBikeController {
         do {//loops until user inputs 0 or valid username
             //prompts user to input username
             System.out.println("Enter username (must be between 6-14 characters) or '0' to cancel: ");
-            username = input.nextLine();
+            username = input().nextLine();
 
             // check for '0' input and return to previous menu
             if (Objects.equals(username, "0")) {
@@ -1517,7 +1492,7 @@ public abstract class ValleyBikeController {
         do {//loops until user inputs 0 or valid password
             //prompts user to input password
             System.out.println("Enter password (must be between 6-14 characters) or '0' to cancel:");
-            password = input.nextLine();
+            password = input().nextLine();
 
             // check for '0' input and return it
             if (Objects.equals(password, "0")) {
@@ -1542,7 +1517,7 @@ public abstract class ValleyBikeController {
         do {//loops until user inputs 0 or valid password
             //prompts user to input email address
             System.out.println("Enter email address (name@site.com) or '0' to cancel:");
-            emailAddress = input.nextLine();
+            emailAddress = input().nextLine();
 
             // check for '0' input and return to previous menu
             if (Objects.equals(emailAddress, "0")) {
@@ -1569,7 +1544,7 @@ public abstract class ValleyBikeController {
             System.out.println("Enter credit card number" +
                     " (must be a 16 digit number with no spaces or dashes)" +
                     " or '0' to cancel:");
-            creditCard = input.nextLine();
+            creditCard = input().nextLine();
 
             // check for '0' input and return to previous menu
             if (Objects.equals(creditCard, "0")) {
@@ -1646,17 +1621,31 @@ public abstract class ValleyBikeController {
      * @return true if credit card is valid and false otherwise
      */
     static boolean isValidCreditCard(String ccNumber){
+        return isValidCreditCard(ccNumber, true);
+    }
+
+    /**
+     * Validates a credit card number, optionally telling the user why it was rejected
+     * @param ccNumber is the credit card to validate
+     * @param explain true to print why the card was rejected, false for jobs that run with no one at the kiosk
+     * @return true if credit card is valid and false otherwise
+     */
+    static boolean isValidCreditCard(String ccNumber, boolean explain){
         // checks that input is 16 chars/digits long
         if ((ccNumber == null)||(ccNumber.length() != 16)) {
-            System.out.println("This is not the correct length." +
-                    " Please make sure you are entering 16 digits exactly.");
+            if (explain) {
+                System.out.println("This is not the correct length." +
+                        " Please make sure you are entering 16 digits exactly.");
+            }
             return false;
         }
         try { // checks that input is only ints
             Double num = Double.parseDouble(ccNumber); // attempt to convert to a double
         } catch (NumberFormatException nfe) { // this exception is thrown if there are non-int chars
-            System.out.println("This is not a valid credit card number. " +
-                    "Please make sure you are entering 16 digits without spaces, dashes, or characters. ");
+            if (explain) {
+                System.out.println("This is not a valid credit card number. " +
+                        "Please make sure you are entering 16 digits without spaces, dashes, or characters. ");
+            }
             return false;
         }
 
@@ -1668,7 +1657,9 @@ public abstract class ValleyBikeController {
         }
 
         // else "decline" card
-        System.out.println("This credit card has been declined. Please try again. ");
+        if (explain) {
+            System.out.println("This credit card has been declined. Please try again. ");
+        }
         return false;
     }
 
@@ -1708,33 +1699,4 @@ public abstract class ValleyBikeController {
         //if string passes all these tests, return true
         return true;
     }
-
-    /**
-     * Finds user's last menu by checking our menuPath stack
-     * and sends them back to this point
-     * @param username - the account username that we pass to the menus
-     * @throws IOException create account, log in, save bike list and save station list methods throw IOException
-     * @throws ParseException create account, log in, save bike list and save station list methods throw ParseException
-     * @throws InterruptedException when a thread that is sleeping, waiting, or is occupied is interrupted
-     * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
-     * @throws NoSuchAlgorithmException when a particular cryptographic algorithm is requested but is not available in the environment.
-     * @throws SQLException for database access error
-     */
-    private static void returnToLastMenu(String username) throws IOException, ParseException, InterruptedException, ClassNotFoundException, NoSuchAlgorithmException, SQLException {
-
-        // our initial menu is our safety net in case
-        // this method is called when nothing is in the stack
-        if (menuPath.isEmpty()){ initialMenu(); }
-
-        switch(menuPath.pop()) {
-            case 2: //if we indexed a '2', we will return to the customer home menu
-                customerAccountHome(username);
-            case 3: // if we indexed a '3', we will return to the internal home menu
-                internalAccountHome(username);
-            case 4:
-                findCustomer(username);
-            default: // in any other case, we use our safety net
-                initialMenu();
-        }
-    }
-}
\ No newline at end of file
+}
@@ -1,11 +1,17 @@
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.sql.*;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.text.ParseException;
 
 
@@ -20,32 +26,122 @@ public class ValleyBikeSim {
 	/**
 	 * data structure for keeping track of stations
 	 */
-	private static Map<Integer, Station> stationsMap = new HashMap<>();
+	private static Map<Integer, Station> stationsMap = new ConcurrentHashMap<>();
 
 	/**
 	 * data structure for keeping track of bikes
 	 */
-	private static Map<Integer, Bike> bikesMap = new HashMap<>();
+	private static Map<Integer, Bike> bikesMap = new ConcurrentHashMap<>();
 
 	/**
 	 * list for storing bike ids of bikes that require maintenance
 	 */
-	private static Map<Integer, String> mntReqs = new HashMap<>();
+	private static Map<Integer, String> mntReqs = new ConcurrentHashMap<>();
 
 	/**
 	 * data structure for keeping track of customer accounts
 	 */
-	private static Map<String, CustomerAccount> customerAccountMap = new HashMap<>();
+	private static Map<String, CustomerAccount> customerAccountMap = new ConcurrentHashMap<>();
 
 	/**
 	 * data structure for keeping track of internal accounts
 	 */
-	private static Map<String, InternalAccount> internalAccountMap = new HashMap<>();
+	private static Map<String, InternalAccount> internalAccountMap = new ConcurrentHashMap<>();
 
 	/**
-	 * data structure for keeping track of rides
+	 * data structure for keeping track of open rides
+	 * (and of every ride if the ride archive could not be opened)
 	 */
-	private static Map<UUID, Ride> rideMap = new HashMap<>();
+	private static Map<UUID, Ride> rideMap = new ConcurrentHashMap<>();
+
+	/**
+	 * closed rides, kept in a memory-mapped file instead of on the heap; null if there is no archive
+	 */
+	private static volatile RideArchive rideArchive;
+
+	/**
+	 * how many rides start and end at each station, kept up to date as rides are added and returned
+	 */
+	private static final StationUsageCounters stationUsage = new StationUsageCounters();
+
+	/**
+	 * hourly departure and arrival rates at each station, learned from the ride history and kept up to date as rides change
+	 */
+	private static final DemandForecaster demandForecast = new DemandForecaster();
+
+	/**
+	 * hours of expected demand the stations are stocked for when they are rebalanced
+	 */
+	private static final int PREPOSITION_HOURS = 2;
+
+	/**
+	 * minutes between rebalances that stock the stations ahead of demand, even if no station asked for one
+	 */
+	private static final int PREPOSITION_INTERVAL_MINUTES = 60;
+
+	/**
+	 * running totals for the admin dashboard, kept up to date as accounts, stations and bikes change
+	 */
+	private static final FleetMetrics fleetMetrics = new FleetMetrics();
+
+	/**
+	 * minutes between checks of the dashboard totals against the database
+	 */
+	private static final int FLEET_METRICS_CHECK_MINUTES = 10;
+
+	/**
+	 * runs the periodic check of the dashboard totals, null until the data is loaded
+	 */
+	private static ScheduledExecutorService fleetMetricsChecker;
+
+	/**
+	 * minutes between snapshots of the station, bike and account maps
+	 */
+	private static final int SNAPSHOT_MINUTES = 15;
+
+	/**
+	 * writes the periodic snapshots, null until the data is loaded
+	 */
+	private static ScheduledExecutorService snapshotWriter;
+
+	/**
+	 * minutes between checks for memberships due for renewal; each day's renewals still run only once
+	 */
+	private static final int RENEWAL_CHECK_MINUTES = 60;
+
+	/**
+	 * runs the periodic membership renewals, null until the data is loaded
+	 */
+	private static ScheduledExecutorService membershipRenewer;
+
+	/**
+	 * milliseconds that requests to rebalance the stations are collected before one rebalance runs for all of them
+	 */
+	private static final long REBALANCE_WINDOW_MILLIS = 2000;
+
+	/**
+	 * rebalances the stations in the background when a station runs low on bikes or docks
+	 */
+	private static final RebalanceScheduler rebalancer = new RebalanceScheduler(() -> {
+		try {
+			equalizeStations();
+		} catch (ClassNotFoundException e) {
+			System.out.println("Sorry, could not rebalance the stations at this time.");
+		}
+	}, REBALANCE_WINDOW_MILLIS);
+
+	/**
+	 * locks for stations, keyed by station id
+	 * a rent, return or bike move holds the locks of every station it touches,
+	 * so two sessions never change the same station's bikes at the same time
+	 */
+	private static final StripedLocks stationLocks = new StripedLocks(64);
+
+	/**
+	 * locks for customer accounts, keyed by username
+	 * always taken after any station locks, never before, so the two sets of locks cannot deadlock
+	 */
+	private static final StripedLocks accountLocks = new StripedLocks(64);
 
 	/**
 	 * this data formatter is used for local date parsing
@@ -53,10 +149,46 @@ public class ValleyBikeSim {
 	private static DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
 
 	/**
-	 * Reads in the stations csv file data and parses it into station objects
-	 * mapped by id for easy access and manipulation throughout program
+	 * sql for adding a new ride to the database
+	 */
+	private static final String INSERT_RIDE_SQL = "INSERT INTO Ride(ride_id, bike_id, username, is_returned, " +
+			"ride_length, start_time_stamp, end_time_stamp, payment, station_to, station_from) " +
+			"VALUES(?,?,?,?,?,?,?,?,?,?)";
+
+	/**
+	 * sql for docking a bike at a station; a bike is only ever docked at one station,
+	 * so docking it replaces any row it had at another station
+	 */
+	static final String DOCK_BIKE_SQL = "INSERT OR REPLACE INTO Station_Dock(bike_id, station_id) VALUES(?, ?)";
+
+	/**
+	 * sql for taking a bike out of whichever station it is docked at
+	 */
+	static final String UNDOCK_BIKE_SQL = "DELETE FROM Station_Dock WHERE bike_id = ?";
+
+	/**
+	 * sql for saving a customer's ride totals
+	 */
+	private static final String SAVE_RIDE_STATS_SQL = "INSERT OR REPLACE INTO Customer_Ride_Stats(username, ride_count, " +
+			"total_minutes, longest_ride_id, longest_ride_minutes, total_spend, last_ride_id) VALUES(?,?,?,?,?,?,?)";
+
+	/**
+	 * Each customer account with its membership, ride totals and latest ride id
+	 * Add "WHERE c.username = ?" to read one account
+	 */
+	private static final String SELECT_CUSTOMER_ACCOUNTS_SQL = "SELECT c.*, m.total_rides_left, m.type, m.last_payment, " +
+			"m.membership_since, s.ride_count, s.total_minutes, s.longest_ride_id, s.longest_ride_minutes, s.total_spend, " +
+			"s.last_ride_id AS stats_last_ride_id, " +
+			"(SELECT r.ride_id FROM Ride r WHERE r.username = c.username ORDER BY r.rowid DESC LIMIT 1) AS last_ride_id " +
+			"FROM Customer_Account c LEFT JOIN Membership m ON m.username = c.username " +
+			"LEFT JOIN Customer_Ride_Stats s ON s.username = c.username";
+
+	/**
+	 * Loads the stations, bikes, rides and accounts from the database into maps
+	 * for easy access and manipulation throughout program
+	 * (historical ride csv files are loaded separately with RideCsvImporter)
 	 *
-	 * Then outputs welcome message and menu selector
+	 * Then outputs welcome message and runs the menus until the user exits
 	 * @throws IOException failure during reading, writing and searching file or directory operations
 	 * @throws ParseException fail to parse a String that is ought to have a special format
 	 * @throws InterruptedException when a thread that is sleeping, waiting, or is occupied is interrupted
@@ -65,109 +197,309 @@ public class ValleyBikeSim {
 	 * @throws NoSuchAlgorithmException when a particular cryptographic algorithm is requested but is not available in the environment.
 	 */
 	public static void main(String[] args) throws IOException, ParseException, InterruptedException, SQLException, ClassNotFoundException, NoSuchAlgorithmException {
-		// connect to sqlite database and read all required tables
-		Connection conn = connectToDatabase();
-		//read in data from database to data structures
-		if (conn != null) {
-			Statement stmt = conn.createStatement();
-			readRideData(stmt);
-			readCustomerAccountData(stmt);
-			readInternalAccountData(stmt);
-			readStationData(stmt);
-			readBikeData(stmt);
-
-			conn.close();
-		} else {
-			System.out.println("Sorry, something went wrong connecting to the ValleyBike Database.");
+		if (!loadData()) {
+			ConnectionPool.closeAll();
+			System.exit(1);
 		}
 
 		// start the initial menu
 		System.out.print("Welcome to ValleyBike Share! ");
-		ValleyBikeController.initialMenu();
+		ValleyBikeController.run();
+
+		// the user chose to exit
+		KioskSession.current().getInput().close();
+		stopMembershipRenewals();
+		stopFleetMetricsCheck();
+		stopRebalancing();
+		EventLog.stop();
+		stopSnapshots();
+		PersistenceMetrics.stopDumping();
+		closeRideArchive();
+		ConnectionPool.closeAll();
+		System.exit(0);
 	}
 
 	/**
-	 * Method to create connection to SQL database
+	 * Updates the database schema and reads every table into the data structures
+	 * Used by both the console program and the kiosk server
 	 *
-	 * @return connection to SQL database
-	 * @throws SQLException for database access error
+	 * @return false if the schema could not be brought up to date or a table could not be read, in which case the program should not start
+	 * @throws ParseException fail to parse a String that is ought to have a special format
+	 * @throws InterruptedException when a thread that is sleeping, waiting, or is occupied is interrupted
 	 * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
 	 */
-	private static Connection connectToDatabase() throws SQLException, ClassNotFoundException {
-		//we are using a sqlite database
-		//name is database is ValleyBike.db
-		Class.forName("org.sqlite.JDBC");
-		String dbURL = "jdbc:sqlite:ValleyBike.db";
-		return DriverManager.getConnection(dbURL);
+	static boolean loadData() throws ParseException, InterruptedException, ClassNotFoundException {
+		// changes that were logged but had not reached the tables when the program last stopped were written
+		// against the schema as it was then, so they go in before a migration changes it; a migration then
+		// converts them along with every other row. The log only exists from schema version 6 on
+		boolean replayFirst;
+		try {
+			replayFirst = SchemaMigrator.currentVersion() >= SchemaMigrator.EVENT_LOG_VERSION;
+		} catch (SQLException e) {
+			System.out.println("Sorry, something went wrong connecting to the ValleyBike Database.");
+			return false;
+		}
+		int replayed = replayFirst ? EventLog.start() : 0;
+
+		// bring the database schema up to date before reading from it
+		// reading tables in a schema this code does not expect would lose or garble data, so stop here instead
+		if (!SchemaMigrator.migrate()) {
+			System.out.println("ValleyBike cannot start until the database schema is up to date. " +
+					"The database has been left at its last good version.");
+			EventLog.stop();
+			return false;
+		}
+
+		if (!replayFirst) {
+			replayed = EventLog.start();
+		}
+		if (replayed > 0) {
+			System.out.println("Recovered " + replayed + " changes from the event log.");
+		}
+
+		// read all required tables into the data structures, several tables at a time
+		// a failed load leaves some maps part filled, and nothing should run on those
+		try {
+			StartupLoader.loadAll();
+		} catch (SQLException e) {
+			PersistenceMetrics.recordError("loadData", e);
+			System.out.println("Sorry, something went wrong connecting to the ValleyBike Database. " +
+					"ValleyBike cannot start until every table can be read.");
+			EventLog.stop();
+			return false;
+		}
+
+		// only a complete load is worth saving for the next start
+		startSnapshots();
+
+		// the dashboard totals start from what was loaded and are checked against the database from time to time
+		resetFleetMetrics();
+		startFleetMetricsCheck();
+
+		// memberships are renewed in the background, so no kiosk session waits on the day's renewals
+		startMembershipRenewals();
+
+		// database call timings go to a file every minute as well as to JMX
+		PersistenceMetrics.startDumping();
+
+		// stock the stations for the coming hours even when none of them is running low
+		rebalancer.requestEvery(TimeUnit.MINUTES.toMillis(PREPOSITION_INTERVAL_MINUTES));
+		return true;
+	}
+
+	/**
+	 * Sets the dashboard totals from the data in the maps
+	 */
+	static void resetFleetMetrics() {
+		long maintenanceRequests = 0;
+		long capacity = 0;
+		for (Station station : stationsMap.values()) {
+			maintenanceRequests += station.getMaintenanceRequest();
+			capacity += station.getCapacity();
+		}
+
+		long rented = 0;
+		for (Bike bike : bikesMap.values()) {
+			if (bike.getStation() == 0) {
+				rented++;
+			}
+		}
+
+		fleetMetrics.reset(customerAccountMap.size(), maintenanceRequests, capacity, bikesMap.size(), rented);
+	}
+
+	/**
+	 * Starts checking the dashboard totals against the database every FLEET_METRICS_CHECK_MINUTES
+	 * The check runs on a daemon thread, so it never keeps the program from exiting
+	 */
+	private static synchronized void startFleetMetricsCheck() {
+		if (fleetMetricsChecker != null) {
+			return;
+		}
+		fleetMetricsChecker = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "fleet-metrics-check");
+			thread.setDaemon(true);
+			return thread;
+		});
+		fleetMetricsChecker.scheduleWithFixedDelay(ValleyBikeSim::reconcileFleetMetrics,
+				FLEET_METRICS_CHECK_MINUTES, FLEET_METRICS_CHECK_MINUTES, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Starts checking for memberships due for renewal now and every RENEWAL_CHECK_MINUTES after that
+	 * The renewals run on a daemon thread, so they never keep the program from exiting
+	 */
+	private static synchronized void startMembershipRenewals() {
+		if (membershipRenewer != null) {
+			return;
+		}
+		membershipRenewer = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "membership-renewal");
+			thread.setDaemon(true);
+			return thread;
+		});
+		membershipRenewer.scheduleWithFixedDelay(ValleyBikeSim::checkMembershipRenewalTime,
+				0, RENEWAL_CHECK_MINUTES, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Stops the periodic membership renewals; a run stopped part way carries on after its checkpoint at the next start
+	 */
+	static synchronized void stopMembershipRenewals() {
+		if (membershipRenewer != null) {
+			membershipRenewer.shutdownNow();
+			membershipRenewer = null;
+		}
+	}
+
+	/**
+	 * Starts writing a snapshot of the station, bike and account maps every SNAPSHOT_MINUTES
+	 * The snapshots are written on a daemon thread, so they never keep the program from exiting
+	 */
+	private static synchronized void startSnapshots() {
+		if (snapshotWriter != null || snapshotFile() == null) {
+			return;
+		}
+		snapshotWriter = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "map-snapshot");
+			thread.setDaemon(true);
+			return thread;
+		});
+		snapshotWriter.scheduleWithFixedDelay(ValleyBikeSim::saveSnapshot,
+				SNAPSHOT_MINUTES, SNAPSHOT_MINUTES, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Stops the periodic snapshots and writes one last snapshot, when the program shuts down
+	 */
+	static synchronized void stopSnapshots() {
+		if (snapshotWriter != null) {
+			snapshotWriter.shutdownNow();
+			snapshotWriter = null;
+			saveSnapshot();
+		}
+	}
+
+	/**
+	 * Stops the periodic check of the dashboard totals
+	 */
+	static synchronized void stopFleetMetricsCheck() {
+		if (fleetMetricsChecker != null) {
+			fleetMetricsChecker.shutdownNow();
+			fleetMetricsChecker = null;
+		}
+	}
+
+	/**
+	 * Counts the dashboard totals in the database and corrects the in-memory totals that have drifted
+	 *
+	 * @return number of totals corrected, or -1 if the database could not be read
+	 */
+	static int reconcileFleetMetrics() {
+		String sql = "SELECT (SELECT COUNT(*) FROM Customer_Account), "
+				+ "(SELECT COALESCE(SUM(req_mnt), 0) FROM Station), "
+				+ "(SELECT COALESCE(SUM(capacity), 0) FROM Station), "
+				+ "(SELECT COUNT(*) FROM Bike), "
+				+ "(SELECT COUNT(*) FROM Bike WHERE station_id = 0)";
+
+		// the totals in memory already count every committed change, so the tables must too
+		try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("reconcileFleetMetrics")) {
+			PreparedStatement pstmt = conn.prepareStatement(sql);
+			try (ResultSet rs = pstmt.executeQuery()) {
+				if (!rs.next()) {
+					return -1;
+				}
+				return fleetMetrics.reconcile(rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getLong(4), rs.getLong(5));
+			}
+		} catch (SQLException | ClassNotFoundException e) {
+			PersistenceMetrics.recordError("reconcileFleetMetrics", e);
+			System.out.println("Sorry, could not check the dashboard totals against the database at this time.");
+			return -1;
+		}
 	}
 
 	/**
 	 * Reads in info from database and converts to customer objects that get stored in data structure
+	 * Each customer's membership is read in the same query with a join, rather than with one query per customer
+	 * Only the customer's latest ride id is read here; the rest of their ride history is loaded when first needed
 	 *
 	 * @param stmt statement necessary to run sql query
+	 * @return number of customer accounts read
 	 * @throws SQLException for database access error
-	 * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
 	 */
-	private static void readCustomerAccountData(Statement stmt) throws SQLException, ClassNotFoundException {
-		ResultSet rs = stmt.executeQuery("SELECT * FROM Customer_Account");
+	static int readCustomerAccountData(Statement stmt) throws SQLException {
+		int rows = 0;
+		ResultSet rs = stmt.executeQuery(SELECT_CUSTOMER_ACCOUNTS_SQL);
 		//get each value from each line in database
 		while (rs.next()) {
-			String username = rs.getString("username");
-			String password = rs.getString("password");
-			String emailAddress = rs.getString("email_address");
-			String creditCard = rs.getString("credit_card");
-			Membership membership = readMembershipData(username);
-			int lastRideIsReturned = rs.getInt("last_ride_is_returned");
-			int enabled = rs.getInt("enabled");
-			double balance = rs.getDouble("balance");
-			String rideIdString = rs.getString("ride_id_string");
-			ArrayList<UUID> rideIdList = new ArrayList<>();
-
-			if (rideIdString != null && rideIdString.length() > 0){
-				for (String ride : rideIdString.split(",")) {
-					UUID uuid = UUID.fromString(ride.replaceAll(" ", ""));
-					rideIdList.add(uuid);
-					//TODO
-					//System.out.println("CAD"+rideMap.get(uuid).getStationFrom()+" "+rideMap.get(uuid).getStationTo()+" "+rideMap.size());
-				}
-			}
-			//create customer account from info
-			CustomerAccount customerAccount = new CustomerAccount(username, password, emailAddress, creditCard, membership, balance, lastRideIsReturned == 1, enabled == 1, rideIdList);
+			CustomerAccount customerAccount = readCustomerAccount(rs);
 
 			// add to the customer account map
-			customerAccountMap.put(username, customerAccount);
+			customerAccountMap.put(customerAccount.getUsername(), customerAccount);
+			rows++;
 		}
+		return rows;
 	}
 
 	/**
-	 * reads in membership data from database
-	 * @param username username who has membership
-	 * @return the membership object associated with the given user
-	 * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+	 * Converts the current row of SELECT_CUSTOMER_ACCOUNTS_SQL into a customer account
+	 *
+	 * @param rs result set positioned on a customer account row joined with its membership and ride totals
+	 * @return the customer account
 	 * @throws SQLException for database access error
 	 */
-	private static Membership readMembershipData(String username) throws ClassNotFoundException, SQLException{
-		String sql = "SELECT * FROM Membership WHERE username = ?";
+	private static CustomerAccount readCustomerAccount(ResultSet rs) throws SQLException {
+		String username = rs.getString("username");
+		String password = rs.getString("password");
+		String emailAddress = rs.getString("email_address");
+		String creditCard = rs.getString("credit_card");
+		Membership membership = readMembershipData(rs);
+		int lastRideIsReturned = rs.getInt("last_ride_is_returned");
+		int enabled = rs.getInt("enabled");
+		double balance = rs.getDouble("balance");
+		UUID lastRideId = Ride.idFromBytes(rs.getBytes("last_ride_id"));
 
-		//initialize all variables associated with membership obj
-		int totalRidesLeft = 0;
-		int type = 0;
-		LocalDate lastPayment = null;
-		LocalDate memberSince = null;
-		//update sql database
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)){
-			// set the corresponding param
-			pstmt.setString(1, username);
-			ResultSet rows = pstmt.executeQuery();
-			while(rows.next())
-			{
-				totalRidesLeft = rows.getInt("total_rides_left");
-				type = rows.getInt("type");
-				lastPayment = LocalDate.parse(rows.getString("last_payment"), formatter);
-				memberSince = LocalDate.parse(rows.getString("membership_since"), formatter);
-			}
+		//create customer account from info
+		CustomerAccount customerAccount = new CustomerAccount(username, password, emailAddress, creditCard, membership, balance,
+				lastRideIsReturned == 1, enabled == 1, lastRideId);
+		customerAccount.setRideStats(readRideStats(rs));
+		return customerAccount;
+	}
+
+	/**
+	 * reads in a customer's ride totals from the Customer_Ride_Stats columns of a customer account row
+	 * @param rs result set positioned on a customer account row joined with its ride stats
+	 * @return the customer's ride totals, empty if they have not returned a ride
+	 * @throws SQLException for database access error
+	 */
+	private static CustomerRideStats readRideStats(ResultSet rs) throws SQLException {
+		int rideCount = rs.getInt("ride_count");
+		if (rs.wasNull() || rideCount == 0) {
+			return CustomerRideStats.EMPTY;
 		}
+
+		return new CustomerRideStats(rideCount, rs.getLong("total_minutes"),
+				Ride.idFromBytes(rs.getBytes("longest_ride_id")), rs.getLong("longest_ride_minutes"),
+				rs.getDouble("total_spend"), Ride.idFromBytes(rs.getBytes("stats_last_ride_id")));
+	}
+
+	/**
+	 * reads in membership data from the membership columns of a customer account row
+	 * @param rs result set positioned on a customer account row joined with its membership
+	 * @return the membership object associated with the customer, or null if they have none
+	 * @throws SQLException for database access error
+	 */
+	private static Membership readMembershipData(ResultSet rs) throws SQLException {
+		//initialize all variables associated with membership obj
+		int totalRidesLeft = rs.getInt("total_rides_left");
+		int type = rs.getInt("type");
+		String lastPaymentString = rs.getString("last_payment");
+		String memberSinceString = rs.getString("membership_since");
+
+		// customers without a membership row have no dates to parse
+		LocalDate lastPayment = lastPaymentString == null ? null : LocalDate.parse(lastPaymentString, formatter);
+		LocalDate memberSince = memberSinceString == null ? null : LocalDate.parse(memberSinceString, formatter);
+
 		//checkMembershipType creates and returns membership obj of specific type i.e. monthly, yearly, PAYG
 		return checkMembershipType(type, totalRidesLeft, lastPayment, memberSince);
 	}
@@ -176,145 +508,550 @@ public class ValleyBikeSim {
 	 * Reads in info from database and converts to internal account objects that get stored in data structure
 	 *
 	 * @param stmt allows execution of SQL queries
+	 * @return number of rows read
 	 * @throws SQLException for database access error
 	 */
-	private static void readInternalAccountData(Statement stmt) throws SQLException {
+	static int readInternalAccountData(Statement stmt) throws SQLException {
+		int rows = 0;
 		ResultSet rs = stmt.executeQuery("SELECT * FROM Internal_Account");
 		//get each value from line in table
 		while (rs.next()) {
-			String username = rs.getString("username");
-			String password = rs.getString("password");
-			String emailAddress = rs.getString("email_address");
-			//create internal account instance
-			InternalAccount internalAccount = new InternalAccount(username, password, emailAddress);
+			InternalAccount internalAccount = readInternalAccount(rs);
 
 			// add to the internal account map
-			internalAccountMap.put(username, internalAccount);
+			internalAccountMap.put(internalAccount.getUsername(), internalAccount);
+			rows++;
 		}
+		return rows;
+	}
+
+	/**
+	 * Converts the current row of an Internal_Account query into an internal account
+	 *
+	 * @param rs result set positioned on an internal account row
+	 * @return the internal account
+	 * @throws SQLException for database access error
+	 */
+	private static InternalAccount readInternalAccount(ResultSet rs) throws SQLException {
+		String username = rs.getString("username");
+		String password = rs.getString("password");
+		String emailAddress = rs.getString("email_address");
+		//create internal account instance
+		return new InternalAccount(username, password, emailAddress);
 	}
 
 	/**
 	 * Reads in info from database and converts to station objects that get stored in data structure
 	 *
 	 * @param stmt allows execution of SQL queries
+	 * @return number of rows read
 	 * @throws SQLException for database access error
 	 */
-	private static void readStationData(Statement stmt) throws SQLException {
+	static int readStationData(Statement stmt) throws SQLException {
+		int rows = 0;
 		ResultSet rs = stmt.executeQuery("SELECT * FROM Station");
 		//get each value from line in table
 		while (rs.next()) {
-			int id = rs.getInt("id");
-			String name = rs.getString("name");
-			int reqMnt = rs.getInt("req_mnt");
-			int capacity = rs.getInt("capacity");
-			int kiosk = rs.getInt("kiosk");
-			String address = rs.getString("address");
-			String bikeString = rs.getString("bike_string");
-			LinkedList<Integer> bikeList = new LinkedList<>();
-
-			//if no bike in station, bike string might be null or empty string
-			if (bikeString != null) {
-				// loop through bike ids in string
-				for (String bikeId : bikeString.replaceAll(" ", "").split(",")) {
-					// if there are bike ids in the string
-					if (bikeString.length() > 0) {
-						//if bike string does have bike, then add to bike list
-						bikeList.add(Integer.parseInt(bikeId));
-					}
-				}
+			// add to the station tree, its bikes are added below
+			stationsMap.put(rs.getInt("id"), readStation(rs));
+			rows++;
+		}
+
+		// each docked bike is one row, so add them to their stations
+		rs = stmt.executeQuery("SELECT bike_id, station_id FROM Station_Dock");
+		while (rs.next()) {
+			Station station = stationsMap.get(rs.getInt("station_id"));
+			if (station != null) {
+				station.addToBikeList(rs.getInt("bike_id"));
 			}
+		}
+		return rows;
+	}
 
-			//create new station instance
-			Station station = new Station(name, reqMnt, capacity, intToBoolean(kiosk), address, bikeList);
+	/**
+	 * Converts the current row of a Station query into a station with no bikes
+	 *
+	 * @param rs result set positioned on a station row
+	 * @return the station
+	 * @throws SQLException for database access error
+	 */
+	private static Station readStation(ResultSet rs) throws SQLException {
+		String name = rs.getString("name");
+		int reqMnt = rs.getInt("req_mnt");
+		int capacity = rs.getInt("capacity");
+		int kiosk = rs.getInt("kiosk");
+		String address = rs.getString("address");
 
-			// add to the station tree
-			stationsMap.put(id, station);
-		}
+		//create new station instance
+		return new Station(name, reqMnt, capacity, intToBoolean(kiosk), address);
 	}
 
 	/**
 	 * Reads in info from database and converts to bike objects that get stored in data structure
 	 *
 	 * @param stmt allows execution of SQL queries
+	 * @return number of rows read
 	 * @throws SQLException for database access error
 	 */
-	private static void readBikeData(Statement stmt) throws SQLException{
+	static int readBikeData(Statement stmt) throws SQLException{
+		int rows = 0;
 		ResultSet rs = stmt.executeQuery("SELECT * FROM Bike");
 
 		//get values from each line in table
 		while (rs.next()) {
-			int id = rs.getInt("id");
-			int location = rs.getInt("location");
-			int stationId = rs.getInt("station_id");
-			int reqMnt = rs.getInt("req_mnt");
-
-			//default for maintenance
-			String maintenance = "n";
+			Bike bike = readBike(rs);
 
 			//if maintenance is needed
-			if (reqMnt == 1) {
-				maintenance = "y";
-
-				addToMntRqs(id, rs.getString("mnt_report"));
+			if (bike.getMnt()) {
+				addToMntRqs(bike.getId(), bike.getMntReport());
 			}
 
-			String mntReport = rs.getString("mnt_report");
-
-			//create instance of bike object
-			Bike bike = new Bike(id, location, stationId, maintenance, mntReport);
-
 			// add to the bike tree
-			bikesMap.put(id, bike);
+			bikesMap.put(bike.getId(), bike);
+			rows++;
 		}
+		return rows;
+	}
+
+	/**
+	 * Converts the current row of a Bike query into a bike
+	 *
+	 * @param rs result set positioned on a bike row
+	 * @return the bike
+	 * @throws SQLException for database access error
+	 */
+	private static Bike readBike(ResultSet rs) throws SQLException {
+		int id = rs.getInt("id");
+		int location = rs.getInt("location");
+		int stationId = rs.getInt("station_id");
+		int reqMnt = rs.getInt("req_mnt");
+
+		//default for maintenance, "y" if maintenance is needed
+		String maintenance = reqMnt == 1 ? "y" : "n";
+
+		String mntReport = rs.getString("mnt_report");
+
+		//create instance of bike object
+		return new Bike(id, location, stationId, maintenance, mntReport);
 	}
 
 
 	/**
 	 * Reads in info from database and converts to ride objects that get stored in data structure
+	 * Open rides go into the ride map; closed rides go into the ride archive, which is only
+	 * rebuilt from the database when it does not hold the same number of closed rides
 	 *
 	 * @param stmt allows execution of SQL queries
+	 * @return number of rows read
 	 * @throws SQLException for database access error
 	 * @throws ParseException fail to parse a String that is ought to have a special format
 	 */
-	private static void readRideData(Statement stmt) throws SQLException, ParseException {
-		ResultSet rs = stmt.executeQuery("SELECT * FROM Ride");
+	static int readRideData(Statement stmt) throws SQLException, ParseException {
+		RideArchive archive = openRideArchive();
+		if (archive != null && !syncRideArchive(stmt, archive)) {
+			closeRideArchive(archive);
+			archive = null;
+		}
+		rideArchive = archive;
+
+		// count station usage once here, then keep the counts up to date as rides change
+		stationUsage.clear();
+		demandForecast.clear();
+		if (archive != null) {
+			archive.countStationVisits(stationUsage);
+			archive.learnDemand(demandForecast);
+		}
+
+		// without an archive, closed rides stay in the ride map as well
+		String sql = archive == null ? "SELECT * FROM Ride" : "SELECT * FROM Ride WHERE is_returned = 0";
+		int rows = 0;
+		ResultSet rs = stmt.executeQuery(sql);
 		//get each value from each line in table
 		while (rs.next()) {
-			String id = rs.getString("ride_id");
-			int bike_id = rs.getInt("bike_id");
-			String username = rs.getString("username");
-			int is_returned = rs.getInt("is_returned");
-			long rideLength = rs.getLong("ride_length");
-			String start_time_stamp = rs.getString("start_time_stamp");
-			String end_time_stamp = rs.getString("end_time_stamp");
-			double payment = rs.getDouble("payment");
-			int station_to = rs.getInt("station_to");
-			int station_from = rs.getInt("station_from");
-
-			// change string to unique UUID
-			UUID uuid_id = UUID.fromString(id);
-
-			// change binary to boolean
-			boolean is_returned_bool = intToBoolean(is_returned);
-
-			//parse time stamps as readable instants
-			Instant start_time_stamp_instant = Instant.parse(start_time_stamp);
-			Instant end_time_stamp_instant = Instant.parse(end_time_stamp);
-
-			// create new ride object with fields
-			Ride ride = new Ride(uuid_id, bike_id, username,
-					is_returned_bool, start_time_stamp_instant,
-					end_time_stamp_instant, station_from, station_to);
-
-			// set the ride length and payment as well
-			ride.setRideLength(rideLength);
-			ride.setPayment(payment);
+			Ride ride = readRide(rs);
 
 			// add to the ride tree
-			rideMap.put(uuid_id, ride);
-			//TODO
-			//System.out.println("RRD"+rideMap.get(uuid_id).getStationFrom()+" "+rideMap.get(uuid_id).getStationTo()+rideMap.size());
+			rideMap.put(ride.getRideId(), ride);
+			stationUsage.recordRide(ride);
+			demandForecast.recordRide(ride);
+			rows++;
+		}
+		return archive == null ? rows : rows + archive.size();
+	}
+
+	/**
+	 * Converts the current row of a Ride query into a ride object
+	 *
+	 * @param rs result set positioned on a ride row
+	 * @return the ride
+	 * @throws SQLException for database access error
+	 * @throws ParseException fail to parse a String that is ought to have a special format
+	 */
+	private static Ride readRide(ResultSet rs) throws SQLException, ParseException {
+		// the id is stored as 16 bytes
+		UUID uuid_id = Ride.idFromBytes(rs.getBytes("ride_id"));
+		int bike_id = rs.getInt("bike_id");
+		String username = rs.getString("username");
+		int is_returned = rs.getInt("is_returned");
+		long rideLength = rs.getLong("ride_length");
+
+		// time stamps are stored as epoch milliseconds
+		Instant start_time_stamp_instant = readInstant(rs, "start_time_stamp");
+		Instant end_time_stamp_instant = readInstant(rs, "end_time_stamp");
+		double payment = rs.getDouble("payment");
+		int station_to = rs.getInt("station_to");
+		int station_from = rs.getInt("station_from");
+
+		// change binary to boolean
+		boolean is_returned_bool = intToBoolean(is_returned);
+
+		// create new ride object with fields
+		Ride ride = new Ride(uuid_id, bike_id, username,
+				is_returned_bool, start_time_stamp_instant,
+				end_time_stamp_instant, station_from, station_to);
+
+		// set the ride length and payment as well
+		ride.setRideLength(rideLength);
+		ride.setPayment(payment);
+		return ride;
+	}
+
+	/**
+	 * Reads a time stored as epoch milliseconds
+	 *
+	 * @param rs result set positioned on a row
+	 * @param column name of the column
+	 * @return the time, or null if the column is null
+	 * @throws SQLException for database access error
+	 */
+	private static Instant readInstant(ResultSet rs, String column) throws SQLException {
+		long millis = rs.getLong(column);
+		return rs.wasNull() ? null : Instant.ofEpochMilli(millis);
+	}
+
+	/**
+	 * Opens the ride archive that sits next to the database file
+	 * @return the archive, or null if the database is not a file or the archive could not be opened
+	 */
+	private static RideArchive openRideArchive() {
+		String database = ConnectionPool.getDatabaseFile();
+		if (database == null) {
+			return null;
+		}
+
+		try {
+			return RideArchive.open(Paths.get(database + ".rides"), Paths.get(database + ".ride-users"));
+		} catch (IOException e) {
+			System.out.println("Sorry, could not open the ride archive, so all rides will be kept in memory.");
+			return null;
+		}
+	}
+
+	/**
+	 * Refills the ride archive from the database if the two hold different numbers of closed rides
+	 * Rides are streamed one row at a time, so the rebuild does not need every ride in memory
+	 *
+	 * @param stmt allows execution of SQL queries
+	 * @param archive the open ride archive
+	 * @return false if the archive could not be written
+	 * @throws SQLException for database access error
+	 * @throws ParseException fail to parse a String that is ought to have a special format
+	 */
+	private static boolean syncRideArchive(Statement stmt, RideArchive archive) throws SQLException, ParseException {
+		int closedRides;
+		try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM Ride WHERE is_returned = 1")) {
+			closedRides = rs.next() ? rs.getInt(1) : 0;
+		}
+		if (closedRides == archive.size()) {
+			return true;
+		}
+
+		try (ResultSet rs = stmt.executeQuery("SELECT * FROM Ride WHERE is_returned = 1 ORDER BY rowid")) {
+			archive.clear();
+			while (rs.next()) {
+				archive.append(readRide(rs));
+			}
+			return true;
+		} catch (IOException e) {
+			System.out.println("Sorry, could not rebuild the ride archive, so all rides will be kept in memory.");
+			return false;
+		}
+	}
+
+	/**
+	 * Saves and closes the ride archive when the program is finished with it
+	 * Closed rides are kept in the ride map from then on
+	 */
+	static void closeRideArchive() {
+		RideArchive archive = rideArchive;
+		rideArchive = null;
+		if (archive != null) {
+			closeRideArchive(archive);
+		}
+	}
+
+	/**
+	 * Closes a ride archive, ignoring errors since nothing more will be written to it
+	 * @param archive the archive to close
+	 */
+	private static void closeRideArchive(RideArchive archive) {
+		try {
+			archive.close();
+		} catch (IOException e) {
+			// the database still holds every ride, so the archive will be rebuilt next time
+		}
+	}
+
+	/**
+	 * Gets the snapshot file that sits next to the database file
+	 * Start the program with -Dvalleybike.snapshot=false to always read every table instead
+	 *
+	 * @return the snapshot's path, or null if the database is not a file or snapshots are turned off
+	 */
+	private static Path snapshotFile() {
+		String database = ConnectionPool.getDatabaseFile();
+		if (database == null || "false".equals(System.getProperty("valleybike.snapshot"))) {
+			return null;
+		}
+		return Paths.get(database + ".snapshot");
+	}
+
+	/**
+	 * Writes the station, bike and account maps to the snapshot next to the database file
+	 * The Change_Log mark is read and the maps are copied while every station and account is locked,
+	 * so no rental, return or bike move is copied half applied, and every change committed after the
+	 * mark is read back from the database again at the next start
+	 *
+	 * @return false if the snapshot could not be written
+	 */
+	@SuppressWarnings("try")
+	static boolean saveSnapshot() {
+		Path file = snapshotFile();
+		if (file == null) {
+			return false;
+		}
+
+		// stations before accounts, the same order rentBike and returnBike take them
+		byte[] snapshot;
+		try (StripedLocks.Held stations = stationLocks.lockAll();
+			 StripedLocks.Held accounts = accountLocks.lockAll()) {
+			long mark;
+			try (PooledConnection conn = ConnectionPool.getConnection("saveSnapshot");
+				 Statement stmt = conn.createStatement()) {
+				mark = readChangeMark(stmt);
+			}
+			snapshot = MapSnapshot.encode(SchemaMigrator.latestVersion(), mark,
+					stationsMap, bikesMap, customerAccountMap, internalAccountMap);
+		} catch (SQLException | ClassNotFoundException | IOException e) {
+			PersistenceMetrics.recordError("saveSnapshot", e);
+			System.out.println("Sorry, could not save a snapshot of the data at this time.");
+			return false;
+		}
+
+		// the file is written after the locks are let go
+		try {
+			MapSnapshot.write(file, snapshot);
+			return true;
+		} catch (IOException e) {
+			PersistenceMetrics.recordError("saveSnapshot", e);
+			System.out.println("Sorry, could not save a snapshot of the data at this time.");
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the station, bike and account maps from the snapshot next to the database file, then reads
+	 * back the rows Change_Log lists as changed since the snapshot was taken
+	 * Used at startup in place of readStationData, readBikeData, readCustomerAccountData and readInternalAccountData
+	 *
+	 * @param stmt allows execution of SQL queries
+	 * @return number of rows in the snapshot plus the number read back, or -1 if there is no snapshot that can be used
+	 * @throws SQLException for database access error
+	 */
+	static int readSnapshotData(Statement stmt) throws SQLException {
+		Path file = snapshotFile();
+		if (file == null) {
+			return -1;
+		}
+
+		MapSnapshot snapshot;
+		try {
+			snapshot = MapSnapshot.read(file);
+		} catch (IOException e) {
+			PersistenceMetrics.recordError("readSnapshotData", e);
+			System.out.println("Sorry, could not read the saved snapshot, so every table will be read instead.");
+			return -1;
+		}
+
+		// a database whose changes stop short of the snapshot's is not the one it was taken from
+		if (snapshot == null || snapshot.schemaVersion != SchemaMigrator.latestVersion()
+				|| readChangeMark(stmt) < snapshot.highWaterMark) {
+			return -1;
+		}
+
+		stationsMap.putAll(snapshot.stations);
+		bikesMap.putAll(snapshot.bikes);
+		for (Bike bike : snapshot.bikes.values()) {
+			if (bike.getMnt()) {
+				addToMntRqs(bike.getId(), bike.getMntReport());
+			}
+		}
+		customerAccountMap.putAll(snapshot.customers);
+		internalAccountMap.putAll(snapshot.internalAccounts);
+
+		int rows = snapshot.stations.size() + snapshot.bikes.size() + snapshot.customers.size()
+				+ snapshot.internalAccounts.size();
+		return rows + readChangesSince(stmt.getConnection(), snapshot.highWaterMark);
+	}
+
+	/**
+	 * @param stmt allows execution of SQL queries
+	 * @return the largest Change_Log sequence number, 0 if nothing has changed since the log was added
+	 * @throws SQLException for database access error
+	 */
+	private static long readChangeMark(Statement stmt) throws SQLException {
+		try (ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(seq), 0) FROM Change_Log")) {
+			return rs.next() ? rs.getLong(1) : 0;
+		}
+	}
+
+	/**
+	 * Reads back every station, dock, bike and account row changed after a Change_Log mark,
+	 * replacing what the maps hold for it or removing it if the row is gone
+	 *
+	 * @param conn connection to read with
+	 * @param mark the Change_Log sequence number the maps are up to date with
+	 * @return number of rows read back
+	 * @throws SQLException for database access error
+	 */
+	private static int readChangesSince(Connection conn, long mark) throws SQLException {
+		Map<String, List<String>> changed = new HashMap<>();
+		try (PreparedStatement pstmt = conn.prepareStatement("SELECT table_name, row_key FROM Change_Log WHERE seq > ?")) {
+			pstmt.setLong(1, mark);
+			try (ResultSet rs = pstmt.executeQuery()) {
+				while (rs.next()) {
+					changed.computeIfAbsent(rs.getString(1), table -> new ArrayList<>()).add(rs.getString(2));
+				}
+			}
+		}
+
+		// stations first, so a bike docked at a new station has somewhere to go
+		for (String key : changed.getOrDefault("Station", Collections.emptyList())) {
+			int id = Integer.parseInt(key);
+			try (PreparedStatement pstmt = conn.prepareStatement("SELECT * FROM Station WHERE id = ?")) {
+				pstmt.setInt(1, id);
+				try (ResultSet rs = pstmt.executeQuery()) {
+					Station old = stationsMap.remove(id);
+					if (rs.next()) {
+						// the station keeps its docked bikes; changes to those are read back from Station_Dock
+						Station station = readStation(rs);
+						if (old != null) {
+							for (int bikeId : old.getBikeIds()) {
+								station.addToBikeList(bikeId);
+							}
+						}
+						stationsMap.put(id, station);
+					}
+				}
+			}
+		}
+
+		List<String> docks = changed.getOrDefault("Station_Dock", Collections.emptyList());
+		if (!docks.isEmpty()) {
+			Map<Integer, Integer> dockedAt = new HashMap<>();
+			for (Map.Entry<Integer, Station> entry : stationsMap.entrySet()) {
+				for (int bikeId : entry.getValue().getBikeIds()) {
+					dockedAt.put(bikeId, entry.getKey());
+				}
+			}
+			try (PreparedStatement pstmt = conn.prepareStatement("SELECT station_id FROM Station_Dock WHERE bike_id = ?")) {
+				for (String key : docks) {
+					int bikeId = Integer.parseInt(key);
+					Station from = dockedAt.containsKey(bikeId) ? stationsMap.get(dockedAt.get(bikeId)) : null;
+					if (from != null) {
+						from.removeFromBikeList(bikeId);
+					}
+					pstmt.setInt(1, bikeId);
+					try (ResultSet rs = pstmt.executeQuery()) {
+						Station to = rs.next() ? stationsMap.get(rs.getInt(1)) : null;
+						if (to != null) {
+							to.addToBikeList(bikeId);
+						}
+					}
+				}
+			}
+		}
+
+		try (PreparedStatement pstmt = conn.prepareStatement("SELECT * FROM Bike WHERE id = ?")) {
+			for (String key : changed.getOrDefault("Bike", Collections.emptyList())) {
+				int id = Integer.parseInt(key);
+				pstmt.setInt(1, id);
+				try (ResultSet rs = pstmt.executeQuery()) {
+					Bike bike = rs.next() ? readBike(rs) : null;
+					mntReqs.remove(id);
+					if (bike == null) {
+						bikesMap.remove(id);
+						continue;
+					}
+					if (bike.getMnt()) {
+						addToMntRqs(id, bike.getMntReport());
+					}
+					bikesMap.put(id, bike);
+				}
+			}
+		}
+
+		try (PreparedStatement pstmt = conn.prepareStatement(SELECT_CUSTOMER_ACCOUNTS_SQL + " WHERE c.username = ?")) {
+			for (String username : changed.getOrDefault("Customer_Account", Collections.emptyList())) {
+				pstmt.setString(1, username);
+				try (ResultSet rs = pstmt.executeQuery()) {
+					if (rs.next()) {
+						customerAccountMap.put(username, readCustomerAccount(rs));
+					} else {
+						customerAccountMap.remove(username);
+					}
+				}
+			}
+		}
+
+		try (PreparedStatement pstmt = conn.prepareStatement("SELECT * FROM Internal_Account WHERE username = ?")) {
+			for (String username : changed.getOrDefault("Internal_Account", Collections.emptyList())) {
+				pstmt.setString(1, username);
+				try (ResultSet rs = pstmt.executeQuery()) {
+					if (rs.next()) {
+						internalAccountMap.put(username, readInternalAccount(rs));
+					} else {
+						internalAccountMap.remove(username);
+					}
+				}
+			}
+		}
+
+		int rows = 0;
+		for (List<String> keys : changed.values()) {
+			rows += keys.size();
+		}
+		return rows;
+	}
 
+	/**
+	 * Moves a closed ride out of the ride map and into the ride archive
+	 * If there is no archive, or it cannot be written, the ride simply stays in the ride map
+	 *
+	 * @param ride the ride that has just been returned
+	 */
+	private static void archiveRide(Ride ride) {
+		RideArchive archive = rideArchive;
+		if (archive == null || ride == null || !ride.getIsReturned()) {
+			return;
+		}
+
+		try {
+			// archive before removing, so the ride can always be found in one or the other
+			archive.append(ride);
+			rideMap.remove(ride.getRideId());
+		} catch (IOException e) {
+			System.out.println("Sorry, could not archive this ride at this time.");
 		}
 	}
 
@@ -331,8 +1068,8 @@ public class ValleyBikeSim {
 		+ "WHERE id = ?";
 
 		//update sql database
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+		try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("updateStationMntRqsts")) {
+			PreparedStatement pstmt = conn.prepareStatement(sql);
 			// set the corresponding param
 			pstmt.setInt(1, mntRqsts);
 			pstmt.setInt(2, stationId);
@@ -340,10 +1077,13 @@ public class ValleyBikeSim {
 			pstmt.executeUpdate();
 
 			//update station data in map
-			stationsMap.get(stationId).setMaintenanceRequest(mntRqsts);
+			Station station = stationsMap.get(stationId);
+			fleetMetrics.add(FleetMetrics.Total.MAINTENANCE_REQUESTS, mntRqsts - station.getMaintenanceRequest());
+			station.setMaintenanceRequest(mntRqsts);
 
 			return true;
 		} catch (SQLException e) {
+			PersistenceMetrics.recordError("updateStationMntRqsts", e);
 			System.out.println("Sorry, could not update station maintenance requests in the database at this time.");
 			return false;
 		}
@@ -361,13 +1101,14 @@ public class ValleyBikeSim {
 	static void updateMembershipRidesLeft(String username, int ridesLeft) throws ClassNotFoundException {
 		String sql = "UPDATE Membership SET total_rides_left = ? WHERE username = ?";
 		System.out.println("updating ridesleft to" + ridesLeft);
-		try(Connection conn = connectToDatabase();
-			PreparedStatement pstmt = conn.prepareStatement(sql)) {
+		try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("updateMembershipRidesLeft")) {
+			PreparedStatement pstmt = conn.prepareStatement(sql);
 			pstmt.setInt(1, ridesLeft);
 			pstmt.setString(2, username);
 
 			pstmt.executeUpdate();
 		} catch (SQLException e) {
+			PersistenceMetrics.recordError("updateMembershipRidesLeft", e);
 			System.out.println("Sorry, could not update rides left in database at this time.");
 		}
 	}
@@ -381,15 +1122,11 @@ public class ValleyBikeSim {
 	 * @throws ClassNotFoundException
 	 */
 	static void updateBalanceInDB(String username, double balance) throws SQLException, ClassNotFoundException {
-		String sql = "UPDATE Customer_Account SET balance = ? WHERE username = ?";
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
-			pstmt.setDouble(1, balance);
-			pstmt.setString(2, username);
+		UnitOfWork unitOfWork = new UnitOfWork("updateBalanceInDB");
+		unitOfWork.addUpdate("UPDATE Customer_Account SET balance = ? WHERE username = ?", balance, username);
 
-			System.out.println("I TRIED" + balance);
-			pstmt.executeUpdate();
-		} catch (SQLException e) {
+		System.out.println("I TRIED" + balance);
+		if (!unitOfWork.commit()) {
 			System.out.println("Sorry, could not update balance in database at this time.");
 		}
 	}
@@ -404,19 +1141,12 @@ public class ValleyBikeSim {
 	 * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
 	 */
 	static Boolean addBikeToStation(int stationId, int bikeId) throws ClassNotFoundException {
-		// set sql query
-		String sql = "UPDATE Station SET bike_string = ? "
-				+ "WHERE id = ?";
-
-		// get station bike list string
-		String bikeIdsString = stationsMap.get(stationId).getBikeListToString();
-
 		// try connection
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+		try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("addBikeToStation")) {
+			PreparedStatement pstmt = conn.prepareStatement(DOCK_BIKE_SQL);
 			// set the corresponding param
-			pstmt.setString(1, bikeIdsString);
-			pstmt.setInt(2, bikeId);
+			pstmt.setInt(1, bikeId);
+			pstmt.setInt(2, stationId);
 			// update
 			pstmt.executeUpdate();
 
@@ -425,6 +1155,7 @@ public class ValleyBikeSim {
 
 			return true;
 		} catch (SQLException e) {
+			PersistenceMetrics.recordError("addBikeToStation", e);
 			System.out.println("Sorry, could not increment number of bikes in station in database at this time.");
 
 			return false;
@@ -443,8 +1174,8 @@ public class ValleyBikeSim {
 				+ "WHERE id = ?";
 
 		//update station in database
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+		try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("updateStationBikesNum")) {
+			PreparedStatement pstmt = conn.prepareStatement(sql);
 
 			// set the corresponding param
 			pstmt.setInt(1, bikes);
@@ -455,42 +1186,13 @@ public class ValleyBikeSim {
 
 			return true;
 		} catch (SQLException e) {
+			PersistenceMetrics.recordError("updateStationBikesNum", e);
 			System.out.println("Sorry, could not update station's bikes nums in database at this time.");
 
 			return false;
 		}
 	}
 
-	/**
-	 * update actual bike object at station
-	 * @param stationId station to update
-	 * @return false if database updating failed
-	 * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
-	 */
-	static Boolean updateStationBikeList(int stationId) throws ClassNotFoundException{
-		String sql = "UPDATE Station SET bike_string = ? "
-				+ "WHERE id = ?";
-
-		// get bike list to string
-		String bikeIdsString = stationsMap.get(stationId).getBikeListToString();
-
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-			// set the corresponding param
-			pstmt.setString(1, bikeIdsString);
-			pstmt.setInt(2, stationId);
-
-			// update
-			pstmt.executeUpdate();
-
-			return true;
-		} catch (SQLException e) {
-			System.out.println("Sorry, could not update station's bike list in database");
-			return false;
-		}
-	}
-
 
 	/**
 	 * Update the station id that the bike is registered at
@@ -505,8 +1207,8 @@ public class ValleyBikeSim {
 				+ "WHERE id = ?";
 
 		//set new station id in database
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+		try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("updateBikeStationId")) {
+			PreparedStatement pstmt = conn.prepareStatement(sql);
 			// set the corresponding param
 			pstmt.setInt(1, newStationId);
 			pstmt.setInt(2, bikeId);
@@ -518,6 +1220,7 @@ public class ValleyBikeSim {
 
 			return true;
 		} catch (SQLException e) {
+			PersistenceMetrics.recordError("updateBikeStationId", e);
 			System.out.println("Sorry, could not update bike's station id in database at this time.");
 			return true;
 		}
@@ -536,8 +1239,8 @@ public class ValleyBikeSim {
 				+ "WHERE id = ?";
 
 		//update location in database
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+		try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("updateBikeLocation")) {
+			PreparedStatement pstmt = conn.prepareStatement(sql);
 
 			// set the corresponding param
 			pstmt.setInt(1, newBikeLocation);
@@ -551,6 +1254,7 @@ public class ValleyBikeSim {
 
 			return true;
 		} catch (SQLException e) {
+			PersistenceMetrics.recordError("updateBikeLocation", e);
 			System.out.println("Sorry, could not update bike location in database at this time.");
 			return false;
 		}
@@ -566,41 +1270,27 @@ public class ValleyBikeSim {
 	 * @return false if database updating failed
 	 * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
 	 */
-	static Boolean updateBikeRqMnt(int bikeId, boolean req_mnt, String new_mnt_report) throws ClassNotFoundException {
-		String sql = "UPDATE Bike SET req_mnt = ?, mnt_report = ?"
-				+ "WHERE id = ?";
-
-		//update maintenance request in database
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-			// change boolean to binary
-			int req_mnt_int = 0;
-			if (req_mnt) req_mnt_int = 1;
+	static Boolean updateBikeRqMnt(final int bikeId, final boolean req_mnt, final String new_mnt_report) throws ClassNotFoundException {
+		UnitOfWork unitOfWork = new UnitOfWork("updateBikeRqMnt");
+		unitOfWork.addUpdate("UPDATE Bike SET req_mnt = ?, mnt_report = ? WHERE id = ?", req_mnt, new_mnt_report, bikeId);
 
-			// set the corresponding param
-			pstmt.setInt(1, req_mnt_int);
-			pstmt.setString(2, new_mnt_report);
-			pstmt.setInt(3, bikeId);
-
-			// update
-			pstmt.executeUpdate();
-
-			//update maintenance request in bike map
+		//update maintenance request in bike map
+		unitOfWork.afterCommit(() -> {
 			bikesMap.get(bikeId).setMnt(req_mnt);
 			bikesMap.get(bikeId).setMntReport(new_mnt_report);
 
 			// if bike requires maintenance
 			if(req_mnt){
 				// add bike id and report to map of maintenance requests
-				mntReqs.put(bikeId, new_mnt_report);
+				addToMntRqs(bikeId, new_mnt_report);
 			}
+		});
 
-			return true;
-		} catch (SQLException e) {
+		if (!unitOfWork.commit()) {
 			System.out.println("Sorry, could not update bike maintenance in database at this time.");
 			return false;
 		}
+		return true;
 	}
 
 	/**
@@ -611,31 +1301,23 @@ public class ValleyBikeSim {
 	 * @return false if database updating failed
 	 * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
 	 */
-	static Boolean updateRideIsReturned(UUID rideId, Boolean isReturned) throws ClassNotFoundException {
-		String sql = "UPDATE Ride SET is_returned = ? "
-				+ "WHERE ride_id = ?";
-
-		//update ride in database
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+	static Boolean updateRideIsReturned(final UUID rideId, final Boolean isReturned) throws ClassNotFoundException {
+		UnitOfWork unitOfWork = new UnitOfWork("updateRideIsReturned");
+		unitOfWork.addUpdate("UPDATE Ride SET is_returned = ? WHERE ride_id = ?", isReturned, Ride.idToBytes(rideId));
 
-			if (isReturned) pstmt.setInt(1, 1);
-			else pstmt.setInt(1, 0);
-
-			// set the corresponding param
-			pstmt.setString(2, rideId.toString());
-
-			// update
-			pstmt.executeUpdate();
-
-			//update ride in ride map
-			rideMap.get(rideId).setIsReturned(isReturned);
+		//update ride in ride map
+		unitOfWork.afterCommit(() -> {
+			Ride ride = rideMap.get(rideId);
+			if (ride != null) {
+				ride.setIsReturned(isReturned);
+			}
+		});
 
-			return true;
-		} catch (SQLException e) {
+		if (!unitOfWork.commit()) {
 			System.out.println("Sorry, could not update email address in database at this time.");
 			return false;
 		}
+		return true;
 	}
 
 	/**
@@ -651,22 +1333,26 @@ public class ValleyBikeSim {
 				+ "WHERE ride_id = ?";
 
 		//update ride end time in database
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+		try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("updateRideEndTimeStamp")) {
+			PreparedStatement pstmt = conn.prepareStatement(sql);
 
 			// set the corresponding param
-			pstmt.setString(1, rideId.toString());
+			pstmt.setLong(1, end_time_stamp.toEpochMilli());
 
-			pstmt.setString(2, end_time_stamp.toString());
+			pstmt.setBytes(2, Ride.idToBytes(rideId));
 
 			// update
 			pstmt.executeUpdate();
 
 			//update ride end timestamp in ride map
-			rideMap.get(rideId).setEndTimeStamp(end_time_stamp);
+			Ride ride = rideMap.get(rideId);
+			if (ride != null) {
+				ride.setEndTimeStamp(end_time_stamp);
+			}
 
 			return true;
 		} catch (SQLException e) {
+			PersistenceMetrics.recordError("updateRideEndTimeStamp", e);
 			System.out.println("Sorry, could not update email address in database at this time.");
 			return false;
 		}
@@ -685,23 +1371,27 @@ public class ValleyBikeSim {
 				+ "WHERE ride_id = ?";
 
 		//update ride payment in database
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+		try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("updateRidePayment")) {
+			PreparedStatement pstmt = conn.prepareStatement(sql);
 
 			pstmt.setDouble(1, payment);
 
 			// set the corresponding param
-			pstmt.setString(2, rideId.toString());
+			pstmt.setBytes(2, Ride.idToBytes(rideId));
 
 			// update
 			pstmt.executeUpdate();
 
 			//update payment for ride in ride map
-			rideMap.get(rideId).setPayment(payment);
+			Ride ride = rideMap.get(rideId);
+			if (ride != null) {
+				ride.setPayment(payment);
+			}
 
 			return true;
 
 		} catch (SQLException e) {
+			PersistenceMetrics.recordError("updateRidePayment", e);
 			System.out.println("Sorry, could not update email address in database at this time.");
 			return false;
 		}
@@ -719,20 +1409,29 @@ public class ValleyBikeSim {
 				+ "WHERE ride_id = ?";
 
 		//update ride payment in database
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+		try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("updateRideStationTo")) {
+			PreparedStatement pstmt = conn.prepareStatement(sql);
 
 			pstmt.setInt(1, station_to);
-			pstmt.setString(2, rideId.toString());
+			pstmt.setBytes(2, Ride.idToBytes(rideId));
 
 			// update
 			pstmt.executeUpdate();
 
 			//update payment for ride in ride map
-			rideMap.get(rideId).setStationTo(station_to);
+			Ride ride = rideMap.get(rideId);
+			if (ride != null) {
+				ride.setStationTo(station_to);
+			}
+
+			// the ride now ends at this station
+			Instant endTimeStamp = ride != null && ride.getEndTimeStamp() != null ? ride.getEndTimeStamp() : Instant.now();
+			stationUsage.recordVisit(station_to, endTimeStamp);
+			demandForecast.recordArrival(station_to, endTimeStamp);
 
 			return true;
 		} catch (SQLException e) {
+			PersistenceMetrics.recordError("updateRideStationTo", e);
 			System.out.println("Sorry, could not update email address in database at this time.");
 			return false;
 		}
@@ -750,20 +1449,24 @@ public class ValleyBikeSim {
 				+ "WHERE ride_id = ?";
 
 		//update ride payment in database
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+		try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("updateRideLength")) {
+			PreparedStatement pstmt = conn.prepareStatement(sql);
 
 			pstmt.setLong(1, ride_length);
-			pstmt.setString(2, rideId.toString());
+			pstmt.setBytes(2, Ride.idToBytes(rideId));
 
 			// update
 			pstmt.executeUpdate();
 
 			//update payment for ride in ride map
-			rideMap.get(rideId).setRideLength(ride_length);
+			Ride ride = rideMap.get(rideId);
+			if (ride != null) {
+				ride.setRideLength(ride_length);
+			}
 
 			return true;
 		} catch (SQLException e) {
+			PersistenceMetrics.recordError("updateRideLength", e);
 			System.out.println("Sorry, could not update email address in database at this time.");
 			return false;
 		}
@@ -783,8 +1486,8 @@ public class ValleyBikeSim {
 				+ "WHERE username = ?";
 
 		//update customer account in database
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+		try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("updateCustomerEmailAddress")) {
+			PreparedStatement pstmt = conn.prepareStatement(sql);
 
 			// set the corresponding param
 			pstmt.setString(1, newEmailAddress);
@@ -797,6 +1500,7 @@ public class ValleyBikeSim {
 
 			return true;
 		} catch (SQLException e) {
+			PersistenceMetrics.recordError("updateCustomerEmailAddress", e);
 			System.out.println("Sorry, could not update email address in database at this time.");
 			return false;
 		}
@@ -863,8 +1567,8 @@ public class ValleyBikeSim {
 				+ "WHERE username = ?";
 
 		//update account in database
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+		try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("updateCustomerDisabled")) {
+			PreparedStatement pstmt = conn.prepareStatement(sql);
 
 			// set the corresponding param
 			pstmt.setInt(1, 0);
@@ -878,6 +1582,7 @@ public class ValleyBikeSim {
 
 			return true;
 		} catch (SQLException e) {
+			PersistenceMetrics.recordError("updateCustomerDisabled", e);
 			System.out.println("Sorry, could not delete account at this time.");
 			return false;
 		}
@@ -896,8 +1601,8 @@ public class ValleyBikeSim {
 				+ "WHERE username = ?";
 
 		//update customer email address in database
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+		try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("updateInternalEmailAddress")) {
+			PreparedStatement pstmt = conn.prepareStatement(sql);
 
 			// set the corresponding param
 			pstmt.setString(1, newEmailAddress);
@@ -911,6 +1616,7 @@ public class ValleyBikeSim {
 
 			return true;
 		} catch (SQLException e) {
+			PersistenceMetrics.recordError("updateInternalEmailAddress", e);
 			System.out.println("Sorry, could not update email address in database at this time.");
 			return false;
 		}
@@ -929,8 +1635,8 @@ public class ValleyBikeSim {
 				+ "WHERE username = ?";
 
 		//update customer username in database
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+		try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("updateCustomerUsername")) {
+			PreparedStatement pstmt = conn.prepareStatement(sql);
 
 			// set the corresponding param
 			pstmt.setString(1, newUsername);
@@ -949,6 +1655,7 @@ public class ValleyBikeSim {
 
 			return true;
 		} catch (SQLException e) {
+			PersistenceMetrics.recordError("updateCustomerUsername", e);
 			System.out.println("Sorry, could not update username in database at this time.");
 			return false;
 		}
@@ -965,8 +1672,8 @@ public class ValleyBikeSim {
 				+ "WHERE username = ?";
 
 		//update customer username in database
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+		try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("updateRideUsername")) {
+			PreparedStatement pstmt = conn.prepareStatement(sql);
 
 			// set the corresponding param
 			pstmt.setString(1, newUsername);
@@ -974,77 +1681,57 @@ public class ValleyBikeSim {
 			// update
 			pstmt.executeUpdate();
 
-			for (Map.Entry<UUID, Ride> ride: rideMap.entrySet()){
-				if (ride.getValue().getUsername().equals(username)){
-					ride.getValue().setUsername(newUsername);
-				}
-			}
-
-			return true;
-		} catch (SQLException | ClassNotFoundException e) {
-			System.out.println("Sorry, could not update username in database at this time.");
-			return false;
-		}
-	}
-
-	/**
-	 * updates username in the membership table in the database
-	 * @param username original username
-	 * @param newUsername new username
-	 * @return false if database updating failed
-	 */
-	private static Boolean updateMembershipUsername(String username, String newUsername){
-
-		String sql = "UPDATE Membership SET username = ? "
-				+ "WHERE username = ?";
-
-		//update customer username in database
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-			// set the corresponding param
+			// the customer's ride totals follow their rides
+			pstmt = conn.prepareStatement("UPDATE Customer_Ride_Stats SET username = ? WHERE username = ?");
 			pstmt.setString(1, newUsername);
 			pstmt.setString(2, username);
-			// update
 			pstmt.executeUpdate();
 
+			for (Map.Entry<UUID, Ride> ride: rideMap.entrySet()){
+				if (ride.getValue().getUsername().equals(username)){
+					ride.getValue().setUsername(newUsername);
+				}
+			}
+
+			// archived rides share one dictionary entry per username, so only that entry changes
+			RideArchive archive = rideArchive;
+			if (archive != null) {
+				archive.renameUser(username, newUsername);
+			}
+
 			return true;
-		} catch (SQLException | ClassNotFoundException e) {
+		} catch (SQLException | ClassNotFoundException | IOException e) {
+			PersistenceMetrics.recordError("updateRideUsername", e);
 			System.out.println("Sorry, could not update username in database at this time.");
 			return false;
 		}
 	}
 
 	/**
-	 * update customer's list of rides they've taken
-	 *
-	 * @param username username of account to be updated
-	 * @param rideId   new ride to add to list
+	 * updates username in the membership table in the database
+	 * @param username original username
+	 * @param newUsername new username
 	 * @return false if database updating failed
-	 * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
 	 */
-	static Boolean updateRideIdList(String username, UUID rideId) throws ClassNotFoundException {
-		String sql = "UPDATE Customer_Account SET ride_id_string = ? "
-				+ "WHERE username = ?";
-
-		//add new ride to customer's ride list
-		customerAccountMap.get(username).addNewRide(rideId);
+	private static Boolean updateMembershipUsername(String username, String newUsername){
 
-		String rideIdString = customerAccountMap.get(username).getRideIdListToString();
+		String sql = "UPDATE Membership SET username = ? "
+				+ "WHERE username = ?";
 
-		//update customer's ride list in database
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+		//update customer username in database
+		try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("updateMembershipUsername")) {
+			PreparedStatement pstmt = conn.prepareStatement(sql);
 
 			// set the corresponding param
-			pstmt.setString(1, rideIdString);
+			pstmt.setString(1, newUsername);
 			pstmt.setString(2, username);
 			// update
 			pstmt.executeUpdate();
 
 			return true;
-		} catch (SQLException e) {
-			System.out.println("Sorry, could not add ride id to list in database at this time.");
+		} catch (SQLException | ClassNotFoundException e) {
+			PersistenceMetrics.recordError("updateMembershipUsername", e);
+			System.out.println("Sorry, could not update username in database at this time.");
 			return false;
 		}
 	}
@@ -1068,8 +1755,8 @@ public class ValleyBikeSim {
 		}
 
 		//update field in database
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+		try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("updateCustomerLastRideisReturned")) {
+			PreparedStatement pstmt = conn.prepareStatement(sql);
 
 			// set the corresponding param
 			pstmt.setInt(1, lastRideReturnedInt);
@@ -1082,6 +1769,7 @@ public class ValleyBikeSim {
 
 			return true;
 		} catch (SQLException e) {
+			PersistenceMetrics.recordError("updateCustomerLastRideisReturned", e);
 			System.out.println("Sorry, could not add ride id to list in database at this time.");
 			return false;
 		}
@@ -1100,8 +1788,8 @@ public class ValleyBikeSim {
 				+ "WHERE username = ?";
 
 		//update customer password in database
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+		try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("updateCustomerPassword")) {
+			PreparedStatement pstmt = conn.prepareStatement(sql);
 
 			// set the corresponding param
 			pstmt.setString(1, newPassword);
@@ -1115,6 +1803,7 @@ public class ValleyBikeSim {
 			return true;
 
 		} catch (SQLException e) {
+			PersistenceMetrics.recordError("updateCustomerPassword", e);
 			System.out.println("Sorry, could not update password in database at this time.");
 			return false;
 		}
@@ -1133,8 +1822,8 @@ public class ValleyBikeSim {
 				+ "WHERE username = ?";
 
 		//update credit card for customer in database
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+		try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("updateCustomerCreditCard")) {
+			PreparedStatement pstmt = conn.prepareStatement(sql);
 
 			// set the corresponding param
 			pstmt.setString(1, newCreditCard);
@@ -1148,6 +1837,7 @@ public class ValleyBikeSim {
 
 			return true;
 		} catch (SQLException e) {
+			PersistenceMetrics.recordError("updateCustomerCreditCard", e);
 			System.out.println("Sorry, could not update credit card information in database at this time.");
 			return false;
 		}
@@ -1172,8 +1862,8 @@ public class ValleyBikeSim {
 					+ "WHERE username = ?";
 
 			//update membership type in database
-			try (Connection conn = connectToDatabase();
-				 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+			try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("updateCustomerMembership")) {
+				PreparedStatement pstmt = conn.prepareStatement(sql);
 
 				// set the corresponding param
 				pstmt.setInt(1, newMembership);
@@ -1203,6 +1893,7 @@ public class ValleyBikeSim {
 
 				return true;
 			} catch (SQLException e) {
+				PersistenceMetrics.recordError("updateCustomerMembership", e);
 				System.out.println("Sorry, could not update membership in database at this time.");
 				return false;
 			}
@@ -1223,8 +1914,8 @@ public class ValleyBikeSim {
 				+ "WHERE username = ?";
 
 		//update username in database
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+		try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("updateInternalUsername")) {
+			PreparedStatement pstmt = conn.prepareStatement(sql);
 
 			// set the corresponding param
 			pstmt.setString(1, newUsername);
@@ -1243,6 +1934,7 @@ public class ValleyBikeSim {
 
 			return true;
 		} catch (SQLException e) {
+			PersistenceMetrics.recordError("updateInternalUsername", e);
 			System.out.println("Sorry, could not update username in database at this time.");
 			return false;
 		}
@@ -1262,8 +1954,8 @@ public class ValleyBikeSim {
 				+ "WHERE username = ?";
 
 		//update internal password in database
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+		try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("updateInternalPassword")) {
+			PreparedStatement pstmt = conn.prepareStatement(sql);
 
 			// set the corresponding param
 			pstmt.setString(1, newPassword);
@@ -1277,6 +1969,7 @@ public class ValleyBikeSim {
 
 			return true;
 		} catch (SQLException e) {
+			PersistenceMetrics.recordError("updateInternalPassword", e);
 			System.out.println("Sorry, could not update password in database at this time.");
 			return false;
 		}
@@ -1284,23 +1977,13 @@ public class ValleyBikeSim {
 
 	/**
 	 * get average length of ride taken by a user
+	 * Comes from the customer's ride totals, so it does not read their ride history
 	 *
 	 * @param username username of account whose rides to view and average
-	 * @return the average ride length for the customer
+	 * @return the average length of the customer's returned rides
 	 */
 	static int viewAverageRideTime(String username) {
-		ArrayList<UUID> rideIdList = customerAccountMap.get(username).getRideIdList();
-		int totalRideTime = 0;
-		//get total ride time
-		for (UUID ride : rideIdList) {
-			totalRideTime += rideMap.get(ride).getRideLength();
-		}
-		//divide total ride time by number of rides to get average ride time
-		if (rideIdList.size() == 0) {
-			return 0;
-		} else {
-			return totalRideTime / rideIdList.size();
-		}
+		return customerAccountMap.get(username).getRideStats().getAverageMinutes();
 	}
 
 	/**
@@ -1353,180 +2036,112 @@ public class ValleyBikeSim {
 	 * @param username is the unique username associated with the customer account
 	 * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
 	 */
+	@SuppressWarnings("try")
 	static void checkBikeRented(String username) throws ClassNotFoundException {
 		// get customer object
 		CustomerAccount customer = ValleyBikeSim.getCustomerObj(username);
 
-		// true if last ride was returned
-		Boolean isReturned = customer.getIsReturned();
+		// hold the account so a return from another session cannot happen halfway through
+		try (StripedLocks.Held held = accountLocks.lock(username)) {
+			// true if last ride was returned
+			Boolean isReturned = customer.getIsReturned();
 
-		if (!isReturned) {
-			UUID ride = customer.getLastRideId();
-			if (rideMap.get(ride).isRented24Hours()) {
-				// if rental exceeds 24 hours, charge account 150 and notify user
-				//credit card was pre-validated when bike was rented to ensure charge would be valid
-				System.out.println("Your bike rental has exceeded 24 hours. You have been charged a late fee of " +
-						"$150 to your credit card.");
+			if (!isReturned) {
+				UUID ride = customer.getLastRideId();
+				if (rideMap.get(ride).isRented24Hours()) {
+					// if rental exceeds 24 hours, charge account 150 and notify user
+					//credit card was pre-validated when bike was rented to ensure charge would be valid
+					System.out.println("Your bike rental has exceeded 24 hours. You have been charged a late fee of " +
+							"$150 to your credit card.");
 
-				//ASSUMPTION: if bike has been rented over 24 hours, it is probably lost or stolen forever
-				//so proceed like ride has been returned, to "station 0" (the checked-out station)
-				//this allows user to rent bikes again, and prevents them from being fined again for same bike
+					//ASSUMPTION: if bike has been rented over 24 hours, it is probably lost or stolen forever
+					//so proceed like ride has been returned, to "station 0" (the checked-out station)
+					//this allows user to rent bikes again, and prevents them from being fined again for same bike
 
-				// if statements check for if the updating failed and thus exits
-				// before any changes can be made
+					// close the ride, its totals and the account together, so a failure leaves none of them changed
+					// the bike stays at station 0, so only the account needs holding
+					final Ride overdueRide = rideMap.get(ride);
+					UnitOfWork unitOfWork = new UnitOfWork("checkBikeRented");
 
-				if(!updateRideIsReturned(ride, true)){
-					return;
-				}
+					// the ride keeps its recorded length, so the lost days do not count as riding
+					stageCloseRide(unitOfWork, overdueRide, Instant.now(), 0, overdueRide.getRideLength());
 
-				if(!updateRideEndTimeStamp(ride, Instant.now())){
-					return;
-				}
+					// the late fee goes on the credit card, so the ride itself adds nothing to what the customer spent
+					stageRideStats(unitOfWork, username, ride, overdueRide.getRideLength(), overdueRide.getPayment());
 
-				if(!updateRideStationTo(ride, 0)){
-					return;
-				}
+					stageCustomerLastRideIsReturned(unitOfWork, username, true);
 
-				if(!updateCustomerLastRideisReturned(username, true)) {
-						return;
-				}
+					// the ride will not change again
+					unitOfWork.afterCommit(() -> archiveRide(overdueRide));
 
-			} else {
-				//if rental is under 24 hours, just remind them they have a rental
-				System.out.println("Reminder that you currently have a bike rented. " +
-						"It must be returned within 24 hours of check-out.");
+					if (!unitOfWork.commit()) {
+						System.out.println("Sorry, could not close your overdue rental in the database at this time.");
+					}
+
+				} else {
+					//if rental is under 24 hours, just remind them they have a rental
+					System.out.println("Reminder that you currently have a bike rented. " +
+							"It must be returned within 24 hours of check-out.");
+				}
 			}
 		}
 	}
 
 	/**
-	 * Whenever the program is running and no one is logged in, check to see whether time to renew memberships
+	 * Checks whether it is time to renew memberships, every RENEWAL_CHECK_MINUTES while the program runs
 	 * If it is time, renew memberships (charge card, refill rides, reset last paid date)
-	 * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+	 * The renewals run at most once a day; see MembershipRenewal
 	 */
-	static void checkMembershipRenewalTime() throws ClassNotFoundException {
-		//check each user's membership to find whether their payment is due
-		for (String username : customerAccountMap.keySet()) {
-			// initiate key for iterator
-			CustomerAccount user = customerAccountMap.get(username);
-			if (user.getMembership().checkPaymentDue()) {
-				if (ValleyBikeController.isValidCreditCard(user.getCreditCard())) {
-					if (user.getMembership().getMembershipInt() == 2) {
-						user.getMembership().setTotalRidesLeft(20);
-					} else if (user.getMembership().getMembershipInt() == 3) {
-						user.getMembership().setTotalRidesLeft(260);
-					}
-
-					user.getMembership().setLastPayment(LocalDate.now());
-
-					//ASSUMPTION: In a real system, here emails would be sent out to all members whose memberships
-					// have just been renewed, letting them know their card was charged
-				} else {
-					//if credit card cannot be charged, reset membership to pay-as-you-go
-					if(!updateCustomerMembership(username, 1)){
-						return;
-					}
-
-					//ASSUMPTION: In a real system, here we would send out emails notifying users that
-					//they had been switched to a PAYG member because their credit card was not valid
-				}
-			}
+	private static void checkMembershipRenewalTime() {
+		// with no customers loaded there is nothing to renew, so the database is not read
+		if (customerAccountMap.isEmpty()) {
+			return;
+		}
+		try {
+			MembershipRenewal.runOnce(LocalDate.now());
+		} catch (ClassNotFoundException | RuntimeException e) {
+			// a scheduled task that throws is never run again, so report it and try again at the next check
+			PersistenceMetrics.recordError("renewMemberships", e);
+			System.out.println("Sorry, could not renew memberships at this time.");
 		}
 	}
 
 	/**
+	 * Locks several customers' accounts at once, for jobs that change many accounts in one transaction
 	 *
+	 * @param usernames usernames of the customers
+	 * @return the held locks, to be closed when the job is finished with the accounts
+	 */
+	static StripedLocks.Held lockAccounts(Object... usernames) {
+		return accountLocks.lock(usernames);
+	}
+
+	/**
+	 * Read from the dashboard totals, so it does not query the database
 	 * @return an int which is the total number of customer accounts in database
-	 * @throws SQLException for database access error
-	 * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
 	 */
-	static int viewTotalUsers() throws SQLException, ClassNotFoundException {
-		Connection conn = connectToDatabase();
-		int count = 0;
-		//read in data from database to data structures
-		if (conn != null) {
-			Statement stmt = conn.createStatement();
-			//add the number of customer_accounts together
-			ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM Customer_Account");
-			while (rs.next()) {
-				count = rs.getInt("COUNT(*)");
-			}
-			conn.close();
-		}
-		//return count of all customer accounts in database
-		return count;
+	static int viewTotalUsers() {
+		return (int) fleetMetrics.get(FleetMetrics.Total.CUSTOMERS);
 	}
 
 	/**
+	 * Read from the dashboard totals, so it does not query the database
 	 * @return an int which is the sum of all the maintenance requests totaled from all stations in the database
-	 * @throws SQLException for database access error
-	 * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
 	 */
-	static int viewTotalMaintenanceRequests() throws SQLException, ClassNotFoundException {
-		Connection conn = connectToDatabase();
-		int total = 0;
-		//read in data from database to data structures
-		if (conn != null) {
-			Statement stmt = conn.createStatement();
-			//total all the maintenance requests together (which is also an int)
-			ResultSet rs = stmt.executeQuery("SELECT SUM(req_mnt) FROM Station");
-			while (rs.next()) {
-				total = rs.getInt("SUM(req_mnt)");
-			}
-			conn.close();
-		}
-		return total;
+	static int viewTotalMaintenanceRequests() {
+		return (int) fleetMetrics.get(FleetMetrics.Total.MAINTENANCE_REQUESTS);
 	}
 
 	/**
+	 * Finds the stations involved in the most rides within a span of time
+	 * Comes from the station usage counters, so it does not read any rides
 	 *
-	 * @return a map entry consisting of station id and the number of times that station was involved in rides taken
-	 * which represents the station found in most number of rides
-	 * @throws SQLException for database access error
-	 * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+	 * @param window the span of time: last hour, day, month or all time
+	 * @param k number of stations to find
+	 * @return up to k entries of station id and the number of rides that started or ended there, most popular first
 	 */
-	static Map.Entry<Integer, Integer> viewMostPopularStation() throws SQLException, ClassNotFoundException {
-		HashMap<Integer, Integer> stationCountMap = new HashMap<>();
-		Connection conn = connectToDatabase();
-		//read in data from database to data structures
-		if (conn != null) {
-			Statement stmt = conn.createStatement();
-			//get station to and station from from all the rides
-			ResultSet rs = stmt.executeQuery("SELECT station_to, station_from FROM Ride");
-			while (rs.next()) {
-				int stationTo = rs.getInt("station_to");
-				int stationFrom = rs.getInt("station_from");
-				//for each station to check if it is in map
-				if (!stationCountMap.containsKey(stationTo)){
-					//if not, add to map
-					stationCountMap.put(stationTo, 1);
-				} else {
-					//if yes, increase count of station by 1
-					stationCountMap.put(stationTo, stationCountMap.get(stationTo)+1);
-				}
-				//for each station to check if it is in map
-				if (!stationCountMap.containsKey(stationFrom)){
-					//if not, add to map
-					stationCountMap.put(stationFrom, 1);
-				} else {
-					//if yes, increase count of station by 1
-					stationCountMap.put(stationFrom, stationCountMap.get(stationFrom)+1);
-				}
-			}
-			conn.close();
-		}
-		//this is most popular station did station id and count
-		Map.Entry<Integer, Integer> maxEntry = null;
-		for (Map.Entry<Integer, Integer> entry : stationCountMap.entrySet())
-		{
-			//if count is greater than the count for maxEntry, replace maxEntry
-			if (maxEntry == null || entry.getValue().compareTo(maxEntry.getValue()) > 0)
-			{
-				maxEntry = entry;
-			}
-		}
-		//most popular station, or most frequently used station
-		return maxEntry;
+	static List<Map.Entry<Integer, Long>> viewMostPopularStations(StationUsageCounters.Window window, int k) {
+		return stationUsage.topStations(k, window, Instant.now());
 	}
 
 	/**
@@ -1611,15 +2226,8 @@ public class ValleyBikeSim {
 	 * @return the int that represents the total  capacity of all the stations added together
 	 */
 	static int viewTotalStationsCapacity(){
-		//total capacity of all the stations in station map
-		int total = 0;
-		//for all the stations in station map
-		for (int key : stationsMap.keySet()){
-			//add their capacity to total
-			Station station = stationsMap.get(key);
-			total += station.getCapacity();
-		}
-		return total;
+		//kept up to date as stations are added, so no need to add up every station
+		return (int) fleetMetrics.get(FleetMetrics.Total.STATION_CAPACITY);
 	}
 
 	/**
@@ -1627,14 +2235,30 @@ public class ValleyBikeSim {
 	 * @return the int that is the total count for all the bikes in bike map
 	 */
 	static int viewTotalBikesCount(){
-		//the total number of bikes in bike map
-		return bikesMap.size();
+		//the total number of bikes, kept up to date as bikes are added
+		return (int) fleetMetrics.get(FleetMetrics.Total.BIKES);
+	}
+
+	/**
+	 * print performance statistics for the system, such as how long
+	 * requests waited for a database connection
+	 */
+	static void viewPerformanceStats() {
+		System.out.println("PERFORMANCE STATS:");
+		System.out.println(ConnectionPool.getStats());
+		System.out.println("Dashboard totals: " + fleetMetrics);
+		System.out.println(rebalancer.getStats());
+		System.out.println("Database calls (also in " + PersistenceMetrics.DUMP_FILE + " and over JMX):");
+		for (String line : PersistenceMetrics.report()) {
+			System.out.println("  " + line);
+		}
 	}
 
 	/**
 	 * Adds new customer account to customer account map or asks the user to reenter information if account already exists.
 	 *
 	 * @param customerAccount this is the new customer account object to be added to the map
+	 * @return true if the account was added, false if it already exists or could not be saved
 	 * @throws IOException the initial menu in the controller throws IOException
 	 * @throws ParseException the initial menu in the controller throws ParseException
 	 * @throws InterruptedException when a thread that is sleeping, waiting, or is occupied is interrupted
@@ -1642,20 +2266,19 @@ public class ValleyBikeSim {
 	 * @throws NoSuchAlgorithmException when a particular cryptographic algorithm is requested but is not available in the environment.
 	 * @throws SQLException for database access error
 	 */
-	public static void addCustomerAccount(CustomerAccount customerAccount) throws IOException, ParseException, InterruptedException, ClassNotFoundException, NoSuchAlgorithmException, SQLException {
+	public static boolean addCustomerAccount(CustomerAccount customerAccount) throws IOException, ParseException, InterruptedException, ClassNotFoundException, NoSuchAlgorithmException, SQLException {
 		//if the username for the new customer account is already in the customer account map
 		if (customerAccountMap.get(customerAccount.getUsername()) != null) {
 			//print that the username already exists
 			System.out.println("Customer account with this username already exists.\nPlease try again with another username or log in.");
-			//prompt the user to input new account information again or log in
-			ValleyBikeController.initialMenu();
+			return false;
 		} else {
-			String sql = "INSERT INTO Customer_Account(username, password, email_address, credit_card, balance, last_ride_is_returned, enabled, ride_id_string) " +
-					"VALUES(?,?,?,?,?,?,?,?)";
+			String sql = "INSERT INTO Customer_Account(username, password, email_address, credit_card, balance, last_ride_is_returned, enabled) " +
+					"VALUES(?,?,?,?,?,?,?)";
 
 			//add customer account to database
-			try (Connection conn = connectToDatabase();
-				 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+			try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("addCustomerAccount")) {
+				PreparedStatement pstmt = conn.prepareStatement(sql);
 				pstmt.setString(1, customerAccount.getUsername());
 				pstmt.setString(2, customerAccount.getPassword());
 				pstmt.setString(3, customerAccount.getEmailAddress());
@@ -1663,15 +2286,18 @@ public class ValleyBikeSim {
 				pstmt.setDouble(5, customerAccount.getBalance());
 				pstmt.setInt(6, booleanToInt(customerAccount.getIsReturned()));
 				pstmt.setInt(7, booleanToInt(customerAccount.isEnabled()));
-				pstmt.setString(8, customerAccount.getRideIdListToString());
 				pstmt.executeUpdate();
 
 				//add the new customer account object to customer account map
 				customerAccountMap.put(customerAccount.getUsername(), customerAccount);
+				fleetMetrics.add(FleetMetrics.Total.CUSTOMERS, 1);
 			} catch (SQLException e) {
+				PersistenceMetrics.recordError("addCustomerAccount", e);
 				System.out.println("Sorry, something went wrong with adding new customer account to database.");
+				return false;
 			}
 		}
+		return true;
 	}
 
 	/**
@@ -1701,6 +2327,7 @@ public class ValleyBikeSim {
 	 * @param internalAccount is the new internal account to be created
 	 * @param username is the username for the internal account user who is creating this internal account
 	 *                 only existing internal accounts can create new internal accounts
+	 * @return true if the account was added, false if it already exists or could not be saved
 	 * @throws IOException the initial menu in the controller throws IOException
 	 * @throws ParseException the initial menu in the controller throws ParseException
 	 * @throws InterruptedException when a thread that is sleeping, waiting, or is occupied is interrupted
@@ -1708,32 +2335,34 @@ public class ValleyBikeSim {
 	 * @throws NoSuchAlgorithmException when a particular cryptographic algorithm is requested but is not available in the environment.
 	 * @throws SQLException for database access error
 	 */
-	public static void addInternalAccount(InternalAccount internalAccount, String username) throws IOException, ParseException, InterruptedException, ClassNotFoundException, NoSuchAlgorithmException, SQLException {
+	public static boolean addInternalAccount(InternalAccount internalAccount, String username) throws IOException, ParseException, InterruptedException, ClassNotFoundException, NoSuchAlgorithmException, SQLException {
 		//if the username for the new internal account is already in the customer account map
 		if (internalAccountMap.get(internalAccount.getUsername()) != null) {
 			//print that the username already exists
 			System.out.println("Internal account with this username already exists.\nPlease try again with another username or log in.");
-			//prompt the user to input new account information again or log in
-			ValleyBikeController.internalAccountHome(username);
+			return false;
 		} else {
 			String sql = "INSERT INTO Internal_Account(username, password, email_address) " +
 					"VALUES(?,?,?)";
 
 			//add new internal account to database
-			try (Connection conn = connectToDatabase();
-				 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+			try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("addInternalAccount")) {
+				PreparedStatement pstmt = conn.prepareStatement(sql);
 				pstmt.setString(1, internalAccount.getUsername());
 				pstmt.setString(2, internalAccount.getPassword());
 				pstmt.setString(3, internalAccount.getEmailAddress());
 				pstmt.executeUpdate();
 			} catch (SQLException e) {
+				PersistenceMetrics.recordError("addInternalAccount", e);
 				System.out.println("Sorry, something went wrong with adding new internal account to database.");
+				return false;
 			}
 
 			//if the username does not already exist
 			//add the new internal account object to internal account map
 			internalAccountMap.put(internalAccount.getUsername(), internalAccount);
 		}
+		return true;
 	}
 
 	/**
@@ -1744,20 +2373,24 @@ public class ValleyBikeSim {
 	 * @param emailAddress email address of new customer account
 	 * @param creditCard   credit card of new customer account
 	 * @param membership   membership type of new customer account
+	 * @return true if the account was created
 	 * @throws IOException failure during reading, writing and searching file or directory operations
 	 * @throws ParseException fail to parse a String that is ought to have a special format
 	 * @throws InterruptedException when a thread that is sleeping, waiting, or is occupied is interrupted
 	 * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
 	 * @throws NoSuchAlgorithmException when a particular cryptographic algorithm is requested but is not available in the environment.
 	 */
-	static void createCustomerAccount(String username, String password, String emailAddress, String creditCard, int membership) throws IOException, ParseException, InterruptedException, ClassNotFoundException, NoSuchAlgorithmException, SQLException {
+	static boolean createCustomerAccount(String username, String password, String emailAddress, String creditCard, int membership) throws IOException, ParseException, InterruptedException, ClassNotFoundException, NoSuchAlgorithmException, SQLException {
     	//create new membership instance
 		Membership membershipType = checkMembershipType(membership);
 		//create instance of customer object
 		CustomerAccount customerAccount = new CustomerAccount(username, password, emailAddress, creditCard, membershipType);
 		//add customer account to customer account map
-		addCustomerAccount(customerAccount);
+		if (!addCustomerAccount(customerAccount)) {
+			return false;
+		}
 		addMembership(membershipType, username);
+		return true;
 	}
 
 	/**
@@ -1770,8 +2403,8 @@ public class ValleyBikeSim {
 				"VALUES(?,?,?,?,?)";
 
 		//add customer account to database
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+		try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("addMembership")) {
+			PreparedStatement pstmt = conn.prepareStatement(sql);
 			pstmt.setString(1, username);
 			pstmt.setInt(2, membership.getTotalRidesLeft());
 			pstmt.setString(3, membership.getLastPayment().toString());
@@ -1779,6 +2412,7 @@ public class ValleyBikeSim {
 			pstmt.setDouble(5, membership.getMembershipInt());
 			pstmt.executeUpdate();
 		} catch (SQLException | ClassNotFoundException e) {
+			PersistenceMetrics.recordError("addMembership", e);
 			System.out.println("Sorry, something went wrong with adding new membership to database.");
 		}
 	}
@@ -1806,22 +2440,14 @@ public class ValleyBikeSim {
 
 	/**
 	 * view longest ride made by user
+	 * The customer's ride totals say which ride it is, so only that one ride is looked up
+	 *
 	 * @param username username of account to check
-	 * @return longest ride object
-	 */
-	static Ride viewLongestRide(String username){
-		//fetch all rides belonging to customer
-		ArrayList<UUID> rideIdList = customerAccountMap.get(username).getRideIdList();
-		long longestRideLength = 0;
-		Ride longestRide = null;
-		//search through every ride checking for longest one
-		for (UUID ride: rideIdList){
-			if (rideMap.get(ride).getRideLength() > longestRideLength){
-				longestRideLength = rideMap.get(ride).getRideLength();
-				longestRide = rideMap.get(ride);
-			}
-		}
-		return longestRide;
+	 * @return longest ride object, or null if none of the customer's rides has lasted a minute
+	 */
+	static Ride viewLongestRide(String username) {
+		UUID longestRideId = customerAccountMap.get(username).getRideStats().getLongestRideId();
+		return longestRideId == null ? null : getRideObj(longestRideId);
 	}
 
 	/**
@@ -1833,12 +2459,12 @@ public class ValleyBikeSim {
 	 */
 	static Boolean addStation(Station station, Integer id) throws ClassNotFoundException {
 		String sql = "INSERT INTO Station(id, name, bikes, available_docks, req_mnt, " +
-				"capacity, kiosk, address, bike_string) " +
-				"VALUES(?,?,?,?,?,?,?,?,?)";
+				"capacity, kiosk, address) " +
+				"VALUES(?,?,?,?,?,?,?,?)";
 
 		//add station to database
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+		try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("addStation")) {
+			PreparedStatement pstmt = conn.prepareStatement(sql);
 			pstmt.setInt(1, id);
 			pstmt.setString(2, station.getStationName());
 			pstmt.setInt(3, station.getBikes());
@@ -1847,14 +2473,16 @@ public class ValleyBikeSim {
 			pstmt.setInt(6, station.getCapacity());
 			pstmt.setInt(7, booleanToInt(station.getKioskBoolean()));
 			pstmt.setString(8, station.getAddress());
-			pstmt.setString(9, station.getBikeListToString());
 			pstmt.executeUpdate();
 
 			//add station to station map
 			stationsMap.put(id, station);
+			fleetMetrics.add(FleetMetrics.Total.STATION_CAPACITY, station.getCapacity());
+			fleetMetrics.add(FleetMetrics.Total.MAINTENANCE_REQUESTS, station.getMaintenanceRequest());
 
 			return true;
 		} catch (SQLException e) {
+			PersistenceMetrics.recordError("addStation", e);
 			System.out.println("Sorry, something went wrong with adding new station to database.");
 			return false;
 		}
@@ -1872,8 +2500,8 @@ public class ValleyBikeSim {
 				"VALUES(?,?,?,?,?)";
 
 		//add bike to database
-		try (Connection conn = connectToDatabase();
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+		try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("addBike")) {
+			PreparedStatement pstmt = conn.prepareStatement(sql);
 			pstmt.setInt(1, bike.getId());
 			pstmt.setInt(2, bike.getBikeLocation());
 			pstmt.setInt(3, bike.getStation());
@@ -1883,9 +2511,14 @@ public class ValleyBikeSim {
 
 			//add bike to bike map
 			bikesMap.put(bike.getId(), bike);
+			fleetMetrics.add(FleetMetrics.Total.BIKES, 1);
+			if (bike.getStation() == 0) {
+				fleetMetrics.add(FleetMetrics.Total.BIKES_RENTED, 1);
+			}
 
 			return true;
 		} catch (SQLException e) {
+			PersistenceMetrics.recordError("addBike", e);
 			System.out.println("Sorry, something went wrong with adding new bike to database.");
 			return false;
 		}
@@ -1902,229 +2535,490 @@ public class ValleyBikeSim {
 	 * @throws NoSuchAlgorithmException when a particular cryptographic algorithm is requested but is not available in the environment.
 	 */
 	static Boolean addRide(Ride ride) throws IOException, ParseException, InterruptedException, ClassNotFoundException, NoSuchAlgorithmException, SQLException {
-		if (rideMap.get(ride.getRideId()) != null) {
+		if (getRideObj(ride.getRideId()) != null) {
 			System.out.println("Ride with this id already exists.\nPlease try again with another username or log in.");
-			ValleyBikeController.initialMenu();
-
 			return false;
 		} else { //id ride id valid, add to system
-			String sql = "INSERT INTO Ride(ride_id, bike_id, username, is_returned, " +
-					"ride_length, start_time_stamp, end_time_stamp, payment, station_to, station_from) " +
-					"VALUES(?,?,?,?,?,?,?,?,?,?)";
-
-			//add ride to database
-			try (Connection conn = connectToDatabase();
-				 PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-				String ride_id = ride.getRideId().toString();
-				pstmt.setString(1, ride_id);
-				pstmt.setInt(2, ride.getBikeId());
-				pstmt.setString(3, ride.getUsername());
-
-				// change int binary to boolean
-				int is_returned_int = booleanToInt(ride.getIsReturned());
-
-				pstmt.setInt(4, is_returned_int);
-				pstmt.setLong(5, ride.getRideLength());
-				pstmt.setString(6, ride.getStartTimeStamp().toString());
-				pstmt.setString(7, ride.getEndTimeStamp().toString());
-				pstmt.setDouble(8, ride.getPayment());
-				pstmt.setInt(9, ride.getStationTo());
-				pstmt.setInt(10, ride.getStationFrom());
-
-				pstmt.executeUpdate();
+			//add ride to database and ride map
+			UnitOfWork unitOfWork = new UnitOfWork("addRide");
+			stageAddRide(unitOfWork, ride);
 
-				//add ride to ride map
-				rideMap.put(ride.getRideId(), ride);
-
-				return true;
-			} catch (SQLException e) {
+			if (!unitOfWork.commit()) {
 				System.out.println("Sorry, something went wrong with adding new ride to database.");
 				return false;
 			}
+			return true;
 		}
 	}
 
 	/**
 	 * Move a bike to a different (or no) station
 	 * Also sets station data to match this move
+	 * All of the station and bike rows for the move are written in one transaction
 	 *
 	 * @param bike bike that is being moved
 	 * @param newStationValue station ID of the station the bike is moving to
+	 * @return false if database updating failed
 	 * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be foun
 	 */
-	static void moveStation(Bike bike, int newStationValue) throws ClassNotFoundException {
-		//move bike from last station
+	@SuppressWarnings("try")
+	static Boolean moveStation(Bike bike, int newStationValue) throws ClassNotFoundException {
+		int oldStationValue = bike.getStation();
 
-		// check if bike has a current station
-		// if bike's station is 0, that means that the bike is out with a customer
-	    if (! Objects.equals(bike.getStation(),0)) { // if bike is at a station
-	        Station oldStation = stationsMap.get(bike.getStation()); // get old station object
-			oldStation.removeFromBikeList(bike.getId()); // remove bike from station's bike list
-			// update new station bike list to database
+		try (StripedLocks.Held held = stationLocks.lock(stationKey(oldStationValue), stationKey(newStationValue))) {
+			// another session moved the bike before we got the locks
+			if (bike.getStation() != oldStationValue) {
+				System.out.println("Sorry, this bike was just moved. Please try again.");
+				return false;
+			}
 
-			updateStationBikeList(bike.getStation());
+			UnitOfWork unitOfWork = new UnitOfWork("moveStation");
+			stageMoveStation(unitOfWork, bike, newStationValue);
 
-			if(!updateStationBikeList(bike.getStation())){
-				return;
+			if (!unitOfWork.commit()) {
+				System.out.println("Sorry, could not move bike in database at this time.");
+				return false;
 			}
+			return true;
 		}
+	}
+
+	/**
+	 * Gets the key to lock for a station
+	 * Station 0 stands for bikes out with customers, which are guarded by the customer's account lock instead
+	 *
+	 * @param stationId id of the station
+	 * @return the station id, or null for station 0
+	 */
+	private static Integer stationKey(int stationId) {
+		return stationId == 0 ? null : stationId;
+	}
 
-	    //update station id registered to bike
-        if(!updateBikeStationId(bike.getId(), newStationValue)){
-        	return;
-        }
+	/**
+	 * Adds the row changes for moving a bike to a different (or no) station to a unit of work
+	 * The bike and station objects are only changed once the unit of work commits
+	 *
+	 * The caller must hold the locks for the bike's old and new stations
+	 *
+	 * @param unitOfWork the unit of work collecting the changes
+	 * @param bike bike that is being moved
+	 * @param newStationValue station ID of the station the bike is moving to, 0 if it is leaving with a customer
+	 */
+	private static void stageMoveStation(UnitOfWork unitOfWork, final Bike bike, final int newStationValue) {
+		final int oldStationValue = bike.getStation();
 
 		// check if new station is a '0,' which is a placeholder station
-		if (! Objects.equals(newStationValue, 0)) {
-			Station newStation = stationsMap.get(bike.getStation()); // get new station object
-			newStation.addToBikeList(bike.getId()); //add to new station's bike list
+		// bikes at a station are available (0), bikes with a customer are live (2)
+		final int newLocation = Objects.equals(newStationValue, 0) ? 2 : 0;
+		if (Objects.equals(newStationValue, 0)) {
+			// bike leaves its station with a customer, so it has no dock row
+			unitOfWork.addUpdate(UNDOCK_BIKE_SQL, bike.getId());
+		} else {
+			// docking replaces the row for the bike's old station, if it had one
+			unitOfWork.addUpdate(DOCK_BIKE_SQL, bike.getId(), newStationValue);
+		}
 
-			// update to database
-			updateStationBikeList(bike.getStation());
-			updateBikeLocation(bike.getId(), 0);
+		//update station id and location registered to bike
+		unitOfWork.addUpdate("UPDATE Bike SET station_id = ?, location = ? WHERE id = ?",
+				newStationValue, newLocation, bike.getId());
 
-			if(!updateStationBikeList(bike.getStation())){
-				return;
+		// same move in the maps once the database has it
+		unitOfWork.afterCommit(() -> {
+			applyMoveStation(bike, stationsMap.get(oldStationValue), stationsMap.get(newStationValue), newStationValue);
+
+			// bikes at station 0 are out with customers
+			fleetMetrics.add(FleetMetrics.Total.BIKES_RENTED,
+					(newStationValue == 0 ? 1 : 0) - (oldStationValue == 0 ? 1 : 0));
+		});
+	}
+
+	/**
+	 * Moves a bike between the in-memory stations, the part of a move that happens once the database has it
+	 * Also used by FleetSimulator, which has no database
+	 *
+	 * @param bike bike that is being moved
+	 * @param oldStation station the bike is leaving, null if it was out with a customer
+	 * @param newStation station the bike is docking at, null if it is leaving with a customer
+	 * @param newStationValue station ID of the station the bike is moving to, 0 if it is leaving with a customer
+	 */
+	static void applyMoveStation(Bike bike, Station oldStation, Station newStation, int newStationValue) {
+		if (oldStation != null) {
+			oldStation.removeFromBikeList(bike.getId());
+		}
+		if (newStation != null) {
+			newStation.addToBikeList(bike.getId());
+		}
+		bike.setStation(newStationValue);
+		// bikes at a station are available (0), bikes with a customer are live (2)
+		bike.setBikeLocation(newStationValue == 0 ? 2 : 0);
+	}
+
+	/**
+	 * Rents a bike to a customer
+	 * Moves the bike off its station, records the new ride and marks the customer as having
+	 * a rental, all in one transaction so a failure never leaves a half-finished rental behind
+	 * The bike's station and the customer's account are locked for the whole rental, so another
+	 * session cannot rent the same bike or give the same customer a second bike at the same time
+	 *
+	 * @param username username of the customer renting the bike
+	 * @param bike bike being rented
+	 * @param ride the new ride, starting now
+	 * @return false if database updating failed
+	 * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+	 */
+	@SuppressWarnings("try")
+	static Boolean rentBike(String username, Bike bike, Ride ride) throws ClassNotFoundException {
+		int stationId = bike.getStation();
+
+		try (StripedLocks.Held stations = stationLocks.lock(stationKey(stationId));
+			 StripedLocks.Held accounts = accountLocks.lock(username)) {
+			// check again now that nobody else can change the bike or the customer
+			if (stationId == 0 || bike.getStation() != stationId) {
+				System.out.println("Sorry, this bike was just rented by someone else. Please choose another bike.");
+				return false;
+			}
+			if (!customerAccountMap.get(username).getIsReturned()) {
+				System.out.println("You already have a bike rented.");
+				return false;
+			}
+			if (getRideObj(ride.getRideId()) != null) {
+				System.out.println("Ride with this id already exists. Please try again.");
+				return false;
 			}
 
-			if(!updateBikeLocation(bike.getId(), 0)){
-				return;
+			UnitOfWork unitOfWork = new UnitOfWork("rentBike");
+
+			//move bike to "checked-out" station (0)
+			stageMoveStation(unitOfWork, bike, 0);
+
+			// add ride to database and map
+			stageAddRide(unitOfWork, ride);
+
+			// add ride to customer account and mark that they have a bike out
+			stageRideIdList(unitOfWork, username, ride.getRideId());
+			stageCustomerLastRideIsReturned(unitOfWork, username, false);
+
+			if (!unitOfWork.commit()) {
+				System.out.println("Sorry, could not rent this bike at this time.");
+				return false;
 			}
+			return true;
 		}
-		else {
-			if(!updateBikeLocation(bike.getId(), 2)){
-				return;
+	}
+
+	/**
+	 * Returns a rented bike to a station
+	 * Docks the bike, closes the ride, charges the customer and marks the customer as
+	 * having no rental, all in one transaction
+	 * The station and the customer's account are locked for the whole return, so the same ride
+	 * cannot be returned twice by two sessions at once
+	 *
+	 * @param username username of the customer returning the bike
+	 * @param ride the ongoing ride that is ending
+	 * @param stationId station the bike is being returned to
+	 * @param endTimeStamp time the ride ended
+	 * @return false if database updating failed
+	 * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+	 */
+	@SuppressWarnings("try")
+	static Boolean returnBike(String username, Ride ride, int stationId, Instant endTimeStamp) throws ClassNotFoundException {
+		try (StripedLocks.Held stations = stationLocks.lock(stationKey(stationId));
+			 StripedLocks.Held accounts = accountLocks.lock(username)) {
+			// another session may have returned this ride while we waited
+			if (ride.getIsReturned()) {
+				System.out.println("This bike has already been returned.");
+				return false;
+			}
+
+			UnitOfWork unitOfWork = new UnitOfWork("returnBike");
+			long rideLength = Duration.between(ride.getStartTimeStamp(), endTimeStamp).toMinutes();
+
+			// move bike to new station
+			stageMoveStation(unitOfWork, bikesMap.get(ride.getBikeId()), stationId);
+
+			// ride is now returned, with its end time, length and station
+			stageCloseRide(unitOfWork, ride, endTimeStamp, stationId, rideLength);
+
+			// charge customer for ride
+			double paymentDue = stageRentalCharge(unitOfWork, username, ride, rideLength);
+
+			// add the ride to the customer's ride totals
+			stageRideStats(unitOfWork, username, ride.getRideId(), rideLength, paymentDue);
+
+			// set the same in customer account
+			stageCustomerLastRideIsReturned(unitOfWork, username, true);
+
+			if (!unitOfWork.commit()) {
+				System.out.println("Sorry, could not return this bike at this time.");
+				return false;
 			}
+
+			// the ride will not change again
+			archiveRide(ride);
+			return true;
 		}
 	}
 
 	/**
-	 * Iterates through stations to determine ideal percentage of vehicles to capacity
-	 * for the stations, and maps station ids to their actual percentages
+	 * Adds the insert for a new ride to a unit of work
 	 *
-	 * Then goes through and pulls extra vehicles from stations with percentages over ideal
-	 * and sequentially adds those extra vehicles to stations with percentages
-	 * under ideal until both have as close as possible to the ideal percentage
+	 * @param unitOfWork the unit of work collecting the changes
+	 * @param ride ride object to add
+	 */
+	private static void stageAddRide(UnitOfWork unitOfWork, final Ride ride) {
+		unitOfWork.addUpdate(INSERT_RIDE_SQL,
+				Ride.idToBytes(ride.getRideId()),
+				ride.getBikeId(),
+				ride.getUsername(),
+				ride.getIsReturned(),
+				ride.getRideLength(),
+				ride.getStartTimeStamp().toEpochMilli(),
+				ride.getEndTimeStamp() == null ? null : ride.getEndTimeStamp().toEpochMilli(),
+				ride.getPayment(),
+				ride.getStationTo(),
+				ride.getStationFrom());
+
+		//add ride to ride map
+		unitOfWork.afterCommit(() -> {
+			rideMap.put(ride.getRideId(), ride);
+			stationUsage.recordRide(ride);
+			demandForecast.recordRide(ride);
+		});
+	}
+
+	/**
+	 * Adds the changes that mark a ride as returned to a unit of work
 	 *
-	 * This method prioritizes easily moving vehicles in order to get as many
-	 * stations within the ideal percentage as possible
-	 * However it does not prioritize stations further from the ideal percentage first
-	 * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be foun
+	 * @param unitOfWork the unit of work collecting the changes
+	 * @param ride the ride being closed
+	 * @param endTimeStamp time the ride ended
+	 * @param stationTo station the bike was returned to
+	 * @param rideLength length of the ride in minutes
 	 */
-	static void equalizeStations() throws ClassNotFoundException {
-		Map<Integer, Integer> stationsCapacity = new TreeMap<>();
-		Deque<Bike> extraBikes = new ArrayDeque<>();// Extras contains bike objects
-		int idealPercentage = getPercentageData(stationsCapacity);
+	private static void stageCloseRide(UnitOfWork unitOfWork, final Ride ride, final Instant endTimeStamp,
+									   final int stationTo, final long rideLength) {
+		unitOfWork.addUpdate("UPDATE Ride SET is_returned = ?, end_time_stamp = ?, ride_length = ?, station_to = ? "
+						+ "WHERE ride_id = ?",
+				true, endTimeStamp.toEpochMilli(), rideLength, stationTo, Ride.idToBytes(ride.getRideId()));
+
+		unitOfWork.afterCommit(() -> {
+			applyCloseRide(ride, endTimeStamp, stationTo, rideLength);
+			stationUsage.recordVisit(stationTo, endTimeStamp);
+			demandForecast.recordArrival(stationTo, endTimeStamp);
+		});
+	}
 
-		// get our bike stack from high percentage stations
-		reassignHighPercentage(stationsCapacity, idealPercentage, extraBikes);
+	/**
+	 * Marks a ride as returned in memory
+	 *
+	 * @param ride the ride being closed
+	 * @param endTimeStamp time the ride ended
+	 * @param stationTo station the bike was returned to
+	 * @param rideLength length of the ride in minutes
+	 */
+	static void applyCloseRide(Ride ride, Instant endTimeStamp, int stationTo, long rideLength) {
+		ride.setIsReturned(true);
+		ride.setEndTimeStamp(endTimeStamp);
+		ride.setRideLength(rideLength);
+		ride.setStationTo(stationTo);
+	}
 
-		// distribute our bike stack to low percentage stations
-		reassignLowPercentage(stationsCapacity, idealPercentage, extraBikes);
+	/**
+	 * Adds a new ride to the customer's ride list in a unit of work
+	 * The ride's row already records its username, so only the in-memory list changes
+	 *
+	 * @param unitOfWork the unit of work collecting the changes
+	 * @param username username of account to be updated
+	 * @param rideId new ride to add to list
+	 */
+	private static void stageRideIdList(UnitOfWork unitOfWork, String username, final UUID rideId) {
+		final CustomerAccount customer = customerAccountMap.get(username);
+		unitOfWork.afterCommit(() -> customer.addNewRide(rideId));
 	}
 
 	/**
-	 * Helper method for equalizeStations()
-	 * Iterates through station map and maps station ids to their current percentage
+	 * Sets whether the customer currently has a rental in a unit of work
 	 *
-	 * @param stationsCapacity - Map to add station percentage data to
-	 * @return ideal station percentage based on total vehicles and total capacity
+	 * @param unitOfWork the unit of work collecting the changes
+	 * @param username username of account to update
+	 * @param lastRideIsReturned boolean representing whether last bike was returned
 	 */
-	private static int getPercentageData(Map<Integer, Integer> stationsCapacity) {
-		int totalVehicles = 0;
-		int totalCapacity = 0;
+	private static void stageCustomerLastRideIsReturned(UnitOfWork unitOfWork, String username, final boolean lastRideIsReturned) {
+		final CustomerAccount customer = customerAccountMap.get(username);
 
-		//loop through stations to incrementally add total bikes and get current percentage of capacity
-		for (Integer key : stationsMap.keySet()) {
-			Station station = stationsMap.get(key);
+		unitOfWork.addUpdate("UPDATE Customer_Account SET last_ride_is_returned = ? WHERE username = ?",
+				lastRideIsReturned, username);
+		unitOfWork.afterCommit(() -> customer.setLastRideIsReturned(lastRideIsReturned));
+	}
+
+	/**
+	 * Works out what a finished ride costs and adds the charge to a unit of work
+	 * Rides are free while the membership has included rides left, apart from 15c per minute
+	 * after the first hour; once there are no included rides left every minute costs 15c
+	 * The credit card was validated when the rental was made, so it does not need to be validated again
+	 *
+	 * @param unitOfWork the unit of work collecting the changes
+	 * @param username username of account that made the rental
+	 * @param ride the ride being charged for
+	 * @param rideLength length of the ride in minutes
+	 * @return the amount the ride costs
+	 */
+	private static double stageRentalCharge(UnitOfWork unitOfWork, String username, final Ride ride, long rideLength) {
+		final CustomerAccount customer = customerAccountMap.get(username);
+		final Membership membership = customer.getMembership();
 
-			int percentage = (int) (((float) (station.getBikes()) / station.getCapacity()) * 100);
-			totalVehicles = totalVehicles + station.getBikes();
-			totalCapacity = totalCapacity + station.getCapacity();
+		//check how many included rides remain in account to determine how to charge for rental
+		final int ridesLeft = membership.getTotalRidesLeft();
+		final double paymentDue = calculateRentalCharge(ridesLeft, rideLength);
+		final double newBalance = customer.getBalance() + paymentDue;
 
-			//add station's current percentage-full to capacity map
-			stationsCapacity.put(key, percentage);
+		if (ridesLeft > 0) {
+			// use up one of the included rides
+			unitOfWork.addUpdate("UPDATE Membership SET total_rides_left = ? WHERE username = ?",
+					ridesLeft - 1, username);
 		}
-		//return ideal capacity percentage for system
-		return (int) (((float) totalVehicles / totalCapacity) * 100);
+		unitOfWork.addUpdate("UPDATE Customer_Account SET balance = ? WHERE username = ?", newBalance, username);
+		unitOfWork.addUpdate("UPDATE Ride SET payment = ? WHERE ride_id = ?", paymentDue, Ride.idToBytes(ride.getRideId()));
+
+		unitOfWork.afterCommit(() -> applyRentalCharge(customer, ride, ridesLeft, paymentDue));
+		return paymentDue;
 	}
 
 	/**
-	 * Helper method for equalizeStations()
-	 * Iterates through station percentages and takes vehicles from those
-	 * whose percentage is over 10% away from idealPercentage
+	 * Charges a customer for a ride in memory, using up one included ride if any are left
 	 *
-	 * @param stationsCapacity - Map of stations to actual percentages
-	 * @param idealPercentage  - Percentage stations should ideally have
-	 * @param extraBikes       - Stack of bikes taken from high percentage stations
-	 * @return all extra bikes that need to get reassigned
+	 * @param customer the customer who made the rental
+	 * @param ride the ride being charged for
+	 * @param ridesLeft included rides left before this ride
+	 * @param paymentDue the amount the ride costs
 	 */
-	private static Deque<Bike> reassignHighPercentage(Map<Integer, Integer> stationsCapacity,
-													  int idealPercentage, Deque<Bike> extraBikes) throws ClassNotFoundException {
-		//loop through stations to get current capacity  take away bikes until matches ideal capacity
-		for (Integer key : stationsCapacity.keySet()) {
-			int percentage = stationsCapacity.get(key);
-			Station station = stationsMap.get(key);
+	static void applyRentalCharge(CustomerAccount customer, Ride ride, int ridesLeft, double paymentDue) {
+		if (ridesLeft > 0) {
+			customer.getMembership().setTotalRidesLeft(ridesLeft - 1);
+		}
+		customer.setBalance(customer.getBalance() + paymentDue);
+		ride.setPayment(paymentDue);
+	}
 
-			LinkedList<Integer> bikesAtStation = station.getBikeList();
-
-			if ((percentage - idealPercentage) > 0) { //if station has too many bikes, remove bikes
-				int newPercentage = percentage;
-				//continues to remove vehicles as long as removing a vehicle
-				//moves the percentage closer to ideal percentage
-				while (Math.abs(newPercentage - idealPercentage) >
-						Math.abs(((int) (((float) (station.getBikes() - 1) / station.getCapacity()) * 100))
-								- idealPercentage)) {
-					if (!bikesAtStation.isEmpty()) { // if the station isn't empty
-						// move one bike from station stack to extra stack
-						int bikeID = bikesAtStation.pop();
-						Bike bike = getBikeObj(bikeID);
-						extraBikes.push(bike);
-						moveStation(bike,0); // set bike's station to 0, or no station
-
-						//new capacity percentage after reassigning
-						newPercentage = (int) (((float) (station.getBikes()) / station.getCapacity()) * 100);
-					}
-				}
-			}
+	/**
+	 * Adds a returned ride to the customer's ride totals in a unit of work
+	 * The caller must hold the customer's account lock, so no other ride is added to the totals at the same time
+	 *
+	 * @param unitOfWork the unit of work collecting the changes
+	 * @param username username of the customer
+	 * @param rideId id of the returned ride
+	 * @param rideLength length of the ride in minutes
+	 * @param payment amount charged for the ride
+	 */
+	private static void stageRideStats(UnitOfWork unitOfWork, String username, UUID rideId, long rideLength, double payment) {
+		final CustomerAccount customer = customerAccountMap.get(username);
+		final CustomerRideStats stats = customer.getRideStats().withRide(rideId, rideLength, payment);
+
+		unitOfWork.addUpdate(SAVE_RIDE_STATS_SQL,
+				username,
+				stats.getRideCount(),
+				stats.getTotalMinutes(),
+				stats.getLongestRideId() == null ? null : Ride.idToBytes(stats.getLongestRideId()),
+				stats.getLongestRideMinutes(),
+				stats.getTotalSpend(),
+				Ride.idToBytes(stats.getLastRideId()));
+		unitOfWork.afterCommit(() -> customer.setRideStats(stats));
+	}
+
+	/**
+	 * Calculates the cost of a ride
+	 *
+	 * @param ridesLeft included rides left on the customer's membership
+	 * @param rideLength length of the ride in minutes
+	 * @return the amount to charge for the ride
+	 */
+	static double calculateRentalCharge(int ridesLeft, long rideLength) {
+		//if pay-as-you-go or no free rides remaining on membership, charge by time
+		//ride cost is 15c per minute
+		if (ridesLeft == 0) {
+			return rideLength * .15;
+		}
+
+		//otherwise the ride is free for the first hour and 15c per minute after that
+		if (rideLength > 60L) {
+			return (rideLength - 60L) * .15;
 		}
-		//return all extra bikes that need to get reassigned
-		return extraBikes;
+		return 0.00;
 	}
 
 	/**
-	 * Helper method for equalizeStations()
-	 * <p>
-	 * Reassigns extra bikes and pedelecs to stations with lower percentages
-	 * Until their percentages are within appropriate range
+	 * Asks for the stations to be rebalanced in the background and returns straight away
+	 * Requests from many stations within a couple of seconds are handled by one rebalance
 	 *
-	 * @param stationsCapacity - stations with percentages deemed too low
-	 * @param idealPercentage  - percentage to aim for
-	 * @param extraBikes       - stack of extra bikes to put in stations
+	 * @param stationId the station that is almost empty or almost full
 	 */
-	private static void reassignLowPercentage(Map<Integer, Integer> stationsCapacity, int idealPercentage, Deque<Bike> extraBikes) throws ClassNotFoundException {
-		//loop through stations and add bikes until matches ideal capacity
-		for (Integer stationKey : stationsCapacity.keySet()) {
-			Station station = stationsMap.get(stationKey);
+	static void requestRebalance(int stationId) {
+		rebalancer.request(stationId);
+	}
 
-			int newPercentage = stationsCapacity.get(stationKey);
+	/**
+	 * Stops the background rebalancing thread when the program shuts down
+	 */
+	static void stopRebalancing() {
+		rebalancer.shutdown();
+	}
 
-			// continues to add vehicles as long as adding a vehicle
-			// moves the percentage closer to ideal percentage
-			// and there are still extra vehicles to add
-			while (Math.abs(newPercentage - idealPercentage) >
-					Math.abs((int) (((float) (station.getBikes() + 1) /
-							station.getCapacity()) * 100)) - idealPercentage) {
+	/**
+	 * Moves bikes between stations so every station is ready for the next PREPOSITION_HOURS of rides
+	 *
+	 * Each station gets its even share of the bikes, plus the rides the demand forecast expects to leave it
+	 * minus those expected to arrive, so stations that empty out every morning are filled up beforehand.
+	 * With no ride history every station just gets the same share of its capacity
+	 *
+	 * RebalancePlanner works out the fewest bikes to move and where each should go, then every move
+	 * in the plan is written in one transaction. Bikes go straight from the station with too many to
+	 * the station that needs them, rather than through station 0
+	 *
+	 * Every station is locked while equalizing, since the plan depends on all of their counts
+	 * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be foun
+	 */
+	@SuppressWarnings("try")
+	static void equalizeStations() throws ClassNotFoundException {
+		try (StripedLocks.Held held = stationLocks.lockAll()) {
+			// read every station's counts in id order
+			List<Integer> ids = new ArrayList<>(stationsMap.keySet());
+			Collections.sort(ids);
+			int[] stationIds = new int[ids.size()];
+			int[] bikes = new int[ids.size()];
+			int[] capacity = new int[ids.size()];
+			for (int i = 0; i < stationIds.length; i++) {
+				Station station = stationsMap.get(ids.get(i));
+				stationIds[i] = ids.get(i);
+				bikes[i] = station.getBikes();
+				capacity[i] = station.getCapacity();
+			}
 
-				if (!extraBikes.isEmpty()) { // while stack isn't empty
-					Bike bike = extraBikes.pop(); // get a bike from our stack
-					moveStation(bike, stationKey); // move this bike to the current station
-				} else {
-					return;
-				} // return when stack is empty
-				//save new capacity percentage
-				newPercentage = (int) (((float) (station.getBikes()) / station.getCapacity()) * 100);
+			// stations have no coordinates, so every move costs the same
+			int[] targets = demandForecast.targets(stationIds, bikes, capacity, Instant.now(), PREPOSITION_HOURS);
+			RebalancePlanner.Plan plan = RebalancePlanner.planTo(stationIds, bikes, targets, null);
+			if (plan.transfers.isEmpty()) {
+				return;
+			}
+
+			// a station only ever gives bikes or takes them, so its bikes can be read once and handed out in turn
+			UnitOfWork unitOfWork = new UnitOfWork("equalizeStations");
+			Map<Integer, int[]> bikesToGive = new HashMap<>();
+			Map<Integer, Integer> bikesGiven = new HashMap<>();
+			for (RebalancePlanner.Transfer transfer : plan.transfers) {
+				int[] docked = bikesToGive.get(transfer.fromStation);
+				if (docked == null) {
+					docked = stationsMap.get(transfer.fromStation).getBikeIds();
+					bikesToGive.put(transfer.fromStation, docked);
+				}
+				int given = bikesGiven.getOrDefault(transfer.fromStation, 0);
+				for (int i = 0; i < transfer.bikes; i++) {
+					stageMoveStation(unitOfWork, bikesMap.get(docked[given++]), transfer.toStation);
+				}
+				bikesGiven.put(transfer.fromStation, given);
+			}
+
+			if (!unitOfWork.commit()) {
+				System.out.println("Sorry, could not equalize the stations in the database at this time.");
 			}
 		}
 	}
@@ -2206,9 +3100,66 @@ public class ValleyBikeSim {
 	 *
 	 * @param username username of account whose rides will be viewed
 	 * @return return the size of a customer's ride list
+	 * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+	 */
+	static int viewRideListLength(String username) throws ClassNotFoundException {
+		return getRideIdList(username).size();
+	}
+
+	/**
+	 * Gets every ride a customer has taken, oldest first
+	 * The list is read from the Ride table the first time it is asked for and kept on the account after that,
+	 * so customers who never look at their history never pay to load it
+	 *
+	 * @param username username of the customer
+	 * @return a read-only copy of the customer's ride ids, or an empty list if the history could not be read
+	 * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
+	 */
+	@SuppressWarnings("try")
+	static List<UUID> getRideIdList(String username) throws ClassNotFoundException {
+		CustomerAccount customer = customerAccountMap.get(username);
+
+		// rentals add their ride to the list after committing, under this same lock, so a ride
+		// cannot be read from the table and then added to the freshly loaded list a second time
+		try (StripedLocks.Held held = accountLocks.lock(username)) {
+			if (customer.getRideIdList() == null) {
+				ArrayList<UUID> rideIdList = readRideIdList(username);
+				if (rideIdList == null) {
+					return new ArrayList<>();
+				}
+				customer.setRideIdList(rideIdList);
+			}
+			return customer.getRideIdList();
+		}
+	}
+
+	/**
+	 * Reads the ids of every ride a customer has taken, in the order the rides were added
+	 *
+	 * @param username username of the customer
+	 * @return the customer's ride ids, or null if the database could not be read
+	 * @throws ClassNotFoundException tries to load a class through its string name, but no definition for the specified class name could be found
 	 */
-	static int viewRideListLength(String username) {
-		return customerAccountMap.get(username).getRideIdList().size();
+	private static ArrayList<UUID> readRideIdList(String username) throws ClassNotFoundException {
+		String sql = "SELECT ride_id FROM Ride WHERE username = ? ORDER BY rowid";
+
+		// the ride the customer just took may still be in the event log
+		try (PooledConnection conn = ConnectionPool.getConnectionAfterLog("readRideIdList")) {
+			PreparedStatement pstmt = conn.prepareStatement(sql);
+			pstmt.setString(1, username);
+
+			ArrayList<UUID> rideIdList = new ArrayList<>();
+			try (ResultSet rs = pstmt.executeQuery()) {
+				while (rs.next()) {
+					rideIdList.add(Ride.idFromBytes(rs.getBytes("ride_id")));
+				}
+			}
+			return rideIdList;
+		} catch (SQLException e) {
+			PersistenceMetrics.recordError("readRideIdList", e);
+			System.out.println("Sorry, could not read ride history from database at this time.");
+			return null;
+		}
 	}
 
 	/**
@@ -2261,7 +3212,7 @@ public class ValleyBikeSim {
 	 * @return customer account matching inputted username
 	 */
 	static CustomerAccount getCustomerObj(String key) {
-		return customerAccountMap.get(key);
+		return key == null ? null : customerAccountMap.get(key);
 	}
 
 	/**
@@ -2272,7 +3223,7 @@ public class ValleyBikeSim {
 	 * @return internal account matching inputted username
 	 */
 	static InternalAccount getInternalObj(String key) {
-		return internalAccountMap.get(key);
+		return key == null ? null : internalAccountMap.get(key);
 	}
 
 
@@ -2294,7 +3245,17 @@ public class ValleyBikeSim {
 	 * @return ride object matching inputted id
 	 */
 	static Ride getRideObj(UUID key) {
-		return rideMap.get(key);
+		if (key == null) {
+			return null;
+		}
+
+		// open rides are in the ride map, closed ones in the archive
+		Ride ride = rideMap.get(key);
+		RideArchive archive = rideArchive;
+		if (ride == null && archive != null) {
+			ride = archive.find(key);
+		}
+		return ride;
 	}
 
 	/**
@@ -2304,7 +3265,8 @@ public class ValleyBikeSim {
 	 * @param bikeID integer UD of bike
 	 */
 	static void addToMntRqs(int bikeID, String mntRq) {
-		mntReqs.put(bikeID, mntRq);
+		// the map cannot hold nulls, so a request without a report is stored as an empty report
+		mntReqs.put(bikeID, mntRq == null ? "" : mntRq);
 	}
 
 	/**
@@ -1,5 +1,5 @@
 import java.time.LocalDate;
-import java.time.Period;
+import java.time.temporal.ChronoUnit;
 
 /**
  * yearly membership extends abstract membership
@@ -10,6 +10,9 @@ public class YearlyMembership extends Membership{
     /** rides that come included in membership each year */
     private final int maxRides = 260;
 
+    /** days after the last payment that the membership renews */
+    static final int RENEWAL_DAYS = 365;
+
     /**
      * constructor uses abstract membership's constructor
      */
@@ -29,14 +32,12 @@ public class YearlyMembership extends Membership{
     }
 
     /**
-     * checks whether it is time to renew the monthly membership
-     * @return true if it has been 365+ days since last payment, false if less
+     * checks whether it is time to renew the yearly membership
+     * @param today the day to check
+     * @return true if it has been 365+ days since last payment, false if less or if it has never been paid
      */
-    public boolean checkPaymentDue(){
-        LocalDate now = LocalDate.now();
-        Period period = Period.between(now, super.getLastPayment());
-        int diff = period.getDays();
-        return (diff >= 365);
+    boolean checkPaymentDue(LocalDate today){
+        return super.getLastPayment() != null && ChronoUnit.DAYS.between(super.getLastPayment(), today) >= RENEWAL_DAYS;
     }
 
     /** checks whether there are 0 free rides left */
@@ -1,7 +1,38 @@
 import org.junit.jupiter.api.Test;
 import org.junit.Assert;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 
 class jUnitTest {
@@ -71,4 +102,896 @@ class jUnitTest {
         Assert.assertEquals(ValleyBikeController.isValidUsername(null, 2), false);
     }
 
-}
\ No newline at end of file
+    /**
+     * tests calculateRentalCharge for members with and without included rides left
+     */
+    @Test
+    public void testCalculateRentalCharge(){
+        // no included rides left, so every minute is charged
+        Assert.assertEquals(ValleyBikeSim.calculateRentalCharge(0, 20), 3.0, 0.001);
+        // included ride under an hour is free
+        Assert.assertEquals(ValleyBikeSim.calculateRentalCharge(5, 45), 0.0, 0.001);
+        // included ride only pays for the minutes after the first hour
+        Assert.assertEquals(ValleyBikeSim.calculateRentalCharge(5, 80), 3.0, 0.001);
+    }
+
+    /**
+     * tests that adding a ride before the ride history is loaded only moves the last ride id,
+     * that rides are appended once the history is loaded, and that the list handed out is a read-only copy
+     */
+    @Test
+    public void testAddNewRideWithLazyHistory(){
+        CustomerAccount customer = new CustomerAccount("asdfgh", "1234567", "a@b.com", "1111222233334444",
+                null, 0, true, true, null);
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+
+        customer.addNewRide(first);
+        Assert.assertEquals(customer.getLastRideId(), first);
+        Assert.assertNull(customer.getRideIdList());
+
+        ArrayList<UUID> history = new ArrayList<>();
+        history.add(first);
+        customer.setRideIdList(history);
+        List<UUID> before = customer.getRideIdList();
+        customer.addNewRide(second);
+        Assert.assertEquals(customer.getLastRideId(), second);
+        Assert.assertEquals(customer.getRideIdList().size(), 2);
+
+        // callers get a read-only copy, so a ride added later does not change a list already handed out
+        Assert.assertEquals(before.size(), 1);
+        boolean refused = false;
+        try {
+            before.add(second);
+        } catch (UnsupportedOperationException e) {
+            refused = true;
+        }
+        Assert.assertTrue(refused);
+    }
+
+    /**
+     * tests IntDockSet against a HashSet through many random docks and undocks,
+     * including enough bikes to make the table grow
+     */
+    @Test
+    public void testIntDockSet(){
+        IntDockSet docks = new IntDockSet(4);
+        HashSet<Integer> expected = new HashSet<>();
+        Random random = new Random(223);
+
+        for (int i = 0; i < 20000; i++) {
+            int bikeId = random.nextInt(500);
+            if (random.nextBoolean()) {
+                Assert.assertEquals(docks.add(bikeId), expected.add(bikeId));
+            } else {
+                Assert.assertEquals(docks.remove(bikeId), expected.remove(bikeId));
+            }
+            Assert.assertEquals(docks.size(), expected.size());
+        }
+
+        for (int bikeId = 0; bikeId < 500; bikeId++) {
+            Assert.assertEquals(docks.contains(bikeId), expected.contains(bikeId));
+        }
+        Assert.assertEquals(docks.toArray().length, expected.size());
+        Assert.assertTrue(expected.contains(docks.peek()));
+    }
+
+    /**
+     * tests that StripedLocks keeps two threads locking the same keys in opposite orders
+     * from deadlocking or losing each other's updates
+     */
+    @Test
+    @SuppressWarnings("try")
+    public void testStripedLocks() throws InterruptedException {
+        StripedLocks locks = new StripedLocks(8);
+        int[] counter = new int[1];
+
+        Thread forwards = new Thread(() -> {
+            for (int i = 0; i < 100000; i++) {
+                try (StripedLocks.Held held = locks.lock(1, 2)) {
+                    counter[0]++;
+                }
+            }
+        });
+        Thread backwards = new Thread(() -> {
+            for (int i = 0; i < 100000; i++) {
+                try (StripedLocks.Held held = locks.lock(2, 1)) {
+                    counter[0]++;
+                }
+            }
+        });
+        forwards.start();
+        backwards.start();
+        forwards.join(10000);
+        backwards.join(10000);
+
+        Assert.assertEquals(counter[0], 200000);
+    }
+
+    /**
+     * tests that a ride data csv row with a byte order mark and unpadded times becomes a ride
+     */
+    @Test
+    public void testParseCsvRide() throws Exception {
+        Ride ride = RideCsvImporter.parseRide("\uFEFF5017,20,26,2019-08-20 10:18:00,2019-08-20 11:9:00");
+
+        Assert.assertEquals(ride.getUsername(), "5017");
+        Assert.assertEquals(ride.getStationFrom(), 20);
+        Assert.assertEquals(ride.getStationTo(), 26);
+        // the files are in local time, four hours behind UTC in August
+        Assert.assertEquals(ride.getEndTimeStamp(), Instant.parse("2019-08-20T15:09:00Z"));
+        Assert.assertEquals(ride.getRideLength(), 51);
+        // hour 24 is just after midnight the next day
+        Assert.assertEquals(RideCsvImporter.parseTimestamp("2019-08-20 24:20:00"), Instant.parse("2019-08-21T04:20:00Z"));
+        // the same row always gets the same id
+        Assert.assertEquals(ride.getRideId(),
+                RideCsvImporter.parseRide("5017,20,26,2019-08-20 10:18:00,2019-08-20 11:9:00").getRideId());
+    }
+
+    /**
+     * tests that closed rides read back from the ride archive the same as they went in,
+     * across blocks, after reopening the files and after a customer is renamed
+     */
+    @Test
+    public void testRideArchive() throws Exception {
+        Path dir = Files.createTempDirectory("ride-archive");
+        Path rides = dir.resolve("test.rides");
+        Path users = dir.resolve("test.ride-users");
+        dir.toFile().deleteOnExit();
+        rides.toFile().deleteOnExit();
+        users.toFile().deleteOnExit();
+        int count = RideArchive.BLOCK_RIDES * 2 + 10;
+        UUID[] ids = new UUID[count];
+
+        RideArchive archive = RideArchive.open(rides, users);
+        Instant start = Instant.parse("2019-08-20T14:18:00Z");
+        for (int i = 0; i < count; i++) {
+            ids[i] = UUID.randomUUID();
+            Ride ride = new Ride(ids[i], i, "customer" + (i % 7), true,
+                    start.plusSeconds(i * 60L), start.plusSeconds(i * 60L + 600), i % 5, 5 + i % 3);
+            ride.setPayment(i % 2);
+            archive.append(ride);
+        }
+        archive.close();
+
+        archive = RideArchive.open(rides, users);
+        Assert.assertEquals(archive.size(), count);
+        archive.renameUser("customer3", "renamed3");
+        for (int i = 0; i < count; i++) {
+            Ride ride = archive.find(ids[i]);
+            Assert.assertEquals(ride.getBikeId(), i);
+            Assert.assertEquals(ride.getUsername(), i % 7 == 3 ? "renamed3" : "customer" + (i % 7));
+            Assert.assertEquals(ride.getStartTimeStamp(), start.plusSeconds(i * 60L));
+            Assert.assertEquals(ride.getRideLength(), 10);
+            Assert.assertEquals(ride.getStationTo(), 5 + i % 3);
+            Assert.assertEquals(ride.getPayment(), i % 2, 0.001);
+        }
+        Assert.assertNull(archive.find(UUID.randomUUID()));
+
+        // every ride starts at one of stations 0-4 (station 0 is not counted) and ends at one of 5-7
+        StationUsageCounters counters = new StationUsageCounters();
+        archive.countStationVisits(counters);
+        long total = 0;
+        for (Map.Entry<Integer, Long> station : counters.topStations(10, StationUsageCounters.Window.ALL_TIME, Instant.now())) {
+            total += station.getValue();
+        }
+        Assert.assertEquals(total, count * 2 - (count + 4) / 5);
+        archive.close();
+
+        // the rename was saved in the dictionary file
+        archive = RideArchive.open(rides, users);
+        Assert.assertEquals(archive.find(ids[3]).getUsername(), "renamed3");
+        archive.close();
+    }
+
+    /**
+     * tests that the station usage counters rank stations within each window and leave out old rides,
+     * including rides that leave a window as the clock moves on
+     */
+    @Test
+    public void testStationUsageCounters() {
+        StationUsageCounters counters = new StationUsageCounters();
+        Instant now = Instant.now();
+
+        // station 2 was busy two days ago, station 1 is busy today, station 3 only this hour
+        for (int i = 0; i < 5; i++) {
+            counters.recordVisit(2, now.minusSeconds(2 * 24 * 3600));
+        }
+        for (int i = 0; i < 3; i++) {
+            counters.recordVisit(1, now.minusSeconds(3 * 3600));
+        }
+        counters.recordVisit(3, now);
+        counters.recordVisit(0, now);
+
+        List<Map.Entry<Integer, Long>> allTime = counters.topStations(2, StationUsageCounters.Window.ALL_TIME, now);
+        Assert.assertEquals(allTime.size(), 2);
+        Assert.assertEquals((int) allTime.get(0).getKey(), 2);
+        Assert.assertEquals((int) allTime.get(1).getKey(), 1);
+
+        List<Map.Entry<Integer, Long>> day = counters.topStations(5, StationUsageCounters.Window.DAY, now);
+        Assert.assertEquals(day.size(), 2);
+        Assert.assertEquals((int) day.get(0).getKey(), 1);
+        Assert.assertEquals((long) day.get(0).getValue(), 3);
+
+        List<Map.Entry<Integer, Long>> hour = counters.topStations(5, StationUsageCounters.Window.HOUR, now);
+        Assert.assertEquals(hour.size(), 1);
+        Assert.assertEquals((int) hour.get(0).getKey(), 3);
+
+        // as the clock moves on, rides leave the shorter windows first and all time keeps them
+        Instant later = now.plusSeconds(22 * 3600);
+        Assert.assertTrue(counters.topStations(5, StationUsageCounters.Window.HOUR, later).isEmpty());
+        day = counters.topStations(5, StationUsageCounters.Window.DAY, later);
+        Assert.assertEquals(day.size(), 1);
+        Assert.assertEquals((int) day.get(0).getKey(), 3);
+        List<Map.Entry<Integer, Long>> month = counters.topStations(5, StationUsageCounters.Window.MONTH, later);
+        Assert.assertEquals(month.size(), 3);
+        Assert.assertEquals((int) month.get(0).getKey(), 2);
+        Assert.assertEquals((long) month.get(0).getValue(), 5);
+        Assert.assertTrue(counters.topStations(5, StationUsageCounters.Window.MONTH, now.plusSeconds(31 * 24 * 3600)).isEmpty());
+        Assert.assertEquals(counters.topStations(5, StationUsageCounters.Window.ALL_TIME, now).size(), 3);
+    }
+
+    /**
+     * tests that the dashboard totals follow changes and are only corrected after drifting at two checks in a row
+     */
+    @Test
+    public void testFleetMetricsReconcile() {
+        FleetMetrics metrics = new FleetMetrics();
+        metrics.reset(10, 2, 100, 40, 3);
+        metrics.add(FleetMetrics.Total.CUSTOMERS, 1);
+        metrics.add(FleetMetrics.Total.MAINTENANCE_REQUESTS, -1);
+        Assert.assertEquals(metrics.get(FleetMetrics.Total.CUSTOMERS), 11);
+        Assert.assertEquals(metrics.get(FleetMetrics.Total.MAINTENANCE_REQUESTS), 1);
+
+        // the database agrees except for one bike, which could be a change that is still being saved
+        Assert.assertEquals(metrics.reconcile(11, 1, 100, 41, 3), 0);
+        Assert.assertEquals(metrics.get(FleetMetrics.Total.BIKES), 40);
+
+        // still off by the same amount at the next check, so it is corrected
+        Assert.assertEquals(metrics.reconcile(11, 1, 100, 41, 3), 1);
+        Assert.assertEquals(metrics.get(FleetMetrics.Total.BIKES), 41);
+        Assert.assertEquals(metrics.getCorrections(), 1);
+    }
+
+    /**
+     * tests that customer ride totals keep the count, average, spend and the first of the longest rides
+     */
+    @Test
+    public void testCustomerRideStats() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        UUID third = UUID.randomUUID();
+
+        CustomerRideStats stats = CustomerRideStats.EMPTY.withRide(first, 0, 0);
+        Assert.assertNull(stats.getLongestRideId());
+
+        stats = stats.withRide(second, 45, 0).withRide(third, 45, 1.5);
+        Assert.assertEquals(stats.getRideCount(), 3);
+        Assert.assertEquals(stats.getAverageMinutes(), 30);
+        Assert.assertEquals(stats.getLongestRideId(), second);
+        Assert.assertEquals(stats.getLastRideId(), third);
+        Assert.assertEquals(stats.getTotalSpend(), 1.5, 0.001);
+    }
+
+    /**
+     * tests that the rebalance planner moves only the surplus bikes and sends them to the nearest stations that need them
+     */
+    @Test
+    public void testRebalancePlanner() {
+        int[] stationIds = {1, 2, 3, 4};
+        int[] bikes = {10, 0, 10, 0};
+        int[] capacity = {10, 10, 10, 10};
+        final int[] position = {0, 10, 11, 1};
+
+        RebalancePlanner.Plan uniform = RebalancePlanner.plan(stationIds, bikes, capacity, null);
+        Assert.assertEquals(uniform.bikesMoved, 10);
+
+        // pairing in order would send bikes across the line; the cheapest plan keeps them close
+        RebalancePlanner.Plan nearest = RebalancePlanner.plan(stationIds, bikes, capacity,
+                (from, to) -> Math.abs(position[from - 1] - position[to - 1]));
+        Assert.assertEquals(nearest.bikesMoved, 10);
+        Assert.assertEquals(nearest.totalCost, 10);
+    }
+
+    /**
+     * tests that the rebalance planner finds the cheapest plan when stations need bikes from outside a
+     * supplier's CANDIDATES cheapest, checked against every way of assigning the bikes
+     */
+    @Test
+    public void testRebalancePlannerBeyondCandidates() {
+        int takerCount = RebalancePlanner.CANDIDATES + 2;
+        Random random = new Random(42);
+        for (int round = 0; round < 20; round++) {
+            // three suppliers, one bike for each taker
+            int[] supply = {1 + random.nextInt(2), 1 + random.nextInt(2), 0};
+            supply[2] = takerCount - supply[0] - supply[1];
+            final long[][] costs = new long[3][takerCount];
+            for (int s = 0; s < 3; s++) {
+                for (int t = 0; t < takerCount; t++) {
+                    costs[s][t] = round == 0 ? 1 : 1 + random.nextInt(20);
+                }
+            }
+            if (round == 0) {
+                // every supplier's cheapest stations are the same sixteen, but two suppliers each have one
+                // station outside those that only they can reach cheaply
+                costs[0][takerCount - 2] = 2;
+                costs[0][takerCount - 1] = 50;
+                costs[1][takerCount - 2] = 10;
+                costs[1][takerCount - 1] = 10;
+                costs[2][takerCount - 2] = 50;
+                supply = new int[]{1, takerCount - 2, 1};
+            }
+
+            int[] stationIds = new int[3 + takerCount];
+            int[] bikes = new int[stationIds.length];
+            int[] targets = new int[stationIds.length];
+            for (int i = 0; i < stationIds.length; i++) {
+                stationIds[i] = i + 1;
+                bikes[i] = i < 3 ? supply[i] : 0;
+                targets[i] = i < 3 ? 0 : 1;
+            }
+
+            RebalancePlanner.Plan plan = RebalancePlanner.planTo(stationIds, bikes, targets,
+                    (from, to) -> costs[from - 1][to - 4]);
+            Assert.assertEquals(plan.bikesMoved, takerCount);
+            Assert.assertEquals(plan.totalCost, cheapestAssignment(costs, supply, 0));
+            if (round == 0) {
+                Assert.assertEquals(plan.totalCost, takerCount + 1);
+            }
+        }
+    }
+
+    /**
+     * Tries every way of giving each taker one bike from a supplier with bikes left
+     * @return the lowest total cost
+     */
+    private static long cheapestAssignment(long[][] costs, int[] left, int taker) {
+        if (taker == costs[0].length) {
+            return 0;
+        }
+        long cheapest = Long.MAX_VALUE;
+        for (int s = 0; s < left.length; s++) {
+            if (left[s] > 0) {
+                left[s]--;
+                cheapest = Math.min(cheapest, costs[s][taker] + cheapestAssignment(costs, left, taker + 1));
+                left[s]++;
+            }
+        }
+        return cheapest;
+    }
+
+    /**
+     * tests that rebalance requests from many stations within one window run a single rebalance, off the caller's thread
+     */
+    @Test
+    public void testRebalanceSchedulerCoalesces() throws InterruptedException {
+        final AtomicInteger rebalances = new AtomicInteger();
+        final CountDownLatch ran = new CountDownLatch(1);
+        RebalanceScheduler scheduler = new RebalanceScheduler(() -> {
+            rebalances.incrementAndGet();
+            ran.countDown();
+        }, 200);
+
+        for (int stationId = 1; stationId <= 50; stationId++) {
+            scheduler.request(stationId);
+        }
+        Assert.assertEquals(scheduler.getWaitingStations(), 50);
+        Assert.assertEquals(rebalances.get(), 0);
+
+        Assert.assertTrue(ran.await(5, TimeUnit.SECONDS));
+        Thread.sleep(300);
+        Assert.assertEquals(rebalances.get(), 1);
+        Assert.assertEquals(scheduler.getWaitingStations(), 0);
+        scheduler.shutdown();
+    }
+
+    /**
+     * tests that a station with a morning rush in its history is stocked up ahead of it
+     */
+    @Test
+    public void testDemandForecaster() {
+        DemandForecaster forecaster = new DemandForecaster();
+        // monday 2019-08-19 to friday 2019-08-23, five rides leave station 1 at 8am and arrive at station 2
+        for (int day = 19; day <= 23; day++) {
+            Instant eight = ZonedDateTime.of(2019, 8, day, 8, 15, 0, 0, RideCsvImporter.STATION_ZONE).toInstant();
+            for (int ride = 0; ride < 5; ride++) {
+                forecaster.recordDeparture(1, eight);
+                forecaster.recordArrival(2, eight.plusSeconds(600));
+            }
+        }
+
+        // monday 2019-08-26 at 7am, looking two hours ahead
+        Instant seven = ZonedDateTime.of(2019, 8, 26, 7, 0, 0, 0, RideCsvImporter.STATION_ZONE).toInstant();
+        Assert.assertEquals(forecaster.expectedDepartures(1, seven, 2), 5.0, 0.001);
+        Assert.assertEquals(forecaster.expectedDepartures(1, seven, 1), 0.0, 0.001);
+
+        int[] targets = forecaster.targets(new int[]{1, 2, 3}, new int[]{5, 5, 5}, new int[]{10, 10, 10}, seven, 2);
+        Assert.assertEquals(targets[0], 10);
+        Assert.assertEquals(targets[0] + targets[1] + targets[2], 15);
+        Assert.assertTrue(targets[1] < targets[2]);
+    }
+
+    /**
+     * tests that the fleet simulator accounts for every rider and bike, and gives the same answer for the same seed
+     */
+    @Test
+    public void testFleetSimulator() throws Exception {
+        FleetSimulator.Config config = new FleetSimulator.Config();
+        config.stations = 10;
+        config.capacity = 6;
+        config.customers = 200;
+        config.hours = 12;
+        config.rebalanceHours = 3;
+        config.replicas = 2;
+
+        FleetSimulator.Result result = FleetSimulator.run(config);
+        Assert.assertTrue(result.rides > 0);
+        Assert.assertEquals(result.riders, result.rides + result.stockouts + result.noCustomer);
+        Assert.assertEquals(result.bikesAtEnd, result.bikesAtStart);
+
+        FleetSimulator.Result first = FleetSimulator.runReplica(config, 7);
+        FleetSimulator.Result again = FleetSimulator.runReplica(config, 7);
+        Assert.assertEquals(first.rides, again.rides);
+        Assert.assertEquals(first.stockouts, again.stockouts);
+        Assert.assertEquals(first.dockFullEvents, again.dockFullEvents);
+        Assert.assertEquals(first.revenue, again.revenue, 0.001);
+    }
+
+    /**
+     * tests that the latency histogram's percentiles are within 3% and that timed calls and errors show up over JMX
+     */
+    @Test
+    public void testPersistenceMetrics() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 10000; micros++) {
+            histogram.record(micros * 1000);
+        }
+        Assert.assertEquals(histogram.getCount(), 10000);
+        Assert.assertEquals(histogram.getPercentile(50), 5_000_000, 150_000);
+        Assert.assertEquals(histogram.getPercentile(99), 9_900_000, 297_000);
+        Assert.assertEquals(histogram.getPercentile(100), 10_000_000);
+
+        PersistenceMetrics.record("testOperation", PersistenceMetrics.start());
+        PersistenceMetrics.record("testOperation", PersistenceMetrics.start());
+        PersistenceMetrics.recordError("testOperation", new SQLException("database is locked"));
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("ValleyBikeSim:type=Persistence,name=\"testOperation\"");
+        Assert.assertEquals(server.getAttribute(name, "Count"), 2L);
+        Assert.assertEquals(server.getAttribute(name, "Errors"), 1L);
+        Assert.assertEquals(server.getAttribute(name, "LastError"), "SQLException: database is locked");
+    }
+
+    /**
+     * tests that events appended from several threads reach the sink in order, and that a restart
+     * replays only the events after the sink's checkpoint and ignores a half-written last entry
+     */
+    @Test
+    public void testEventLog() throws Exception {
+        Path file = Files.createTempFile("valleybike", ".events");
+        Path crashed = Files.createTempFile("valleybike-crashed", ".events");
+        final AtomicBoolean databaseDown = new AtomicBoolean(true);
+        final List<Long> applied = Collections.synchronizedList(new ArrayList<>());
+        EventLog log = new EventLog(file, new EventLog.Sink() {
+            @Override
+            public long lastApplied() {
+                return 0;
+            }
+
+            @Override
+            public void apply(List<EventLog.Event> events, long throughSeq) throws SQLException {
+                if (databaseDown.get()) {
+                    throw new SQLException("database is locked");
+                }
+                for (EventLog.Event event : events) {
+                    applied.add(event.getSeq());
+                }
+            }
+
+            @Override
+            public SQLException[] check(List<EventLog.Event> pending, List<EventLog.Event> events) {
+                return new SQLException[events.size()];
+            }
+        });
+        Assert.assertEquals(log.recover(), 0);
+
+        final Map<String, List<Object[]>> updates = new LinkedHashMap<>();
+        updates.put("UPDATE Bike SET req_mnt = ?, mnt_report = ? WHERE id = ?",
+                Collections.singletonList(new Object[]{true, "flat tire", 7}));
+        updates.put("UPDATE Customer_Account SET balance = ? WHERE username = ?",
+                Collections.singletonList(new Object[]{2.25, null}));
+        Thread[] sessions = new Thread[4];
+        for (int i = 0; i < sessions.length; i++) {
+            sessions[i] = new Thread(() -> {
+                for (int n = 0; n < 25; n++) {
+                    try {
+                        log.append("updateBikeRqMnt", updates);
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            sessions[i].start();
+        }
+        for (Thread session : sessions) {
+            session.join();
+        }
+
+        // every append is on disk before it returns, so a copy of the file now is what a crash would leave,
+        // plus the start of an entry that was still being written
+        Files.copy(file, crashed, StandardCopyOption.REPLACE_EXISTING);
+        Files.write(crashed, new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        databaseDown.set(false);
+        Assert.assertTrue(log.awaitApplied(10000));
+        Assert.assertEquals(applied.size(), 100);
+        for (int i = 0; i < applied.size(); i++) {
+            Assert.assertEquals((long) applied.get(i), i + 1);
+        }
+        log.close();
+        Assert.assertEquals(Files.size(file), 0);
+
+        // the tables already had the first 40 events when the program stopped
+        final List<EventLog.Event> replayed = new ArrayList<>();
+        EventLog restarted = new EventLog(crashed, new EventLog.Sink() {
+            @Override
+            public long lastApplied() {
+                return 40;
+            }
+
+            @Override
+            public void apply(List<EventLog.Event> events, long throughSeq) {
+                replayed.addAll(events);
+            }
+
+            @Override
+            public SQLException[] check(List<EventLog.Event> pending, List<EventLog.Event> events) {
+                return new SQLException[events.size()];
+            }
+        });
+        Assert.assertEquals(restarted.recover(), 60);
+        Assert.assertEquals(replayed.get(0).getSeq(), 41);
+        Assert.assertEquals(replayed.get(0).getType(), "updateBikeRqMnt");
+        Object[] params = replayed.get(0).getUpdates().get("UPDATE Bike SET req_mnt = ?, mnt_report = ? WHERE id = ?").get(0);
+        Assert.assertEquals(Arrays.asList(params), Arrays.asList(true, "flat tire", 7));
+        Assert.assertNull(replayed.get(59).getUpdates().get("UPDATE Customer_Account SET balance = ? WHERE username = ?").get(0)[1]);
+
+        // numbering carries on after the replayed events
+        restarted.append("updateBalanceInDB", updates);
+        Assert.assertTrue(restarted.awaitApplied(10000));
+        Assert.assertEquals(restarted.getAppliedSeq(), 101);
+        restarted.close();
+        Files.delete(file);
+        Files.delete(crashed);
+    }
+
+    /**
+     * tests that an event the database took when it was tried but keeps refusing to copy halts the log
+     * instead of being dropped, and that the log then refuses every later change
+     */
+    @Test
+    public void testEventLogHaltsOnRefusedEvent() throws Exception {
+        Path file = Files.createTempFile("valleybike", ".events");
+        final List<Long> applied = Collections.synchronizedList(new ArrayList<>());
+        EventLog log = new EventLog(file, new EventLog.Sink() {
+            @Override
+            public long lastApplied() {
+                return 0;
+            }
+
+            @Override
+            public void apply(List<EventLog.Event> events, long throughSeq) throws SQLException {
+                for (EventLog.Event event : events) {
+                    if (event.getSeq() == 2) {
+                        throw new SQLException("UNIQUE constraint failed: Ride.ride_id");
+                    }
+                }
+                for (EventLog.Event event : events) {
+                    applied.add(event.getSeq());
+                }
+            }
+
+            @Override
+            public SQLException[] check(List<EventLog.Event> pending, List<EventLog.Event> events) {
+                return new SQLException[events.size()];
+            }
+        });
+        log.recover();
+
+        Map<String, List<Object[]>> updates = new LinkedHashMap<>();
+        updates.put("UPDATE Bike SET req_mnt = ? WHERE id = ?", Collections.singletonList(new Object[]{true, 7}));
+        for (int i = 0; i < 3; i++) {
+            log.append("updateBikeRqMnt", updates);
+        }
+
+        Assert.assertFalse(log.awaitApplied(10000));
+        Assert.assertNotNull(log.getHaltReason());
+        Assert.assertFalse(log.isWritable());
+        Assert.assertEquals(applied, Collections.singletonList(1L));
+        Assert.assertEquals(log.getAppliedSeq(), 1);
+
+        boolean refused = false;
+        try {
+            log.append("updateBikeRqMnt", updates);
+        } catch (IOException e) {
+            refused = true;
+        }
+        Assert.assertTrue(refused);
+
+        // the refused event and the one after it stay in the file
+        log.close();
+        Assert.assertTrue(Files.size(file) > 0);
+        Files.delete(file);
+    }
+
+    /**
+     * tests that an event the database refuses when it is tried fails only its own commit,
+     * is never copied, and leaves the log taking later changes
+     */
+    @Test
+    public void testEventLogRefusesBadEvent() throws Exception {
+        Path file = Files.createTempFile("valleybike", ".events");
+        final List<Long> applied = Collections.synchronizedList(new ArrayList<>());
+        EventLog log = new EventLog(file, new EventLog.Sink() {
+            @Override
+            public long lastApplied() {
+                return 0;
+            }
+
+            @Override
+            public void apply(List<EventLog.Event> events, long throughSeq) {
+                for (EventLog.Event event : events) {
+                    applied.add(event.getSeq());
+                }
+            }
+
+            @Override
+            public SQLException[] check(List<EventLog.Event> pending, List<EventLog.Event> events) {
+                SQLException[] refused = new SQLException[events.size()];
+                for (int i = 0; i < events.size(); i++) {
+                    if (events.get(i).getSeq() == 2) {
+                        refused[i] = new SQLException("UNIQUE constraint failed: Ride.ride_id");
+                    }
+                }
+                return refused;
+            }
+        });
+        log.recover();
+
+        Map<String, List<Object[]>> updates = new LinkedHashMap<>();
+        updates.put("UPDATE Bike SET req_mnt = ? WHERE id = ?", Collections.singletonList(new Object[]{true, 7}));
+        int refusedCount = 0;
+        for (int i = 0; i < 3; i++) {
+            try {
+                log.append("updateBikeRqMnt", updates);
+            } catch (IOException e) {
+                refusedCount++;
+            }
+        }
+        Assert.assertEquals(refusedCount, 1);
+
+        Assert.assertTrue(log.awaitApplied(10000));
+        Assert.assertNull(log.getHaltReason());
+        Assert.assertTrue(log.isWritable());
+        Assert.assertEquals(applied, Arrays.asList(1L, 3L));
+        Assert.assertEquals(log.getAppliedSeq(), 3);
+
+        log.append("updateBikeRqMnt", updates);
+        Assert.assertTrue(log.awaitApplied(10000));
+        Assert.assertEquals(log.getAppliedSeq(), 4);
+        log.close();
+        Files.delete(file);
+    }
+
+    /**
+     * tests that migration 4 turns every station's bike_string into one Station_Dock row per bike,
+     * and that docking and undocking a bike afterwards each change one row
+     */
+    @Test
+    public void testStationDockMigration() throws Exception {
+        Path file = Files.createTempFile("valleybike-migration", ".db");
+        String url = ConnectionPool.getDatabaseUrl();
+        ConnectionPool.configure("jdbc:sqlite:" + file.toAbsolutePath(), 1);
+        try {
+            Assert.assertTrue(SchemaMigrator.migrateTo(3));
+            try (PooledConnection conn = ConnectionPool.getConnection();
+                 Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("INSERT INTO Station(id, name, bikes, available_docks, req_mnt, capacity, kiosk, " +
+                        "address, bike_string) VALUES (1, 'Pioneer Valley', 3, 7, 0, 10, 1, '1 Main St', '3,5,8'), " +
+                        "(2, 'Smith College', 2, 8, 0, 10, 1, '2 Elm St', ' 9, ,10'), " +
+                        "(3, 'Amherst', 0, 10, 0, 10, 0, '3 Oak St', ''), " +
+                        "(4, 'Easthampton', 0, 10, 0, 10, 0, '4 Pine St', NULL)");
+            }
+
+            Assert.assertTrue(SchemaMigrator.migrateTo(4));
+            Map<Integer, Integer> expected = new LinkedHashMap<>();
+            expected.put(3, 1);
+            expected.put(5, 1);
+            expected.put(8, 1);
+            expected.put(9, 2);
+            expected.put(10, 2);
+            Assert.assertEquals(readStationDocks(), expected);
+
+            // moving bike 5 to station 2 replaces its row, and renting bike 3 deletes its row
+            try (PooledConnection conn = ConnectionPool.getConnection()) {
+                PreparedStatement dock = conn.prepareStatement(ValleyBikeSim.DOCK_BIKE_SQL);
+                dock.setInt(1, 5);
+                dock.setInt(2, 2);
+                Assert.assertEquals(dock.executeUpdate(), 1);
+                PreparedStatement undock = conn.prepareStatement(ValleyBikeSim.UNDOCK_BIKE_SQL);
+                undock.setInt(1, 3);
+                Assert.assertEquals(undock.executeUpdate(), 1);
+            }
+            expected.remove(3);
+            expected.put(5, 2);
+            Assert.assertEquals(readStationDocks(), expected);
+        } finally {
+            ConnectionPool.configure(url, 4);
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Reads every Station_Dock row
+     * @return station id for each docked bike id, in bike id order
+     */
+    private static Map<Integer, Integer> readStationDocks() throws SQLException, ClassNotFoundException {
+        Map<Integer, Integer> docks = new LinkedHashMap<>();
+        try (PooledConnection conn = ConnectionPool.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT bike_id, station_id FROM Station_Dock ORDER BY bike_id")) {
+            while (rs.next()) {
+                docks.put(rs.getInt("bike_id"), rs.getInt("station_id"));
+            }
+        }
+        return docks;
+    }
+
+    /**
+     * tests that monthly and yearly memberships fall due 30 and 365 days after their last payment,
+     * across month and year ends, and that pay-as-you-go and never paid memberships never do
+     */
+    @Test
+    public void testMembershipPaymentDue() {
+        LocalDate paid = LocalDate.of(2019, 12, 15);
+        Membership monthly = new MonthlyMembership(3, paid, paid);
+        Assert.assertFalse(monthly.checkPaymentDue(paid.plusDays(29)));
+        Assert.assertTrue(monthly.checkPaymentDue(paid.plusDays(30)));
+        Assert.assertTrue(monthly.checkPaymentDue(paid.plusDays(400)));
+
+        Membership yearly = new YearlyMembership(100, paid, paid);
+        Assert.assertFalse(yearly.checkPaymentDue(paid.plusDays(364)));
+        Assert.assertTrue(yearly.checkPaymentDue(paid.plusDays(365)));
+
+        Assert.assertFalse(new PayAsYouGoMembership(0, paid, paid).checkPaymentDue(paid.plusDays(1000)));
+        Assert.assertFalse(new MonthlyMembership(0, null, null).checkPaymentDue(paid));
+        Assert.assertFalse(ValleyBikeController.isValidCreditCard("not a card", false));
+    }
+
+    /**
+     * tests that a ride id packed into the Ride table's 16 byte column unpacks to the same id
+     */
+    @Test
+    public void testRideIdBytes() {
+        for (int i = 0; i < 100; i++) {
+            UUID id = UUID.randomUUID();
+            byte[] bytes = Ride.idToBytes(id);
+            Assert.assertEquals(bytes.length, 16);
+            Assert.assertEquals(Ride.idFromBytes(bytes), id);
+        }
+        // the most significant bits come first
+        byte[] bytes = Ride.idToBytes(new UUID(0x0102030405060708L, 0x090A0B0C0D0E0F10L));
+        Assert.assertEquals(bytes[0], 1);
+        Assert.assertEquals(bytes[15], 16);
+        Assert.assertNull(Ride.idFromBytes(null));
+    }
+
+    /**
+     * tests that a snapshot reads back the stations, bikes and accounts it was written with,
+     * and that a snapshot with a damaged byte is refused rather than half read
+     */
+    @Test
+    public void testMapSnapshot() throws Exception {
+        Path file = Files.createTempFile("valleybike", ".snapshot");
+        Map<Integer, Station> stations = new LinkedHashMap<>();
+        Station station = new Station("Pioneer Valley", 1, 10, true, "1 Main St");
+        station.addToBikeList(11);
+        station.addToBikeList(12);
+        stations.put(3, station);
+        Map<Integer, Bike> bikes = new LinkedHashMap<>();
+        bikes.put(11, new Bike(11, 0, 3, "n", ""));
+        bikes.put(12, new Bike(12, 0, 3, "y", "flat tire"));
+        Map<String, CustomerAccount> customers = new LinkedHashMap<>();
+        UUID lastRide = UUID.randomUUID();
+        customers.put("rider", new CustomerAccount("rider", "Password1", "rider@example.com", "4111111111111111",
+                new MonthlyMembership(7, LocalDate.of(2019, 8, 1), LocalDate.of(2019, 1, 1)), 12.5, true, true, lastRide));
+        customers.put("payg", new CustomerAccount("payg", "Password2", "payg@example.com", null, null));
+        Map<String, InternalAccount> internal = new LinkedHashMap<>();
+        internal.put("staff", new InternalAccount("staff", "Password3", "staff@example.com"));
+
+        MapSnapshot.write(file, 7, 42, stations, bikes, customers, internal);
+        MapSnapshot snapshot = MapSnapshot.read(file);
+        Assert.assertEquals(snapshot.schemaVersion, 7);
+        Assert.assertEquals(snapshot.highWaterMark, 42);
+        Station read = snapshot.stations.get(3);
+        Assert.assertEquals(read.getStationName(), "Pioneer Valley");
+        Assert.assertEquals(read.getCapacity(), 10);
+        Assert.assertEquals(read.getBikes(), 2);
+        Assert.assertTrue(read.containsBike(12));
+        Assert.assertTrue(snapshot.bikes.get(12).getMnt());
+        Assert.assertEquals(snapshot.bikes.get(12).getMntReport(), "flat tire");
+        CustomerAccount rider = snapshot.customers.get("rider");
+        Assert.assertEquals(rider.getBalance(), 12.5, 0.001);
+        Assert.assertEquals(rider.getLastRideId(), lastRide);
+        Assert.assertEquals(rider.getMembership().getTotalRidesLeft(), 7);
+        Assert.assertEquals(rider.getMembership().getLastPayment(), LocalDate.of(2019, 8, 1));
+        Assert.assertNull(snapshot.customers.get("payg").getCreditCard());
+        Assert.assertEquals(snapshot.internalAccounts.get("staff").getEmailAddress(), "staff@example.com");
+
+        // flip one byte in the middle and the checksum no longer matches
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(file, bytes);
+        boolean refused = false;
+        try {
+            MapSnapshot.read(file);
+        } catch (IOException e) {
+            refused = true;
+        } finally {
+            Files.delete(file);
+        }
+        Assert.assertTrue(refused);
+        Assert.assertNull(MapSnapshot.read(file));
+    }
+
+    /**
+     * drives a million menu transitions through one session on a thread with a small stack,
+     * which only finishes if moving between menus keeps the stack the same depth
+     */
+    @Test
+    public void testMenuLoopSoak() throws InterruptedException {
+        // each "2" opens the log in menu and each "0" returns to the initial menu; the last "0" exits
+        int transitions = 1000000;
+        StringBuilder keys = new StringBuilder(transitions * 2 + 2);
+        for (int i = 0; i < transitions / 2; i++) {
+            keys.append("2\n0\n");
+        }
+        keys.append("0\n");
+
+        PrintStream discard = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) { }
+
+            @Override
+            public void write(byte[] b, int off, int len) { }
+        });
+        KioskSession session = new KioskSession(
+                new ByteArrayInputStream(keys.toString().getBytes(StandardCharsets.UTF_8)), discard);
+        Throwable[] failure = new Throwable[1];
+
+        Thread kiosk = new Thread(null, () -> {
+            KioskSession.attach(session);
+            try {
+                ValleyBikeController.run();
+            } catch (Throwable e) {
+                failure[0] = e;
+            } finally {
+                KioskSession.detach();
+            }
+        }, "soak-session", 256 * 1024);
+
+        PrintStream console = System.out;
+        System.setOut(new SessionPrintStream(console));
+        try {
+            kiosk.start();
+            kiosk.join();
+        } finally {
+            System.setOut(console);
+        }
+
+        Assert.assertNull(failure[0]);
+        // every key was read, so every transition happened
+        Assert.assertFalse(session.getInput().hasNext());
+    }
+
+}